@@ -36,6 +36,7 @@ import org.scribble.core.job.Core;
 import org.scribble.core.job.CoreArgs;
 import org.scribble.core.lang.global.GProtocol;
 import org.scribble.core.lang.local.LProjection;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.type.kind.DataKind;
 import org.scribble.core.type.kind.Kind;
 import org.scribble.core.type.kind.Local;
@@ -70,13 +71,23 @@ public class Job
 	
 	private Core core;
 
+	protected final SQueueCapacities caps;  // Read by the default newJobConfig, i.e., not a hook parameter
+
 	public Job(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
 			Map<ModuleName, Module> parsed, AstFactory af, DelFactory df)
 			throws ScribException
+	{
+		this(mainFullname, args, SQueueCapacities.ONE, parsed, af, df);
+	}
+
+	public Job(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
+			SQueueCapacities caps, Map<ModuleName, Module> parsed, AstFactory af,
+			DelFactory df) throws ScribException
 	{
 		// CHECKME(?): main modname comes from the inlined mod decl -- check for issues if this clashes with an existing file system resource
 		VisitorFactory vf = newVisitorFactory();
 		STypeFactory tf = newSTypeFactory();
+		this.caps = caps;
 		this.config = newJobConfig(mainFullname, args, af, df, vf, tf);
 		this.context = newJobContext(this, parsed);  // Single instance per Job, should not be shared between Jobs
 	}
@@ -98,7 +109,7 @@ public class Job
 			Map<CoreArgs, Boolean> args, AstFactory af, DelFactory df,
 			VisitorFactory vf, STypeFactory tf)
 	{
-		return new JobConfig(mainFullname, args, af, df, vf, tf);
+		return new JobConfig(mainFullname, args, this.caps, af, df, vf, tf);
 	}
 
 	// A Scribble extension should override newJobConfig/Context/Core as appropriate
@@ -166,7 +177,7 @@ public class Job
 			//Map<ModuleName, ModuleContext> modcs, 
 			Set<GProtocol> imeds, STypeFactory tf)
 	{
-		return new Core(mainFullname, args, //modcs, 
+		return new Core(mainFullname, args, this.config.caps, //modcs, 
 				imeds, tf);
 	}
 
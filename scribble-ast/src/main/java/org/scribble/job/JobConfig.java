@@ -18,6 +18,7 @@ import java.util.Map;
 
 import org.scribble.ast.AstFactory;
 import org.scribble.core.job.CoreArgs;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.type.name.ModuleName;
 import org.scribble.core.type.session.STypeFactory;
 import org.scribble.del.DelFactory;
@@ -29,6 +30,7 @@ public class JobConfig
 	public final ModuleName main;  // Full name
 
 	public final Map<CoreArgs, Boolean> args;  // CHECKME: Set<CoreArgs> ?
+	public final SQueueCapacities caps;  // Passed through to CoreConfig
 
 	public final AstFactory af;
 	public final DelFactory df;
@@ -38,9 +40,17 @@ public class JobConfig
 	// N.B. MainContext is in a different non-visible (by Maven) package
 	public JobConfig(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
 			AstFactory af, DelFactory df, VisitorFactory vf, STypeFactory tf)
+	{
+		this(mainFullname, args, SQueueCapacities.ONE, af, df, vf, tf);
+	}
+
+	public JobConfig(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
+			SQueueCapacities caps, AstFactory af, DelFactory df, VisitorFactory vf,
+			STypeFactory tf)
 	{
 		this.main = mainFullname;
 		this.args = Collections.unmodifiableMap(args);
+		this.caps = caps;
 		this.af = af;
 		this.df = df;
 		this.vf = vf;
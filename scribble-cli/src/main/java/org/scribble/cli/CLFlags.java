@@ -36,6 +36,12 @@ public class CLFlags
 	public static final String NO_PROGRESS_FLAG = "-noprogress";
 	public static final String LTSCONVERT_MIN_FLAG = "-minlts";  // Currently only affects EFSM output (i.e. -fsm..) and API gen -- doesn't affect validation
 	public static final String FAIR_FLAG = "-fair";
+	public static final String PARALLEL_FLAG = "-parallel";
+	public static final String EARLY_SAFETY_FLAG = "-earlysafety";
+	public static final String POR_FLAG = "-por";
+	public static final String SPILL_FLAG = "-spill";
+	public static final String BUFF_CAPACITY_FLAG = "-buffcap";
+	public static final String SYMMETRY_FLAG = "-symmetry";
 	public static final String NO_LOCAL_CHOICE_SUBJECT_CHECK_FLAG = "-nolocalchoicecheck";
 	public static final String NO_ACCEPT_CORRELATION_CHECK_FLAG = "-nocorrelation";
 	public static final String DOT_FLAG = "-dot";
@@ -47,6 +53,7 @@ public class CLFlags
 	public static final String PROJECT_FLAG = "-project";
 	public static final String EFSM_FLAG = "-fsm";
 	public static final String VALIDATION_EFSM_FLAG = "-vfsm";
+	public static final String CHANNEL_CAPACITY_FLAG = "-chancap";  // Not enacted, cf. BUFF_CAPACITY_FLAG
 	public static final String UNFAIR_EFSM_FLAG = "-ufsm";
 	public static final String UNFAIR_EFSM_PNG_FLAG = "-ufsmpng";
 	public static final String EFSM_PNG_FLAG = "-fsmpng";
@@ -59,6 +66,7 @@ public class CLFlags
 	public static final String SESSION_API_GEN_FLAG = "-sessapi";
 	public static final String STATECHAN_API_GEN_FLAG = "-chanapi";
 	public static final String EVENTDRIVEN_API_GEN_FLAG = "-cbapi";
+	public static final String FORMATTER_GEN_FLAG = "-fmtapi";
 	
 	// Implicit (and unique) -- N.B. not added to this.flags, because implicit
 	public static final String MAIN_MOD_FLAG = "__main";
@@ -84,6 +92,9 @@ public class CLFlags
 		flags.put(INLINE_MAIN_MOD_FLAG, 
 				new CLFlag(INLINE_MAIN_MOD_FLAG, 1, true, false, false,
 						"Missing inline module: "));
+		flags.put(BUFF_CAPACITY_FLAG, 
+				new CLFlag(BUFF_CAPACITY_FLAG, 1, true, false, false,
+						"Missing capacity argument: "));
 
 		flags.put(JUNIT_FLAG, 
 				new CLFlag(JUNIT_FLAG, 0, true, false, false, "Duplicate flag: "));
@@ -103,6 +114,17 @@ public class CLFlags
 						"Duplicate flag: "));
 		flags.put(FAIR_FLAG, 
 				new CLFlag(FAIR_FLAG, 0, true, false, false, "Duplicate flag: "));
+		flags.put(PARALLEL_FLAG, 
+				new CLFlag(PARALLEL_FLAG, 0, true, false, false, "Duplicate flag: "));
+		flags.put(EARLY_SAFETY_FLAG, 
+				new CLFlag(EARLY_SAFETY_FLAG, 0, true, false, false,
+						"Duplicate flag: "));
+		flags.put(POR_FLAG, 
+				new CLFlag(POR_FLAG, 0, true, false, false, "Duplicate flag: "));
+		flags.put(SPILL_FLAG, 
+				new CLFlag(SPILL_FLAG, 0, true, false, false, "Duplicate flag: "));
+		flags.put(SYMMETRY_FLAG, 
+				new CLFlag(SYMMETRY_FLAG, 0, true, false, false, "Duplicate flag: "));
 		flags.put(NO_LOCAL_CHOICE_SUBJECT_CHECK_FLAG, 
 				new CLFlag(NO_LOCAL_CHOICE_SUBJECT_CHECK_FLAG, 0, true, false, false,
 						"Duplicate flag: "));
@@ -121,6 +143,11 @@ public class CLFlags
 				new CLFlag(AUT_FLAG, 0, true, false, false, "Duplicate flag: ",
 						CLFlags.DOT_FLAG));
 
+		// Non-unique, not enacted
+		flags.put(CHANNEL_CAPACITY_FLAG, 
+				new CLFlag(CHANNEL_CAPACITY_FLAG, 3, false, false, false,
+						"Missing role/role/capacity arguments: "));
+
 		// Non-unique, no barrier
 		flags.put(PROJECT_FLAG, 
 				new CLFlag(PROJECT_FLAG, 2, false, true, false,
@@ -172,6 +199,9 @@ public class CLFlags
 		flags.put(EVENTDRIVEN_API_GEN_FLAG, 
 				new CLFlag(EVENTDRIVEN_API_GEN_FLAG, 2, false, true, true,
 						"Missing protocol/role arguments: "));
+		flags.put(FORMATTER_GEN_FLAG, 
+				new CLFlag(FORMATTER_GEN_FLAG, 1, false, true, true,
+						"Missing protocol argument: "));
 		
 		return flags;
 	}
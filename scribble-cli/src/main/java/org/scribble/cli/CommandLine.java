@@ -34,6 +34,7 @@ import org.scribble.core.job.CoreArgs;
 import org.scribble.core.job.CoreContext;
 import org.scribble.core.model.endpoint.EGraph;
 import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.type.kind.Local;
 import org.scribble.core.type.name.GProtoName;
 import org.scribble.core.type.name.LProtoName;
@@ -103,13 +104,15 @@ public class CommandLine
 	}
 
 	// A Scribble extension should override as appropriate
-	protected Main newMain() throws ScribParserException, ScribException
+	protected Main newMain()
+			throws ScribParserException, ScribException, CommandLineException
 	{
 		Map<CoreArgs, Boolean> args = Collections.unmodifiableMap(parseCoreArgs());
+		SQueueCapacities caps = parseQueueCapacities();
 		if (hasFlag(CLFlags.INLINE_MAIN_MOD_FLAG))
 		{
 			String inline = getUniqueFlagArgs(CLFlags.INLINE_MAIN_MOD_FLAG)[0];
-			return new Main(inline, args);
+			return new Main(inline, args, caps);
 		}
 		else
 		{
@@ -120,9 +123,53 @@ public class CommandLine
 			ResourceLocator locator = new DirectoryResourceLocator(impaths);
 			Path mainpath = CommandLine
 					.parseMainPath(getUniqueFlagArgs(CLFlags.MAIN_MOD_FLAG)[0]);
-			return new Main(locator, mainpath, args);
+			return new Main(locator, mainpath, args, caps);
 		}
 	}
+
+	// -buffcap sets the default capacity for all channels, -chancap <src> <dest> <k> overrides individual channels
+	// Roles are not checked against any protocol here (capacities are matched by role name)
+	protected SQueueCapacities parseQueueCapacities() throws CommandLineException
+	{
+		int global = hasFlag(CLFlags.BUFF_CAPACITY_FLAG)
+				? parseCapacity(getUniqueFlagArgs(CLFlags.BUFF_CAPACITY_FLAG)[0])
+				: 1;
+		Map<Role, Map<Role, Integer>> chans = new HashMap<>();  // src -> dest -> capacity
+		for (Pair<String, String[]> a : this.args)
+		{
+			if (a.left.equals(CLFlags.CHANNEL_CAPACITY_FLAG))
+			{
+				Role src = new Role(a.right[0]);
+				Role dest = new Role(a.right[1]);
+				if (src.equals(dest))
+				{
+					throw new CommandLineException("Bad channel: " + src + "->" + dest);
+				}
+				chans.computeIfAbsent(src, x -> new HashMap<>())
+						.put(dest, parseCapacity(a.right[2]));
+			}
+		}
+		return (global == 1 && chans.isEmpty())
+				? SQueueCapacities.ONE
+				: new SQueueCapacities(global, chans);
+	}
+
+	private static int parseCapacity(String k) throws CommandLineException
+	{
+		try
+		{
+			int res = Integer.parseInt(k);
+			if (res >= 1)
+			{
+				return res;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// Fall through
+		}
+		throw new CommandLineException("Bad capacity argument: " + k);
+	}
 	
 	// A Scribble extension should override as appropriate
 	protected Map<CoreArgs, Boolean> parseCoreArgs()
@@ -133,6 +180,11 @@ public class CommandLine
 		args.put(CoreArgs.NO_PROGRESS, hasFlag(CLFlags.NO_PROGRESS_FLAG));
 		args.put(CoreArgs.MIN_EFSM, hasFlag(CLFlags.LTSCONVERT_MIN_FLAG));
 		args.put(CoreArgs.FAIR, hasFlag(CLFlags.FAIR_FLAG));
+		args.put(CoreArgs.PARALLEL, hasFlag(CLFlags.PARALLEL_FLAG));
+		args.put(CoreArgs.EARLY_SAFETY, hasFlag(CLFlags.EARLY_SAFETY_FLAG));
+		args.put(CoreArgs.POR, hasFlag(CLFlags.POR_FLAG));
+		args.put(CoreArgs.SPILL, hasFlag(CLFlags.SPILL_FLAG));
+		args.put(CoreArgs.SYMMETRY, hasFlag(CLFlags.SYMMETRY_FLAG));
 		args.put(CoreArgs.NO_LCHOICE_SUBJ_CHECK,
 				hasFlag(CLFlags.NO_LOCAL_CHOICE_SUBJECT_CHECK_FLAG));
 		args.put(CoreArgs.NO_ACC_CORRELATION_CHECK,
@@ -220,6 +272,9 @@ public class CommandLine
 			case CLFlags.EVENTDRIVEN_API_GEN_FLAG:
 				outputEndpointApi(job, task.right, false, true, true);  // FIXME: currently need to gen sess API separately?
 				break;
+			case CLFlags.FORMATTER_GEN_FLAG:
+				outputMessageFormatter(job, task.right);
+				break;
 			default:
 				throw new RuntimeException("Shouldn't get here: " + task.left);
 					// Bad flag should be caught by CLArgParser
@@ -374,6 +429,14 @@ public class CommandLine
 		}
 	}
 
+	private void outputMessageFormatter(Job job, String[] args)
+			throws ScribException, CommandLineException
+	{
+		JEndpointApiGenerator jgen = new JEndpointApiGenerator(job);
+		GProtoName fullname = checkGlobalProtocolArg(job.getContext(), args[0]);
+		outputClasses(jgen.generateMessageFormatter(fullname));
+	}
+
 	private void outputEndpointApi(Job job, String[] args, boolean sess,
 			boolean schan, boolean cb) throws ScribException, CommandLineException
 	{
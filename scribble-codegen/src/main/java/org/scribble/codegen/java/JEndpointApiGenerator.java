@@ -16,6 +16,7 @@ package org.scribble.codegen.java;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.scribble.codegen.java.sessionapi.MessageFormatterGenerator;
 import org.scribble.codegen.java.sessionapi.SessionApiGenerator;
 import org.scribble.codegen.java.statechanapi.StateChannelApiGenerator;
 import org.scribble.codegen.java.statechanapi.ioifaces.IOInterfacesGenerator;
@@ -44,6 +45,16 @@ public class JEndpointApiGenerator
 		return map;
 	}
 	
+	// Specialised to the protocol's message signatures, for use with the Session API (op constants)
+	public Map<String, String> generateMessageFormatter(GProtoName fullname)
+			throws ScribException
+	{
+		this.job.verbosePrintln("\n[Java API gen] Running "
+				+ MessageFormatterGenerator.class + " for " + fullname);
+		MessageFormatterGenerator fg = new MessageFormatterGenerator(this.job, fullname);
+		return fg.generateApi();  // filepath -> class source
+	}
+	
 	// CHECKME: refactor an EndpointApiGenerator -- ?
 	public Map<String, String> generateStateChannelApi(GProtoName fullname,
 			Role self, boolean subtypes) throws ScribException
@@ -59,6 +59,7 @@ public class CBEndpointApiGenerator3
 	public final Role self;  // FIXME: base endpoint API gen is role-oriented, while session API generator should be neutral
 	
 	protected final Map<Integer, String> stateNames = new HashMap<>();
+	protected final Map<Integer, Integer> stateIndices = new HashMap<>();  // EState id -> dense index for the runtime transition tables, cf. ScribState.index
 	
 	//private final boolean subtypes;  // Generate full hierarchy (states -> states, not just indivdual state -> cases) -- cf. ioifaces
 
@@ -80,6 +81,7 @@ public class CBEndpointApiGenerator3
 	public Map<String, String> build() throws ScribException
 	{
 		this.stateNames.clear();
+		this.stateIndices.clear();
 		Map<String, String> res = new HashMap<>();  // filepath -> source 
 		res.putAll(buildSessionApi());
 		return res;
@@ -118,6 +120,7 @@ public class CBEndpointApiGenerator3
 			EStateKind kind = s.getStateKind();
 			String stateName = (kind == EStateKind.TERMINAL) ? "End" : endpointName + "_" + i++;
 			this.stateNames.put(s.id, stateName);
+			this.stateIndices.put(s.id, this.stateIndices.size());
 		}
 
 		// frontend handler class
@@ -271,18 +274,21 @@ public class CBEndpointApiGenerator3
 		ConstructorBuilder cb = endpointClass.newConstructor(sessClassName + " sess", getRolesPackage() + "." + this.self + " self", "org.scribble.runtime.message.ScribMessageFormatter smf", "D data");
 		cb.addModifiers("public");
 		cb.addExceptions("java.io.IOException", "org.scribble.main.ScribRuntimeException");
-		cb.addBodyLine("super(sess, self, smf, " + initStateName + ".id, data);");
+		cb.addBodyLine("this(sess, self, smf, null, data);");
+		ConstructorBuilder cb2 = endpointClass.newConstructor(sessClassName + " sess", getRolesPackage() + "." + this.self + " self", "org.scribble.runtime.message.ScribMessageFormatter smf", "org.scribble.runtime.session.ScribEventLoopGroup group", "D data");  // group null for a dedicated selector thread
+		cb2.addModifiers("public");
+		cb2.addExceptions("java.io.IOException", "org.scribble.main.ScribRuntimeException");
+		cb2.addBodyLine("super(sess, self, smf, group, " + initStateName + ".id, data);");
 		for (EState s : states)
 		{
 			//String tmp = (s.getStateKind() == EStateKind.TERMINAL) ? "End" : this.proto.getSimpleName() + "_" + this.self + "_" + s.id;
 			String tmp = this.stateNames.get(s.id);
-			cb.addBodyLine("this.states.put(\"" + tmp + "\", " + getStatesSelfPackage() + "." + tmp + ".id);");
+			cb2.addBodyLine("this.states.put(\"" + tmp + "\", " + getStatesSelfPackage() + "." + tmp + ".id);");
 		}
-		MethodBuilder mb = endpointClass.newMethod("run");
-		mb.addModifiers("public");
-		mb.setReturn("java.util.concurrent.Future<Void>");
+		MethodBuilder mb = endpointClass.newMethod("checkRegistered");
+		mb.addModifiers("private");
+		mb.setReturn("void");
 		mb.addExceptions("org.scribble.main.ScribRuntimeException");
-		mb.addAnnotations("@Override");
 		mb.addBodyLine("java.util.Set<Object> states = java.util.stream.Stream.of("
 				+ states.stream().filter(s -> s.getStateKind() != EStateKind.TERMINAL)
 						.map(s -> getStatesSelfPackage() + "." + this.stateNames.get(s.id) + ".id")
@@ -294,7 +300,21 @@ public class CBEndpointApiGenerator3
 		mb.addBodyLine("states.removeAll(regd);");
 		mb.addBodyLine("throw new org.scribble.main.ScribRuntimeException(\"Missing state registrations: \" + states);");
 		mb.addBodyLine("}");
-		mb.addBodyLine("return super.run();");
+		MethodBuilder run = endpointClass.newMethod("run");
+		run.addModifiers("public");
+		run.setReturn("java.util.concurrent.Future<Void>");
+		run.addExceptions("org.scribble.main.ScribRuntimeException");
+		run.addAnnotations("@Override");
+		run.addBodyLine("checkRegistered();");
+		run.addBodyLine("return super.run();");
+		MethodBuilder runExec = endpointClass.newMethod("run");  // Event-driven, cf. CBEndpoint
+		runExec.addModifiers("public");
+		runExec.setReturn("java.util.concurrent.CompletableFuture<Void>");
+		runExec.addParameters("java.util.concurrent.Executor exec");
+		runExec.addExceptions("org.scribble.main.ScribRuntimeException");
+		runExec.addAnnotations("@Override");
+		runExec.addBodyLine("checkRegistered();");
+		runExec.addBodyLine("return super.run(exec);");
 		for (EState s : states)
 		{
 			if (s.getStateKind() != EStateKind.TERMINAL)
@@ -527,18 +547,18 @@ public class CBEndpointApiGenerator3
 		ConstructorBuilder stateCons = stateClass.newConstructor();
 		stateCons.addModifiers("private");
 		Role peer = (kind == EStateKind.UNARY_RECEIVE || kind == EStateKind.POLY_RECIEVE) ? s.getDetActions().iterator().next().peer : null;
-		stateCons.addBodyLine("super(\"" + stateName + "\""
+		stateCons.addBodyLine("super(\"" + stateName + "\", " + this.stateIndices.get(s.id)
 				+ ((kind == EStateKind.UNARY_RECEIVE || kind == EStateKind.POLY_RECIEVE) ? ", " + getRolesPackage() + "." + peer + "." + peer : "")  // FIXME: factor out
 				+ ");");
 		for (EAction a : s.getActions())
 		{
 			EState succ = s.getDetSuccessor(a);
-			stateCons.addBodyLine("this.succs.put(" + getOpsPackage() + "." + SessionApiGenerator.getOpClassName(a.mid) + "." + SessionApiGenerator.getOpClassName(a.mid)  // FIXME: factor out
+			stateCons.addBodyLine("addSucc(" + getOpsPackage() + "." + SessionApiGenerator.getOpClassName(a.mid) + "." + SessionApiGenerator.getOpClassName(a.mid)  // FIXME: factor out
 					+ ", \""
 					/*+ ((succ.getStateKind() == EStateKind.TERMINAL)
 							? "End" : this.proto.getSimpleName() + "_" + this.self + "_" + succ.id)  // FIXME: factor out*/
 					+ this.stateNames.get(succ.id)
-					+ "\");"
+					+ "\", " + this.stateIndices.get(succ.id) + ");"
 			);
 		}
 		
@@ -634,6 +654,11 @@ public class CBEndpointApiGenerator3
 					getPayload.addAnnotations("@Override");
 					getPayload.setReturn("Object[]");
 					getPayload.addBodyLine("return this.payload;");
+					MethodBuilder getSuccIndex = opClass.newMethod("getSuccIndex");
+					getSuccIndex.addModifiers("public");
+					getSuccIndex.addAnnotations("@Override");
+					getSuccIndex.setReturn("int");
+					getSuccIndex.addBodyLine("return " + this.stateIndices.get(s.getDetSuccessor(a).id) + ";");
 				});
 			});
 		}
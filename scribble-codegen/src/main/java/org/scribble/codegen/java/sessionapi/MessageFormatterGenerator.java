@@ -0,0 +1,273 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.codegen.java.sessionapi;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.scribble.ast.DataDecl;
+import org.scribble.ast.Module;
+import org.scribble.codegen.java.ApiGen;
+import org.scribble.codegen.java.statechanapi.ScribSockGen;
+import org.scribble.codegen.java.util.ClassBuilder;
+import org.scribble.codegen.java.util.ConstructorBuilder;
+import org.scribble.codegen.java.util.FieldBuilder;
+import org.scribble.codegen.java.util.JavaBuilder;
+import org.scribble.codegen.java.util.MethodBuilder;
+import org.scribble.core.lang.global.GProtocol;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.DataName;
+import org.scribble.core.type.name.GProtoName;
+import org.scribble.core.type.name.PayElemType;
+import org.scribble.core.type.session.DirectedInteraction;
+import org.scribble.core.type.session.SigLit;
+import org.scribble.core.type.session.global.GSeq;
+import org.scribble.core.visit.gather.STypeGatherer;
+import org.scribble.job.Job;
+import org.scribble.util.ScribException;
+
+// Generates a BinaryMessageFormatter specialised to the message signatures of a protocol (cf. SessionApiGenerator for the op constants)
+// Each (op, payload) signature gets a tag (in a deterministic order, so every endpoint agrees), and each declared payload field is written/read directly
+// Messages not matching a declared signature (e.g., message signature names, interrupts) are written whole via BinaryMessageFormatter.writeValue
+public class MessageFormatterGenerator extends ApiGen
+{
+	public static final String BINARYMESSAGEFORMATTER_CLASS = "org.scribble.runtime.message.BinaryMessageFormatter";
+	public static final String SCRIBMESSAGE_CLASS = "org.scribble.runtime.message.ScribMessage";
+
+	private static final String OTHER_FIELD = "OTHER";
+	private static final String BUFF_PARAM = "bb";
+	private static final String MESSAGE_PARAM = "m";
+	private static final String PAYLOAD_VAR = "p";
+	private static final String TAG_VAR = "tag";
+
+	// Java (erased) type -> {write expression format, read expression}, for payload types written directly -- others use writeValue/readValue
+	private static final Map<String, String[]> NATIVE = new HashMap<>();
+	static
+	{
+		String[][] natives = {
+				{ "java.lang.Integer", "bb.putInt(%s)", "bb.getInt()" },
+				{ "java.lang.Long", "bb.putLong(%s)", "bb.getLong()" },
+				{ "java.lang.Short", "bb.putShort(%s)", "bb.getShort()" },
+				{ "java.lang.Byte", "bb.put(%s)", "bb.get()" },
+				{ "java.lang.Character", "bb.putChar(%s)", "bb.getChar()" },
+				{ "java.lang.Float", "bb.putFloat(%s)", "bb.getFloat()" },
+				{ "java.lang.Double", "bb.putDouble(%s)", "bb.getDouble()" },
+				{ "java.lang.Boolean", "bb.put((byte) (%s ? 1 : 0))", "(bb.get() != 0)" },
+				{ "java.lang.String", "writeString(bb, %s)", "readString(bb)" },
+				{ "byte[]", "writeBytes(bb, %s)", "readBytes(bb)" },
+		};
+		for (String[] n : natives)
+		{
+			NATIVE.put(n[0], new String[] { n[1], n[2] });
+		}
+	}
+
+	private final ClassBuilder cb = new ClassBuilder();
+	
+	public MessageFormatterGenerator(Job job, GProtoName fullname) throws ScribException
+	{
+		super(job, fullname);
+		constructFormatterClass();
+	}
+
+	@Override
+	public Map<String, String> generateApi()
+	{
+		Map<String, String> map = new HashMap<>();
+		map.put(SessionApiGenerator.getEndpointApiRootPackageName(this.gpn).replace('.', '/') + "/"
+				+ getFormatterClassName(this.gpn) + ".java", this.cb.build());
+		return map;
+	}
+
+	private void constructFormatterClass() throws ScribException
+	{
+		String sess = SessionApiGenerator.getSessionClassName(this.gpn);
+		this.cb.setName(getFormatterClassName(this.gpn));
+		this.cb.setPackage(SessionApiGenerator.getEndpointApiRootPackageName(this.gpn));
+		this.cb.addImports("java.io.IOException", "java.nio.ByteBuffer");
+		this.cb.addModifiers(JavaBuilder.PUBLIC);
+		this.cb.setSuperClass(BINARYMESSAGEFORMATTER_CLASS);
+
+		FieldBuilder fb = this.cb.newField(OTHER_FIELD);
+		fb.addModifiers(JavaBuilder.PRIVATE, JavaBuilder.STATIC, JavaBuilder.FINAL);
+		fb.setType("short");
+		fb.setExpression("-1");
+
+		ConstructorBuilder ctor = this.cb.newConstructor();
+		ctor.addModifiers(JavaBuilder.PUBLIC);
+
+		// op -> payload signatures (Java types), sorted so that tags are deterministic
+		Map<String, List<List<String>>> sigs = new TreeMap<>();
+		for (SigLit msg : gatherSigLits().collect(Collectors.toList()))
+		{
+			List<String> types = getJavaTypes(msg);
+			if (types != null)
+			{
+				List<List<String>> ps = sigs.computeIfAbsent(msg.op.toString(), k -> new LinkedList<>());
+				if (!ps.contains(types))
+				{
+					ps.add(types);
+				}
+			}
+		}
+		sigs.values().forEach(ps -> ps.sort((x, y) -> x.toString().compareTo(y.toString())));
+		
+		MethodBuilder write = this.cb.newMethod("writeBody");
+		write.addAnnotations("@Override");
+		write.addModifiers(JavaBuilder.PROTECTED);
+		write.setReturn(JavaBuilder.VOID);
+		write.addParameters("ByteBuffer " + BUFF_PARAM, SCRIBMESSAGE_CLASS + " " + MESSAGE_PARAM);
+		write.addExceptions("IOException");
+		write.addBodyLine("Object[] " + PAYLOAD_VAR + " = " + MESSAGE_PARAM + ".payload;");
+		write.addBodyLine("if (" + MESSAGE_PARAM + ".getClass() == " + SCRIBMESSAGE_CLASS + ".class) {");
+		write.addBodyLine(1, "switch (" + MESSAGE_PARAM + ".op.toString()) {");
+
+		MethodBuilder read = this.cb.newMethod("readBody");
+		read.addAnnotations("@Override");
+		read.addModifiers(JavaBuilder.PROTECTED);
+		read.setReturn(SCRIBMESSAGE_CLASS);
+		read.addParameters("ByteBuffer " + BUFF_PARAM);
+		read.addExceptions("IOException", "ClassNotFoundException");
+		read.addBodyLine("short " + TAG_VAR + " = " + BUFF_PARAM + ".getShort();");
+		read.addBodyLine("switch (" + TAG_VAR + ") {");
+
+		Map<String, String> ops = new LinkedHashMap<>();  // op -> Session API constant
+		gatherSigLits().forEach(msg -> ops.put(msg.op.toString(),
+				sess + "." + SessionApiGenerator.getOpClassName(msg.op)));
+		short tag = 0;
+		for (String op : sigs.keySet())
+		{
+			write.addBodyLine(2, "case \"" + op + "\":");
+			for (List<String> types : sigs.get(op))
+			{
+				String cond = PAYLOAD_VAR + ".length == " + types.size();
+				for (int i = 0; i < types.size(); i++)
+				{
+					cond += " && " + PAYLOAD_VAR + "[" + i + "] instanceof " + types.get(i);
+				}
+				write.addBodyLine(3, "if (" + cond + ") {");
+				write.addBodyLine(4, BUFF_PARAM + ".putShort((short) " + tag + ");");
+				for (int i = 0; i < types.size(); i++)
+				{
+					write.addBodyLine(4, getWrite(types.get(i), PAYLOAD_VAR + "[" + i + "]") + ";");
+				}
+				write.addBodyLine(4, JavaBuilder.RETURN + ";");
+				write.addBodyLine(3, "}");
+
+				read.addBodyLine(1, "case " + tag + ":");
+				read.addBodyLine(2, JavaBuilder.RETURN + " " + JavaBuilder.NEW + " " + SCRIBMESSAGE_CLASS
+						+ "(" + ops.get(op) + ", " + JavaBuilder.NEW + " Object[] {"
+						+ types.stream().map(t -> getRead(t)).collect(Collectors.joining(", ")) + "});");
+
+				if (tag == Short.MAX_VALUE)
+				{
+					throw new ScribException("[TODO] Too many message signatures for formatter generation: " + this.gpn);
+				}
+				tag++;
+			}
+			write.addBodyLine(3, "break;");
+		}
+
+		write.addBodyLine(1, "}");
+		write.addBodyLine("}");
+		write.addBodyLine(BUFF_PARAM + ".putShort(" + OTHER_FIELD + ");");
+		write.addBodyLine("writeValue(" + BUFF_PARAM + ", " + MESSAGE_PARAM + ");  // Not a declared signature: whole message");
+
+		read.addBodyLine(1, "case " + OTHER_FIELD + ":");
+		read.addBodyLine(2, JavaBuilder.RETURN + " (" + SCRIBMESSAGE_CLASS + ") readValue(" + BUFF_PARAM + ");");
+		read.addBodyLine(1, "default:");
+		read.addBodyLine(2, "throw " + JavaBuilder.NEW + " IOException(\"Unknown tag: \" + " + TAG_VAR + ");");
+		read.addBodyLine("}");
+	}
+
+	private Stream<SigLit> gatherSigLits()
+	{
+		GProtocol inlined = this.core.getContext().getInlined(this.gpn);
+		return inlined.def.gather(new STypeGatherer<Global, GSeq, SigLit>()
+				{
+					@Override
+					public Stream<SigLit> visitDirectedInteraction(
+							DirectedInteraction<Global, GSeq> n)
+					{
+						return n.msg.isSigLit() ? Stream.of((SigLit) n.msg) : Stream.of();
+					}
+				}::visit);
+	}
+
+	// Returns the erased Java payload types, or null if not all payload elements are (Java) data types
+	private List<String> getJavaTypes(SigLit msg)
+	{
+		Module main = this.job.getContext().getModule(this.gpn.getPrefix());  // FIXME: might not belong to main module
+		List<String> types = new LinkedList<>();
+		for (PayElemType<?> pt : msg.payload.elems)
+		{
+			if (!pt.isDataName())
+			{
+				return null;
+			}
+			DataDecl dtd = main.getTypeDeclChild((DataName) pt);
+			if (dtd == null || !dtd.getSchema().equals(ScribSockGen.JAVA_SCHEMA))
+			{
+				return null;
+			}
+			types.add(erase(dtd.getExtName()));
+		}
+		return types;
+	}
+
+	// e.g., "java.util.List<Integer>" -> "java.util.List", "int"/"Integer" -> "java.lang.Integer"
+	private static String erase(String type)
+	{
+		type = type.replaceAll("<.*>", "").trim();
+		String[][] prims = { { "int", "Integer" }, { "long", "Long" }, { "short", "Short" },
+				{ "byte", "Byte" }, { "char", "Character" }, { "float", "Float" },
+				{ "double", "Double" }, { "boolean", "Boolean" } };
+		for (String[] p : prims)
+		{
+			if (type.equals(p[0]))
+			{
+				return "java.lang." + p[1];
+			}
+		}
+		return (type.indexOf('.') == -1 && NATIVE.containsKey("java.lang." + type))
+				? "java.lang." + type : type;
+	}
+
+	private static String getWrite(String type, String val)
+	{
+		String[] n = NATIVE.get(type);
+		return (n != null)
+				? String.format(n[0], "(" + type + ") " + val)
+				: "writeValue(" + BUFF_PARAM + ", " + val + ")";
+	}
+
+	private static String getRead(String type)
+	{
+		String[] n = NATIVE.get(type);
+		return (n != null)
+				? n[1]
+				: "(" + type + ") readValue(" + BUFF_PARAM + ")";  // Type-exact: ClassCastException otherwise
+	}
+
+	public static String getFormatterClassName(GProtoName gpn)
+	{
+		return SessionApiGenerator.getSessionClassName(gpn) + "Formatter";
+	}
+}
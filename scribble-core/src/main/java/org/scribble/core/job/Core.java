@@ -28,6 +28,7 @@ import org.scribble.core.model.endpoint.EModelFactoryImpl;
 import org.scribble.core.model.endpoint.EState;
 import org.scribble.core.model.global.SGraph;
 import org.scribble.core.model.global.SModelFactoryImpl;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.model.visit.local.NonDetPayChecker;
 import org.scribble.core.type.kind.Global;
 import org.scribble.core.type.kind.Local;
@@ -55,11 +56,20 @@ public class Core
 	public final CoreConfig config;  // Immutable
 
 	private final CoreContext context;  // Mutable (Visitor passes replace modules)
+
+	protected final SQueueCapacities caps;  // cf. newCoreConfig (set before it is called)
 	
 	public Core(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
 			//Map<ModuleName, ModuleContext> modcs, 
 			Set<GProtocol> imeds, STypeFactory tf)
 	{
+		this(mainFullname, args, SQueueCapacities.ONE, imeds, tf);
+	}
+
+	public Core(ModuleName mainFullname, Map<CoreArgs, Boolean> args,
+			SQueueCapacities caps, Set<GProtocol> imeds, STypeFactory tf)
+	{
+		this.caps = caps;
 		this.config = newCoreConfig(mainFullname, args, tf);
 		this.context = newCoreContext(//modcs, 
 				imeds);  // Single instance per Core and should never be shared
@@ -83,7 +93,7 @@ public class Core
 	{
 		STypeVisitorFactory vf = newSTypeVisitorFactory();
 		ModelFactory mf = newModelFactory();
-		return new CoreConfig(mainFullname, args, tf, vf, mf); 
+		return new CoreConfig(mainFullname, args, this.caps, tf, vf, mf); 
 				// CHECKME: combine E/SModelFactory?
 	}
 
@@ -364,8 +374,19 @@ public class Core
 			validateByScribble(fullname, true);
 			if (!this.config.args.get(CoreArgs.FAIR))
 			{
-				//verbosePrintPass("Validating by Scribble with \"unfair\" output choices: " + fullname);
-				validateByScribble(fullname, false);  // TODO: only need to check progress, not "full" validation
+				// Skipped if no recursive output choices: the "unfair" EFSMs are then plain clones, so the "unfair" model is the same as the fair one, i.e., already checked
+				// N.B. the "unfair" model, when built, is still fully checked, i.e., safety as well as progress -- its configs are not all fair configs up to state cloning
+				// (an unfair clone of an output choice enables fewer actions than the original state, e.g., stuck on a full channel where the fair state could send to another peer), so its safety errors are not subsumed by the fair model's
+				if (this.context.hasUnfairChoices(fullname))
+				{
+					//verbosePrintPass("Validating by Scribble with \"unfair\" output choices: " + fullname);
+					validateByScribble(fullname, false);
+				}
+				else
+				{
+					verbosePrintPass("Skipping \"unfair\" global model (no recursive output choices): "
+							+ fullname);
+				}
 			}
 		}
 	}
@@ -378,7 +399,7 @@ public class Core
 				: this.context.getUnfairSGraph(fullname);
 		if (this.config.args.containsKey(CoreArgs.VERBOSE))
 		{
-			String dot = graph.init.toDot();
+			String dot = graph.toDot();
 			String[] lines = dot.split("\\R");
 			verbosePrintPass(
 					//"(" + fullname + ") Built global model...\n" + graph.init.toDot() + "\n(" + fullname + ") ..." + graph.states.size() + " states");
@@ -21,6 +21,11 @@ public enum CoreArgs
 	NO_VALIDATION,
 	NO_PROGRESS,  // TODO: deprecate
 	MIN_EFSM,  // Currently only affects EFSM output (i.e. -fsm, -dot) and API gen -- doesn't affect model checking
+	PARALLEL,  // Parallel global model building -- same model up to state ids
+	EARLY_SAFETY,  // Check safety during global model building, stop at first violation(s)
+	POR,  // Partial-order reduction during global model building (preserves safety/progress errors, not the full model)
+	SPILL,  // Keep global model states and edges in memory-mapped temporary files, cf. SMappedStateStore
+	SYMMETRY,  // Symmetry reduction of replicated roles during global model building, cf. SSymmetry (progress rechecked on the full model if needed)
 
 	OLD_WF,  // TODO: deprecate
 	NO_LCHOICE_SUBJ_CHECK,  // For debugging only?
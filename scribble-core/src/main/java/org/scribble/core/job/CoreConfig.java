@@ -17,6 +17,7 @@ import java.util.Collections;
 import java.util.Map;
 
 import org.scribble.core.model.ModelFactory;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.type.name.ModuleName;
 import org.scribble.core.type.session.STypeFactory;
 import org.scribble.core.visit.STypeVisitorFactory;
@@ -26,6 +27,7 @@ public class CoreConfig
 {
 	public final ModuleName main;  // Full name 
 	public final Map<CoreArgs, Boolean> args;  // CHECKME: verbose/debug printing parameter ?
+	public final SQueueCapacities caps;  // Channel capacities for global model building
 
 	public final STypeFactory tf;
 	public final STypeVisitorFactory vf;
@@ -34,9 +36,17 @@ public class CoreConfig
 	// N.B. MainContext is in a different non-visible (by Maven) package
 	public CoreConfig(ModuleName main, Map<CoreArgs, Boolean> args,
 			STypeFactory tf, STypeVisitorFactory vf, ModelFactory mf)
+	{
+		this(main, args, SQueueCapacities.ONE, tf, vf, mf);
+	}
+
+	public CoreConfig(ModuleName main, Map<CoreArgs, Boolean> args,
+			SQueueCapacities caps, STypeFactory tf, STypeVisitorFactory vf,
+			ModelFactory mf)
 	{
 		this.main = main;
 		this.args = Collections.unmodifiableMap(args);
+		this.caps = caps;
 		this.tf = tf;
 		this.vf = vf;
 		this.mf = mf;
@@ -283,6 +283,14 @@ public class CoreContext
 		this.uEGraphs.put(fullname, graph);
 	}
 	
+	// Whether the "unfair" global model may differ from the fair one, cf. EState.hasUnfairChoices
+	// Pre: as for getEGraph
+	public boolean hasUnfairChoices(ProtoName<Global> fullname)
+	{
+		return this.imeds.get(fullname).roles.stream()
+				.anyMatch(x -> getEGraph(fullname, x).init.hasUnfairChoices());
+	}
+	
 	public SGraph getSGraph(ProtoName<Global> fullname) throws ScribException
 	{
 		SGraph graph = this.fSGraphs.get(fullname);
@@ -29,6 +29,11 @@ public abstract class MPrettyState
 	{
 		super(labs);
 	}
+
+	protected MPrettyState(Set<L> labs, int id)
+	{
+		super(labs, id);
+	}
 	
 	public String toVerboseString()
 	{
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.scribble.core.type.kind.ProtoKind;
@@ -36,7 +37,8 @@ public abstract class MState
 		K extends ProtoKind            // Global/Local -- CHECKME: useful?
 >
 {
-	private static int count = 1;  // A shared index counter for every single MState (and subclass) instance
+	private static final AtomicInteger count = new AtomicInteger(1);  // A shared index counter for every single MState (and subclass) instance
+			// Atomic for, e.g., parallel global model building
 	
 	public final int id;
 
@@ -47,7 +49,13 @@ public abstract class MState
 	
 	public MState(Set<L> labs)
 	{
-		this.id = MState.count++;
+		this(labs, MState.count.getAndIncrement());
+	}
+	
+	// For states whose ids are allocated elsewhere, e.g., by record index (cf. SMappedStateStore) -- N.B. not unique w.r.t. the shared counter
+	protected MState(Set<L> labs, int id)
+	{
+		this.id = id;
 		this.labs = new HashSet<>(labs);
 		this.actions = new LinkedList<>();
 		this.succs = new LinkedList<>();
@@ -32,6 +32,12 @@ public class EGraph implements MPrettyPrint
 		return new EFsm(this);
 	}
 
+	// Pre: curr is init or reachable from init
+	public EFsm toFsm(EState curr)
+	{
+		return new EFsm(this, curr);
+	}
+
 	@Override
 	public String toDot()
 	{
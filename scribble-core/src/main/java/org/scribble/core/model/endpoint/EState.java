@@ -182,6 +182,17 @@ public class EState extends MPrettyState<RecVar, EAction, EState, Local>
 		return new Pair<>(init, term);
 	}
 
+	// Whether unfairTransform would expand any state, i.e., some reachable output choice has a "recursive" action (cf. expandUnfairCases)
+	// If not, the unfair transform is just a clone, i.e., the "unfair" global model is the same as the fair one
+	public boolean hasUnfairChoices()
+	{
+		Set<EState> all = new HashSet<>(getReachableStates());
+		all.add(this);
+		return all.stream().anyMatch(x -> x.getStateKind() == EStateKind.OUTPUT
+				&& x.getActions().size() > 1
+				&& x.getSuccs().stream().anyMatch(y -> y.canReach(x)));
+	}
+
 	// N.B. todo alias from unfairTransform -- refactor as return? (slower)
 	// Pre: curr.getStateKind() == EStateKind.OUTPUT && curr.getActions().size() > 1
 	// All involved states are already clones
@@ -41,18 +41,32 @@ import org.scribble.core.model.endpoint.actions.EServerWrap;
 import org.scribble.core.type.name.Role;
 
 // Immutable -- async/sync (i.e, "fire") return updated copies (in the general case, they must return List anyway due to non-det)
+// N.B. equals/hashCode based on the packed form -- SStates only retain the packed form, cf. SState.getConfig
 public class SConfig
 {
 	protected final ModelFactory mf;
+	protected final SConfigPacker packer;
 	
 	public final Map<Role, EFsm> efsms;
-	public final SingleBuffers queues;  // N.B. currently hardcoded to capacity one
+	public final SQueues queues;
+
+	protected final SPackedConfig packed;
 	
-	protected SConfig(ModelFactory mf, Map<Role, EFsm> state, SingleBuffers queues)
+	protected SConfig(ModelFactory mf, SConfigPacker packer,
+			Map<Role, EFsm> state, SQueues queues)
+	{
+		this(mf, packer, state, queues, packer.pack(state, queues));
+	}
+
+	// Pre: packed is packer.pack(state, queues), e.g., unpacking (cf. SConfigPacker.unpack) -- avoids packing (and canonicalising, cf. SSymmetry) again
+	protected SConfig(ModelFactory mf, SConfigPacker packer,
+			Map<Role, EFsm> state, SQueues queues, SPackedConfig packed)
 	{
 		this.mf = mf;
+		this.packer = packer;
 		this.efsms = Collections.unmodifiableMap(state);
 		this.queues = queues;
+		this.packed = packed;
 	}
 
 	// N.B. Set<EAction> (not List<EAction), at global level only need to know the set of possible actions...
@@ -174,7 +188,7 @@ public class SConfig
 		{
 			Map<Role, EFsm> efsms = new HashMap<>(this.efsms);
 			efsms.put(self, succ);
-			SingleBuffers queues =  // N.B. queue updates are insensitive to non-det "a"
+			SQueues queues =  // N.B. queue updates are insensitive to non-det "a"
 				  a.isSend()       ? this.queues.send(self, (ESend) a)
 				: a.isReceive()    ? this.queues.receive(self, (ERecv) a)
 				: a.isDisconnect() ? this.queues.disconnect(self, (EDisconnect) a)
@@ -183,7 +197,7 @@ public class SConfig
 			{
 				throw new RuntimeException("Shouldn't get in here: " + a);
 			}
-			res.add(this.mf.global.SConfig(efsms, queues));
+			res.add(this.mf.global.SConfig(this.packer, efsms, queues));
 		}
 		return res;
 	}
@@ -205,7 +219,7 @@ public class SConfig
 				// a1 and a2 are a "sync" pair, add all combinations of succ1 and succ2 that may arise
 				efsms.put(r1, succ1);  // Overwrite existing r1/r2 entries
 				efsms.put(r2, succ2);
-				SingleBuffers queues;
+				SQueues queues;
 				// a1 and a2 definitely "sync", now just determine whether it is a connect or wrap
 				if (((a1.isRequest() && a2.isAccept())
 						|| (a1.isAccept() && a2.isRequest())))
@@ -222,7 +236,7 @@ public class SConfig
 				{
 					throw new RuntimeException("Shouldn't get in here: " + a1 + ", " + a2);
 				}
-				res.add(this.mf.global.SConfig(efsms, queues));
+				res.add(this.mf.global.SConfig(this.packer, efsms, queues));
 			}
 		}
 		return res;
@@ -257,7 +271,7 @@ public class SConfig
 			if (k == EStateKind.UNARY_RECEIVE || k == EStateKind.POLY_RECIEVE)
 			{
 				Role peer = s.curr.getActions().get(0).peer;  // Pre: consistent ext choice subj
-				ESend send = this.queues.getQueue(self).get(peer);
+				ESend send = this.queues.getQueue(self).get(peer).peek();  // Only the head of the FIFO is receivable
 				if (send != null)
 				{
 					ERecv recv = send.toDual(peer);
@@ -337,7 +351,7 @@ public class SConfig
 		if (k == EStateKind.UNARY_RECEIVE || k == EStateKind.POLY_RECIEVE)
 		{
 			ERecv a = (ERecv) fsm.curr.getActions().get(0);  // Pre: consistent ext choice subject -- CHECKME: generalise?
-			if (this.queues.getQueue(r).get(a.peer) != null)  // Here, only looking for any message (not a.toDual, nor dual of any action, cf. stuck error)
+			if (!this.queues.getQueue(r).get(a.peer).isEmpty())  // Here, only looking for any message (not a.toDual, nor dual of any action, cf. stuck error)
 			{
 				return null;
 			}
@@ -390,15 +404,15 @@ public class SConfig
 			EFsm fsm = this.efsms.get(r);
 			if (fsm.curr.isTerminal())  // Local termination of r, i.e. not necessarily "full deadlock cycle"
 			{
-				orphs.addAll(this.queues.getQueue(r).values().stream()
-						.filter(v -> v != null).collect(Collectors.toSet()));
+				this.queues.getQueue(r).values()
+						.forEach(x -> x.forEach(y -> orphs.add(y)));
 			}
 			else
 			{
 				this.efsms.keySet().stream()
 						.filter(x -> !r.equals(x) && !this.queues.isConnected(r, x))  // !isConnected(r, x), means r considers its side closed
-						.map(x -> this.queues.getQueue(r).get(x)).filter(x -> x != null)  // r's side is closed, but remaining message(s) in r's buff
-						.forEachOrdered(x -> orphs.add(x));
+						.map(x -> this.queues.getQueue(r).get(x))  // r's side is closed, but remaining message(s) in r's buff
+						.forEachOrdered(x -> x.forEach(y -> orphs.add(y)));
 			}
 			if (!orphs.isEmpty())
 			{
@@ -433,8 +447,7 @@ public class SConfig
 	public int hashCode()
 	{
 		int hash = 71;
-		hash = 31 * hash + this.efsms.hashCode();
-		hash = 31 * hash + this.queues.hashCode();
+		hash = 31 * hash + this.packed.hashCode();
 		return hash;
 	}
 
@@ -450,6 +463,6 @@ public class SConfig
 			return false;
 		}
 		SConfig c = (SConfig) o;
-		return this.efsms.equals(c.efsms) && this.queues.equals(c.queues);
+		return this.packer == c.packer && this.packed.equals(c.packed);
 	}
 }
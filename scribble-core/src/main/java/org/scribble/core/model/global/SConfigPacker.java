@@ -0,0 +1,246 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.scribble.core.model.ModelFactory;
+import org.scribble.core.model.endpoint.EFsm;
+import org.scribble.core.model.endpoint.EGraph;
+import org.scribble.core.model.endpoint.EState;
+import org.scribble.core.model.endpoint.actions.EAction;
+import org.scribble.core.model.endpoint.actions.ESend;
+import org.scribble.core.type.name.Role;
+import org.scribble.util.Pair;
+
+// Bit-packed encoding of SConfigs for a fixed set of EGraphs (i.e., one per global model building)
+// Layout: local state index per role, then a connection bit per (self, peer), then per (dest, src) channel a buffered-message index per slot, head first (0 for empty)
+// Field widths are the minimum needed for the given EGraphs, so a config typically fits into one or two longs
+public class SConfigPacker
+{
+	protected final ModelFactory mf;
+	public final SQueueCapacities caps;
+	public final SSymmetry sym;  // null for no symmetry reduction -- otherwise configs are packed up to symmetry, cf. SSymmetry.canonicalise
+
+	public final List<Role> roles;  // Sorted, index is the role index
+
+	private final EFsm[][] fsms;  // role index -> local state index -> EFsm (shared by all unpacked configs)
+	private final List<Map<Integer, Integer>> sindex = new ArrayList<>();  // role index -> EState.id -> local state index
+	private final int[] soffsets;
+	private final int[] swidths;
+
+	private final int coffset;  // Connection bit for (self, peer) at coffset + self*n + peer
+
+	private final ESend[][][] msgs;  // dest index -> src index -> message index - 1 -> ESend
+	private final List<List<Map<ESend, Integer>>> mindex = new ArrayList<>();  // dest index -> src index -> ESend -> message index (from 1)
+	private final int[][] moffsets;
+	private final int[][] mwidths;  // Per slot
+	private final int[][] mcaps;  // Number of slots, i.e., channel capacity
+
+	private final int words;
+
+	public SConfigPacker(ModelFactory mf, Map<Role, EGraph> egraphs,
+			SQueueCapacities caps)
+	{
+		this(mf, egraphs, caps, null);
+	}
+
+	public SConfigPacker(ModelFactory mf, Map<Role, EGraph> egraphs,
+			SQueueCapacities caps, SSymmetry sym)
+	{
+		this.mf = mf;
+		this.caps = caps;
+		this.sym = sym;
+		this.roles = Collections.unmodifiableList(egraphs.keySet().stream()
+				.sorted(Comparator.comparing(Role::toString))
+				.collect(Collectors.toList()));
+		int n = this.roles.size();
+
+		int offset = 0;
+		this.fsms = new EFsm[n][];
+		this.soffsets = new int[n];
+		this.swidths = new int[n];
+		List<Map<ESend, Integer>> sends = new ArrayList<>();  // src index -> ESend -> dummy
+		for (int i = 0; i < n; i++)
+		{
+			EGraph g = egraphs.get(this.roles.get(i));
+			Set<EState> tmp = new HashSet<>(g.init.getReachableStates());
+			tmp.add(g.init);
+			List<EState> ss = tmp.stream().sorted(Comparator.comparing(x -> x.id))
+					.collect(Collectors.toList());
+			Map<Integer, Integer> index = new HashMap<>();
+			this.fsms[i] = new EFsm[ss.size()];
+			Map<ESend, Integer> as = new LinkedHashMap<>();
+			for (int j = 0; j < ss.size(); j++)
+			{
+				EState s = ss.get(j);
+				index.put(s.id, j);
+				this.fsms[i][j] = g.toFsm(s);
+				for (EAction a : s.getActions())
+				{
+					if (a.isSend())
+					{
+						as.put((ESend) a, 0);
+					}
+				}
+			}
+			this.sindex.add(index);
+			sends.add(as);
+			this.soffsets[i] = offset;
+			this.swidths[i] = bitsFor(ss.size() - 1);
+			offset += this.swidths[i];
+		}
+
+		this.coffset = offset;
+		offset += n * n;
+
+		this.msgs = new ESend[n][n][];
+		this.moffsets = new int[n][n];
+		this.mwidths = new int[n][n];
+		this.mcaps = new int[n][n];
+		for (int i = 0; i < n; i++)  // dest
+		{
+			Role dest = this.roles.get(i);
+			List<Map<ESend, Integer>> byDest = new ArrayList<>();
+			for (int j = 0; j < n; j++)  // src
+			{
+				List<ESend> ms = sends.get(j).keySet().stream()
+						.filter(x -> x.peer.equals(dest)).collect(Collectors.toList());
+				Map<ESend, Integer> index = new HashMap<>();
+				for (int k = 0; k < ms.size(); k++)
+				{
+					index.put(ms.get(k), k + 1);
+				}
+				byDest.add(index);
+				this.msgs[i][j] = ms.toArray(new ESend[ms.size()]);
+				this.moffsets[i][j] = offset;
+				this.mwidths[i][j] = bitsFor(ms.size());
+				this.mcaps[i][j] = caps.get(this.roles.get(j), dest);
+				offset += this.mwidths[i][j] * this.mcaps[i][j];
+			}
+			this.mindex.add(byDest);
+		}
+
+		this.words = Math.max(1, (offset + 63) >>> 6);
+	}
+
+	// Number of bits needed to represent 0..max
+	private static int bitsFor(int max)
+	{
+		return max <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(max);
+	}
+
+	public SPackedConfig pack(Map<Role, EFsm> efsms, SQueues queues)
+	{
+		if (this.sym != null)
+		{
+			Pair<Map<Role, EFsm>, SQueues> c = this.sym.canonicalise(efsms, queues);
+			efsms = c.left;
+			queues = c.right;
+		}
+		long[] w = new long[this.words];
+		int n = this.roles.size();
+		for (int i = 0; i < n; i++)
+		{
+			Role r = this.roles.get(i);
+			Integer s = this.sindex.get(i).get(efsms.get(r).curr.id);
+			if (s == null)
+			{
+				throw new RuntimeException("Unknown local state for " + r + ": "
+						+ efsms.get(r));
+			}
+			SPackedConfig.set(w, this.soffsets[i], this.swidths[i], s);
+		}
+		for (int i = 0; i < n; i++)
+		{
+			Role self = this.roles.get(i);
+			Map<Role, SQueue> q = queues.getQueue(self);  // self is dest
+			for (int j = 0; j < n; j++)
+			{
+				if (i == j)
+				{
+					continue;
+				}
+				Role peer = this.roles.get(j);
+				if (queues.isConnected(self, peer))
+				{
+					SPackedConfig.set(w, this.coffset + i * n + j, 1, 1);
+				}
+				int offset = this.moffsets[i][j];
+				for (ESend m : q.get(peer))  // Pre: size <= this.mcaps[i][j]
+				{
+					Integer k = this.mindex.get(i).get(j).get(m);
+					if (k == null)
+					{
+						throw new RuntimeException("Unknown message " + peer + "->" + self
+								+ ": " + m);
+					}
+					SPackedConfig.set(w, offset, this.mwidths[i][j], k);
+					offset += this.mwidths[i][j];
+				}
+			}
+		}
+		return new SPackedConfig(w);
+	}
+
+	// Pre: p was produced by this.pack
+	public SConfig unpack(SPackedConfig p)
+	{
+		int n = this.roles.size();
+		Map<Role, EFsm> efsms = new HashMap<>();
+		Map<Role, Map<Role, Boolean>> connected = new HashMap<>();
+		Map<Role, Map<Role, SQueue>> buffs = new HashMap<>();
+		for (int i = 0; i < n; i++)
+		{
+			Role self = this.roles.get(i);
+			efsms.put(self, this.fsms[i][p.get(this.soffsets[i], this.swidths[i])]);
+			Map<Role, Boolean> c = new HashMap<>();
+			Map<Role, SQueue> q = new HashMap<>();
+			for (int j = 0; j < n; j++)
+			{
+				if (i == j)
+				{
+					continue;
+				}
+				Role peer = this.roles.get(j);
+				c.put(peer, p.get(this.coffset + i * n + j, 1) == 1);
+				SQueue msgs = SQueue.EMPTY;
+				for (int s = 0, offset = this.moffsets[i][j]; s < this.mcaps[i][j];
+						s++, offset += this.mwidths[i][j])
+				{
+					int k = p.get(offset, this.mwidths[i][j]);
+					if (k == 0)  // Slots are filled from the head
+					{
+						break;
+					}
+					msgs = msgs.enqueue(this.msgs[i][j][k - 1]);
+				}
+				q.put(peer, msgs);
+			}
+			connected.put(self, c);
+			buffs.put(self, q);
+		}
+		return this.mf.global.SConfig(this, efsms,
+				new SQueues(connected, buffs, this.caps), p);  // p is already canonical (if this.sym), cf. pack
+	}
+}
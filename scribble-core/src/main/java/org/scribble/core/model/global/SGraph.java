@@ -13,8 +13,8 @@
  */
 package org.scribble.core.model.global;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,7 +26,6 @@ import java.util.Set;
 import org.scribble.core.model.MPrettyPrint;
 import org.scribble.core.model.global.actions.SAction;
 import org.scribble.core.type.name.GProtoName;
-import org.scribble.util.Pair;
 
 public class SGraph implements MPrettyPrint
 {
@@ -35,31 +34,24 @@ public class SGraph implements MPrettyPrint
 	public final SState init;
 	public final Map<Integer, SState> states;  // s.id -> s
 
+	protected final SGraphIndex index;  // Contiguous numbering of this.states, and their edges, for the algorithms below
+
 	private final Set<Set<SState>> termSets;
 
 	// Unlike EState, SGraph is not just a "simple wrapper" for an existing graph of nodes -- it is a computed structure, so no lightweight "toGraph" wrapper method; cf., EState
 	protected SGraph(GProtoName proto, Map<Integer, SState> states, SState init)
+	{
+		this(proto, states, init, new HeapIndex(states));
+	}
+
+	protected SGraph(GProtoName proto, Map<Integer, SState> states, SState init,
+			SGraphIndex index)
 	{
 		this.proto = proto;
 		this.init = init;
 		this.states = Collections.unmodifiableMap(states);  // s.id -> s
-		//this.reach = getReachabilityMap();
-		
-		// TODO: refactor
-		tarjan();
-		Set<Set<SState>> termSets = new HashSet<>();
-		for (Set<SState> scc : this.sscs)
-		{
-			if (scc.size() == 1 && scc.iterator().next().isTerminal() 
-					|| scc.stream().anyMatch(
-							y -> y.getSuccs().stream().anyMatch(x -> !scc.contains(x))))
-			{
-				continue;
-			}
-			//termSets.add(scc.stream().map(x -> x.id).collect(Collectors.toSet()));
-			termSets.add(Collections.unmodifiableSet(scc));
-		}
-		this.termSets = Collections.unmodifiableSet(termSets);
+		this.index = index;
+		this.termSets = Collections.unmodifiableSet(tarjan());
 	}
 	
 	public Set<Set<SState>> getTermSets()
@@ -68,52 +60,94 @@ public class SGraph implements MPrettyPrint
 	}
 
 	// Returns null if end cannot be reached
+	// A shortest trace, via the BFS tree from init (cf. getBfsParent) -- O(trace length), after the one-time BFS
 	public List<SAction> getTraceFromInit(SState end)
 	{
-		Map<Integer, Pair<SAction, Integer>> traces = bfsFromInit(end);
+		bfsFromInit();
+		int i = this.index.indexOf(end);
+		if (this.depths.get(i) < 0)
+		{
+			return null;
+		}
 		LinkedList<SAction> trace = new LinkedList<>();
-		for (int id = end.id; id != init.id; )  // Skipped if init.id == end.id (e.g., error in init state, such as a bad connect)
+		for (; i != this.parents.get(i); i = this.parents.get(i))  // Skipped if init.id == end.id (e.g., error in init state, such as a bad connect)
 		{
-			Pair<SAction, Integer> p = traces.get(id);
-			trace.push(p.left);
-			id = p.right;
+			trace.push(this.index.getAction(this.parentEdges.get(i)));
 		}
 		return trace;
 	}
 
-	// Returns null if end cannot be reached
-	private Map<Integer, Pair<SAction, Integer>> bfsFromInit(SState end)  // (cf., Dijkstra's with all weights 1)
+	// The predecessor of s in the BFS tree from init, i.e., on some shortest path to s -- null if s is init or unreachable
+	public SState getBfsParent(SState s)
+	{
+		bfsFromInit();
+		int i = this.index.indexOf(s);
+		return (this.depths.get(i) <= 0)
+				? null
+				: this.index.getState(this.parents.get(i));
+	}
+
+	// The action from getBfsParent(s) to s -- null if s is init or unreachable
+	public SAction getBfsParentAction(SState s)
 	{
-		// SState.id faster as keys than full SConfig
-		Set<Integer> seen = new HashSet<>();
-		List<Integer> todo = new LinkedList<>();
-		seen.add(this.init.id);
-		todo.add(this.init.id);
-		Map<Integer, Pair<SAction, Integer>> traces = new HashMap<>();
-		while (!todo.isEmpty())
+		bfsFromInit();
+		int i = this.index.indexOf(s);
+		return (this.depths.get(i) <= 0)
+				? null
+				: this.index.getAction(this.parentEdges.get(i));
+	}
+
+	// Length of the shortest trace from init to s, or -1 if unreachable
+	public int getDistanceFromInit(SState s)
+	{
+		bfsFromInit();
+		return this.depths.get(this.index.indexOf(s));
+	}
+
+	// BFS tree from init, computed on first use (cf. SStateErrors.toErrorMessage) and shared by all subsequent queries
+	private SIntArray parents;  // index -> parent index (init is its own parent)
+	private SIntArray parentEdges;  // index -> edge from parent (unused for init/unreachable)
+	private SIntArray depths;  // index -> distance from init, -1 for unreachable
+
+	private synchronized void bfsFromInit()  // (cf., Dijkstra's with all weights 1)
+	{
+		if (this.depths != null)
 		{
-			Iterator<Integer> i = todo.iterator();
-			Integer currid = i.next();
-			i.remove();
-			if (currid == end.id)
-			{
-				return traces;
-			}
-			SState curr = this.states.get(currid);
-			Iterator<SAction> as = curr.getActions().iterator();  // CHECKME: how about non-det actions? (cf. below, todo.contains(succ.id)? e.g., bad.liveness.messagelive.Test01)
-			for (SState succ : curr.getSuccs())
+			return;
+		}
+		int n = this.index.size();
+		SIntArray parents = this.index.newIntArray(n);
+		SIntArray parentEdges = this.index.newIntArray(n);
+		SIntArray depths = this.index.newIntArray(n);  // Depth + 1 during the search, 0 for not yet discovered
+		SIntArray todo = this.index.newIntArray(n);  // Each state enqueued at most once
+		int head = 0;
+		int tail = 0;
+		int init = this.index.indexOf(this.init);
+		depths.set(init, 1);
+		parents.set(init, init);
+		todo.set(tail++, init);
+		while (head < tail)
+		{
+			int v = todo.get(head++);
+			for (int e = this.index.getFirstEdge(v); e < this.index.getEndEdge(v); e++)  // CHECKME: how about non-det actions? (e.g., bad.liveness.messagelive.Test01)
 			{
-				SAction a = as.next();
-				if (seen.contains(succ.id) || todo.contains(succ.id))
+				int w = this.index.getTarget(e);
+				if (depths.get(w) == 0)  // First discovery is a shortest path
 				{
-					continue;
+					depths.set(w, depths.get(v) + 1);
+					parents.set(w, v);
+					parentEdges.set(w, e);
+					todo.set(tail++, w);
 				}
-				seen.add(succ.id);
-				traces.put(succ.id, new Pair<>(a, currid));
-				todo.add(succ.id);
 			}
 		}
-		return null;
+		for (int v = 0; v < n; v++)
+		{
+			depths.set(v, depths.get(v) - 1);
+		}
+		this.parents = parents;
+		this.parentEdges = parentEdges;
+		this.depths = depths;  // Assigned last, cf. the guard
 	}
 
 	@Override
@@ -134,274 +168,245 @@ public class SGraph implements MPrettyPrint
 		return this.init.toString();
 	}
 
-	// Following are "one-time" usage, on instance construction
-	// SState.id faster as keys than full SConfig
-	private int counter = 0;
-	private Map<Integer, Integer> indices = new HashMap<>();  // s.id -> index
-	private Map<Integer, Integer> lowlinks = new HashMap<>();  // s.id -> lowlink
-	private Deque<SState> stack = new LinkedList<>();
-	private Set<Integer> onStack = new HashSet<>();
-	private Set<Set<SState>> sscs = new HashSet<>();
-
-	private void tarjan()
-	{
-		for (SState v : this.states.values())
-		{
-			if (!indices.containsKey(v.id))
-			{
-				strongConnect(v);
-			}
-		}
-	}
-
-	private void strongConnect(SState v)
+	// Iterative Tarjan: returns the terminal sets, i.e., SCCs with no outgoing edges (excluding singleton terminal states)
+	// SCCs are emitted in reverse topological order, so on emitting an SCC, every successor outside it already belongs to an earlier SCC
+	private Set<Set<SState>> tarjan()
 	{
-		// Set the depth index for v to the smallest unused index
-		int index = this.counter++;
-		this.indices.put(v.id, index);
-		this.lowlinks.put(v.id, index);
-		this.stack.push(v);
-		this.onStack.add(v.id);
-
-		// Consider successors of v
-		for (SState w : v.getSuccs())
+		int n = this.index.size();
+		SIntArray indices = this.index.newIntArray(n);  // DFS index + 1, 0 for unvisited
+		SIntArray lowlinks = this.index.newIntArray(n);
+		SIntArray comps = this.index.newIntArray(n);  // SCC number + 1, 0 for not yet emitted -- so a visited vertex is on the Tarjan stack iff comps is 0
+		SIntArray stack = this.index.newIntArray(n);  // Tarjan stack
+		int sp = 0;
+		SIntArray calls = this.index.newIntArray(n);  // DFS (call) stack of vertices...
+		SIntArray next = this.index.newIntArray(n);  // ...and the next edge to consider, per vertex
+		int counter = 0;
+		int comp = 0;
+		Set<Set<SState>> res = new HashSet<>();
+
+		for (int root = 0; root < n; root++)
 		{
-			if (!this.indices.containsKey(w.id))
+			if (indices.get(root) != 0)
 			{
-				// Successor w has not yet been visited; recurse on it
-				strongConnect(w);
-				int vlowlink = this.lowlinks.get(v.id);
-				int wlowlink = this.lowlinks.get(w.id);
-				this.lowlinks.put(v.id, (vlowlink <= wlowlink ? vlowlink : wlowlink));
+				continue;
 			}
-			else if (this.onStack.contains(w.id))
+			int cp = 0;
+			calls.set(cp++, root);
+			indices.set(root, ++counter);
+			lowlinks.set(root, counter);
+			next.set(root, this.index.getFirstEdge(root));
+			stack.set(sp++, root);
+			while (cp > 0)
 			{
-				// Successor w is in stack S and hence in the current SCC
-				// If w is not on stack, then (v, w) is a cross-edge in the DFS tree and must be ignored
-				// Note: The next line may look odd - but is correct.
-				// It says w.index not w.lowlink; that is deliberate and from the original paper
-				int vlowlink = this.lowlinks.get(v.id);
-				int windex = this.indices.get(w.id);
-				this.lowlinks.put(v.id, (vlowlink <= windex ? vlowlink : windex));
-			}
-		}
+				int v = calls.get(cp - 1);
+				int e = next.get(v);
+				if (e < this.index.getEndEdge(v))
+				{
+					next.set(v, e + 1);
+					int w = this.index.getTarget(e);
+					if (indices.get(w) == 0)  // Not yet visited: "recurse"
+					{
+						indices.set(w, ++counter);
+						lowlinks.set(w, counter);
+						next.set(w, this.index.getFirstEdge(w));
+						stack.set(sp++, w);
+						calls.set(cp++, w);
+					}
+					else if (comps.get(w) == 0)  // On stack -- N.B. w's index, not lowlink (as in the original paper)
+					{
+						lowlinks.set(v, Math.min(lowlinks.get(v), indices.get(w)));
+					}
+					continue;
+				}
 
-		// If v is a root node, pop the stack and generate an SCC
-		if (this.lowlinks.get(v.id) == this.indices.get(v.id))
-		{
-			Set<SState> ssc = new HashSet<>();
-			SState w;
-			do
-			{
-				w = this.stack.pop();
-				this.onStack.remove(w.id);
-				ssc.add(w);
+				// All succs of v done: "return"
+				cp--;
+				if (cp > 0)
+				{
+					int u = calls.get(cp - 1);
+					lowlinks.set(u, Math.min(lowlinks.get(u), lowlinks.get(v)));
+				}
+				if (lowlinks.get(v) == indices.get(v))  // v is the root of an SCC: pop it
+				{
+					comp++;
+					int bottom = sp;
+					do
+					{
+						bottom--;
+						comps.set(stack.get(bottom), comp);
+					}
+					while (stack.get(bottom) != v);
+					if (isTermSet(stack, bottom, sp, comps, comp))
+					{
+						Set<SState> scc = new HashSet<>();
+						for (int i = bottom; i < sp; i++)
+						{
+							scc.add(this.index.getState(stack.get(i)));
+						}
+						res.add(Collections.unmodifiableSet(scc));
+					}
+					sp = bottom;
+				}
 			}
-			while (w.id != v.id);
-			this.sscs.add(ssc);
 		}
+		return res;
 	}
 
-
-
-
-
-
-
-
-
-
-
-
-
-	/*
-	private Map<Integer, Set<Integer>> reach; // State ID -> reachable states (not reflexive)
-
-	public Set<Set<Integer>> getTerminalSets()
+	// The SCC comp, whose members are stack[from] until stack[to]
+	private boolean isTermSet(SIntArray stack, int from, int to, SIntArray comps,
+			int comp)
 	{
-		if (this.termSets != null)
+		if (to - from == 1 && this.index.getFirstEdge(stack.get(from))
+				== this.index.getEndEdge(stack.get(from)))  // Singleton terminal state
 		{
-			return this.termSets;
+			return false;
 		}
-
-		Set<Set<Integer>> termSets = new HashSet<>();
-		Set<Set<Integer>> checked = new HashSet<>();
-		for (Integer i : reach.keySet())
+		for (int i = from; i < to; i++)
 		{
-			SState s = this.states.get(i);
-			Set<Integer> rs = this.reach.get(s.id);
-			if (!checked.contains(rs) && rs.contains(s.id))
+			int v = stack.get(i);
+			for (int e = this.index.getFirstEdge(v); e < this.index.getEndEdge(v); e++)
 			{
-				checked.add(rs);
-				if (isTerminalSetMember(s))
+				if (comps.get(this.index.getTarget(e)) != comp)
 				{
-					termSets.add(rs);
+					return false;
 				}
 			}
 		}
-		this.termSets = Collections.unmodifiableSet(termSets);
-		return this.termSets;
+		return true;
 	}
 
-	private boolean isTerminalSetMember(SState s)
+	// The default index, of on-heap states: successor lists in CSR form (edges of state i are succOffs[i] until succOffs[i+1])
+	// N.B. SState ids are global (cf. MState), but the states of one graph are typically allocated as a contiguous range
+	protected static class HeapIndex extends SGraphIndex
 	{
-		Set<Integer> rs = this.reach.get(s.id);  // Pre: rs.contains(s.id)
-		Set<Integer> tmp = new HashSet<>(rs);
-		tmp.remove(s.id);  // Unnecessary to remove, but this.reach.get(r).equals(rs) check below trivially holds by def
-		for (Integer r : tmp)
+		private final SState[] indexed;  // index -> state
+		private final int minId;
+		private int[] idToIndex;  // s.id - minId -> index, or -1 -- null if the id range is too sparse, cf. sparse
+		private Map<Integer, Integer> sparse;  // s.id -> index, fallback if ids are too sparse
+		private final int[] succOffs;
+		private final int[] succs;
+		private final SAction[] actions;  // edge -> action
+
+		public HeapIndex(Map<Integer, SState> states)
 		{
-			if (!this.reach.containsKey(r) || !this.reach.get(r).equals(rs))
+			int n = states.size();
+			this.indexed = new SState[n];
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for (int id : states.keySet())
 			{
-				return false;
+				min = Math.min(min, id);
+				max = Math.max(max, id);
 			}
-		}
-		return true;
-	}
-
-	// Not reflexive
-	public Map<Integer, Set<Integer>> getReachabilityMap()
-	{
-		if (this.reach != null)
-		{
-			return this.reach;
-		}
-
-		Map<Integer, Integer> idToIndex = new HashMap<>(); // state ID -> array index
-		Map<Integer, Integer> indexToId = new HashMap<>(); // array index -> state ID
-		int i = 0;
-		for (SState s : this.states.values())
-		{
-			idToIndex.put(s.id, i);
-			indexToId.put(i, s.id);
-			i++;
-		}
-		this.reach = getReachabilityAux(idToIndex, indexToId);
-
-		return this.reach;
-	}
-
-	private Map<Integer, Set<Integer>> getReachabilityAux(
-			Map<Integer, Integer> idToIndex, Map<Integer, Integer> indexToId)
-	{
-		int size = idToIndex.keySet().size();
-		boolean[][] reach = new boolean[size][size];
-
-		for (Integer s1id : idToIndex.keySet())
-		{
-			for (SState s2 : this.states.get(s1id).getSuccs())
+			this.minId = min;
+			long range = (long) max - min + 1;
+			if (n > 0 && range <= 2L * n + 64)
 			{
-				reach[idToIndex.get(s1id)][idToIndex.get(s2.id)] = true;
+				this.idToIndex = new int[(int) range];
+				Arrays.fill(this.idToIndex, -1);
 			}
-		}
-
-		for (boolean again = true; again; )
-		{
-			again = false;
-			for (int i = 0; i < size; i++)
+			else
+			{
+				this.sparse = new HashMap<>();
+			}
+			int i = 0;
+			for (SState s : states.values())
 			{
-				for (int j = 0; j < size; j++)
+				this.indexed[i] = s;
+				if (this.idToIndex != null)
 				{
-					if (reach[i][j])
-					{
-						for (int k = 0; k < size; k++)
-						{
-							if (reach[j][k] && !reach[i][k])
-							{
-								reach[i][k] = true;
-								again = true;
-							}
-						}
-					}
+					this.idToIndex[s.id - min] = i;
 				}
+				else
+				{
+					this.sparse.put(s.id, i);
+				}
+				i++;
 			}
-		}
 
-		Map<Integer, Set<Integer>> res = new HashMap<>();
-		for (int i = 0; i < size; i++)
-		{
-			Set<Integer> tmp = res.get(indexToId.get(i));
-			for (int j = 0; j < size; j++)
+			this.succOffs = new int[n + 1];
+			int m = 0;
+			for (i = 0; i < n; i++)
 			{
-				if (reach[i][j])
+				this.succOffs[i] = m;
+				m += this.indexed[i].getSuccs().size();
+			}
+			this.succOffs[n] = m;
+			this.succs = new int[m];
+			this.actions = new SAction[m];
+			for (i = 0, m = 0; i < n; i++)
+			{
+				Iterator<SAction> as = this.indexed[i].getActions().iterator();
+				for (SState succ : this.indexed[i].getSuccs())
 				{
-					if (tmp == null)
-					{
-						tmp = new HashSet<>();
-						res.put(indexToId.get(i), tmp);
-					}
-					tmp.add(indexToId.get(j));
+					this.actions[m] = as.next();
+					this.succs[m++] = indexOf(succ);
 				}
 			}
 		}
 
-		return Collections.unmodifiableMap(res);
-	}
+		@Override
+		public int size()
+		{
+			return this.indexed.length;
+		}
 
-	public List<SAction> getTrace(SState start, SState end)
-	{
-		SortedMap<Integer, Set<Integer>> candidates = new TreeMap<>();
-		Set<Integer> dis0 = new LinkedHashSet<Integer>();
-		dis0.add(start.id);
-		candidates.put(0, dis0);
+		@Override
+		public int indexOf(SState s)
+		{
+			return (this.idToIndex != null)
+					? this.idToIndex[s.id - this.minId]
+					: this.sparse.get(s.id);
+		}
+
+		@Override
+		public SState getState(int v)
+		{
+			return this.indexed[v];
+		}
 
-		Set<Integer> seen = new HashSet<>();
-		seen.add(start.id);
+		@Override
+		public int getFirstEdge(int v)
+		{
+			return this.succOffs[v];
+		}
 
-		return getTraceAux(new LinkedList<>(), seen, candidates, end);
-	}
+		@Override
+		public int getEndEdge(int v)
+		{
+			return this.succOffs[v + 1];
+		}
 
-	// Djikstra's
-	private List<SAction> getTraceAux(List<SAction> trace, Set<Integer> seen,
-			SortedMap<Integer, Set<Integer>> candidates, SState end)
-	{
-		Integer dis = candidates.keySet().iterator().next();
-		Set<Integer> cs = candidates.get(dis);
-		Iterator<Integer> it = cs.iterator();
-		Integer currid = it.next();
-		it.remove();
-		if (cs.isEmpty())
+		@Override
+		public int getTarget(int e)
 		{
-			candidates.remove(dis);
+			return this.succs[e];
 		}
 
-		SState curr = this.states.get(currid);
-		Iterator<SAction> as = curr.getActions().iterator();
-		Iterator<SState> succs = curr.getSuccs().iterator();
-		while (as.hasNext())
+		@Override
+		public SAction getAction(int e)
 		{
-			SAction a = as.next();
-			SState succ = succs.next();
-			if (succ.id == end.id)
-			{
-				trace.add(a);
-				return trace;
-			}
+			return this.actions[e];
+		}
 
-			if (!seen.contains(succ.id))
-				//&& this.reach.containsKey(s.id) && this.reach.get(s.id).contains(end.id))
+		@Override
+		public SIntArray newIntArray(int n)
+		{
+			int[] a = new int[n];
+			return new SIntArray()
 			{
-				seen.add(succ.id);
-				if (succ.isTerminal())  // Unnecesary, visiting succ will do "while (as.hasNext())"
-				{
-					continue;
-				}
-				Set<Integer> tmp1 = candidates.get(dis+1);
-				if (tmp1 == null)
+				@Override
+				public int get(int i)
 				{
-					tmp1 = new HashSet<>();
-					candidates.put(dis+1, tmp1);
+					return a[i];
 				}
-				tmp1.add(succ.id);
-				List<SAction> tmp2 = new LinkedList<>(trace);
-				tmp2.add(a);
-				List<SAction> res = getTraceAux(tmp2, seen, candidates, end);  // FIXME: replace by a loop
-				if (res != null)
+
+				@Override
+				public void set(int i, int v)
 				{
-					return res;
+					a[i] = v;
 				}
-			}
+			};
 		}
-		return null;
 	}
-	//*/
-}
\ No newline at end of file
+}
@@ -13,17 +13,26 @@
  */
 package org.scribble.core.model.global;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import org.scribble.core.job.Core;
+import org.scribble.core.job.CoreArgs;
 import org.scribble.core.model.endpoint.EFsm;
 import org.scribble.core.model.endpoint.EGraph;
+import org.scribble.core.model.endpoint.EState;
 import org.scribble.core.model.endpoint.actions.EAction;
 import org.scribble.core.model.global.actions.SAction;
 import org.scribble.core.type.name.GProtoName;
@@ -34,11 +43,30 @@ public class SGraphBuilder
 {
 	public final Core core;
 	
+	public final int maxEarlyErrors;  // CoreArgs.EARLY_SAFETY: stop building after this many erroneous states
+	public final boolean symmetry;  // CoreArgs.SYMMETRY, unless overridden (e.g., rebuilding the full model, cf. SModel.validate)
+
 	private final SGraphBuilderUtil util;
+
+	// CoreArgs.EARLY_SAFETY -- per build, cf. util.reset
+	private final Queue<SStateErrors> earlyErrs = new ConcurrentLinkedQueue<>();  // Concurrent for buildParallel
+	private volatile boolean stop = false;
 	
 	public SGraphBuilder(Core core)
+	{
+		this(core, 1);
+	}
+
+	public SGraphBuilder(Core core, int maxEarlyErrors)
+	{
+		this(core, maxEarlyErrors, core.config.args.get(CoreArgs.SYMMETRY));
+	}
+
+	public SGraphBuilder(Core core, int maxEarlyErrors, boolean symmetry)
 	{
 		this.core = core;
+		this.maxEarlyErrors = maxEarlyErrors;
+		this.symmetry = symmetry;
 		this.util = this.core.config.mf.global.SGraphBuilderUtil();
 	}
 
@@ -48,24 +76,79 @@ public class SGraphBuilder
 	{
 		Map<Role, EFsm> efsms = egraphs.entrySet().stream()
 				.collect(Collectors.toMap(Entry::getKey, e -> e.getValue().toFsm()));
-		SingleBuffers b0 = new SingleBuffers(efsms.keySet(), !explicit);
-		return this.core.config.mf.global.SConfig(efsms, b0);
+		SQueueCapacities caps = this.core.config.caps;
+		SQueues b0 = new SQueues(efsms.keySet(), !explicit, caps);
+		SSymmetry sym = null;
+		if (this.symmetry)
+		{
+			sym = new SSymmetry(this.core.config.mf, egraphs, explicit, caps);
+			if (sym.isEmpty())
+			{
+				sym = null;
+			}
+			else
+			{
+				this.core.verbosePrintln("Symmetric roles: " + sym);
+			}
+		}
+		SConfigPacker packer = new SConfigPacker(this.core.config.mf, egraphs,
+				caps, sym);
+		return this.core.config.mf.global.SConfig(packer, efsms, b0);
 	}
 	
 	// Factory method: not fully integrated with SGraph constructor because of Job arg (debug printing)
 	// Also checks for non-deterministic payloads
 	// Maybe refactor into an SGraph builder util; cf., EGraphBuilderUtil -- but not Visitor-based building (cf. EndpointGraphBuilder), this isn't an AST algorithm
+	// With CoreArgs.EARLY_SAFETY, safety errors are checked on each state as it is explored, and a ScribException is thrown (for the partially built model) as soon as maxEarlyErrors are found
 	public SGraph build(Map<Role, EGraph> egraphs, boolean explicit,
 			GProtoName fullname) throws ScribException
 	{
-		this.util.reset();
+		SStateStore store = newStateStore();
+		this.util.reset(store);
+		this.earlyErrs.clear();
+		this.stop = false;
 		
 		SConfig c0 = createInitConfig(egraphs, explicit);
 		SState init = this.util.newState(c0);
+		if (this.core.config.args.get(CoreArgs.PARALLEL))
+		{
+			buildParallel(init);
+		}
+		else if (store instanceof SMappedStateStore)
+		{
+			buildSequential((SMappedStateStore) store);
+		}
+		else
+		{
+			buildSequential(init);
+		}
+
+		SGraph graph = this.util.toGraph(fullname, init);
+		if (!this.earlyErrs.isEmpty())
+		{
+			this.core.verbosePrintln("(" + fullname + ") Stopped global model building at "
+					+ graph.states.size() + " states: " + this.earlyErrs.size()
+					+ " safety violation(s)");
+			throw new ScribException(this.earlyErrs.stream()
+					.map(x -> x.toErrorMessage(graph)).collect(Collectors.joining("")));
+		}
+		return graph;
+	}
+
+	// A fresh store for each build, cf. SGraphBuilderUtil.reset
+	protected SStateStore newStateStore()
+	{
+		return this.core.config.args.get(CoreArgs.SPILL)
+				? new SMappedStateStore(this.core.config.mf)
+				: new SMemoryStateStore(this.core.config.mf);
+	}
+
+	protected void buildSequential(SState init)
+	{
 		Set<SState> todo = new LinkedHashSet<>();  // Consider Map<s.id, s>, faster than full SConfig hash ?
 		todo.add(init);
 		for (//int debugCount = 1
-				; !todo.isEmpty(); ) // Compute configs and use util to construct graph, until no more new configs
+				; !todo.isEmpty() && !this.stop; ) // Compute configs and use util to construct graph, until no more new configs
 		{
 			Iterator<SState> i = todo.iterator();
 			SState curr = i.next();
@@ -78,49 +161,201 @@ public class SGraphBuilder
 							"(" + fullname + ") Building global states: " + debugCount);
 				}
 			}*/
+			todo.addAll(explore(curr));
+			this.util.explored(curr);
+		}
+	}
+
+	// As above, but with no on-heap frontier: states are recorded in discovery order, so exploring by record index is the same (FIFO) order
+	protected void buildSequential(SMappedStateStore store)
+	{
+		for (int i = 0; i < store.size() && !this.stop; i++)
+		{
+			SState curr = store.getState(i);  // A fresh handle, i.e., no edges yet
+			explore(curr);
+			this.util.explored(curr);
+		}
+	}
+
+	// Work-stealing exploration: each new state is explored by its own forked task, visited set is the (concurrent) util map
+	// Resulting graph is the same as buildSequential up to state ids (discovery order is not deterministic)
+	protected void buildParallel(SState init)
+	{
+		ForkJoinPool pool = new ForkJoinPool();  // Parallelism defaults to the number of available processors
+		try
+		{
+			pool.invoke(new ExploreTask(null, init));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	// Computes and adds all edges from curr, returning the newly discovered states (i.e., still to explore)
+	// Pre: curr not explored yet -- may be called concurrently for distinct curr (cf. SGraphBuilderUtil.getSuccs)
+	protected Set<SState> explore(SState curr)
+	{
+		Set<SState> res = new LinkedHashSet<>();
+		SConfig config = curr.getConfig();
+		if (this.core.config.args.get(CoreArgs.EARLY_SAFETY) && !checkEarlySafety(curr, config))
+		{
+			return res;
+		}
+		// Based on config semantics, not "static" graph edges (cf., super.getActions) -- used to build global model graph
+		Map<Role, Set<EAction>> fireable = config.getFireable();
+		Role ample = this.core.config.args.get(CoreArgs.POR)
+				? getAmpleRole(config, fireable)
+				: null;
+		if (ample != null)
+		{
+			for (EAction a : fireable.get(ample))
+			{
+				res.addAll(fire(curr, config, fireable, ample, a));
+			}
+			if (res.containsAll(curr.getSuccs()))  // Cycle proviso (BFS variant): reduce only if all ample successors are new states -- so every cycle has a fully expanded state
+			{
+				return res;
+			}
+		}
+		for (Role r : fireable.keySet())
+		{
+			if (r.equals(ample))  // Already fired above, i.e., fully expanding after a failed cycle proviso
+			{
+				continue;
+			}
+			for (EAction a : fireable.get(r))
+			{
+				res.addAll(fire(curr, config, fireable, r, a));
+			}
+		}
+		return res;
+	}
 
-			// Based on config semantics, not "static" graph edges (cf., super.getActions) -- used to build global model graph
-			Map<Role, Set<EAction>> fireable = curr.config.getFireable();
-			for (Role r : fireable.keySet())
+	// Adds the edge(s) for firing "a" by "r" from curr, returning the newly discovered states
+	// N.B. may mutate fireable (sync actions remove the dual action of the peer)
+	protected Set<SState> fire(SState curr, SConfig config,
+			Map<Role, Set<EAction>> fireable, Role r, EAction a)
+	{
+		// Asynchronous (input/output) actions
+		if (a.isSend() || a.isReceive() || a.isDisconnect())
+		{
+			Set<SConfig> next = new HashSet<>(config.async(r, a));
+					// SConfig.a/sync currently produces a List, but here collapse identical configs for global model (represent non-det "by edges", not "by model states")
+			return this.util.getSuccs(curr, a.toGlobal(r), next);  // util.getSuccs constructs the edges
+		}
+		// Synchronous (client/server) actions
+		else if (a.isAccept() || a.isRequest() || a.isClientWrap()
+				|| a.isServerWrap())
+		{	
+			Set<EAction> as = fireable.get(a.peer);
+			EAction abar = a.toDual(r);
+			if (as != null && as.contains(abar))
 			{
-				for (EAction a : fireable.get(r))
+				as.remove(abar);  // Removes one occurrence
+				SAction aglobal = (a.isRequest() || a.isClientWrap()) // "client" side action
+						? a.toGlobal(r)
+						: abar.toGlobal(a.peer);
+						// CHECKME: edge will be drawn as the connect, but should be read as the sync. of both -- something like "r1, r2: sync" may be more consistent (or take a set of actions as the edge label?)
+				Set<SConfig> next = new HashSet<>(config.sync(r, a, a.peer, abar));
+						// SConfig.a/sync currently produces a List, but here collapse identical configs for global model (represent non-det "by edges", not "by model states")
+				return this.util.getSuccs(curr, aglobal, next);  // util.getSuccs constructs the edges
+			}
+			return Collections.emptySet();
+		}
+		else
+		{
+			throw new RuntimeException("Unknown action kind: " + a);
+		}
+	}
+
+	// Partial-order reduction (CoreArgs.POR): returns a role whose fireable actions form an ample set, or null if none (i.e., fully expand)
+	// A role qualifies if its actions are independent of all other roles' actions, and no other role can enable/disable any of its actions:
+	// - input state (single peer), with the matching message buffered -- only "r" can consume from its buffer, and the peer can only append behind the head
+	// - output state of only sends/disconnects, all currently fireable into empty buffers -- only "r" can fill its send buffers or change its side of a connection
+	//   (empty, not just non-full: with capacity > 1, eagerly refilling a buffer can hide states where it is drained, i.e., spurious eventual reception errors)
+	// In either case, the errors of any state reached by postponing the ample actions are preserved after firing one of them (cf. SStateErrors), and the postponed actions stay enabled
+	// Sync actions (request/accept, client/server wrap) change both sides of a connection, so they are never reduced
+	protected Role getAmpleRole(SConfig config, Map<Role, Set<EAction>> fireable)
+	{
+		for (Role r : (Iterable<Role>) fireable.keySet().stream()
+				.sorted(Comparator.comparing(Role::toString))::iterator)  // Deterministic choice
+		{
+			EState curr = config.efsms.get(r).curr;
+			List<EAction> as = curr.getActions();
+			switch (curr.getStateKind())
+			{
+				case UNARY_RECEIVE:
+				case POLY_RECIEVE:
 				{
-					// Asynchronous (input/output) actions
-					if (a.isSend() || a.isReceive() || a.isDisconnect())
+					Role peer = as.get(0).peer;
+					if (as.stream().allMatch(x -> x.peer.equals(peer)))
 					{
-						Set<SConfig> next = new HashSet<>(curr.config.async(r, a));
-								// SConfig.a/sync currently produces a List, but here collapse identical configs for global model (represent non-det "by edges", not "by model states")
-						Set<SState> succs = this.util.getSuccs(curr, a.toGlobal(r), next);  // util.getSuccs constructs the edges
-						todo.addAll(succs);
-					}
-					// Synchronous (client/server) actions
-					else if (a.isAccept() || a.isRequest() || a.isClientWrap()
-							|| a.isServerWrap())
-					{	
-						Set<EAction> as = fireable.get(a.peer);
-						EAction abar = a.toDual(r);
-						if (as != null && as.contains(abar))
-						{
-							as.remove(abar);  // Removes one occurrence
-							SAction aglobal = (a.isRequest() || a.isClientWrap()) // "client" side action
-									? a.toGlobal(r)
-									: abar.toGlobal(a.peer);
-									// CHECKME: edge will be drawn as the connect, but should be read as the sync. of both -- something like "r1, r2: sync" may be more consistent (or take a set of actions as the edge label?)
-							Set<SConfig> next = new HashSet<>(curr.config.sync(r, a, a.peer, abar));
-									// SConfig.a/sync currently produces a List, but here collapse identical configs for global model (represent non-det "by edges", not "by model states")
-							Set<SState> succs = this.util.getSuccs(curr, aglobal, next);  // util.getSuccs constructs the edges
-							todo.addAll(succs);
-						}
+						return r;
 					}
-					else
+					break;
+				}
+				case OUTPUT:
+				{
+					if (as.stream().allMatch(x -> x.isSend() || x.isDisconnect())
+							&& fireable.get(r).containsAll(as)
+							&& as.stream().allMatch(x -> !x.isSend()
+									|| config.queues.getQueue(x.peer).get(r).isEmpty()))
 					{
-						throw new RuntimeException("Unknown action kind: " + a);
+						return r;
 					}
+					break;
 				}
+				default:
+					break;
 			}
 		}
+		return null;
+	}
 
-		return this.core.config.mf.global.SGraph(fullname, this.util.getStates(),
-				init);
+	// Returns false if building should stop, i.e., maxEarlyErrors reached
+	// Also checks this.stop, e.g., another parallel task reached maxEarlyErrors
+	private boolean checkEarlySafety(SState curr, SConfig config)
+	{
+		if (this.stop)
+		{
+			return false;
+		}
+		SStateErrors errs = curr.getErrors(config);
+		if (!errs.isEmpty())
+		{
+			this.earlyErrs.add(errs);
+			if (this.earlyErrs.size() >= this.maxEarlyErrors)  // N.B. parallel tasks may overshoot slightly
+			{
+				this.stop = true;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// CountedCompleter: no blocking joins (so no stack growth along long paths), completes when all (transitively) forked tasks complete
+	@SuppressWarnings("serial")
+	private class ExploreTask extends CountedCompleter<Void>
+	{
+		private final SState curr;
+
+		public ExploreTask(ExploreTask parent, SState curr)
+		{
+			super(parent);
+			this.curr = curr;
+		}
+
+		@Override
+		public void compute()
+		{
+			for (SState succ : explore(this.curr))
+			{
+				addToPendingCount(1);
+				new ExploreTask(this, succ).fork();
+			}
+			SGraphBuilder.this.util.explored(this.curr);
+			tryComplete();
+		}
 	}
 }
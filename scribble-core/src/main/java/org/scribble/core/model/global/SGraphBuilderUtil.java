@@ -13,21 +13,20 @@
  */
 package org.scribble.core.model.global;
 
-import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.scribble.core.model.GraphBuilderUtil;
 import org.scribble.core.model.ModelFactory;
 import org.scribble.core.model.global.actions.SAction;
 import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.GProtoName;
 
 public class SGraphBuilderUtil
 		extends GraphBuilderUtil<Void, SAction, SState, Global>
 {
-	private Map<SConfig, SState> states = new HashMap<>();
+	private SStateStore states;
+			// Thread-safe for parallel building (SGraphBuilder.buildParallel) -- getSuccs may be called concurrently for distinct "curr" states
 	
 	protected SGraphBuilderUtil(ModelFactory mf)
 	{
@@ -38,17 +37,23 @@ public class SGraphBuilderUtil
 	@Override
 	protected void reset()
 	{
-		this.states.clear();
+		reset(new SMemoryStateStore(this.mf));
+	}
+	
+	// A fresh store per build -- previously built SGraphs may still be using the old one
+	protected void reset(SStateStore states)
+	{
+		this.states = states;
 	}
 	
 	public SState newState(SConfig c)
 	{
-		SState s = this.mf.global.SState(c);
-		this.states.put(c, s);
-		return s;
+		SState s = this.states.add(c);
+		return (s != null) ? s : this.states.get(c);
 	}
 
-	// Pre: this.states.containsKey(curr.config)
+	// Pre: curr recorded by this.states
+	// Thread-safe w.r.t. concurrent calls on *distinct* "curr" (edges are only added to curr) -- only one caller "wins" each new config
 	public Set<SState> getSuccs(SState curr, SAction a, //List<SConfig> succs)
 			Set<SConfig> succs)
 			// SConfig.a/sync currently produces a List, but here collapse identical configs for global model (represent non-det "by edges", not "by model states")
@@ -56,10 +61,17 @@ public class SGraphBuilderUtil
 		Set<SState> res = new LinkedHashSet<>();  // Takes care of duplicates (o/w should also do "|| res.containsKey(c)" below) 
 		for (SConfig c : succs)
 		{
-			boolean seen = this.states.containsKey(c);
-			SState next = seen
-					? this.states.get(c)
-					: newState(c);
+			SState next = this.states.get(c);
+			boolean seen = next != null;
+			if (!seen)
+			{
+				next = this.states.add(c);
+				seen = next == null;
+				if (seen)  // Another thread got there first
+				{
+					next = this.states.get(c);
+				}
+			}
 			curr.addEdge(a, next);
 			if (!seen)  // Must use cached test, newState changes adds the key
 			{
@@ -68,11 +80,15 @@ public class SGraphBuilderUtil
 		}
 		return res;
 	}
+
+	// Pre: all edges from curr added, cf. SStateStore.explored
+	public void explored(SState curr)
+	{
+		this.states.explored(curr);
+	}
 	
-	// s.id -> s
-	public Map<Integer, SState> getStates()
+	public SGraph toGraph(GProtoName proto, SState init)
 	{
-		return this.states.values().stream()
-				.collect(Collectors.toMap(x -> x.id, x -> x));
+		return this.states.toGraph(proto, init);
 	}
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import org.scribble.core.model.global.actions.SAction;
+
+// The states of an SGraph numbered 0..size()-1, and their edges numbered so that the edges from v are getFirstEdge(v) until getEndEdge(v) (in SState.getActions order)
+// The SGraph algorithms (cf. SGraph.tarjan, bfsFromInit) work on this numbering, e.g., so an SMappedGraph can run them without materialising its states
+public abstract class SGraphIndex
+{
+	public abstract int size();
+
+	// Pre: s is a state of the graph
+	public abstract int indexOf(SState s);
+
+	public abstract SState getState(int v);
+
+	public abstract int getFirstEdge(int v);
+
+	public abstract int getEndEdge(int v);  // Exclusive
+
+	public abstract int getTarget(int e);
+
+	public abstract SAction getAction(int e);
+
+	// Zero-initialised
+	public abstract SIntArray newIntArray(int n);
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+// A fixed-size, zero-initialised int array, e.g., on the heap or memory-mapped (cf. SMappedBuffer) -- for the working arrays of SGraph algorithms, cf. SGraphIndex.newIntArray
+public interface SIntArray
+{
+	int get(int i);
+
+	void set(int i, int v);
+}
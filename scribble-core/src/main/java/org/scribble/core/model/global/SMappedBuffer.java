@@ -0,0 +1,165 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A growable, zero-initialised byte store in a memory-mapped temporary file, cf. SMappedStateStore
+// Mapped in fixed-size segments (a single mapping is limited to 2GB), each on first access -- ints and longs must be aligned, so none straddles two segments
+// The file is unlinked as soon as it is created where the platform allows (o/w deleted on exit)
+// Absolute gets/puts do not mutate any buffer state, so distinct offsets may be accessed concurrently -- callers must publish their writes (e.g., by a lock)
+public class SMappedBuffer
+{
+	private static final int SEGMENT_SHIFT = 26;  // 64MB segments
+	private static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+	private static final int MAX_SEGMENTS = 1 << 12;  // i.e., up to 256GB
+
+	private FileChannel file;  // null after close
+	private final AtomicReferenceArray<MappedByteBuffer> segs =
+			new AtomicReferenceArray<>(MAX_SEGMENTS);
+
+	public SMappedBuffer()
+	{
+		try
+		{
+			Path path = Files.createTempFile("scribble-sgraph", ".bin");
+			this.file = FileChannel.open(path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			try
+			{
+				Files.delete(path);
+			}
+			catch (IOException e)  // E.g., Windows does not allow deleting an open file
+			{
+				path.toFile().deleteOnExit();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	// An int array of size n, fully mapped up front -- so the file can be closed straight away (the mappings stay valid until garbage collected)
+	public static SIntArray newIntArray(int n)
+	{
+		SMappedBuffer buf = new SMappedBuffer();
+		buf.reserve(4L * n);
+		buf.close();
+		return new SIntArray()
+		{
+			@Override
+			public int get(int i)
+			{
+				return buf.getInt(4L * i);
+			}
+
+			@Override
+			public void set(int i, int v)
+			{
+				buf.putInt(4L * i, v);
+			}
+		};
+	}
+
+	// Pre: offset 4-aligned
+	public int getInt(long offset)
+	{
+		return getSegment(offset).getInt((int) (offset & (SEGMENT_BYTES - 1)));
+	}
+
+	public void putInt(long offset, int v)
+	{
+		getSegment(offset).putInt((int) (offset & (SEGMENT_BYTES - 1)), v);
+	}
+
+	// Pre: offset 8-aligned
+	public long getLong(long offset)
+	{
+		return getSegment(offset).getLong((int) (offset & (SEGMENT_BYTES - 1)));
+	}
+
+	public void putLong(long offset, long v)
+	{
+		getSegment(offset).putLong((int) (offset & (SEGMENT_BYTES - 1)), v);
+	}
+
+	// Maps all segments up to size, for fixed-size use (cf. close) -- the last is mapped only up to size, e.g., so small arrays do not take a whole segment
+	// Pre: no segments mapped yet
+	public void reserve(long size)
+	{
+		for (long offset = 0; offset < size; offset += SEGMENT_BYTES)
+		{
+			map((int) (offset >>> SEGMENT_SHIFT),
+					(int) Math.min(SEGMENT_BYTES, size - offset));
+		}
+	}
+
+	// Closes the file -- existing mappings stay valid, but no more segments can be mapped
+	public synchronized void close()
+	{
+		if (this.file != null)
+		{
+			try
+			{
+				this.file.close();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			this.file = null;
+		}
+	}
+
+	private MappedByteBuffer getSegment(long offset)
+	{
+		long i = offset >>> SEGMENT_SHIFT;
+		if (i >= MAX_SEGMENTS)
+		{
+			throw new RuntimeException("Mapped buffer too large: " + offset);
+		}
+		MappedByteBuffer seg = this.segs.get((int) i);
+		return (seg != null) ? seg : map((int) i, SEGMENT_BYTES);
+	}
+
+	private synchronized MappedByteBuffer map(int i, int size)
+	{
+		MappedByteBuffer seg = this.segs.get(i);
+		if (seg == null)
+		{
+			if (this.file == null)
+			{
+				throw new RuntimeException("Mapped buffer already closed: " + i);
+			}
+			try
+			{
+				seg = this.file.map(FileChannel.MapMode.READ_WRITE,
+						(long) i << SEGMENT_SHIFT, size);  // Extends the file (with zeros) as needed
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			this.segs.set(i, seg);
+		}
+		return seg;
+	}
+}
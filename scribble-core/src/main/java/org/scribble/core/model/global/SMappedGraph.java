@@ -0,0 +1,233 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.scribble.core.model.global.actions.SAction;
+import org.scribble.core.type.name.GProtoName;
+
+// An SGraph of the states and edges in an SMappedStateStore (CoreArgs.SPILL)
+// this.states materialises a fresh handle on each get, with its edges to handles without edges (cf. SMappedStateStore.getState) -- so, e.g., SModel can check states one at a time
+// The terminal sets and BFS tree are computed on the store's numbering, with mapped working arrays (cf. SMappedBuffer.newIntArray)
+public class SMappedGraph extends SGraph
+{
+	protected final SMappedStateStore store;
+
+	protected SMappedGraph(GProtoName proto, SMappedStateStore store)
+	{
+		super(proto, new MappedStates(store), store.getState(0),
+				new MappedIndex(store));
+		this.store = store;
+	}
+
+	// Materialises the whole graph on the heap, i.e., only for output (e.g., -model)
+	@Override
+	public String toDot()
+	{
+		return materialise().toDot();
+	}
+
+	@Override
+	public String toAut()
+	{
+		return materialise().toAut();
+	}
+
+	// Returns the init state of a fully linked on-heap copy of the graph
+	protected SState materialise()
+	{
+		int n = this.store.size();
+		SState[] ss = new SState[n];
+		for (int i = 0; i < n; i++)
+		{
+			ss[i] = this.store.newState(i);
+		}
+		for (int i = 0; i < n; i++)
+		{
+			for (int e = this.store.getFirstEdge(i); e < this.store.getEndEdge(i); e++)
+			{
+				ss[i].addEdge(this.store.getAction(e), ss[this.store.getTarget(e)]);
+			}
+		}
+		return ss[0];
+	}
+
+	// record index -> state, cf. SGraph.states
+	protected static class MappedStates extends AbstractMap<Integer, SState>
+	{
+		private final SMappedStateStore store;
+
+		public MappedStates(SMappedStateStore store)
+		{
+			this.store = store;
+		}
+
+		@Override
+		public int size()
+		{
+			return this.store.size();
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return key instanceof Integer && (Integer) key >= 0
+					&& (Integer) key < this.store.size();
+		}
+
+		@Override
+		public SState get(Object key)
+		{
+			return containsKey(key) ? this.store.getState((Integer) key) : null;
+		}
+
+		@Override
+		public Set<Integer> keySet()  // Avoids materialising states, cf. entrySet
+		{
+			return new AbstractSet<Integer>()
+			{
+				@Override
+				public Iterator<Integer> iterator()
+				{
+					return new Iterator<Integer>()
+					{
+						private int i = 0;
+
+						@Override
+						public boolean hasNext()
+						{
+							return this.i < MappedStates.this.store.size();
+						}
+
+						@Override
+						public Integer next()
+						{
+							if (!hasNext())
+							{
+								throw new NoSuchElementException();
+							}
+							return this.i++;
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return MappedStates.this.store.size();
+				}
+			};
+		}
+
+		@Override
+		public Set<Map.Entry<Integer, SState>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<Integer, SState>>()
+			{
+				@Override
+				public Iterator<Map.Entry<Integer, SState>> iterator()
+				{
+					Iterator<Integer> keys = keySet().iterator();
+					return new Iterator<Map.Entry<Integer, SState>>()
+					{
+						@Override
+						public boolean hasNext()
+						{
+							return keys.hasNext();
+						}
+
+						@Override
+						public Map.Entry<Integer, SState> next()
+						{
+							int i = keys.next();
+							return new SimpleImmutableEntry<>(i,
+									MappedStates.this.store.getState(i));
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return MappedStates.this.store.size();
+				}
+			};
+		}
+	}
+
+	// The store's own numbering, i.e., record index = SState.id
+	protected static class MappedIndex extends SGraphIndex
+	{
+		private final SMappedStateStore store;
+
+		public MappedIndex(SMappedStateStore store)
+		{
+			this.store = store;
+		}
+
+		@Override
+		public int size()
+		{
+			return this.store.size();
+		}
+
+		@Override
+		public int indexOf(SState s)
+		{
+			return s.id;
+		}
+
+		@Override
+		public SState getState(int v)
+		{
+			return this.store.getState(v);
+		}
+
+		@Override
+		public int getFirstEdge(int v)
+		{
+			return this.store.getFirstEdge(v);
+		}
+
+		@Override
+		public int getEndEdge(int v)
+		{
+			return this.store.getEndEdge(v);
+		}
+
+		@Override
+		public int getTarget(int e)
+		{
+			return this.store.getTarget(e);
+		}
+
+		@Override
+		public SAction getAction(int e)
+		{
+			return this.store.getAction(e);
+		}
+
+		@Override
+		public SIntArray newIntArray(int n)
+		{
+			return SMappedBuffer.newIntArray(n);
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scribble.core.model.ModelFactory;
+import org.scribble.core.model.global.actions.SAction;
+import org.scribble.core.type.name.GProtoName;
+
+// An SStateStore that keeps the states and edges off the heap, in memory-mapped temporary files (CoreArgs.SPILL), cf. SMappedBuffer
+// - states: record i is the i-th recorded state, i.e., in discovery order -- [first edge, edge count, packed config words]
+// - edges: the edges of each state are contiguous, in the order added -- [target record, action]
+// - index: the visited set, open addressing of (hash, record + 1) slots -- striped, so concurrent building (cf. SGraphBuilder.buildParallel) only contends on configs in the same stripe
+// SStates are only transient handles, with their record index as their id (cf. getState) -- the only per-state heap data is the frontier of parallel building, cf. SGraphBuilder.buildSequential(SMappedStateStore)
+// Only the (distinct) actions are kept on the heap
+public class SMappedStateStore implements SStateStore
+{
+	private static final int STRIPE_BITS = 4;
+	private static final int INIT_CAPACITY = 1 << 10;  // Slots per stripe, power of two -- load factor at most 1/2
+
+	protected final ModelFactory mf;
+
+	private final SMappedBuffer states = new SMappedBuffer();
+	private final SMappedBuffer edges = new SMappedBuffer();
+	private final SMappedBuffer index = new SMappedBuffer();
+
+	private volatile SConfigPacker packer;  // Set by the first add -- all configs of one build have the same packer, so the same packed size
+	private int words;
+	private int recordBytes;
+
+	private final AtomicInteger count = new AtomicInteger();  // Number of records
+	private final AtomicInteger edgeCount = new AtomicInteger();
+	private final AtomicLong indexTop = new AtomicLong();  // Bump allocation of stripe tables in this.index -- a rehashed table's old region is not reused
+	private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+	private final List<SAction> actions = new ArrayList<>();  // action id -> action -- guarded by itself
+	private final ConcurrentMap<SAction, Integer> actionIds = new ConcurrentHashMap<>();
+
+	private volatile boolean closed = false;
+
+	public SMappedStateStore(ModelFactory mf)
+	{
+		this.mf = mf;
+		for (int i = 0; i < this.stripes.length; i++)
+		{
+			this.stripes[i] = new Stripe(INIT_CAPACITY);
+		}
+	}
+
+	@Override
+	public SState get(SConfig c)
+	{
+		int h = c.packed.hashCode();
+		Stripe stripe = getStripe(h);
+		synchronized (stripe)
+		{
+			int i = find(stripe, c.packed, h);
+			return (i < 0) ? null : this.mf.global.SState(c.packer, c.packed, i);
+		}
+	}
+
+	@Override
+	public SState add(SConfig c)
+	{
+		if (this.closed)
+		{
+			throw new RuntimeException("Store already closed: " + c);
+		}
+		if (c.packer != this.packer)  // i.e., only the first add (or a bad config) takes the lock
+		{
+			init(c.packer, c.packed);
+		}
+		int h = c.packed.hashCode();
+		Stripe stripe = getStripe(h);
+		int i;
+		synchronized (stripe)  // Records are written under their stripe lock, and only compared (cf. matches) under the same lock
+		{
+			if (find(stripe, c.packed, h) >= 0)
+			{
+				return null;
+			}
+			i = this.count.getAndIncrement();
+			if (i < 0)
+			{
+				throw new RuntimeException("Too many global model states");
+			}
+			long rec = (long) i * this.recordBytes;
+			this.states.putInt(rec, 0);  // First edge
+			this.states.putInt(rec + 4, 0);  // Edge count, i.e., none until explored
+			for (int j = 0; j < this.words; j++)
+			{
+				this.states.putLong(rec + 8 + 8L * j, c.packed.getWord(j));
+			}
+			if (2 * (stripe.size + 1) > stripe.capacity)
+			{
+				rehash(stripe);
+			}
+			insert(stripe, h, i);
+			stripe.size++;
+		}
+		return this.mf.global.SState(c.packer, c.packed, i);
+	}
+
+	// Pre: s is a handle of this store (cf. add/getState), with all its edges added
+	// Thread-safe for distinct s -- each state is explored once, and its edges written by the exploring thread (read only after building, cf. toGraph)
+	@Override
+	public void explored(SState s)
+	{
+		List<SAction> as = s.getActions();
+		int k = as.size();
+		int first = this.edgeCount.getAndAdd(k);
+		if (first < 0 || first + k < 0)
+		{
+			throw new RuntimeException("Too many global model edges");
+		}
+		Iterator<SState> succs = s.getSuccs().iterator();
+		int e = first;
+		for (SAction a : as)
+		{
+			this.edges.putInt(8L * e, succs.next().id);
+			this.edges.putInt(8L * e + 4, getActionId(a));
+			e++;
+		}
+		long rec = (long) s.id * this.recordBytes;
+		this.states.putInt(rec, first);
+		this.states.putInt(rec + 4, k);
+	}
+
+	@Override
+	public SGraph toGraph(GProtoName proto, SState init)  // init is record 0
+	{
+		close();
+		return this.mf.global.SMappedGraph(proto, this);
+	}
+
+	// Closes the files, i.e., no more states can be added -- the recorded states and edges can still be read
+	protected void close()
+	{
+		this.closed = true;
+		this.states.close();
+		this.edges.close();
+		this.index.close();
+	}
+
+	public int size()
+	{
+		return this.count.get();
+	}
+
+	// A fresh handle for record i, with its edges (if explored) to fresh handles without edges -- i.e., only s and its immediate successors are materialised
+	// Pre: 0 <= i < size(), and the record written by this thread or published to it (e.g., building done)
+	public SState getState(int i)
+	{
+		SState s = newState(i);
+		for (int e = getFirstEdge(i); e < getEndEdge(i); e++)
+		{
+			s.addEdge(getAction(e), newState(getTarget(e)));
+		}
+		return s;
+	}
+
+	// A fresh handle for record i, without edges
+	protected SState newState(int i)
+	{
+		long rec = (long) i * this.recordBytes;
+		long[] w = new long[this.words];
+		for (int j = 0; j < w.length; j++)
+		{
+			w[j] = this.states.getLong(rec + 8 + 8L * j);
+		}
+		return this.mf.global.SState(this.packer, new SPackedConfig(w), i);
+	}
+
+	protected int getFirstEdge(int i)
+	{
+		return this.states.getInt((long) i * this.recordBytes);
+	}
+
+	protected int getEndEdge(int i)
+	{
+		long rec = (long) i * this.recordBytes;
+		return this.states.getInt(rec) + this.states.getInt(rec + 4);
+	}
+
+	protected int getTarget(int e)
+	{
+		return this.edges.getInt(8L * e);
+	}
+
+	protected SAction getAction(int e)
+	{
+		int a = this.edges.getInt(8L * e + 4);
+		synchronized (this.actions)
+		{
+			return this.actions.get(a);
+		}
+	}
+
+	private int getActionId(SAction a)
+	{
+		Integer id = this.actionIds.get(a);
+		if (id == null)
+		{
+			synchronized (this.actions)
+			{
+				id = this.actionIds.get(a);
+				if (id == null)
+				{
+					id = this.actions.size();
+					this.actions.add(a);
+					this.actionIds.put(a, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	private synchronized void init(SConfigPacker packer, SPackedConfig p)
+	{
+		if (this.packer == null)
+		{
+			this.words = p.getWordCount();
+			this.recordBytes = 8 + 8 * this.words;
+			this.packer = packer;  // Volatile write last -- publishes words/recordBytes to readers of this.packer (cf. add)
+		}
+		else if (packer != this.packer)
+		{
+			throw new RuntimeException("Shouldn't get in here: " + packer);
+		}
+	}
+
+	private Stripe getStripe(int h)
+	{
+		return this.stripes[mix(h) >>> (32 - STRIPE_BITS)];
+	}
+
+	// Return the record index for p, or -1 -- Pre: stripe lock held
+	private int find(Stripe stripe, SPackedConfig p, int h)
+	{
+		if (this.packer == null)
+		{
+			return -1;
+		}
+		int mask = stripe.capacity - 1;
+		for (int j = mix(h) & mask; ; j = (j + 1) & mask)
+		{
+			long slot = this.index.getLong(stripe.base + 8L * j);
+			if (slot == 0)
+			{
+				return -1;
+			}
+			int i = (int) slot - 1;
+			if ((int) (slot >>> 32) == h && matches(i, p))
+			{
+				return i;
+			}
+		}
+	}
+
+	private boolean matches(int i, SPackedConfig p)
+	{
+		long rec = (long) i * this.recordBytes + 8;
+		for (int j = 0; j < this.words; j++)
+		{
+			if (this.states.getLong(rec + 8L * j) != p.getWord(j))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Pre: stripe lock held
+	private void insert(Stripe stripe, int h, int i)
+	{
+		int mask = stripe.capacity - 1;
+		int j = mix(h) & mask;
+		while (this.index.getLong(stripe.base + 8L * j) != 0)
+		{
+			j = (j + 1) & mask;
+		}
+		this.index.putLong(stripe.base + 8L * j, ((long) h << 32) | (i + 1L));
+	}
+
+	// Doubles the table of stripe into a fresh (zeroed) region -- Pre: stripe lock held
+	private void rehash(Stripe stripe)
+	{
+		long oldBase = stripe.base;
+		int oldCapacity = stripe.capacity;
+		stripe.capacity = oldCapacity * 2;
+		stripe.base = this.indexTop.getAndAdd(8L * stripe.capacity);
+		for (int j = 0; j < oldCapacity; j++)
+		{
+			long slot = this.index.getLong(oldBase + 8L * j);
+			if (slot != 0)
+			{
+				insert(stripe, (int) (slot >>> 32), (int) slot - 1);
+			}
+		}
+	}
+
+	// Spread the (Arrays.hashCode) bits -- the high bits choose the stripe, the low bits the slot
+	private static int mix(int h)
+	{
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// A region of this.index -- guarded by itself
+	private class Stripe
+	{
+		long base;  // Byte offset in this.index
+		int capacity;  // Number of slots
+		int size;
+
+		Stripe(int capacity)
+		{
+			this.base = SMappedStateStore.this.indexTop.getAndAdd(8L * capacity);
+			this.capacity = capacity;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.scribble.core.model.ModelFactory;
+import org.scribble.core.type.name.GProtoName;
+
+// The default on-heap SStateStore: the states (and their edges) are the SState objects themselves
+public class SMemoryStateStore implements SStateStore
+{
+	protected final ModelFactory mf;
+
+	private final ConcurrentMap<SPackedConfig, SState> states = new ConcurrentHashMap<>();
+
+	public SMemoryStateStore(ModelFactory mf)
+	{
+		this.mf = mf;
+	}
+
+	@Override
+	public SState get(SConfig c)
+	{
+		return this.states.get(c.packed);
+	}
+
+	@Override
+	public SState add(SConfig c)
+	{
+		SState s = this.mf.global.SState(c);
+		return (this.states.putIfAbsent(c.packed, s) == null) ? s : null;
+	}
+
+	@Override
+	public void explored(SState s)
+	{
+		// Edges already recorded by s itself
+	}
+
+	@Override
+	public SGraph toGraph(GProtoName proto, SState init)
+	{
+		Map<Integer, SState> states = this.states.values().stream()
+				.collect(Collectors.toMap(x -> x.id, x -> x));  // s.id -> s
+		return this.mf.global.SGraph(proto, states, init);
+	}
+}
@@ -17,6 +17,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -49,20 +50,33 @@ public class SModel
 	{
 		this.core = core;
 
-		SortedMap<Integer, SStateErrors> sErrs = getSafetyErrors();
+		SortedMap<Integer, SStateErrors> sErrs = 
+				core.config.args.get(CoreArgs.EARLY_SAFETY)
+						? Collections.emptySortedMap()  // Already checked during building, cf. SGraphBuilder.build
+						: getSafetyErrors();
 		Map<Set<SState>, Pair<Set<Role>, Map<Role, Set<ESend>>>> pErrors
 				= Collections.emptyMap();
+		SModel pModel = this;  // The model for the progress errors, cf. getFullModel
 		if (!core.config.args.get(CoreArgs.NO_PROGRESS))
 		{
-			 pErrors = getProgressErrors();
+			SSymmetry sym = this.graph.init.packer.sym;
+			if (sym == null)
+			{
+				pErrors = getProgressErrors();
+			}
+			else if (mayViolateProgress(sym))
+			{
+				pModel = getFullModel(sym);
+				pErrors = pModel.getProgressErrors();
+			}
 		}
 
 		if (!sErrs.isEmpty() || !pErrors.isEmpty())
 		{
 			String msg = "";
-			if (!sErrs.isEmpty())
+			if (!sErrs.isEmpty())  // N.B. with symmetry reduction, the traces are up to symmetry, cf. SSymmetry
 			{
-				msg += getSafetyErrors().values().stream()
+				msg += sErrs.values().stream()
 						.map(x -> x.toErrorMessage(this.graph))
 						.collect(Collectors.joining(""));
 			}
@@ -71,7 +85,7 @@ public class SModel
 				for (Entry<Set<SState>, Pair<Set<Role>, Map<Role, Set<ESend>>>> e :
 						pErrors.entrySet())
 				{
-					msg += getProgressErrorMessages(e.getKey(), e.getValue());
+					msg += pModel.getProgressErrorMessages(e.getKey(), e.getValue());
 				}
 			}
 			throw new ScribException(msg);
@@ -115,8 +129,8 @@ public class SModel
 	// Could subsume terminal state check, if terminal sets included size 1 with reflexive reachability (but not a good approach)
 	protected Set<Role> checkRoleProgress(Set<SState> termset)
 	{
-		SState s = termset.iterator().next();  // Pick any state to check canSafelyTerminate (later, if needed), if non progressing equivalent for all
-		Set<Role> todo = new HashSet<>(s.config.efsms.keySet());
+		SConfig s = termset.iterator().next().getConfig();  // Pick any state to check canSafelyTerminate (later, if needed), if non progressing equivalent for all
+		Set<Role> todo = new HashSet<>(s.efsms.keySet());
 		for (Iterator<SState> i = termset.iterator(); 
 				i.hasNext() && !todo.isEmpty(); )
 		{
@@ -127,46 +141,100 @@ public class SModel
 
 		// todo is now all roles that are not the subj of any action in the termset
 		return todo.stream()
-				.filter(x -> !s.config.canSafelyTerminate(x)
-						&& s.config.queues.getQueue(x).values().stream()
-								.allMatch(y -> y == null))  // Check empty queues for starved -- o/w, is a stuck-message
+				.filter(x -> !s.canSafelyTerminate(x)
+						&& s.queues.isEmpty(x))  // Check empty queues for starved -- o/w, is a stuck-message
 				.collect(Collectors.toSet());
 	}
 
 	// cf. eventual stability (could also check within termsets)
+	// A buffer that is non-empty at every state in the termset is never drained, i.e., its messages are reported as ignored
 	protected Map<Role, Set<ESend>> checkEventualReception(Set<SState> termset)
 	{
-		SState s0 = termset.iterator().next();
-		Set<Role> roles = s0.config.efsms.keySet();
-		Map<Role, Map<Role, ESend>> q0 = s0.config.queues.getQueues();  // dest -> src -> msg -- dest.equals(msg.peer), msg is ESend to the dst
-		for (Role r1 : roles)
+		List<SConfig> cs = termset.stream().map(x -> x.getConfig())
+				.collect(Collectors.toList());  // Unpack each once
+		SConfig s0 = cs.get(0);
+		Set<Role> roles = s0.efsms.keySet();
+		Map<Role, Set<ESend>> ignored = new HashMap<>();  // src -> msgs
+		for (Role r1 : roles)  // dest
 		{
-			Map<Role, ESend> q0_r1 = q0.get(r1);
-			for (Role r2 : roles)
+			Map<Role, SQueue> q0_r1 = s0.queues.getQueue(r1);  // src -> msgs
+			for (Role r2 : roles)  // src
 			{
-				if (!r1.equals(r2) && q0_r1.get(r2) != null &&
-						termset.stream()
-								.anyMatch(x -> x.config.queues.getQueue(r1).get(r2) == null))
+				if (!r1.equals(r2) && !q0_r1.get(r2).isEmpty() &&
+						cs.stream()
+								.noneMatch(x -> x.queues.getQueue(r1).get(r2).isEmpty()))
 				{
-					q0_r1.put(r2, null);
+					Set<ESend> msgs = ignored.computeIfAbsent(r2, x -> new HashSet<>());
+					q0_r1.get(r2).forEach(x -> msgs.add(x));
 				}
 			}
 		}
-	
-		// q0 now shows which buffers are never null at any state in the termset
-		Map<Role, Set<ESend>> ignored = new HashMap<>();
-		for (Role r : roles)
+		return ignored;
+	}
+
+	// Progress on a symmetry-reduced model (cf. SSymmetry): the termsets of the reduced model do not exactly correspond to those of the full model
+	// So, conservatively, checks each termset for any role (up to symmetry, in the same local state up to symmetry) that may be starved, or any channel (up to symmetry) that may never be drained
+	// A false positive only costs a rebuild of the full model, cf. getFullModel
+	protected boolean mayViolateProgress(SSymmetry sym)
+	{
+		for (Set<SState> termset: this.graph.getTermSets())
 		{
-			Set<ESend> msgs = q0.values().stream()
-					.flatMap(x -> x.entrySet().stream())  // For all input buffs at every role...
-					.filter(x -> x.getKey().equals(r) && x.getValue() != null)  // ...s.t. the buff is from "r" and is non-empty
-					.map(x -> x.getValue()).collect(Collectors.toSet());
-			if (!msgs.isEmpty())
+			Set<Pair<Role, Integer>> starved = null;
+			Set<Pair<Role, Role>> ignored = null;
+			for (SState s : termset)
+			{
+				SConfig c = s.getConfig();
+				Set<Role> subjs = s.getActions().stream().map(x -> x.subj)
+						.collect(Collectors.toSet());
+				Set<Pair<Role, Integer>> ss = c.efsms.keySet().stream()
+						.filter(x -> !subjs.contains(x) && !c.canSafelyTerminate(x)
+								&& c.queues.isEmpty(x))
+						.map(x -> new Pair<>(sym.orbit(x),
+								sym.toRef(x, c.efsms.get(x).curr)))
+						.collect(Collectors.toSet());
+				Set<Pair<Role, Role>> is = new HashSet<>();
+				for (Role r1 : c.efsms.keySet())  // dest
+				{
+					c.queues.getQueue(r1).entrySet().stream()
+							.filter(x -> !x.getValue().isEmpty())
+							.forEach(x -> is.add(
+									new Pair<>(sym.orbit(x.getKey()), sym.orbit(r1))));
+				}
+				if (starved == null)
+				{
+					starved = ss;
+					ignored = is;
+				}
+				else
+				{
+					starved.retainAll(ss);
+					ignored.retainAll(is);
+				}
+				if (starved.isEmpty() && ignored.isEmpty())
+				{
+					break;
+				}
+			}
+			if (!starved.isEmpty() || !ignored.isEmpty())
 			{
-				ignored.put(r, msgs);
+				return true;
 			}
 		}
-		return ignored;
+		return false;
+	}
+
+	// Rebuilds the global model without symmetry reduction, for exact progress checking
+	protected SModel getFullModel(SSymmetry sym) throws ScribException
+	{
+		this.core.verbosePrintln("(" + this.graph.proto
+				+ ") Rechecking progress on the full global model");
+		SGraph full = new SGraphBuilder(this.core, 1, false).build(sym.egraphs,
+				sym.explicit, this.graph.proto);
+		this.core.verbosePrintln("(" + this.graph.proto
+				+ ") Built full global model (" + full.states.size() + " states)");
+		SModel res = this.core.config.mf.global.SModel(full);
+		res.core = this.core;
+		return res;
 	}
 
 	// Cf. SStateErrors  // TODO: refactor to Core, if not to its own class?
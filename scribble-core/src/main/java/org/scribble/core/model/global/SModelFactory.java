@@ -34,9 +34,14 @@ public interface SModelFactory
 
 	// protected constructors (MState mutable)
 	SState SState(SConfig config);
-	SConfig SConfig(Map<Role, EFsm> state, SingleBuffers buffs);
+	SState SState(SConfigPacker packer, SPackedConfig packed, int id);  // A handle for a record of an SMappedStateStore, cf. SMappedStateStore.getState
+	SConfig SConfig(SConfigPacker packer, Map<Role, EFsm> state,
+			SQueues buffs);
+	SConfig SConfig(SConfigPacker packer, Map<Role, EFsm> state,
+			SQueues buffs, SPackedConfig packed);  // Pre: packed is packer.pack(state, buffs)
 	SGraph SGraph(GProtoName proto, Map<Integer, SState> states, 
 			SState init);  // states: s.id -> s
+	SGraph SMappedGraph(GProtoName proto, SMappedStateStore store);
 	SModel SModel(SGraph g);
 	
 	// public constructors (subpackage, immutable)
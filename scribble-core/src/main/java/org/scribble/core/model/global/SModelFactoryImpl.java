@@ -51,6 +51,12 @@ public class SModelFactoryImpl extends ModelFactoryBase implements SModelFactory
 		return new SState(config);
 	}
 
+	@Override
+	public SState SState(SConfigPacker packer, SPackedConfig packed, int id)
+	{
+		return new SState(packer, packed, id);
+	}
+
 	// states: s.id -> s
 	@Override
 	public SGraph SGraph(GProtoName proto, Map<Integer, SState> states,
@@ -60,9 +66,23 @@ public class SModelFactoryImpl extends ModelFactoryBase implements SModelFactory
 	}
 
 	@Override
-	public SConfig SConfig(Map<Role, EFsm> state, SingleBuffers buffs)
+	public SGraph SMappedGraph(GProtoName proto, SMappedStateStore store)
+	{
+		return new SMappedGraph(proto, store);
+	}
+
+	@Override
+	public SConfig SConfig(SConfigPacker packer, Map<Role, EFsm> state,
+			SQueues buffs)
+	{
+		return new SConfig(this.mf, packer, state, buffs);
+	}
+
+	@Override
+	public SConfig SConfig(SConfigPacker packer, Map<Role, EFsm> state,
+			SQueues buffs, SPackedConfig packed)
 	{
-		return new SConfig(this.mf, state, buffs);
+		return new SConfig(this.mf, packer, state, buffs, packed);
 	}
 	
 	@Override
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.Arrays;
+
+// Immutable bit-packed form of an SConfig, cf. SConfigPacker -- used as the visited-set key and for SState identity
+// N.B. only meaningful w.r.t. the SConfigPacker that produced it
+public final class SPackedConfig
+{
+	private final long[] words;
+	private final int hash;
+
+	// Pre: words not subsequently mutated (not copied)
+	protected SPackedConfig(long[] words)
+	{
+		this.words = words;
+		this.hash = Arrays.hashCode(words);
+	}
+
+	// Pre: offset/width as laid out by SConfigPacker
+	protected int get(int offset, int width)
+	{
+		if (width == 0)
+		{
+			return 0;
+		}
+		int i = offset >>> 6;
+		int shift = offset & 63;
+		long x = this.words[i] >>> shift;
+		if (shift + width > 64)  // Field straddles two words
+		{
+			x |= this.words[i + 1] << (64 - shift);
+		}
+		return (int) (x & ((1L << width) - 1));
+	}
+
+	// Number of words, fixed per SConfigPacker
+	protected int getWordCount()
+	{
+		return this.words.length;
+	}
+
+	protected long getWord(int i)
+	{
+		return this.words[i];
+	}
+
+	// Mutates words -- for use by SConfigPacker while building a new (zeroed) array
+	protected static void set(long[] words, int offset, int width, int v)
+	{
+		if (width == 0)
+		{
+			return;
+		}
+		long x = v & ((1L << width) - 1);
+		int i = offset >>> 6;
+		int shift = offset & 63;
+		words[i] |= x << shift;
+		if (shift + width > 64)
+		{
+			words[i + 1] |= x >>> (64 - shift);
+		}
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof SPackedConfig))
+		{
+			return false;
+		}
+		SPackedConfig them = (SPackedConfig) o;
+		return this.hash == them.hash && Arrays.equals(this.words, them.words);
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(this.words);
+	}
+}
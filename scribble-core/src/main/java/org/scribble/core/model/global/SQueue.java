@@ -0,0 +1,182 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.scribble.core.model.endpoint.actions.ESend;
+
+// Immutable (persistent) FIFO of buffered messages for one channel, cf. SQueues
+// Two-list ("banker's") queue: enqueue conses onto rear, dequeue takes from front -- updated copies share all existing nodes
+// Invariant: front == null => rear == null, so peek is constant time
+public final class SQueue implements Iterable<ESend>
+{
+	public static final SQueue EMPTY = new SQueue(null, null, 0);
+
+	private static final class Node
+	{
+		final ESend msg;
+		final Node next;
+
+		Node(ESend msg, Node next)
+		{
+			this.msg = msg;
+			this.next = next;
+		}
+	}
+
+	private final Node front;  // Head of queue first
+	private final Node rear;  // Most recently enqueued first
+	public final int size;
+
+	private SQueue(Node front, Node rear, int size)
+	{
+		this.front = front;
+		this.rear = rear;
+		this.size = size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	// Return null if empty
+	public ESend peek()
+	{
+		return this.front == null ? null : this.front.msg;
+	}
+
+	// Return an updated copy
+	public SQueue enqueue(ESend m)
+	{
+		return (this.front == null)
+				? new SQueue(new Node(m, null), null, 1)
+				: new SQueue(this.front, new Node(m, this.rear), this.size + 1);
+	}
+
+	// Pre: !isEmpty()
+	// Return an updated copy
+	public SQueue dequeue()
+	{
+		if (this.front == null)
+		{
+			throw new RuntimeException("Shouldn't get in here: empty queue");
+		}
+		if (this.front.next != null)
+		{
+			return new SQueue(this.front.next, this.rear, this.size - 1);
+		}
+		Node front = null;  // Reverse rear to restore the invariant
+		for (Node n = this.rear; n != null; n = n.next)
+		{
+			front = new Node(n.msg, front);
+		}
+		return new SQueue(front, null, this.size - 1);
+	}
+
+	public List<ESend> toList()
+	{
+		List<ESend> res = new ArrayList<>(this.size);
+		for (Node n = this.front; n != null; n = n.next)
+		{
+			res.add(n.msg);
+		}
+		int i = res.size();
+		for (Node n = this.rear; n != null; n = n.next)
+		{
+			res.add(i, n.msg);  // rear is reversed
+		}
+		return res;
+	}
+
+	// Head first
+	@Override
+	public Iterator<ESend> iterator()
+	{
+		if (this.rear == null)  // Common case, no copy
+		{
+			return new Iterator<ESend>()
+			{
+				private Node next = SQueue.this.front;
+
+				@Override
+				public boolean hasNext()
+				{
+					return this.next != null;
+				}
+
+				@Override
+				public ESend next()
+				{
+					if (this.next == null)
+					{
+						throw new NoSuchElementException();
+					}
+					ESend m = this.next.msg;
+					this.next = this.next.next;
+					return m;
+				}
+			};
+		}
+		return toList().iterator();
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		for (ESend m : this)
+		{
+			hash = 31 * hash + m.hashCode();
+		}
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof SQueue))
+		{
+			return false;
+		}
+		SQueue q = (SQueue) o;
+		if (this.size != q.size)
+		{
+			return false;
+		}
+		Iterator<ESend> i = q.iterator();
+		for (ESend m : this)
+		{
+			if (!m.equals(i.next()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return toList().toString();
+	}
+}
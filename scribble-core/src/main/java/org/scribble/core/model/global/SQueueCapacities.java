@@ -0,0 +1,90 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.scribble.core.type.name.Role;
+
+// Immutable channel capacities for global model building, cf. SQueues
+// A global default, optionally overridden per (src, dest) channel -- roles are matched by name, i.e., independently of protocol
+public class SQueueCapacities
+{
+	public static final SQueueCapacities ONE = new SQueueCapacities(1);  // The "standard" single-buffer semantics
+
+	public final int global;
+	private final Map<Role, Map<Role, Integer>> chans;  // src -> dest -> capacity
+
+	public SQueueCapacities(int global)
+	{
+		this(global, Collections.emptyMap());
+	}
+
+	// Pre: global and all chans values >= 1
+	public SQueueCapacities(int global, Map<Role, Map<Role, Integer>> chans)
+	{
+		if (global < 1 || chans.values().stream()
+				.anyMatch(x -> x.values().stream().anyMatch(y -> y < 1)))
+		{
+			throw new IllegalArgumentException("Bad capacity: " + global + ", " + chans);
+		}
+		this.global = global;
+		this.chans = Collections.unmodifiableMap(chans.entrySet().stream()
+				.collect(Collectors.toMap(x -> x.getKey(),
+						x -> Collections.unmodifiableMap(new HashMap<>(x.getValue())))));
+	}
+
+	// The capacity of the channel from src to dest
+	public int get(Role src, Role dest)
+	{
+		Map<Role, Integer> tmp = this.chans.get(src);
+		Integer k = (tmp == null) ? null : tmp.get(dest);
+		return (k == null) ? this.global : k;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 3217;
+		hash = 31 * hash + this.global;
+		hash = 31 * hash + this.chans.hashCode();
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof SQueueCapacities))
+		{
+			return false;
+		}
+		SQueueCapacities c = (SQueueCapacities) o;
+		return this.global == c.global && this.chans.equals(c.chans);
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.chans.isEmpty()
+				? Integer.toString(this.global)
+				: this.global + " " + this.chans;
+	}
+}
@@ -20,6 +20,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.scribble.core.model.ModelFactory;
 import org.scribble.core.model.endpoint.actions.EAcc;
 import org.scribble.core.model.endpoint.actions.EClientWrap;
 import org.scribble.core.model.endpoint.actions.EDisconnect;
@@ -30,27 +31,33 @@ import org.scribble.core.model.endpoint.actions.EServerWrap;
 import org.scribble.core.type.name.Role;
 
 // Immutable -- send/receive/etc return updated copies
-public class SingleBuffers
+// Bounded FIFO buffers, capacity per channel given by SQueueCapacities (SQueueCapacities.ONE for the standard single-buffer semantics)
+// Copies are shallow: only the outer map and the updated role's inner map are copied, all other maps and SQueues are shared
+public class SQueues
 {
-	private final Map<Role, Map<Role, Boolean>> connected = new HashMap<>();  // local -> peer -> does-local-consider-connected  (symmetric)
+	public final SQueueCapacities caps;
+
+	private final Map<Role, Map<Role, Boolean>> connected;  // local -> peer -> does-local-consider-connected  (symmetric)
 			// CHECKME: refactor as Map<Role, Set<Role>> ?  cf. ConnectionChecker
 
-	private final Map<Role, Map<Role, ESend>> buffs = new HashMap<>();  // dest -> src -> msg -- N.B. connected.get(A).get(B) => can send into buffs.get(B).get(A) ("reversed")
-			// N.B. hardcoded to capacity one -- SQueues would be the generalisation
-			// null ESend for empty queue
+	private final Map<Role, Map<Role, SQueue>> buffs;  // dest -> src -> msgs -- N.B. connected.get(A).get(B) => can send into buffs.get(B).get(A) ("reversed")
+			// SQueue.EMPTY for empty queue
 
-	public SingleBuffers(Set<Role> roles, boolean implicit)
+	public SQueues(Set<Role> roles, boolean implicit, SQueueCapacities caps)
 	{
+		this.caps = caps;
+		this.connected = new HashMap<>();
+		this.buffs = new HashMap<>();
 		for(Role r1 : roles)
 		{
 			HashMap<Role, Boolean> connected = new HashMap<>();
-			HashMap<Role, ESend> queues = new HashMap<>();
+			HashMap<Role, SQueue> queues = new HashMap<>();
 			for (Role r2 : roles)
 			{
 				if (!r1.equals(r2)) 
 				{
 					connected.put(r2, implicit); 
-					queues.put(r2, null);  // null for empty queue
+					queues.put(r2, SQueue.EMPTY);
 				}
 			}
 			this.connected.put(r1, connected);
@@ -58,24 +65,24 @@ public class SingleBuffers
 		}
 	}
 
-	protected SingleBuffers(SingleBuffers queues)
+	// Pre: connected and buffs keys are the same set of roles, and the maps are not subsequently mutated -- maps not copied (cf. SConfigPacker.unpack)
+	protected SQueues(Map<Role, Map<Role, Boolean>> connected,
+			Map<Role, Map<Role, SQueue>> buffs, SQueueCapacities caps)
 	{
-		for (Role r : queues.buffs.keySet())
-		{
-			this.connected.put(r, new HashMap<>(queues.connected.get(r)));
-			this.buffs.put(r, new HashMap<>(queues.buffs.get(r)));
-		}
+		this.caps = caps;
+		this.connected = connected;
+		this.buffs = buffs;
 	}
 
 	public boolean canSend(Role self, ESend a)
 	{
 		return isConnected(self, a.peer) //&& isConnected(a.peer, self)  // CHECKME: only consider local side?
-				&& this.buffs.get(a.peer).get(self) == null;
+				&& this.buffs.get(a.peer).get(self).size < this.caps.get(self, a.peer);
 	}
 
 	public boolean canReceive(Role self, ERecv a)
 	{
-		ESend send = this.buffs.get(self).get(a.peer);
+		ESend send = this.buffs.get(self).get(a.peer).peek();
 		return isConnected(self, a.peer)  // Other direction doesn't matter, local can still receive after peer disconnected
 				&& send != null && send.toDual(a.peer).equals(a);
 	}
@@ -113,39 +120,80 @@ public class SingleBuffers
 
 	// Pre: canSend, e.g., via via SConfig.getFireable
 	// Return an updated copy
-	public SingleBuffers send(Role self, ESend a)
+	public SQueues send(Role self, ESend a)
 	{
-		SingleBuffers copy = new SingleBuffers(this);
-		copy.buffs.get(a.peer).put(self, a);
-		return copy;
+		SQueue q = this.buffs.get(a.peer).get(self);
+		return new SQueues(this.connected, update(this.buffs, a.peer, self, q.enqueue(a)),
+				this.caps);
 	}
 
 	// Pre: canReceive, e.g., via SConfig.getFireable
 	// Return an updated copy
-	public SingleBuffers receive(Role self, ERecv a)
+	public SQueues receive(Role self, ERecv a)
 	{
-		SingleBuffers copy = new SingleBuffers(this);
-		copy.buffs.get(self).put(a.peer, null);
-		return copy;
+		SQueue q = this.buffs.get(self).get(a.peer);
+		return new SQueues(this.connected, update(this.buffs, self, a.peer, q.dequeue()),
+				this.caps);
 	}
 	
   // Sync action
 	// Pre: canRequest(r1, [[r2]]) and canAccept(r2, [[r1]]), where [[r]] is a matching action with peer r -- e.g., via via SConfig.getFireable
 	// Return an updated copy
-	public SingleBuffers connect(Role r1, Role r2)  // Role sides and message don't matter
+	public SQueues connect(Role r1, Role r2)  // Role sides and message don't matter
 	{
-		SingleBuffers copy = new SingleBuffers(this);
-		copy.connected.get(r1).put(r2, true);
-		copy.connected.get(r2).put(r1, true);
-		return copy;
+		Map<Role, Map<Role, Boolean>> connected = 
+				update(update(this.connected, r1, r2, true), r2, r1, true);
+		return new SQueues(connected, this.buffs, this.caps);
 	}
 
 	// Pre: canDisconnect(self, d), e.g., via SConfig.via getFireable
 	// Return an updated copy
-	public SingleBuffers disconnect(Role self, EDisconnect d)
+	public SQueues disconnect(Role self, EDisconnect d)
 	{
-		SingleBuffers copy = new SingleBuffers(this);
-		copy.connected.get(self).put(d.peer, false);  // Didn't update buffs (cf. SConfig.getOrphanMessages)
+		return new SQueues(update(this.connected, self, d.peer, false),  // Didn't update buffs (cf. SConfig.getOrphanMessages)
+				this.buffs, this.caps);
+	}
+
+	// Return a copy with the roles renamed by perm, including the peers of the buffered messages, cf. SSymmetry.canonicalise
+	// Pre: perm is a permutation of the roles, and preserves this.caps
+	protected SQueues permute(Map<Role, Role> perm, ModelFactory mf)
+	{
+		Map<Role, Map<Role, Boolean>> connected = new HashMap<>();
+		Map<Role, Map<Role, SQueue>> buffs = new HashMap<>();
+		for (Role self : this.connected.keySet())
+		{
+			Map<Role, Boolean> c = new HashMap<>();
+			Map<Role, SQueue> q = new HashMap<>();
+			Role dest = perm.get(self);
+			for (Role peer : this.connected.get(self).keySet())
+			{
+				c.put(perm.get(peer), this.connected.get(self).get(peer));
+				SQueue msgs = this.buffs.get(self).get(peer);
+				if (!dest.equals(self))
+				{
+					SQueue tmp = SQueue.EMPTY;
+					for (ESend m : msgs)
+					{
+						tmp = tmp.enqueue(mf.local.ESend(dest, m.mid, m.payload));
+					}
+					msgs = tmp;
+				}
+				q.put(perm.get(peer), msgs);
+			}
+			connected.put(dest, c);
+			buffs.put(dest, q);
+		}
+		return new SQueues(connected, buffs, this.caps);
+	}
+
+	// Copy-on-write of m.get(k1).put(k2, v) -- the other inner maps are shared
+	private static <T> Map<Role, Map<Role, T>> update(Map<Role, Map<Role, T>> m,
+			Role k1, Role k2, T v)
+	{
+		Map<Role, Map<Role, T>> copy = new HashMap<>(m);
+		Map<Role, T> inner = new HashMap<>(m.get(k1));
+		inner.put(k2, v);
+		copy.put(k1, inner);
 		return copy;
 	}
 
@@ -157,30 +205,36 @@ public class SingleBuffers
 	
 	public boolean isEmpty(Role r)  // this.connected doesn't matter
 	{
-		return this.buffs.get(r).values().stream().allMatch(v -> v == null);
+		return this.buffs.get(r).values().stream().allMatch(v -> v.isEmpty());
 	}
 	
-	// Return a (deep) copy -- currently, checkEventualReception expects a modifiable return
-	// N.B. hardcoded to capacity one
-	public Map<Role, Map<Role, ESend>> getQueues()
+	// Return a (shallow) copy -- SQueue are immutable
+	public Map<Role, Map<Role, SQueue>> getQueues()
 	{
 		return this.buffs.entrySet().stream().collect(Collectors.toMap(
 				Entry::getKey,
 				x -> new HashMap<>(x.getValue())));  // Collections.unmodifiableMap(x.getValue())
 	}
 
-	// N.B. hardcoded to capacity one
-	public Map<Role, ESend> getQueue(Role r)
+	// src -> msgs, for dest r
+	public Map<Role, SQueue> getQueue(Role r)
 	{
 		return Collections.unmodifiableMap(this.buffs.get(r));
 	}
 
+	// The buffered messages from src for dest, i.e., getQueue(dest).get(src) without the wrapper, e.g., for SSymmetry
+	protected SQueue getQueue(Role dest, Role src)
+	{
+		return this.buffs.get(dest).get(src);
+	}
+
 	@Override
 	public final int hashCode()
 	{
 		int hash = 131;
 		hash = 31 * hash + this.connected.hashCode();
 		hash = 31 * hash + this.buffs.hashCode();
+		hash = 31 * hash + this.caps.hashCode();
 		return hash;
 	}
 
@@ -191,23 +245,24 @@ public class SingleBuffers
 		{
 			return true;
 		}
-		if (!(o instanceof SingleBuffers))
+		if (!(o instanceof SQueues))
 		{
 			return false;
 		}
-		SingleBuffers b = (SingleBuffers) o;
-		return this.connected.equals(b.connected) && this.buffs.equals(b.buffs);
+		SQueues b = (SQueues) o;
+		return this.connected.equals(b.connected) && this.buffs.equals(b.buffs)
+				&& this.caps.equals(b.caps);
 	}
 	
 	@Override
 	public String toString()
 	{
 		return this.buffs.entrySet().stream()
-				.filter(e -> e.getValue().values().stream().anyMatch(v -> v != null))
+				.filter(e -> e.getValue().values().stream().anyMatch(v -> !v.isEmpty()))
 				.collect(Collectors.toMap(
 						e -> e.getKey(),
 						e -> e.getValue().entrySet().stream()
-								.filter(f -> f.getValue() != null)
+								.filter(f -> !f.getValue().isEmpty())
 								.collect(Collectors.toMap(f -> f.getKey(), f -> f.getValue()))
 				)).toString();
 	}
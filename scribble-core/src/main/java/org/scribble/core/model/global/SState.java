@@ -22,15 +22,31 @@ import org.scribble.core.model.global.actions.SAction;
 import org.scribble.core.type.kind.Global;
 
 // CHECKME: make a WFModel front-end class? (cf. EGraph)
-// N.B. only uses MState.id cosmetically, cf. MState equals/hashCode -- overrides equals/hashCode based on this.config (maybe extending MState is a bit misleading)
+// N.B. only uses MState.id cosmetically, cf. MState equals/hashCode -- overrides equals/hashCode based on this.packed (maybe extending MState is a bit misleading)
 public class SState extends MPrettyState<Void, SAction, SState, Global>
 {
-	public final SConfig config;
+	protected final SConfigPacker packer;
+	public final SPackedConfig packed;  // Only the packed config is retained, cf. getConfig
 	
 	protected SState(SConfig config)  // CHECKME? now publically mutable (for mf imple), same for EState
 	{
 		super(Collections.emptySet());
-		this.config = config;
+		this.packer = config.packer;
+		this.packed = config.packed;
+	}
+
+	// A handle for the state recorded at index id by an SMappedStateStore, i.e., id is the record index
+	protected SState(SConfigPacker packer, SPackedConfig packed, int id)
+	{
+		super(Collections.emptySet(), id);
+		this.packer = packer;
+		this.packed = packed;
+	}
+
+	// Returns a fresh unpacked copy -- callers needing several operations on the config should cache the result locally
+	public SConfig getConfig()
+	{
+		return this.packer.unpack(this.packed);
 	}
 	
   // For access from SGraphBuilderUtil
@@ -44,11 +60,17 @@ public class SState extends MPrettyState<Void, SAction, SState, Global>
 	{
 		return new SStateErrors(this);
 	}
+
+	// Pre: config is this.getConfig() -- avoids unpacking again if the caller already has it
+	protected SStateErrors getErrors(SConfig config)
+	{
+		return new SStateErrors(this, config);
+	}
 	
 	@Override
 	protected String getNodeLabel()
 	{
-		String labs = this.config.toString();
+		String labs = getConfig().toString();
 		return "label=\"" + this.id + ":" + labs.substring(1, labs.length() - 1)
 				+ "\"";
 	}
@@ -62,7 +84,7 @@ public class SState extends MPrettyState<Void, SAction, SState, Global>
 	@Override
 	public String toString()
 	{
-		return this.id + ":" + this.config.toString();
+		return this.id + ":" + getConfig().toString();
 	}
 	
 	// N.B. does not use super.hashCode, need "semantic" equality of configs for model construction
@@ -70,13 +92,13 @@ public class SState extends MPrettyState<Void, SAction, SState, Global>
 	public int hashCode()
 	{
 		int hash = 79;
-		hash = 31 * hash + this.config.hashCode();
+		hash = 31 * hash + this.packed.hashCode();
 		return hash;
 	}
 
 	// FIXME? doesn't use this.id, cf. super.equals
 	// Not using id, cf. ModelState -- FIXME? use a factory pattern that associates unique states and ids? -- use id for hash, and make a separate "semantic equals"
-	// Care is needed if hashing, since mutable (OK to use immutable config -- cf., ModelState.id)
+	// Care is needed if hashing, since mutable (OK to use immutable packed config -- cf., ModelState.id)
 	@Override
 	public boolean equals(Object o)
 	{
@@ -89,7 +111,8 @@ public class SState extends MPrettyState<Void, SAction, SState, Global>
 			return false;
 		}
 		SState them = (SState) o;
-		return them.canEquals(this) && this.config.equals(them.config);  // N.B. does not do super.equals (cf. hashCode)
+		return them.canEquals(this) && this.packer == them.packer
+				&& this.packed.equals(them.packed);  // N.B. does not do super.equals (cf. hashCode)
 	}
 
 	@Override
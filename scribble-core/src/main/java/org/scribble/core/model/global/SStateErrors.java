@@ -35,12 +35,18 @@ public class SStateErrors
 	public final Map<Role, EState> unfinished;   // Unfinished roles
 
 	public SStateErrors(SState state)
+	{
+		this(state, state.getConfig());
+	}
+
+	// Pre: config is state.getConfig()
+	protected SStateErrors(SState state, SConfig config)
 	{
 		this.state = state;
-		this.stuck = state.config.getStuckMessages();
-		this.waitFor = state.config.getWaitForCycles();
-		this.orphans = state.config.getOrphanMessages();
-		this.unfinished = state.config.getUnfinishedRoles();
+		this.stuck = config.getStuckMessages();
+		this.waitFor = config.getWaitForCycles();
+		this.orphans = config.getOrphanMessages();
+		this.unfinished = config.getUnfinishedRoles();
 	}
 	
 	public boolean isEmpty()
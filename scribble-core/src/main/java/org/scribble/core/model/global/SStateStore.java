@@ -0,0 +1,34 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import org.scribble.core.type.name.GProtoName;
+
+// The visited set of global model building, cf. SGraphBuilderUtil -- records the unique SState for each (packed) config
+// A fresh store for each build (cf. SGraphBuilder.newStateStore), the built SGraph may keep reading from it
+// Implementations must be thread-safe (cf. SGraphBuilder.buildParallel)
+public interface SStateStore
+{
+	// Return the state recorded for c, or null if none
+	SState get(SConfig c);
+
+	// Record a new state for c, unless a state is already recorded -- return the new state, or null if a state was already recorded (cf. get)
+	SState add(SConfig c);
+
+	// Called once all edges from s have been added, cf. SGraphBuilder.explore -- s is not explored again
+	void explored(SState s);
+
+	// The graph of all recorded states -- no more states can be added after
+	SGraph toGraph(GProtoName proto, SState init);
+}
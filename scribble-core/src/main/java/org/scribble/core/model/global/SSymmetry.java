@@ -0,0 +1,516 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.core.model.global;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.scribble.core.model.ModelFactory;
+import org.scribble.core.model.endpoint.EFsm;
+import org.scribble.core.model.endpoint.EGraph;
+import org.scribble.core.model.endpoint.EState;
+import org.scribble.core.model.endpoint.actions.EAction;
+import org.scribble.core.model.endpoint.actions.ESend;
+import org.scribble.core.type.name.MsgId;
+import org.scribble.core.type.name.Role;
+import org.scribble.core.type.session.Payload;
+import org.scribble.util.Pair;
+
+// Role symmetry for global model building (CoreArgs.SYMMETRY), cf. SConfigPacker.pack
+// A transposition of roles (a b) is a symmetry if every EGraph(r) is isomorphic to EGraph((a b)(r)) with action peers renamed by (a b), and the channel capacities are invariant
+// Roles related by symmetries are partitioned into classes -- any permutation within a class is then a symmetry
+// Configs are canonicalised by permuting each class (the states of all roles, connections and buffered messages), so symmetric configs are collapsed into one SState (cf. canonicalise for the exception)
+// Safety errors are invariant under symmetry, but progress checking on the reduced model is over-approximated, cf. SModel.validate
+// N.B. error traces are of the reduced model, i.e., reported up to symmetry -- replaying one on the full model may need de-permuting (renaming members within classes) at each step
+public class SSymmetry
+{
+	private static final int MAX_TIE_PERMS = 120;  // Bound on the tie permutations tried per config, cf. canonicalise
+
+	protected final ModelFactory mf;
+
+	// For (re)building the full model, cf. SModel.validate
+	public final Map<Role, EGraph> egraphs;
+	public final boolean explicit;
+
+	public final List<Role> roles;  // Sorted
+	public final List<List<Role>> classes;  // Non-singleton only, members sorted -- the first member is the representative
+	private final List<Role> fixed;  // Roles not in any class
+	private final Map<Role, Integer> index = new HashMap<>();  // Role -> index in this.roles
+
+	// Isomorphisms for the valid transpositions (a, b), a < b: r -> EState.id (of EGraph(r)) -> EState (of EGraph((a b)(r)))
+	private final Map<Pair<Role, Role>, Map<Role, Map<Integer, EState>>> isos = new HashMap<>();
+
+	// Class members, except the representatives: r -> EState.id (of EGraph(r)), offset by the least id, -> EState.id of the corresponding state in the EGraph of orbit(r), cf. toRef
+	private final Map<Role, int[]> refs = new HashMap<>();
+	private final Map<Role, Integer> refOffsets = new HashMap<>();
+
+	// ESend (any peer) -> index of its (mid, payload), from 1 -- buffered messages are compared by these, the peer is determined by the channel
+	private final Map<ESend, Integer> msgs = new HashMap<>();
+
+	public SSymmetry(ModelFactory mf, Map<Role, EGraph> egraphs, boolean explicit,
+			SQueueCapacities caps)
+	{
+		this.mf = mf;
+		this.egraphs = Collections.unmodifiableMap(egraphs);
+		this.explicit = explicit;
+		this.roles = Collections.unmodifiableList(egraphs.keySet().stream()
+				.sorted(Comparator.comparing(Role::toString))
+				.collect(Collectors.toList()));
+		for (int i = 0; i < this.roles.size(); i++)
+		{
+			this.index.put(this.roles.get(i), i);
+		}
+
+		List<List<Role>> classes = new ArrayList<>();
+		Map<Role, List<Role>> member = new HashMap<>();
+		for (int i = 0; i < this.roles.size(); i++)
+		{
+			Role a = this.roles.get(i);
+			if (member.containsKey(a))
+			{
+				continue;
+			}
+			List<Role> c = new ArrayList<>();
+			c.add(a);
+			for (int j = i + 1; j < this.roles.size(); j++)
+			{
+				Role b = this.roles.get(j);
+				if (!member.containsKey(b) 
+						&& c.stream().allMatch(x -> addSwap(x, b, caps)))  // So every pair in a class is a valid transposition (cf. canonicalise)
+				{
+					c.add(b);
+					member.put(b, c);
+				}
+			}
+			if (c.size() > 1)
+			{
+				member.put(a, c);
+				classes.add(Collections.unmodifiableList(c));
+			}
+		}
+		this.classes = Collections.unmodifiableList(classes);
+		this.fixed = Collections.unmodifiableList(this.roles.stream()
+				.filter(x -> !member.containsKey(x)).collect(Collectors.toList()));
+
+		Map<Pair<MsgId<?>, Payload>, Integer> tmp = new HashMap<>();
+		for (Role r : this.roles)
+		{
+			Set<EState> ss = new HashSet<>(egraphs.get(r).init.getReachableStates());
+			ss.add(egraphs.get(r).init);
+			for (EState s : ss)
+			{
+				for (EAction a : s.getActions())
+				{
+					if (a.isSend())
+					{
+						this.msgs.put((ESend) a, tmp.computeIfAbsent(
+								new Pair<>(a.mid, a.payload), x -> tmp.size() + 1));
+					}
+				}
+			}
+			Role ref = orbit(r);
+			if (!ref.equals(r))
+			{
+				int min = ss.stream().mapToInt(x -> x.id).min().getAsInt();
+				int[] ids = new int[ss.stream().mapToInt(x -> x.id).max().getAsInt() - min + 1];
+				Map<Integer, EState> iso = getIso(r, ref).get(r);
+				for (EState s : ss)
+				{
+					ids[s.id - min] = iso.get(s.id).id;
+				}
+				this.refs.put(r, ids);
+				this.refOffsets.put(r, min);
+			}
+		}
+	}
+
+	public boolean isEmpty()
+	{
+		return this.classes.isEmpty();
+	}
+
+	// The representative of the class of r (r itself if none)
+	public Role orbit(Role r)
+	{
+		for (List<Role> c : this.classes)
+		{
+			if (c.contains(r))
+			{
+				return c.get(0);
+			}
+		}
+		return r;
+	}
+
+	// The EState.id, in the EGraph of orbit(r), corresponding to the local state s of r
+	public int toRef(Role r, EState s)
+	{
+		int[] ids = this.refs.get(r);
+		return (ids == null) ? s.id : ids[s.id - this.refOffsets.get(r)];
+	}
+
+	// Returns an equivalent (efsms, queues) with each class permuted into a canonical order, or the args themselves if already canonical
+	// Members are first sorted by compareMembers, i.e., their local state (up to symmetry) and their channels with the fixed roles
+	// Every permutation of the members tied on that (in all classes) is then tried, and the least result by compareConfigs (which includes the channels between members) is taken
+	// So symmetric configs are identified -- except if there are more than MAX_TIE_PERMS tie permutations, then the ties keep the current order (the result is still equivalent)
+	public Pair<Map<Role, EFsm>, SQueues> canonicalise(Map<Role, EFsm> efsms,
+			SQueues queues)
+	{
+		List<List<Role>> orders = new ArrayList<>(this.classes.size());  // orders.get(k).get(i) is the member to be renamed classes.get(k).get(i)
+		List<int[]> ties = new ArrayList<>();  // {class index, from, to}
+		int perms = 1;
+		for (int k = 0; k < this.classes.size(); k++)
+		{
+			List<Role> sorted = new ArrayList<>(this.classes.get(k));
+			sorted.sort((x, y) -> compareMembers(x, y, efsms, queues));  // Stable
+			for (int i = 0; i < sorted.size(); )
+			{
+				int j = i + 1;
+				while (j < sorted.size()
+						&& compareMembers(sorted.get(i), sorted.get(j), efsms, queues) == 0)
+				{
+					j++;
+				}
+				if (j - i > 1)
+				{
+					ties.add(new int[] { k, i, j });
+					for (int f = 2; f <= j - i && perms <= MAX_TIE_PERMS; f++)
+					{
+						perms *= f;
+					}
+				}
+				i = j;
+			}
+			orders.add(sorted);
+		}
+		Candidate res;
+		if (ties.isEmpty() || perms > MAX_TIE_PERMS)
+		{
+			if (orders.equals(this.classes))
+			{
+				return new Pair<>(efsms, queues);
+			}
+			res = permute(orders, efsms);
+		}
+		else
+		{
+			res = breakTies(orders, ties, 0, ties.get(0)[1], efsms, queues, null);
+			if (res.perm.entrySet().stream().allMatch(x -> x.getKey().equals(x.getValue())))
+			{
+				return new Pair<>(efsms, queues);
+			}
+		}
+		Map<Role, EFsm> fsms = new HashMap<>();
+		for (Entry<Role, EState> e : res.curr.entrySet())
+		{
+			Role r = e.getKey();
+			fsms.put(r, this.egraphs.get(r).toFsm(e.getValue()));
+		}
+		return new Pair<>(fsms, queues.permute(res.perm, this.mf));
+	}
+
+	// Tries every permutation of the ties (in place), from position i of ties.get(t), and returns the least result (or best)
+	private Candidate breakTies(List<List<Role>> orders, List<int[]> ties, int t,
+			int i, Map<Role, EFsm> efsms, SQueues queues, Candidate best)
+	{
+		if (t == ties.size())
+		{
+			Candidate c = permute(orders, efsms);
+			return (best == null || compareConfigs(c, best, queues) < 0) ? c : best;
+		}
+		int[] tie = ties.get(t);
+		if (i == tie[2])
+		{
+			return breakTies(orders, ties, t + 1,
+					(t + 1 < ties.size()) ? ties.get(t + 1)[1] : 0, efsms, queues, best);
+		}
+		List<Role> o = orders.get(tie[0]);
+		for (int j = i; j < tie[2]; j++)
+		{
+			Collections.swap(o, i, j);
+			best = breakTies(orders, ties, t, i + 1, efsms, queues, best);
+			Collections.swap(o, i, j);
+		}
+		return best;
+	}
+
+	// Applies the swaps that rename each orders.get(k).get(i) to classes.get(k).get(i)
+	private Candidate permute(List<List<Role>> orders, Map<Role, EFsm> efsms)
+	{
+		Map<Role, EState> curr = efsms.entrySet().stream()
+				.collect(Collectors.toMap(Entry::getKey, x -> x.getValue().curr));
+		Map<Role, Role> perm = this.roles.stream()
+				.collect(Collectors.toMap(x -> x, x -> x));
+		for (int k = 0; k < this.classes.size(); k++)
+		{
+			List<Role> c = this.classes.get(k);
+			List<Role> sorted = orders.get(k);
+			List<Role> at = new ArrayList<>(c);  // at.get(i) is the (original) member currently named c.get(i)
+			for (int i = 0; i < c.size(); i++)  // Selection by swaps: move sorted.get(i) to c.get(i)
+			{
+				int j = at.indexOf(sorted.get(i));
+				if (j != i)
+				{
+					Role a = c.get(i);
+					Role b = c.get(j);
+					curr = swap(a, b, curr);
+					for (Entry<Role, Role> e : perm.entrySet())
+					{
+						e.setValue(swap(a, b, e.getValue()));
+					}
+					Collections.swap(at, i, j);
+				}
+			}
+		}
+		return new Candidate(curr, perm);
+	}
+
+	// Members of the same class are first compared by this, cf. canonicalise
+	// Only uses the fixed roles, i.e., not affected by permuting any class
+	private int compareMembers(Role m1, Role m2, Map<Role, EFsm> efsms,
+			SQueues queues)
+	{
+		int res = Integer.compare(toRef(m1, efsms.get(m1).curr),
+				toRef(m2, efsms.get(m2).curr));
+		for (int i = 0; res == 0 && i < this.fixed.size(); i++)
+		{
+			Role x = this.fixed.get(i);
+			res = Boolean.compare(queues.isConnected(m1, x), queues.isConnected(m2, x));
+			if (res == 0)
+			{
+				res = Boolean.compare(queues.isConnected(x, m1),
+						queues.isConnected(x, m2));
+			}
+			if (res == 0)
+			{
+				res = compareQueues(queues.getQueue(m1, x), queues.getQueue(m2, x));
+			}
+			if (res == 0)
+			{
+				res = compareQueues(queues.getQueue(x, m1), queues.getQueue(x, m2));
+			}
+		}
+		return res;
+	}
+
+	// Compares the (permuted) configs themselves: the local states, then every connection and buffer
+	// Pre: c1 and c2 are permutations of the same config (so the same queues)
+	private int compareConfigs(Candidate c1, Candidate c2, SQueues queues)
+	{
+		for (Role r : this.roles)
+		{
+			int res = Integer.compare(c1.curr.get(r).id, c2.curr.get(r).id);
+			if (res != 0)
+			{
+				return res;
+			}
+		}
+		for (Role p : this.roles)
+		{
+			Role p1 = c1.inv.get(p);
+			Role p2 = c2.inv.get(p);
+			for (Role q : this.roles)
+			{
+				if (p.equals(q))
+				{
+					continue;
+				}
+				Role q1 = c1.inv.get(q);
+				Role q2 = c2.inv.get(q);
+				int res = Boolean.compare(queues.isConnected(p1, q1),
+						queues.isConnected(p2, q2));
+				if (res == 0)
+				{
+					res = compareQueues(queues.getQueue(p1, q1), queues.getQueue(p2, q2));
+				}
+				if (res != 0)
+				{
+					return res;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private int compareQueues(SQueue q1, SQueue q2)
+	{
+		int res = Integer.compare(q1.size, q2.size);
+		Iterator<ESend> i1 = q1.iterator();
+		Iterator<ESend> i2 = q2.iterator();
+		while (res == 0 && i1.hasNext())
+		{
+			res = Integer.compare(getMsg(i1.next()), getMsg(i2.next()));
+		}
+		return res;
+	}
+
+	private int getMsg(ESend m)
+	{
+		Integer res = this.msgs.get(m);
+		if (res == null)
+		{
+			throw new RuntimeException("Unknown message: " + m);
+		}
+		return res;
+	}
+
+	// Pre: (a b) is valid
+	private Map<Role, EState> swap(Role a, Role b, Map<Role, EState> curr)
+	{
+		Map<Role, Map<Integer, EState>> iso = getIso(a, b);
+		Map<Role, EState> res = new HashMap<>();
+		for (Entry<Role, EState> e : curr.entrySet())
+		{
+			Role r = e.getKey();
+			res.put(swap(a, b, r), iso.get(r).get(e.getValue().id));
+		}
+		return res;
+	}
+
+	private static Role swap(Role a, Role b, Role r)
+	{
+		return r.equals(a) ? b : r.equals(b) ? a : r;
+	}
+
+	private Map<Role, Map<Integer, EState>> getIso(Role a, Role b)
+	{
+		return (this.index.get(a) < this.index.get(b))
+				? this.isos.get(new Pair<>(a, b))
+				: this.isos.get(new Pair<>(b, a));
+	}
+
+	// Pre: a < b
+	// Checks (a b) is a symmetry, and records its isomorphisms if so
+	private boolean addSwap(Role a, Role b, SQueueCapacities caps)
+	{
+		for (Role x : this.roles)
+		{
+			for (Role y : this.roles)
+			{
+				if (!x.equals(y) && caps.get(x, y) != caps.get(swap(a, b, x),
+						swap(a, b, y)))
+				{
+					return false;
+				}
+			}
+		}
+		Map<Role, Map<Integer, EState>> iso = new HashMap<>();
+		for (Role r : this.roles)
+		{
+			Map<Integer, EState> tmp = getIso(a, b, this.egraphs.get(r).init,
+					this.egraphs.get(swap(a, b, r)).init);
+			if (tmp == null)
+			{
+				return false;
+			}
+			iso.put(r, tmp);
+		}
+		this.isos.put(new Pair<>(a, b), iso);
+		return true;
+	}
+
+	// Simultaneous traversal of two EGraphs from s1 and s2, matching the actions of s1 renamed by (a b) to those of s2
+	// Returns the (state id) isomorphism, or null if not isomorphic -- only deterministic EGraphs are considered (otherwise null)
+	private Map<Integer, EState> getIso(Role a, Role b, EState s1, EState s2)
+	{
+		Map<Integer, EState> res = new HashMap<>();
+		Map<Integer, Integer> inv = new HashMap<>();  // For injectivity
+		Deque<Pair<EState, EState>> todo = new ArrayDeque<>();
+		res.put(s1.id, s2);
+		inv.put(s2.id, s1.id);
+		todo.push(new Pair<>(s1, s2));
+		while (!todo.isEmpty())
+		{
+			Pair<EState, EState> p = todo.pop();
+			List<EAction> as1 = p.left.getActions();
+			List<EAction> as2 = p.right.getActions();
+			if (as1.size() != as2.size()
+					|| p.left.getStateKind() != p.right.getStateKind())
+			{
+				return null;
+			}
+			for (EAction x : as1)
+			{
+				EAction y = as2.stream().filter(z -> z.getClass() == x.getClass()
+						&& z.peer.equals(swap(a, b, x.peer)) && z.mid.equals(x.mid)
+						&& z.payload.equals(x.payload)).findAny().orElse(null);
+				if (y == null)
+				{
+					return null;
+				}
+				List<EState> n1 = p.left.getSuccs(x);
+				List<EState> n2 = p.right.getSuccs(y);
+				if (n1.size() != 1 || n2.size() != 1)
+				{
+					return null;
+				}
+				EState t1 = n1.get(0);
+				EState t2 = n2.get(0);
+				EState prev = res.get(t1.id);
+				if (prev == null)
+				{
+					if (inv.containsKey(t2.id))
+					{
+						return null;
+					}
+					res.put(t1.id, t2);
+					inv.put(t2.id, t1.id);
+					todo.push(new Pair<>(t1, t2));
+				}
+				else if (prev.id != t2.id)
+				{
+					return null;
+				}
+			}
+		}
+		return res;
+	}
+
+	// A permutation of a config, cf. canonicalise
+	private static final class Candidate
+	{
+		final Map<Role, EState> curr;  // Current name -> local state
+		final Map<Role, Role> perm;  // Original name -> current name
+		final Map<Role, Role> inv;  // Current name -> original name
+
+		Candidate(Map<Role, EState> curr, Map<Role, Role> perm)
+		{
+			this.curr = curr;
+			this.perm = perm;
+			this.inv = new HashMap<>();
+			for (Entry<Role, Role> e : perm.entrySet())
+			{
+				this.inv.put(e.getValue(), e.getKey());
+			}
+		}
+	}
+
+	// For verbose printing
+	@Override
+	public String toString()
+	{
+		return this.classes.toString();
+	}
+}
@@ -71,12 +71,27 @@ Options:
           Draw global model as png (requires dot)
   -fair                                         Assume fair output choices
   -umodel, -umodelpng (with appropriate args)   "Unfair" variant
+  -parallel                                     Build global models in parallel
+  -earlysafety                                  Stop global model building at the
+                                                first safety violation
+  -por                                          Partial-order reduction for
+                                                global model building
+  -spill                                        Keep global model states and
+                                                edges in memory-mapped
+                                                temporary files
+  -buffcap <k>                                  Channel capacity for global
+                                                model building (default 1)
+  -chancap <src role> <dest role> <k>           Capacity for one channel
+  -symmetry                                     Symmetry reduction of replicated
+                                                roles in global model building
+                                                (error traces are up to symmetry)
 
 
   -api <simple global protocol name> <role>     Generate Java Endpoint API
   -d <path>                                     API output directory
   -sessapi <simple global protocol name>        Generate Session API only
   -chanapi <simple global protocol name> <role> Generate State Channel API only
+  -fmtapi <simple global protocol name>         Generate binary message formatter
   -subtypes                                     Enable subtypes for -chanapi
 EOF
 }
@@ -26,6 +26,7 @@ import org.scribble.ast.ImportDecl;
 import org.scribble.ast.ImportModule;
 import org.scribble.ast.Module;
 import org.scribble.core.job.CoreArgs;
+import org.scribble.core.model.global.SQueueCapacities;
 import org.scribble.core.type.name.ModuleName;
 import org.scribble.del.DelFactory;
 import org.scribble.del.DelFactoryImpl;
@@ -55,6 +56,7 @@ public class Main
 {
 	public final ModuleName main;
 	public final Map<CoreArgs, Boolean> args;
+	public final SQueueCapacities caps;  // Global model channel capacities
 
 	private final ScribAntlrWrapper antlr;
 	//private final ResourceLocator locator;  // Path -> Resource
@@ -71,20 +73,34 @@ public class Main
 	public Main(ResourceLocator locator, Path mainpath,
 			Map<CoreArgs, Boolean> args) throws ScribException, ScribParserException
 	{
-		this(new Pair<>(locator, null), mainpath, args);
+		this(locator, mainpath, args, SQueueCapacities.ONE);
+	}
+
+	public Main(ResourceLocator locator, Path mainpath,
+			Map<CoreArgs, Boolean> args, SQueueCapacities caps)
+			throws ScribException, ScribParserException
+	{
+		this(new Pair<>(locator, null), mainpath, args, caps);
 	}
 
 	// Load an inline module arg -- module imports not allowed (currently no ResourceLocator)
 	public Main(String inline, Map<CoreArgs, Boolean> args)
 			throws ScribException, ScribParserException
 	{
-		this(new Pair<>(null, inline), null, args);
+		this(inline, args, SQueueCapacities.ONE);
+	}
+
+	public Main(String inline, Map<CoreArgs, Boolean> args,
+			SQueueCapacities caps) throws ScribException, ScribParserException
+	{
+		this(new Pair<>(null, inline), null, args, caps);
 	}
 
 	// Pre: hack.left == null xor hack.right == null
 	// Hack to "unify" the constructors (to satisfy final field init more conveniently)
 	private Main(Pair<ResourceLocator, String> hack, Path mainpath,
-			Map<CoreArgs, Boolean> args) throws ScribException, ScribParserException
+			Map<CoreArgs, Boolean> args, SQueueCapacities caps)
+			throws ScribException, ScribParserException
 	{
 		this.antlr = newAntlr();
 
@@ -112,6 +128,7 @@ public class Main
 
 		this.main = main.right.getFullModuleName();
 		this.args = Collections.unmodifiableMap(args);
+		this.caps = caps;
 		loadAllModuleImports(main);
 	}
 	
@@ -148,7 +165,7 @@ public class Main
 			DelFactory df) throws ScribException
 	{
 				// Was previously made inside Job, but AstFactoryImpl now lives in scribble-parser, to access ScribbleParser constants
-		return new Job(mainFullname, args, parsed, af, df);
+		return new Job(mainFullname, args, this.caps, parsed, af, df);
 	}
 	
 	// Pre: main Module loaded by this.loader
@@ -23,4 +23,10 @@ public interface ScribOutputEvent
 	Role getPeer();
 	Op getOp();
 	Object[] getPayload();
+
+	// Index of the successor state, if known statically (e.g., generated per state and op), cf. ScribState.getSucc
+	default int getSuccIndex()
+	{
+		return -1;
+	}
 }
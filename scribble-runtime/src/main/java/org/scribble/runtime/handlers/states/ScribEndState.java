@@ -22,6 +22,11 @@ abstract public class ScribEndState extends ScribState
 		super(name);
 	}
 
+	public ScribEndState(String name, int index)
+	{
+		super(name, index);
+	}
+
 	@Override
 	protected boolean canEqual(Object o)
 	{
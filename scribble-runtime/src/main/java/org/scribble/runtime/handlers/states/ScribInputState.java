@@ -21,7 +21,12 @@ abstract public class ScribInputState extends ScribState
 
 	public ScribInputState(String name, Role peer)
 	{
-		super(name);
+		this(name, -1, peer);
+	}
+
+	public ScribInputState(String name, int index, Role peer)
+	{
+		super(name, index);
 		this.peer = peer;
 	}
 
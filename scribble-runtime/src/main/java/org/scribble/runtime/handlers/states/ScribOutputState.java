@@ -20,6 +20,11 @@ abstract public class ScribOutputState extends ScribState
 		super(name);
 	}
 
+	public ScribOutputState(String name, int index)
+	{
+		super(name, index);
+	}
+
 	@Override
 	protected boolean canEqual(Object o)
 	{
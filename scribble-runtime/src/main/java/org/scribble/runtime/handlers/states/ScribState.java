@@ -13,6 +13,7 @@
  */
 package org.scribble.runtime.handlers.states;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,13 +22,54 @@ import org.scribble.core.type.name.Op;
 abstract public class ScribState
 {
 	public final String name;
+	public final int index;  // Dense (per endpoint) index for transition tables, cf. CBEndpoint -- -1 if not numbered
 
 	//public final Map<Op, ScribState> succs = new HashMap<>(); // FIXME
 	public final Map<Op, String> succs = new HashMap<>();
 
+	// Transitions as parallel arrays, i.e., the i-th op leads to the state with index nexts[i] -- few per state, so found by scan (cf. getSucc)
+	private Op[] ops = new Op[0];
+	private int[] nexts = new int[0];
+
 	public ScribState(String name)
+	{
+		this(name, -1);
+	}
+
+	public ScribState(String name, int index)
 	{
 		this.name = name;
+		this.index = index;
+	}
+
+	protected void addSucc(Op op, String succ, int succIndex)
+	{
+		this.succs.put(op, succ);
+		int n = this.ops.length;
+		this.ops = Arrays.copyOf(this.ops, n + 1);
+		this.nexts = Arrays.copyOf(this.nexts, n + 1);
+		this.ops[n] = op;
+		this.nexts[n] = succIndex;
+	}
+
+	// Returns the index of the successor by op, or -1 if none (or not numbered)
+	public int getSucc(Op op)
+	{
+		for (int i = 0; i < this.ops.length; i++)
+		{
+			if (this.ops[i] == op)  // e.g., generated ops sent locally, cf. ScribOutputEvent.getOp
+			{
+				return this.nexts[i];
+			}
+		}
+		for (int i = 0; i < this.ops.length; i++)
+		{
+			if (this.ops[i].equals(op))  // e.g., deserialized
+			{
+				return this.nexts[i];
+			}
+		}
+		return -1;
 	}
 	
 	@Override
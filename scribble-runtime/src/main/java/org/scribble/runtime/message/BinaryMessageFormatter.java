@@ -0,0 +1,566 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.scribble.core.type.name.Op;
+
+// Compact binary encoding, written directly into the (queued) output buffer -- cf. ObjectStreamFormatter
+// Frame: int length, then the op (registered id, or name), then the payload values (tagged)
+// Natively encodes null, boxed primitives, String, byte[], List, Set and Map; registered codecs for user types; else falls back to Java serialization
+// Ops and codecs must be registered in the same order at every endpoint (ids are assigned in registration order), and before use
+// N.B. collections are decoded as ArrayList, LinkedHashSet and LinkedHashMap
+// Subclasses may specialise the frame body, cf. writeBody/readBody (e.g., generated per protocol)
+public class BinaryMessageFormatter implements ScribMessageFormatter
+{
+	// Encodes/decodes values of a user type -- nested values can be written/read via the formatter, cf. writeValue/readValue
+	public interface Codec<T>
+	{
+		void encode(BinaryMessageFormatter f, ByteBuffer bb, T t) throws IOException;
+		T decode(BinaryMessageFormatter f, ByteBuffer bb) throws IOException, ClassNotFoundException;
+	}
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHAR = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte BYTES = 11;
+	private static final byte LIST = 12;
+	private static final byte SET = 13;
+	private static final byte MAP = 14;
+	private static final byte CODEC = 15;
+	private static final byte SERIAL = 16;
+
+	private static final short UNREGISTERED_OP = -1;
+
+	private static final int MIN_HINT = 64;
+	private static final int MAX_HINT = 64 * 1024;
+
+	private final List<Op> ops = new ArrayList<>();
+	private final Map<Op, Short> opIds = new HashMap<>();
+	private final List<Codec<?>> codecs = new ArrayList<>();
+	private final Map<Class<?>, Short> codecIds = new HashMap<>();
+
+	private volatile int hint = MIN_HINT;  // Initial capacity for encoding, following recent frame sizes
+	private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+	public BinaryMessageFormatter()
+	{
+
+	}
+
+	public BinaryMessageFormatter(Op... ops)
+	{
+		registerOps(ops);
+	}
+
+	public BinaryMessageFormatter registerOps(Op... ops)
+	{
+		for (Op op : ops)
+		{
+			if (!this.opIds.containsKey(op))
+			{
+				if (this.ops.size() == Short.MAX_VALUE)
+				{
+					throw new IllegalStateException("Too many ops: " + op);
+				}
+				this.opIds.put(op, (short) this.ops.size());
+				this.ops.add(op);
+			}
+		}
+		return this;
+	}
+
+	// Frames over the max are rejected, by both sides (cf. writeFrame, fromBytes) -- so set the same at every endpoint
+	public BinaryMessageFormatter setMaxFrameSize(int max)
+	{
+		if (max < 0)
+		{
+			throw new IllegalArgumentException("Bad max frame size: " + max);
+		}
+		this.maxFrameSize = max;
+		return this;
+	}
+
+	// Exact class match, i.e., not for subclasses of c
+	public <T> BinaryMessageFormatter registerCodec(Class<T> c, Codec<T> codec)
+	{
+		if (this.codecIds.containsKey(c))
+		{
+			throw new IllegalStateException("Codec already registered: " + c);
+		}
+		if (this.codecs.size() == Short.MAX_VALUE)
+		{
+			throw new IllegalStateException("Too many codecs: " + c);
+		}
+		this.codecIds.put(c, (short) this.codecs.size());
+		this.codecs.add(codec);
+		return this;
+	}
+
+	@Override
+	public void writeMessage(DataOutputStream dos, ScribMessage m) throws IOException
+	{
+		throw new RuntimeException("Deprecated");
+	}
+
+	@Override
+	public ScribMessage readMessage(DataInputStream dis) throws IOException
+	{
+		throw new RuntimeException("Deprecated");
+	}
+
+	@Override
+	public byte[] toBytes(ScribMessage m) throws IOException
+	{
+		ByteBuffer bb = toBuffer(m);
+		byte[] bs = new byte[bb.remaining()];
+		bb.get(bs);
+		return bs;
+	}
+
+	// Encodes into a buffer sized by recent frames -- if too small, re-encodes into a larger one
+	// cf. encode, for encoding directly into an existing (e.g., pooled) buffer
+	@Override
+	public ByteBuffer toBuffer(ScribMessage m) throws IOException
+	{
+		int cap = this.hint;
+		while (true)
+		{
+			ByteBuffer bb = ByteBuffer.allocate(cap);
+			try
+			{
+				writeFrame(bb, m);
+			}
+			catch (Overflow e)
+			{
+				cap = Math.max(2 * cap, e.needed + e.needed / 2);
+				continue;
+			}
+			catch (BufferOverflowException e)  // e.g., from a codec or subclass
+			{
+				cap = 2 * cap;
+				continue;
+			}
+			int len = bb.position();
+			bb.flip();
+			this.hint = Math.min(MAX_HINT, Math.max(MIN_HINT, Integer.highestOneBit(len - 1) << 1));
+			return bb;
+		}
+	}
+
+	// No intermediate buffer, and no re-encoding here: if the frame doesn't fit, the caller decides (e.g., a new buffer)
+	@Override
+	public void encode(ScribMessage m, ByteBuffer bb) throws IOException
+	{
+		int start = bb.position();
+		try
+		{
+			writeFrame(bb, m);
+		}
+		catch (Overflow | BufferOverflowException e)
+		{
+			bb.position(start);
+			throw new BufferOverflowException();
+		}
+	}
+
+	// Pre and post: bb:put -- the frame length, then the body
+	private void writeFrame(ByteBuffer bb, ScribMessage m) throws IOException
+	{
+		if (m.payload.length > Short.MAX_VALUE)
+		{
+			throw new IOException("Payload too long: " + m.payload.length);
+		}
+		int start = bb.position();
+		ensure(bb, 4).position(start + 4);
+		writeBody(bb, m);
+		int size = bb.position() - start - 4;
+		if (size > this.maxFrameSize)
+		{
+			bb.position(start);
+			throw new IOException("Frame over max size (" + this.maxFrameSize + ") for " + m.op + ": " + size);
+		}
+		bb.putInt(start, size);
+	}
+
+	// Pre and post: bb:put -- cf. ObjectStreamFormatter.fromBytes
+	@Override
+	public ScribMessage fromBytes(ByteBuffer bb) throws IOException, ClassNotFoundException
+	{
+		bb.flip();
+		if (bb.remaining() < 4)
+		{
+			bb.compact();
+			return null;
+		}
+		int size = bb.getInt(bb.position());
+		if (size < 0 || size > this.maxFrameSize)  // e.g., not a frame boundary -- fails the channel, rather than waiting for (and buffering) that much
+		{
+			throw new IOException("Bad frame length: " + size);
+		}
+		if (bb.remaining() < (4 + size))
+		{
+			bb.compact();
+			return null;
+		}
+		bb.position(bb.position() + 4);
+		int end = bb.position() + size;
+		ByteBuffer body = bb.duplicate();  // Directly from bb, no copy
+		body.limit(end);
+		ScribMessage m;
+		try
+		{
+			m = readBody(body);
+		}
+		catch (BufferUnderflowException | ClassCastException e)  // Truncated, or a value of the wrong type (e.g., cf. the casts of a generated readBody)
+		{
+			throw new IOException("Bad frame: " + e, e);
+		}
+		if (body.hasRemaining())
+		{
+			throw new IOException("Bad frame for " + m.op + ": " + body.remaining() + " trailing bytes");
+		}
+		bb.position(end);
+		bb.compact();  // Post: bb:put
+		return m;
+	}
+
+	// Pre: bb positioned after the frame length -- may throw BufferOverflowException (toBuffer retries with a larger buffer)
+	protected void writeBody(ByteBuffer bb, ScribMessage m) throws IOException
+	{
+		writeOp(bb, m.op);
+		bb.putShort((short) m.payload.length);
+		for (Object o : m.payload)
+		{
+			writeValue(bb, o);
+		}
+	}
+
+	// Pre: bb limited to the frame body
+	protected ScribMessage readBody(ByteBuffer bb) throws IOException, ClassNotFoundException
+	{
+		Op op = readOp(bb);
+		Object[] payload = new Object[bb.getShort()];
+		for (int i = 0; i < payload.length; i++)
+		{
+			payload[i] = readValue(bb);
+		}
+		return op.equals(ScribInterrupt.SCRIB_INTERR)
+				? new ScribInterrupt((Throwable) payload[0])
+				: new ScribMessage(op, payload);
+	}
+
+	private void writeOp(ByteBuffer bb, Op op) throws IOException
+	{
+		Short id = this.opIds.get(op);
+		if (id != null)
+		{
+			bb.putShort(id);
+		}
+		else
+		{
+			bb.putShort(UNREGISTERED_OP);
+			writeString(bb, op.toString());
+		}
+	}
+
+	private Op readOp(ByteBuffer bb) throws IOException
+	{
+		short id = bb.getShort();
+		if (id == UNREGISTERED_OP)
+		{
+			return new Op(readString(bb));
+		}
+		if (id < 0 || id >= this.ops.size())
+		{
+			throw new IOException("Unknown op id: " + id);
+		}
+		return this.ops.get(id);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void writeValue(ByteBuffer bb, Object o) throws IOException
+	{
+		if (o == null)
+		{
+			ensure(bb, 1).put(NULL);
+			return;
+		}
+		Class<?> c = o.getClass();
+		Short id = this.codecIds.get(c);
+		if (id != null)
+		{
+			ensure(bb, 3).put(CODEC).putShort(id);
+			((Codec<Object>) this.codecs.get(id)).encode(this, bb, o);
+		}
+		else if (c == Integer.class)
+		{
+			ensure(bb, 5).put(INT).putInt((Integer) o);
+		}
+		else if (c == String.class)
+		{
+			ensure(bb, 1).put(STRING);
+			writeString(bb, (String) o);
+		}
+		else if (c == Long.class)
+		{
+			ensure(bb, 9).put(LONG).putLong((Long) o);
+		}
+		else if (c == Boolean.class)
+		{
+			ensure(bb, 1).put(((Boolean) o) ? TRUE : FALSE);
+		}
+		else if (c == Double.class)
+		{
+			ensure(bb, 9).put(DOUBLE).putDouble((Double) o);
+		}
+		else if (c == byte[].class)
+		{
+			ensure(bb, 1).put(BYTES);
+			writeBytes(bb, (byte[]) o);
+		}
+		else if (c == Byte.class)
+		{
+			ensure(bb, 2).put(BYTE).put((Byte) o);
+		}
+		else if (c == Short.class)
+		{
+			ensure(bb, 3).put(SHORT).putShort((Short) o);
+		}
+		else if (c == Character.class)
+		{
+			ensure(bb, 3).put(CHAR).putChar((Character) o);
+		}
+		else if (c == Float.class)
+		{
+			ensure(bb, 5).put(FLOAT).putFloat((Float) o);
+		}
+		else if (o instanceof List<?> || o instanceof Set<?>)
+		{
+			Collection<?> os = (Collection<?>) o;
+			ensure(bb, 5).put((o instanceof List<?>) ? LIST : SET).putInt(os.size());
+			for (Object x : os)
+			{
+				writeValue(bb, x);
+			}
+		}
+		else if (o instanceof Map<?, ?>)
+		{
+			Map<?, ?> os = (Map<?, ?>) o;
+			ensure(bb, 5).put(MAP).putInt(os.size());
+			for (Map.Entry<?, ?> e : os.entrySet())
+			{
+				writeValue(bb, e.getKey());
+				writeValue(bb, e.getValue());
+			}
+		}
+		else if (o instanceof Serializable)
+		{
+			byte[] bs = serialize(o);
+			ensure(bb, 5 + bs.length).put(SERIAL).putInt(bs.length).put(bs);
+		}
+		else
+		{
+			throw new IOException("No codec for: " + c);
+		}
+	}
+
+	public Object readValue(ByteBuffer bb) throws IOException, ClassNotFoundException
+	{
+		byte tag = bb.get();
+		switch (tag)
+		{
+			case NULL:   return null;
+			case TRUE:   return Boolean.TRUE;
+			case FALSE:  return Boolean.FALSE;
+			case BYTE:   return bb.get();
+			case SHORT:  return bb.getShort();
+			case CHAR:   return bb.getChar();
+			case INT:    return bb.getInt();
+			case LONG:   return bb.getLong();
+			case FLOAT:  return bb.getFloat();
+			case DOUBLE: return bb.getDouble();
+			case STRING: return readString(bb);
+			case BYTES:  return readBytes(bb);
+			case LIST:
+			{
+				int n = readLength(bb);
+				List<Object> os = new ArrayList<>(n);
+				for (int i = 0; i < n; i++)
+				{
+					os.add(readValue(bb));
+				}
+				return os;
+			}
+			case SET:
+			{
+				int n = readLength(bb);
+				Set<Object> os = new LinkedHashSet<>();
+				for (int i = 0; i < n; i++)
+				{
+					os.add(readValue(bb));
+				}
+				return os;
+			}
+			case MAP:
+			{
+				int n = readLength(bb);
+				Map<Object, Object> os = new LinkedHashMap<>();
+				for (int i = 0; i < n; i++)
+				{
+					os.put(readValue(bb), readValue(bb));
+				}
+				return os;
+			}
+			case CODEC:
+			{
+				short id = bb.getShort();
+				if (id < 0 || id >= this.codecs.size())
+				{
+					throw new IOException("Unknown codec id: " + id);
+				}
+				return this.codecs.get(id).decode(this, bb);
+			}
+			case SERIAL:
+			{
+				ByteBuffer body = bb.duplicate();
+				int len = readLength(body);
+				body.limit(body.position() + len);
+				bb.position(body.limit());
+				return deserialize(body);
+			}
+			default:
+				throw new IOException("Unknown tag: " + tag);
+		}
+	}
+
+	protected static void writeString(ByteBuffer bb, String s)
+	{
+		byte[] bs = s.getBytes(StandardCharsets.UTF_8);
+		ensure(bb, 4 + bs.length).putInt(bs.length).put(bs);
+	}
+
+	protected static String readString(ByteBuffer bb) throws IOException
+	{
+		int len = readLength(bb);
+		String s;
+		if (bb.hasArray())
+		{
+			s = new String(bb.array(), bb.arrayOffset() + bb.position(), len, StandardCharsets.UTF_8);
+			bb.position(bb.position() + len);
+		}
+		else  // e.g., direct (cf. ScribBufferPool)
+		{
+			byte[] bs = new byte[len];
+			bb.get(bs);
+			s = new String(bs, StandardCharsets.UTF_8);
+		}
+		return s;
+	}
+
+	protected static void writeBytes(ByteBuffer bb, byte[] bs)
+	{
+		ensure(bb, 4 + bs.length).putInt(bs.length).put(bs);
+	}
+
+	protected static byte[] readBytes(ByteBuffer bb) throws IOException
+	{
+		byte[] bs = new byte[readLength(bb)];
+		bb.get(bs);
+		return bs;
+	}
+
+	// A count of bytes or elements (each at least a byte), so at most the rest of the frame -- i.e., nothing is allocated for a bad length
+	protected static int readLength(ByteBuffer bb) throws IOException
+	{
+		int n = bb.getInt();
+		if (n < 0 || n > bb.remaining())
+		{
+			throw new IOException("Bad frame: length " + n + ", " + bb.remaining() + " bytes left");
+		}
+		return n;
+	}
+
+	// Returns bb if n more bytes fit, else signals toBuffer to retry with a larger buffer
+	protected static ByteBuffer ensure(ByteBuffer bb, int n)
+	{
+		if (bb.remaining() < n)
+		{
+			throw new Overflow(bb.position() + n);
+		}
+		return bb;
+	}
+
+	private static byte[] serialize(Object o) throws IOException
+	{
+		try (ByteArrayOutputStream bos = new ByteArrayOutputStream())
+		{
+			try (ObjectOutput out = new ObjectOutputStream(bos))
+			{
+				out.writeObject(o);
+				return bos.toByteArray();
+			}
+		}
+	}
+
+	private static Object deserialize(ByteBuffer bb) throws IOException, ClassNotFoundException
+	{
+		try (ObjectInput in = new ObjectInputStream(new ByteBufferInputStream(bb)))
+		{
+			return in.readObject();
+		}
+	}
+
+	private static class Overflow extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public final int needed;  // Minimum capacity
+
+		public Overflow(int needed)
+		{
+			super(null, null, false, false);  // No stack trace
+			this.needed = needed;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.message;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Reads the remaining bytes of a ByteBuffer (advancing its position), cf. ObjectStreamFormatter, BinaryMessageFormatter
+class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer bb;
+
+	public ByteBufferInputStream(ByteBuffer bb)
+	{
+		this.bb = bb;
+	}
+
+	@Override
+	public int read()
+	{
+		return this.bb.hasRemaining() ? (this.bb.get() & 0xff) : -1;
+	}
+
+	@Override
+	public int read(byte[] bs, int off, int len)
+	{
+		if (len == 0)
+		{
+			return 0;
+		}
+		if (!this.bb.hasRemaining())
+		{
+			return -1;
+		}
+		len = Math.min(len, this.bb.remaining());
+		this.bb.get(bs, off, len);
+		return len;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.bb.remaining();
+	}
+}
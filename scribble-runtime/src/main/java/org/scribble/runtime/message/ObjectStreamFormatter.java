@@ -13,7 +13,6 @@
  */
 package org.scribble.runtime.message;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -23,7 +22,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class ObjectStreamFormatter implements ScribMessageFormatter
 {
@@ -71,27 +69,32 @@ public class ObjectStreamFormatter implements ScribMessageFormatter
 		return bs;
 	}
 
+	// N.B. bb may be direct (cf. ScribBufferPool), i.e., no bb.array()
 	@Override
 	public ScribMessage fromBytes(ByteBuffer bb) throws IOException, ClassNotFoundException
 	{
-		// Pre: bb:put
 		bb.flip();
 		if (bb.remaining() <= 4)
 		{
 			bb.compact();
 			return null;
 		}
-		byte[] header = Arrays.copyOf(bb.array(), 4);
-		int size = ByteBuffer.wrap(header).getInt();
+		int size = bb.getInt(bb.position());
+		if (size < 0 || size > DEFAULT_MAX_FRAME_SIZE)  // e.g., not a frame boundary -- fails the channel, rather than waiting for (and buffering) that much
+		{
+			throw new IOException("Bad frame length: " + size);
+		}
 		if (bb.remaining() < (4 + size))
 		{
 			bb.compact();
 			return null;
 		}
-		bb.position(bb.position() + 4);  // position is always 0 here?
-		byte[] bs = new byte[size];
-		bb.get(bs);
-		ScribMessage m = deserialize(bs);
+		bb.position(bb.position() + 4);
+		int end = bb.position() + size;
+		ByteBuffer body = bb.duplicate();
+		body.limit(end);
+		ScribMessage m = deserialize(body);  // Directly from bb, no copy
+		bb.position(end);
 		bb.compact();  // Post: bb:put
 		return m;
 	}
@@ -108,14 +111,11 @@ public class ObjectStreamFormatter implements ScribMessageFormatter
 		}
 	}
 
-	private static ScribMessage deserialize(byte[] bs) throws IOException, ClassNotFoundException
+	private static ScribMessage deserialize(ByteBuffer bb) throws IOException, ClassNotFoundException
 	{
-		try (ByteArrayInputStream bis = new ByteArrayInputStream(bs))
+		try (ObjectInput in = new ObjectInputStream(new ByteBufferInputStream(bb)))
 		{
-			try (ObjectInput in = new ObjectInputStream(bis))
-			{
-				return (ScribMessage) in.readObject(); 
-			}	
+			return (ScribMessage) in.readObject(); 
 		}
 	}
 }
@@ -20,6 +20,8 @@ import java.nio.ByteBuffer;
 
 public interface ScribMessageFormatter
 {
+	int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;  // Bytes, excluding the length itself -- cf. fromBytes
+
 	//byte[] toBytes(ScribMessage m) throws IOException;
 	@Deprecated
 	void writeMessage(DataOutputStream dos, ScribMessage m) throws IOException;
@@ -28,7 +30,21 @@ public interface ScribMessageFormatter
 	
 	byte[] toBytes(ScribMessage m) throws IOException;
 
+	// Post: bb:get, i.e., the encoded frame is the remaining bytes -- the buffer is not retained by the formatter, e.g., may be queued directly on a channel
+	default ByteBuffer toBuffer(ScribMessage m) throws IOException
+	{
+		return ByteBuffer.wrap(toBytes(m));
+	}
+
+	// Pre and post: bb:put -- encodes m directly into bb, e.g., a pooled outbound buffer (cf. BinaryChannelEndpoint.queueMessage)
+	// Throws BufferOverflowException if it doesn't fit, and then bb is unchanged
+	default void encode(ScribMessage m, ByteBuffer bb) throws IOException
+	{
+		bb.put(toBytes(m));
+	}
+
   // Pre and post: bb:put (maybe get would be more intuitive, but Buffers work better with put as default)
 	// Returns null if not enough data (FIXME?)
+	// Throws IOException for a malformed frame, e.g., a length over the max frame size (the channel is then failed, cf. BinaryChannelEndpoint.readAndEnqueueMessages)
 	ScribMessage fromBytes(ByteBuffer bb) throws IOException, ClassNotFoundException;
 }
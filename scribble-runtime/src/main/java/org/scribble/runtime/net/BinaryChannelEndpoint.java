@@ -14,12 +14,21 @@
 package org.scribble.runtime.net;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectableChannel;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.scribble.runtime.message.ScribInterrupt;
 import org.scribble.runtime.message.ScribMessage;
@@ -33,54 +42,77 @@ public abstract class BinaryChannelEndpoint
 	
 	//protected BinaryChannelEndpoint parent;
 	private AbstractSelectableChannel c;
-	private ByteBuffer bb;
+	private final ScribBufferPool pool = ScribBufferPool.getDefault();
+	private ByteBuffer bb;  // From this.pool, acquired on demand (cf. getBuffer), and grown for large frames -- released once drained, or on close (null if none)
+	private final Object bbLock = new Object();  // Reading/decoding vs. close
 
 	//private final SocketChannel;
-	protected final List<ScribMessage> msgs = new LinkedList<>();
-	
-	private boolean isClosed = false;
 
-	private int count = 0;  // How many ScribMessages read so far  // volatile?
-	private int ticket = 0;  // Index of the next expected ScribMessage
+	// Inbound hand-off, single producer (the selector thread, cf. readAndEnqueueMessages) and multiple consumers (getFuture), without locks
+	// The i-th message received completes the i-th future taken: slot i holds the future until both sides have arrived (installed, then cleared, by CAS)
+	// So only the taker(s) of that future are woken, and no thread is blocked per outstanding future
+	// Slots are power-of-two arrays indexed by ticket & SEG_MASK, linked in ticket order (cf. Segment) -- i.e., a ring that is extended rather than lapped, as received messages are kept until taken (and futures until received)
+	private static final int SEG_SIZE = 64;  // Power of two
+	private static final int SEG_MASK = SEG_SIZE - 1;
+	private final AtomicReference<Segment> head = new AtomicReference<>(new Segment(0));  // Oldest segment with slots still in use
+	private volatile Segment takeHint;  // Segment of a recent getFuture, so the search doesn't start from head
+	private Segment enqueueHint;  // Likewise for enqueue -- guarded by bbLock
+	private final AtomicLong tickets = new AtomicLong();  // Next ticket for getFuture
+	private long received = 0;  // Next ticket for enqueue -- guarded by bbLock (single producer)
 	
-	private final List<CompletableFuture<ScribMessage>> pending = new LinkedList<>();
+	private volatile boolean isClosed = false;
+	private volatile Throwable failure;  // Set before isClosed, cf. fail
+	private volatile CompletableFuture<ScribMessage> last;  // Most recent future, cf. sync
+
+	private static final int MAX_GATHER = 64;  // Max buffers per gathering write
+
+	// Outbound bytes not yet accepted by the channel, in send order -- written directly while possible, otherwise drained by the selector thread when writable (cf. writeQueuedBytes)
+	private final Deque<ByteBuffer> outq = new ArrayDeque<>();
+	private final Deque<ByteBuffer> owned = new ArrayDeque<>();  // The buffers of outq from this.pool, in order -- released once written, cf. queueMessage
+	private final ReentrantLock outLock = new ReentrantLock();  // Senders vs. selector thread
+	private boolean corked = false;  // If set, sends are only queued until flush
 
 	// Server side
 	//protected BinaryChannelEndpoint(MPSTEndpoint<?, ?> se, AbstractSelectableChannel c) throws IOException
 	protected BinaryChannelEndpoint(SessionEndpoint<?, ?> se, AbstractSelectableChannel c) throws IOException
 	{
-		this.bb = ByteBuffer.allocate(16921);  // FIXME: size  // Use put mode as default
 		init(se, c);
 	}
 
 	// Client side
 	protected BinaryChannelEndpoint()
 	{
-		this.bb = ByteBuffer.allocate(16921);  // FIXME: size  // Use put mode as default
+
 	}
 	
 	//public abstract void initClient(MPSTEndpoint<?, ?> se, String host, int port) throws IOException;
 	public abstract void initClient(SessionEndpoint<?, ?> se, String host, int port) throws IOException;
 	
 	//protected void init(MPSTEndpoint<?, ?> se, AbstractSelectableChannel c) throws IOException
+	// c null for a channel without selector, i.e., messages are enqueued directly (cf. InMemoryChannelEndpoint)
 	protected void init(SessionEndpoint<?, ?> se, AbstractSelectableChannel c) throws IOException
 	{
 		this.se = se;
 		this.c = c;
-		this.c.configureBlocking(false);
+		if (c != null)
+		{
+			this.c.configureBlocking(false);
+		}
 	}
 
 	// Pre: selector is paused
 	//protected BinaryChannelEndpoint(BinaryChannelEndpoint c)
 	public void wrapChannel(BinaryChannelEndpoint c) throws IOException
 	{
+		c.drain();  // Bytes queued on c precede any written by this wrapper
 		this.se = c.se;
 		//this.msgs.addAll(c.msgs);  // Guaranteed to be empty/0 for reconnect?
 		//this.count = c.count;
 		//this.ticket = c.ticket;
 		//this.parent = c;
 		this.c = c.c;
-		this.bb = c.bb;
+		this.pool.release(this.bb);
+		this.bb = c.bb;  // Now owned by this (c is discarded, not closed)
 		
 		//FIXME: complete all pending futures on parent chan -- no: not enough by itself, that is just reading the already-deserialized cache
 		//FIXME: pull all pending data out of parent chan (due to selector not handling it yet -- in send states, we just need to clear all expected messages up to this point)
@@ -88,6 +120,7 @@ public abstract class BinaryChannelEndpoint
 		// --- futures must be completed before here, since selector is paused
 	}
 	
+	// null if not selectable, cf. init
 	public AbstractSelectableChannel getSelectableChannel()  // For asynchrony (via nio Selector) -- maybe implement/extend instead
 	{
 		return this.c;
@@ -95,51 +128,133 @@ public abstract class BinaryChannelEndpoint
 	
 	public void write(ScribMessage m) throws IOException
 	{
-		writeBytes(this.se.smf.toBytes(m));
+		writeBuffer(this.se.smf.toBuffer(m));
 	}
 
-	// Default CompletableFuture executed by common forkjoin pool -- so all messages that are received/async'd will eventually be pulled from the queue (no manual GC necessary)
-	public synchronized CompletableFuture<ScribMessage> getFuture()
+	// Pre: bb:get -- transports that can send bb as is override (cf. SocketChannelEndpoint)
+	protected void writeBuffer(ByteBuffer bb) throws IOException
 	{
-		// FIXME: better exception handling (integrate with Future interface?)
-		final int ticket = getTicket();
-		CompletableFuture<ScribMessage> fut = CompletableFuture.supplyAsync(() ->
-				{
-					try
-					{
-						ScribMessage m = read(ticket);
-						if (m instanceof ScribInterrupt)  // FIXME: hacked in
-						{
-							throw new RuntimeScribException((Throwable) ((ScribInterrupt) m).payload[0]);
-						}
-						return m;
-					}
-					catch(IOException e)
-					{
-						throw new RuntimeScribException(e);
-					}
-					finally
-					{
-						this.pending.remove(0);  // Safe?
-					}
-				});
-		synchronized (this.pending)
+		byte[] bs;
+		if (bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 && bb.limit() == bb.array().length)
 		{
-			this.pending.add(fut);
+			bs = bb.array();
 		}
+		else
+		{
+			bs = new byte[bb.remaining()];
+			bb.get(bs);
+		}
+		writeBytes(bs);
+	}
+
+	// Futures are completed in ticket order: immediately if the message is already here, otherwise by readAndEnqueueMessages (or close)
+	// N.B. dependent stages (e.g., thenApply) not given an executor run on the completing thread, i.e., possibly the selector thread
+	public CompletableFuture<ScribMessage> getFuture()
+	{
+		long t = this.tickets.getAndIncrement();
+		Segment s = segment(t, this.takeHint);
+		this.takeHint = s;
+		CompletableFuture<ScribMessage> fut = claim(s, t);
+		if (this.isClosed && !fut.isDone())  // Closed after (or while) the slot was taken: no message will come
+		{
+			clear(s, (int) t & SEG_MASK, fut);
+			fail(fut);
+		}
+		this.last = fut;
 		return fut;
 	}
+
+	// Slots for tickets base to base + SEG_SIZE - 1
+	private static final class Segment
+	{
+		final long base;
+		final AtomicReferenceArray<CompletableFuture<ScribMessage>> slots = new AtomicReferenceArray<>(SEG_SIZE);
+		final AtomicReference<Segment> next = new AtomicReference<>();
+		final AtomicInteger cleared = new AtomicInteger();  // Slots done with, i.e., both sides arrived (or failed)
+
+		Segment(long base)
+		{
+			this.base = base;
+		}
+	}
+
+	// The segment for ticket t, appending segments as needed -- searched from hint, unless past t
+	// N.B. head is never past t here: the segment of t is still in use until both sides of t have arrived
+	private Segment segment(long t, Segment hint)
+	{
+		Segment s = (hint != null && hint.base <= t) ? hint : this.head.get();
+		while (t - s.base >= SEG_SIZE)
+		{
+			Segment n = s.next.get();
+			if (n == null)
+			{
+				n = new Segment(s.base + SEG_SIZE);
+				if (!s.next.compareAndSet(null, n))
+				{
+					n = s.next.get();
+				}
+			}
+			s = n;
+		}
+		return s;
+	}
+
+	// Returns the future in the slot of t, installing it if first -- else clears the slot (both sides have arrived)
+	private CompletableFuture<ScribMessage> claim(Segment s, long t)
+	{
+		int i = (int) t & SEG_MASK;
+		CompletableFuture<ScribMessage> prev = s.slots.get(i);
+		if (prev == null)
+		{
+			CompletableFuture<ScribMessage> fut = new CompletableFuture<>();
+			if (s.slots.compareAndSet(i, null, fut))
+			{
+				return fut;
+			}
+			prev = s.slots.get(i);
+		}
+		clear(s, i, prev);
+		return prev;
+	}
+
+	// Only once per slot (by CAS), e.g., the second side vs. fail
+	private void clear(Segment s, int i, CompletableFuture<ScribMessage> fut)
+	{
+		if (s.slots.compareAndSet(i, fut, null) && s.cleared.incrementAndGet() == SEG_SIZE)
+		{
+			for (Segment h = this.head.get(); h.cleared.get() == SEG_SIZE; h = this.head.get())  // Drop the done segments, in order
+			{
+				Segment n = h.next.get();
+				if (n == null || !this.head.compareAndSet(h, n))  // The last is kept for appending
+				{
+					break;
+				}
+			}
+		}
+	}
+
+	private static void complete(CompletableFuture<ScribMessage> fut, ScribMessage m)
+	{
+		// FIXME: better exception handling (integrate with Future interface?)
+		if (m instanceof ScribInterrupt)  // FIXME: hacked in
+		{
+			fut.completeExceptionally(
+					new RuntimeScribException((Throwable) ((ScribInterrupt) m).payload[0]));
+		}
+		else
+		{
+			fut.complete(m);
+		}
+	}
 	
 	public void sync() throws IOException  // Hacky
 	{
+		CompletableFuture<ScribMessage> last = this.last;
 		try
 		{
-			synchronized (this.pending)
+			if (last != null)
 			{
-				if (!this.pending.isEmpty())
-				{
-					this.pending.get(this.pending.size() - 1).get();
-				}
+				last.get();
 			}
 		}
 		catch (InterruptedException | ExecutionException e)
@@ -148,68 +263,356 @@ public abstract class BinaryChannelEndpoint
 		}
 	}
 	
-	private synchronized ScribMessage read(int ticket) throws IOException
+	// Pre: one producer at a time (in ticket order), e.g., holding bbLock (cf. readAndEnqueueMessages)
+	protected void enqueue(ScribMessage m)
+	{
+		long t = this.received++;
+		Segment s = segment(t, this.enqueueHint);
+		this.enqueueHint = s;
+		complete(claim(s, t), m);
+	}
+
+	// For channels without a selector (cf. init), i.e., messages enqueued by the sending threads: they take turns holding bbLock, as the selector thread would
+	// Returns false, m not enqueued, if closed (or failed) -- checked under bbLock, so nothing is enqueued after fail
+	protected boolean enqueueIfOpen(ScribMessage m)
 	{
+		synchronized (this.bbLock)
+		{
+			if (this.isClosed)
+			{
+				return false;
+			}
+			enqueue(m);
+			return true;
+		}
+	}
+
+	// Batches subsequent sends to this peer until flush, e.g., for a chain of sends on an OutputSocket
+	public void cork()
+	{
+		this.outLock.lock();
 		try
 		{
-			while (this.count < ticket && !this.isClosed)  // "Chain" futures directly? i.e. each future syncs on predecessor?
+			this.corked = true;
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Uncorks, and writes (or queues for the selector thread) all bytes queued so far
+	public void flush() throws IOException
+	{
+		this.outLock.lock();
+		try
+		{
+			this.corked = false;
+			if (!writeQueued())
 			{
-				wait();
+				this.se.getSelector().requestWrite(this.c);
 			}
-			while (this.msgs.isEmpty() && !this.isClosed)
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Encodes m directly into the outbound queue, i.e., into pooled buffers (released once written) rather than a new buffer per message, cf. ScribMessageFormatter.encode
+	// Consecutive messages (e.g., while the channel is busy, or corked) share a buffer -- for transports that write the queue as is (cf. SocketChannelEndpoint.write)
+	protected void queueMessage(ScribMessage m) throws IOException
+	{
+		this.outLock.lock();
+		try
+		{
+			ByteBuffer tail = this.owned.peekLast();
+			if (tail == null || tail != this.outq.peekLast() || !encodeAfter(tail, m))
 			{
-				wait();
+				ByteBuffer bb = this.pool.acquire(ScribBufferPool.MIN_CAPACITY);
+				while (!encodeAfter((ByteBuffer) bb.limit(0), m))  // Only re-encoded for frames over the buffer size
+				{
+					if (bb.capacity() >= this.pool.maxCapacity)
+					{
+						this.pool.release(bb);
+						throw new IOException("Message over the buffer capacity limit (" + this.pool.maxCapacity + "): " + m.op);
+					}
+					ByteBuffer tmp = this.pool.acquire(Math.min(2 * bb.capacity(), this.pool.maxCapacity));
+					this.pool.release(bb);
+					bb = tmp;
+				}
+				this.outq.add(bb);
+				this.owned.add(bb);
 			}
-			if (this.isClosed)
+			if (!this.corked && !writeQueued())
 			{
-				throw new IOException("Channel closed");
+				this.se.getSelector().requestWrite(this.c);
 			}
-			this.count++;
-			ScribMessage m = this.msgs.remove(0);
-			notifyAll();  // A later future might have gone first and blocked, so wake up (with the message already enqueued, so no notify coming from there)  // finally?
-			return m;
 		}
-		catch (InterruptedException e)
+		finally
 		{
-			throw new IOException(e);
+			this.outLock.unlock();
 		}
 	}
-	
-	protected synchronized void enqueue(ScribMessage m)
+
+	// Pre: bb:get, holding outLock -- appends the frame for m after the limit of bb, i.e., to the bytes still to write
+	// Returns false, bb unchanged, if the frame doesn't fit
+	private boolean encodeAfter(ByteBuffer bb, ScribMessage m) throws IOException
 	{
-		this.msgs.add(m);
-		//this.count++;
-		notifyAll();
+		int pos = bb.position();
+		bb.position(bb.limit()).limit(bb.capacity());
+		try
+		{
+			this.se.smf.encode(m, bb);
+			bb.limit(bb.position());
+			return true;
+		}
+		catch (BufferOverflowException e)
+		{
+			bb.limit(bb.position());
+			return false;
+		}
+		finally
+		{
+			bb.position(pos);
+		}
+	}
+
+	// For implementations of writeBytes -- bbs are retained until written, i.e., don't reuse
+	// Several buffers are written together (cf. writeQueued), e.g., the records of one message (cf. SSLRecords)
+	protected void queueBytes(ByteBuffer... bbs) throws IOException
+	{
+		this.outLock.lock();
+		try
+		{
+			for (ByteBuffer bb : bbs)
+			{
+				this.outq.add(bb);
+			}
+			if (!this.corked && !writeQueued())
+			{
+				this.se.getSelector().requestWrite(this.c);
+			}
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Pre: holding outLock
+	// Returns true if the queue is drained, or false if the channel would block
+	private boolean writeQueued() throws IOException
+	{
+		while (!this.outq.isEmpty())
+		{
+			ByteBuffer[] bbs = this.outq.stream().limit(MAX_GATHER).toArray(ByteBuffer[]::new);
+			long n = writeGathered(bbs);
+			while (!this.outq.isEmpty() && !this.outq.peek().hasRemaining())
+			{
+				ByteBuffer bb = this.outq.poll();
+				if (bb == this.owned.peek())
+				{
+					this.pool.release(this.owned.poll());
+				}
+				else
+				{
+					onWritten(bb);
+				}
+			}
+			if (n == 0 && !this.outq.isEmpty())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// One gathering write of (up to MAX_GATHER) queued buffers, e.g., all the messages sent while corked
+	protected long writeGathered(ByteBuffer[] bbs) throws IOException
+	{
+		return ((GatheringByteChannel) this.c).write(bbs);  // CHECKME: all current channels are SocketChannels
+	}
+
+	// Only called by the selector thread, when the channel is writable -- write interest is cleared once drained (or if corked, until flush)
+	public void writeQueuedBytes(SelectionKey key) throws IOException
+	{
+		this.outLock.lock();
+		try
+		{
+			if (this.corked || writeQueued())
+			{
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Called (holding outLock) for each queued buffer once fully written, e.g., to release it to a pool
+	protected void onWritten(ByteBuffer bb)
+	{
+
+	}
+
+	public boolean hasQueuedBytes()
+	{
+		this.outLock.lock();
+		try
+		{
+			return !this.outq.isEmpty();
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Writes all queued bytes, waiting on the channel as needed (also if the selector is paused, e.g., cf. wrapChannel)
+	// Waits for writability on a selector of its own, not holding outLock (e.g., so the selector thread is not blocked meanwhile)
+	protected void drain() throws IOException
+	{
+		this.outLock.lock();
+		try
+		{
+			this.corked = false;
+			while (!writeQueued())
+			{
+				this.outLock.unlock();
+				try
+				{
+					awaitWritable();
+				}
+				finally
+				{
+					this.outLock.lock();
+				}
+			}
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// N.B. a channel may be registered with several selectors, i.e., this one besides the endpoint's
+	private void awaitWritable() throws IOException
+	{
+		try (Selector sel = Selector.open())
+		{
+			this.c.register(sel, SelectionKey.OP_WRITE);
+			sel.select();
+		}
 	}
 
 	public abstract void writeBytes(byte[] bs) throws IOException;
 	protected abstract void readBytesIntoBuffer() throws IOException;  // synchronized (against read)  // bytes ready for reading: try to deserialize and then enqueue, or else cache for later
 	
-	public synchronized void readAndEnqueueMessages() throws ClassNotFoundException, IOException  // Here for synchronisation
+	// Only called by the selector thread (one at a time per channel), so futures are completed in ticket order
+	// A frame that doesn't fit the buffer fills it: the buffer is then grown, and reading continues -- once drained, the buffer is released (so idle channels hold none)
+	public void readAndEnqueueMessages() throws ClassNotFoundException, IOException
 	{
-		readBytesIntoBuffer();
-		ScribMessage m;
-		while ((m = this.se.smf.fromBytes(this.bb)) != null)
+		synchronized (this.bbLock)
 		{
-			enqueue(m);
+			if (this.isClosed)  // No more messages, cf. fail
+			{
+				return;
+			}
+			boolean full;
+			do
+			{
+				getBuffer();  // Acquired if none
+				readBytesIntoBuffer();
+				ScribMessage m;
+				while ((m = this.se.smf.fromBytes(this.bb)) != null)
+				{
+					enqueue(m);
+				}
+				full = !this.bb.hasRemaining();
+				if (full)
+				{
+					this.bb = this.pool.grow(this.bb, 2 * this.bb.capacity());
+				}
+			}
+			while (full);  // More may be pending on the channel
+			if (this.bb.position() == 0)
+			{
+				this.pool.release(this.bb);
+				this.bb = null;
+			}
 		}
 	}
 	
-	public synchronized void close() throws IOException
+	protected boolean isClosed()
 	{
-		this.isClosed = true;
-		notifyAll();
+		return this.isClosed;
 	}
 	
-	public synchronized int getTicket()
+	public void close() throws IOException
 	{
-		//return ++this.ticket;
-		return this.ticket++;
+		try
+		{
+			drain();
+		}
+		catch (IOException e)
+		{
+			// Channel already broken: queued bytes are dropped
+		}
+		synchronized (this.bbLock)
+		{
+			fail(new IOException("Channel closed"));
+			this.pool.release(this.bb);
+			this.bb = null;
+		}
+	}
+
+	// Fails the futures taken but not yet received, and all later ones -- no more messages from here
+	// E.g., on a read error (the channel itself is left to close), so the receivers are not left waiting
+	public void fail(Throwable cause)
+	{
+		synchronized (this.bbLock)
+		{
+			if (this.isClosed)  // Keep the first cause
+			{
+				return;
+			}
+			this.failure = cause;
+			this.isClosed = true;
+			for (Segment s = this.head.get(); s != null; s = s.next.get())
+			{
+				for (int i = 0; i < SEG_SIZE; i++)
+				{
+					CompletableFuture<ScribMessage> fut = s.slots.get(i);
+					if (fut != null && !fut.isDone())  // Taken, not received (received but untaken are kept for getFuture)
+					{
+						clear(s, i, fut);
+						fail(fut);
+					}
+				}
+			}
+		}
 	}
+
+	// Pre: isClosed
+	private void fail(CompletableFuture<ScribMessage> fut)
+	{
+		fut.completeExceptionally(new RuntimeScribException(this.failure));
+	}
+
 	
 	// post: bb:put
+	// N.B. may be replaced (or released) by readAndEnqueueMessages, i.e., don't retain
 	public ByteBuffer getBuffer()
 	{
-		return this.bb;
+		synchronized (this.bbLock)
+		{
+			if (this.bb == null)
+			{
+				this.bb = this.pool.acquire(ScribBufferPool.MIN_CAPACITY);  // Use put mode as default
+			}
+			return this.bb;
+		}
 	}
 }
@@ -20,11 +20,9 @@ import java.security.NoSuchAlgorithmException;
 
 import org.scribble.runtime.session.SessionEndpoint;
 
+// Wraps the channel of an established endpoint, e.g., TLS (cf. SessionEndpoint.reregister)
 public abstract class BinaryChannelWrapper extends BinaryChannelEndpoint
 {
-	// Use this in readUnwrappedBytesIntoBuffer (super.getBuffer used for read-but-still-wrapped -- decoded into here by unwrap)
-	private final ByteBuffer wrapped = ByteBuffer.allocate(16921);  // FIXME: size  // Use put mode as default
-	
 	protected BinaryChannelWrapper()
 	{
 
@@ -40,27 +38,26 @@ public abstract class BinaryChannelWrapper extends BinaryChannelEndpoint
 	public abstract void clientHandshake() throws IOException, KeyManagementException, NoSuchAlgorithmException; // FIXME: name
 	public abstract void serverHandshake() throws IOException, KeyManagementException, NoSuchAlgorithmException; // FIXME: name
 
-	public abstract byte[] wrap(byte[] bs) throws IOException;
-	public abstract void unwrap() throws IOException;  // Decode from this.wrapped (this.getUnwrapped()) into this.bb
-	
-	protected abstract void writeWrappedBytes(byte[] bs) throws IOException;
-	protected abstract void readWrappedBytesIntoBuffer() throws IOException;  // Read wrapped data into this.wrapped
+	// Pre: bb:get, not retained by the caller -- wraps bb and queues the result (cf. queueBytes)
+	protected abstract void wrap(ByteBuffer bb) throws IOException;
+	// Reads wrapped data from the channel, and decodes as much as possible into this.bb (getBuffer)
+	protected abstract void unwrap() throws IOException;
 	
 	@Override
 	public void writeBytes(byte[] bs) throws IOException
 	{
-		writeWrappedBytes(wrap(bs));
+		wrap(ByteBuffer.wrap(bs));
 	}
 
 	@Override
-	protected void readBytesIntoBuffer() throws IOException
+	protected void writeBuffer(ByteBuffer bb) throws IOException
 	{
-		readWrappedBytesIntoBuffer();
-		unwrap();
+		wrap(bb);  // No copy to byte[]
 	}
-	
-	protected ByteBuffer getWrapped()
+
+	@Override
+	protected void readBytesIntoBuffer() throws IOException
 	{
-		return this.wrapped;
+		unwrap();
 	}
 }
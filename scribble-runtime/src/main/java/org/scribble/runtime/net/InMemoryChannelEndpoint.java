@@ -0,0 +1,113 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.SessionEndpoint;
+
+// In-JVM channel for co-located endpoints: ScribMessage objects are handed directly to the peer endpoint, i.e., no formatter, socket or selector
+// N.B. messages (and payloads) are shared, not copied
+// Sends block while the peer has capacity messages received but not yet taken (cf. getFuture) -- per-peer FIFO as for sockets
+public class InMemoryChannelEndpoint extends BinaryChannelEndpoint
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+	private static final int CLOSED_CREDITS = Integer.MAX_VALUE / 2;  // Released on close, so no sender stays blocked (cf. deliver)
+
+	private InMemoryChannelEndpoint peer;
+	private final Semaphore credits;  // Inbound capacity
+
+	// Client side, e.g., InMemoryChannelEndpoint::new for MPSTEndpoint.request (host ignored, port as for InMemoryServer)
+	public InMemoryChannelEndpoint()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public InMemoryChannelEndpoint(int capacity)
+	{
+		this.credits = new Semaphore(capacity);
+	}
+
+	@Override
+	public void initClient(SessionEndpoint<?, ?> se, String host, int port) throws IOException
+	{
+		InMemoryServer.connect(port, this);
+		super.init(se, null);
+	}
+
+	protected void pair(InMemoryChannelEndpoint peer)
+	{
+		this.peer = peer;
+		peer.peer = this;
+	}
+
+	@Override
+	public void write(ScribMessage m) throws IOException
+	{
+		this.peer.deliver(m);
+	}
+
+	private void deliver(ScribMessage m) throws IOException
+	{
+		try
+		{
+			this.credits.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException(e);
+		}
+		if (!enqueueIfOpen(m))  // Senders to this endpoint take turns, cf. enqueue
+		{
+			this.credits.release();
+			throw new IOException("Channel closed");
+		}
+	}
+
+	@Override
+	public CompletableFuture<ScribMessage> getFuture()
+	{
+		CompletableFuture<ScribMessage> fut = super.getFuture();
+		fut.whenComplete((m, e) -> this.credits.release());  // Once taken and received (or failed, e.g., a ScribInterrupt)
+		return fut;
+	}
+
+	// No more messages from this side: also fails the receives pending at the peer, and any senders blocked here
+	@Override
+	public void close() throws IOException
+	{
+		super.close();
+		this.credits.release(CLOSED_CREDITS);
+		InMemoryChannelEndpoint peer = this.peer;
+		if (peer != null)
+		{
+			peer.fail(new IOException("Channel closed by peer"));
+		}
+	}
+
+	@Override
+	public void writeBytes(byte[] bs) throws IOException
+	{
+		throw new IOException("Not supported by in-memory channels: messages are not serialized");
+	}
+
+	@Override
+	protected void readBytesIntoBuffer() throws IOException
+	{
+		throw new IOException("Not supported by in-memory channels: messages are not serialized");
+	}
+}
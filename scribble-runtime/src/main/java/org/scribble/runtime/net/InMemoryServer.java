@@ -0,0 +1,139 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.scribble.runtime.session.SessionEndpoint;
+
+// In-JVM server for InMemoryChannelEndpoint clients -- the port is a JVM-wide address (the host is ignored)
+public class InMemoryServer extends ScribServerSocket
+{
+	private static final ConcurrentMap<Integer, InMemoryServer> SERVERS = new ConcurrentHashMap<>();
+
+	private final int capacity;  // Of the inbound queue of each accepted channel
+	private final Deque<InMemoryChannelEndpoint> pending = new ArrayDeque<>();  // Connected, not yet accepted -- guarded by lock
+	private boolean closed = false;  // guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = this.lock.newCondition();  // Signalled on connect and close, cf. accept
+
+	public InMemoryServer(int port) throws IOException
+	{
+		this(port, InMemoryChannelEndpoint.DEFAULT_CAPACITY);
+	}
+
+	public InMemoryServer(int port, int capacity) throws IOException
+	{
+		super(port);
+		this.capacity = capacity;
+		if (SERVERS.putIfAbsent(port, this) != null)
+		{
+			throw new IOException("In-memory port already in use: " + port);
+		}
+	}
+
+	// Returns the server end of a new channel to c, to be taken by accept
+	protected static InMemoryChannelEndpoint connect(int port, InMemoryChannelEndpoint c) throws IOException
+	{
+		InMemoryServer ss = SERVERS.get(port);
+		if (ss != null)
+		{
+			ss.lock.lock();
+			try
+			{
+				if (!ss.closed)
+				{
+					InMemoryChannelEndpoint s = new InMemoryChannelEndpoint(ss.capacity);
+					s.pair(c);
+					ss.pending.add(s);
+					ss.changed.signal();
+					return s;
+				}
+			}
+			finally
+			{
+				ss.lock.unlock();
+			}
+		}
+		throw new IOException("In-memory connection refused: " + port);
+	}
+
+	@Override
+	public InMemoryChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException
+	{
+		InMemoryChannelEndpoint s;
+		this.lock.lock();
+		try
+		{
+			while (this.pending.isEmpty())
+			{
+				if (this.closed)
+				{
+					throw new IOException("In-memory server closed: " + this.port);
+				}
+				this.changed.await();
+			}
+			s = this.pending.poll();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		s.init(se, null);
+		return s;
+	}
+
+	// Connections not yet accepted are closed, i.e., failed at the client
+	@Override
+	public void close()
+	{
+		List<InMemoryChannelEndpoint> refused;
+		this.lock.lock();
+		try
+		{
+			this.closed = true;
+			refused = new ArrayList<>(this.pending);
+			this.pending.clear();
+			this.changed.signalAll();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		SERVERS.remove(this.port, this);
+		for (InMemoryChannelEndpoint s : refused)
+		{
+			try
+			{
+				s.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing to write
+			}
+		}
+	}
+}
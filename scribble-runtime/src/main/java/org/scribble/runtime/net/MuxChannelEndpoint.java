@@ -0,0 +1,258 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scribble.core.type.name.Role;
+import org.scribble.runtime.session.SessionEndpoint;
+
+// A channel to one peer of one session, multiplexed with others over a shared MuxConnection -- i.e., no socket or selector of its own (cf. InMemoryChannelEndpoint)
+// Messages are formatted as for sockets, and framed with the session id and roles (cf. MuxConnection)
+// Incoming bytes are decoded by the connection thread (cf. receive) -- per-peer FIFO as for sockets
+public class MuxChannelEndpoint extends BinaryChannelEndpoint
+{
+	private MuxConnection conn;
+	private final Role peer;  // null for server side, cf. key
+	private MuxConnection.Key key;  // Inbound tag
+	private byte[] tag;  // Outbound tag
+
+	private final Object inLock = new Object();  // Connection thread vs. open (server side)
+	private ByteBuffer chunk;  // Current incoming body, cf. readBytesIntoBuffer -- guarded by inLock
+	private List<ByteBuffer> early = new ArrayList<>();  // Bodies received before open (server side) -- guarded by inLock
+	private boolean closeOnOpen = false;  // Closed by peer before open -- guarded by inLock
+
+	private final List<ByteBuffer> corked = new ArrayList<>();  // Sends batched until flush, cf. cork -- guarded by itself
+	private boolean isCorked = false;
+	
+	private boolean done = false;  // Closed locally or by peer, cf. close
+
+	// Client side, e.g., () -> new MuxChannelEndpoint(B) for MPSTEndpoint.request -- all sessions of this JVM to the same host and port share a connection, cf. MuxConnection.get
+	public MuxChannelEndpoint(Role peer)
+	{
+		this(null, peer);
+	}
+
+	// Client side, over the given connection
+	public MuxChannelEndpoint(MuxConnection conn, Role peer)
+	{
+		this.conn = conn;
+		this.peer = peer;
+	}
+
+	// Server side, opened by the peer -- cf. MuxServer.accept
+	protected MuxChannelEndpoint(MuxConnection conn, MuxConnection.Key key)
+	{
+		this.conn = conn;
+		this.peer = null;
+		this.key = key;
+		this.tag = MuxConnection.tag(key.sid, key.dst, key.src);
+	}
+
+	@Override
+	public void initClient(SessionEndpoint<?, ?> se, String host, int port) throws IOException
+	{
+		if (this.conn == null)
+		{
+			this.conn = MuxConnection.get(host, port);
+		}
+		long sid = se.sess.id;
+		String self = se.self.toString();
+		this.key = new MuxConnection.Key(sid, this.peer.toString(), self);
+		this.tag = MuxConnection.tag(sid, self, this.peer.toString());
+		super.init(se, null);
+		this.conn.open(this);
+	}
+
+	// Server side -- bodies received so far are decoded now
+	protected void open(SessionEndpoint<?, ?> se) throws IOException
+	{
+		boolean closed;
+		synchronized (this.inLock)
+		{
+			super.init(se, null);
+			try
+			{
+				for (ByteBuffer bb : this.early)
+				{
+					this.chunk = bb;
+					readAndEnqueueMessages();
+				}
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IOException(e);
+			}
+			finally
+			{
+				this.chunk = null;
+				this.early = null;
+			}
+			closed = this.closeOnOpen;
+		}
+		if (closed)
+		{
+			close();
+		}
+	}
+
+	protected MuxConnection getConnection()
+	{
+		return this.conn;
+	}
+
+	protected MuxConnection.Key getKey()
+	{
+		return this.key;
+	}
+
+	protected byte[] getTag()
+	{
+		return this.tag;
+	}
+
+	// Only called by the connection thread
+	protected void receive(ByteBuffer body) throws ClassNotFoundException, IOException
+	{
+		synchronized (this.inLock)
+		{
+			if (this.se == null)  // Not yet accepted: copy, as body is only valid for this call
+			{
+				ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+				copy.put(body).flip();
+				this.early.add(copy);
+				return;
+			}
+			this.chunk = body;
+			try
+			{
+				readAndEnqueueMessages();
+			}
+			finally
+			{
+				this.chunk = null;
+			}
+		}
+	}
+
+	// Pre: holding inLock, via receive or open
+	@Override
+	protected void readBytesIntoBuffer() throws IOException
+	{
+		ByteBuffer bb = getBuffer();
+		if (this.chunk.remaining() <= bb.remaining())
+		{
+			bb.put(this.chunk);
+		}
+		else  // Buffer will be grown, cf. readAndEnqueueMessages
+		{
+			ByteBuffer tmp = this.chunk.duplicate();
+			tmp.limit(tmp.position() + bb.remaining());
+			bb.put(tmp);
+			this.chunk.position(tmp.position());
+		}
+	}
+
+	@Override
+	protected void writeBuffer(ByteBuffer bb) throws IOException
+	{
+		synchronized (this.corked)
+		{
+			if (this.isCorked)
+			{
+				this.corked.add(bb);
+				return;
+			}
+		}
+		this.conn.send(MuxConnection.DATA, this.tag, bb);  // No copy to byte[]
+	}
+
+	@Override
+	public void writeBytes(byte[] bs) throws IOException
+	{
+		writeBuffer(ByteBuffer.wrap(bs));
+	}
+
+	// Corked sends are written as a single frame
+	@Override
+	public void cork()
+	{
+		synchronized (this.corked)
+		{
+			this.isCorked = true;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		synchronized (this.corked)
+		{
+			this.isCorked = false;
+			if (!this.corked.isEmpty())
+			{
+				ByteBuffer[] bbs = this.corked.toArray(new ByteBuffer[0]);
+				this.corked.clear();
+				this.conn.send(MuxConnection.DATA, this.tag, bbs);
+			}
+		}
+	}
+
+	@Override
+	public boolean hasQueuedBytes()
+	{
+		synchronized (this.corked)
+		{
+			return !this.corked.isEmpty();
+		}
+	}
+
+	// Messages already received are kept for getFuture, as for sockets
+	@Override
+	public void close()
+	{
+		synchronized (this.inLock)
+		{
+			if (this.se == null)  // Not yet accepted (server side): the early bodies are still decoded on open
+			{
+				this.closeOnOpen = true;
+				return;
+			}
+		}
+		synchronized (this)
+		{
+			if (this.done)
+			{
+				return;
+			}
+			this.done = true;
+		}
+		try
+		{
+			flush();
+			super.close();
+			if (this.key != null)
+			{
+				this.conn.close(this);
+			}
+		}
+		catch (IOException e)
+		{
+			// FIXME: (connection already closed)
+		}
+	}
+}
@@ -0,0 +1,504 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One long-lived socket shared by the MuxChannelEndpoints of many sessions between the same pair of processes
+// Frame: int length (of the rest), byte kind, then the tag -- long session id, source role, destination role (each short length, UTF-8) -- then (DATA) the formatted message bytes
+// The session id is that of the requesting (client) side, i.e., the server side tags its replies with the same id -- for a multiparty session, the id agreed by all its processes (cf. MuxServer)
+// A dedicated thread demultiplexes incoming frames into the channel endpoints (cf. MuxChannelEndpoint.receive), and writes what senders could not
+public class MuxConnection extends Thread implements AutoCloseable
+{
+	protected static final byte OPEN = 1;  // Client to server, for MuxServer.accept
+	protected static final byte DATA = 2;
+	protected static final byte CLOSE = 3;
+
+	private static final int MAX_GATHER = 64;  // Max buffers per gathering write
+	private static final int MIN_FRAME = 1 + 8 + 2 + 2;  // Kind and tag, with empty roles
+	private static final int MAX_FRAME = ScribBufferPool.DEFAULT_MAX_CAPACITY;  // Length, excluding the length itself -- a frame may carry several (corked) messages
+
+	private static final Map<String, MuxConnection> SHARED = new HashMap<>();  // "host:port" -> client connection, cf. get -- guarded by SHARED
+
+	private final SocketChannel s;
+	private final Selector sel;
+	private final MuxServer server;  // null for client side
+	private final ConcurrentMap<Key, MuxChannelEndpoint> chans = new ConcurrentHashMap<>();  // By inbound tag
+
+	private ByteBuffer in = ByteBuffer.allocate(ScribBufferPool.MIN_CAPACITY);  // Only used by this thread -- put mode
+
+	private final Deque<ByteBuffer> outq = new ArrayDeque<>();  // As for BinaryChannelEndpoint, but shared by all channels on this connection
+	private final ReentrantLock outLock = new ReentrantLock();  // Not a monitor, cf. close
+	private volatile boolean writePending = false;  // Set by senders, for this thread to take write interest
+
+	private volatile boolean closed = false;
+
+	// Server side, cf. MuxServer
+	protected MuxConnection(MuxServer server, SocketChannel s) throws IOException
+	{
+		super("MuxConnection-" + s.getRemoteAddress());
+		this.s = s;
+		this.server = server;
+		this.s.configureBlocking(false);
+		this.sel = Selector.open();
+		setDaemon(true);
+	}
+
+	// Client side
+	public static MuxConnection connect(String host, int port) throws IOException
+	{
+		MuxConnection conn = new MuxConnection(null, SocketChannel.open(new InetSocketAddress(host, port)));
+		conn.start();
+		return conn;
+	}
+
+	// The connection shared by all clients of host:port in this JVM, connected on first use (or if closed)
+	public static MuxConnection get(String host, int port) throws IOException
+	{
+		String k = host + ":" + port;
+		synchronized (SHARED)
+		{
+			MuxConnection conn = SHARED.get(k);
+			if (conn == null || conn.closed)
+			{
+				conn = connect(host, port);
+				SHARED.put(k, conn);
+			}
+			return conn;
+		}
+	}
+
+	public boolean isClosed()
+	{
+		return this.closed;
+	}
+
+	// Client side
+	protected void open(MuxChannelEndpoint c) throws IOException
+	{
+		if (this.chans.putIfAbsent(c.getKey(), c) != null)
+		{
+			throw new IOException("Multiplexed channel already open: " + c.getKey());
+		}
+		send(OPEN, c.getTag());
+	}
+
+	// Local close of c -- the peer end is closed by the CLOSE frame
+	protected void close(MuxChannelEndpoint c) throws IOException
+	{
+		if (this.chans.remove(c.getKey(), c) && !this.closed)
+		{
+			send(CLOSE, c.getTag());
+		}
+	}
+
+	// Writes one frame, with the given bodies concatenated (e.g., corked messages), or queues it for this thread if the socket would block
+	// N.B. bodies are retained until written, i.e., don't reuse
+	protected void send(byte kind, byte[] tag, ByteBuffer... bodies) throws IOException
+	{
+		int len = 1 + tag.length;
+		for (ByteBuffer bb : bodies)
+		{
+			len += bb.remaining();
+		}
+		if (len > MAX_FRAME)
+		{
+			throw new IOException("Multiplexed frame over the size limit (" + MAX_FRAME + "): " + len);
+		}
+		ByteBuffer header = ByteBuffer.allocate(4 + 1 + tag.length);
+		header.putInt(len).put(kind).put(tag).flip();
+		this.outLock.lock();
+		try
+		{
+			if (this.closed)
+			{
+				throw new IOException("Multiplexed connection closed: " + getName());
+			}
+			this.outq.add(header);
+			for (ByteBuffer bb : bodies)
+			{
+				this.outq.add(bb);
+			}
+			if (!writeQueued())
+			{
+				this.writePending = true;
+				this.sel.wakeup();
+			}
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+	}
+
+	// Pre: holding outLock
+	// Returns true if the queue is drained, or false if the socket would block
+	private boolean writeQueued() throws IOException
+	{
+		while (!this.outq.isEmpty())
+		{
+			ByteBuffer[] bbs = this.outq.stream().limit(MAX_GATHER).toArray(ByteBuffer[]::new);
+			long n = this.s.write(bbs);
+			while (!this.outq.isEmpty() && !this.outq.peek().hasRemaining())
+			{
+				this.outq.poll();
+			}
+			if (n == 0 && !this.outq.isEmpty())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run()
+	{
+		IOException failure = null;  // Fails the channels, cf. close
+		try
+		{
+			SelectionKey key = this.s.register(this.sel, SelectionKey.OP_READ);
+			while (!this.closed)
+			{
+				this.sel.select();
+				if (this.writePending)
+				{
+					this.writePending = false;
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+				if (key.isValid() && key.isWritable())
+				{
+					this.outLock.lock();
+					try
+					{
+						if (writeQueued())
+						{
+							key.interestOps(SelectionKey.OP_READ);
+						}
+					}
+					finally
+					{
+						this.outLock.unlock();
+					}
+				}
+				if (key.isValid() && key.isReadable())
+				{
+					if (this.s.read(this.in) < 0)
+					{
+						failure = new IOException("Multiplexed connection closed by peer: " + getName());
+						return;
+					}
+					demux();
+				}
+				this.sel.selectedKeys().clear();
+			}
+		}
+		catch (IOException e)
+		{
+			failure = e;
+		}
+		catch (RuntimeException e)  // E.g., from a channel's formatter -- still fails every channel, rather than leaving them waiting
+		{
+			failure = new IOException(e);
+		}
+		finally
+		{
+			close(failure);
+			try
+			{
+				this.sel.close();
+			}
+			catch (IOException e)
+			{
+				// FIXME
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Dispatches all whole frames in the input buffer -- a partial frame that doesn't fit grows the buffer
+	// A malformed frame is a protocol error, i.e., fails the connection (the stream can't be resynchronised)
+	private void demux() throws IOException
+	{
+		this.in.flip();
+		while (this.in.remaining() >= 4)
+		{
+			int len = this.in.getInt(this.in.position());
+			if (len < MIN_FRAME || len > MAX_FRAME)
+			{
+				throw new IOException("Bad multiplexed frame length: " + len);
+			}
+			if (this.in.remaining() < 4 + len)
+			{
+				break;
+			}
+			int end = this.in.position() + 4 + len;
+			ByteBuffer body = this.in.duplicate();  // Confined to this frame
+			body.position(this.in.position() + 4).limit(end);
+			this.in.position(end);
+			byte kind;
+			Key k;
+			try
+			{
+				kind = body.get();
+				k = new Key(body.getLong(), readRole(body), readRole(body));
+			}
+			catch (BufferUnderflowException e)
+			{
+				throw new IOException("Truncated multiplexed frame tag", e);
+			}
+			dispatch(kind, k, body);
+		}
+		this.in.compact();
+		if (!this.in.hasRemaining())
+		{
+			int len = this.in.getInt(0);
+			ByteBuffer tmp = ByteBuffer.allocate(Math.max(2 * this.in.capacity(), 4 + len));
+			this.in.flip();
+			tmp.put(this.in);
+			this.in = tmp;
+		}
+		else if (this.in.position() == 0 && this.in.capacity() > ScribBufferPool.MIN_CAPACITY)
+		{
+			this.in = ByteBuffer.allocate(ScribBufferPool.MIN_CAPACITY);
+		}
+	}
+
+	// N.B. body is only valid for the duration of the call
+	private void dispatch(byte kind, Key k, ByteBuffer body) throws IOException
+	{
+		switch (kind)
+		{
+			case OPEN:
+			{
+				if (this.server == null)  // Refused: the peer's channel is closed
+				{
+					refuse(k);
+					return;
+				}
+				MuxChannelEndpoint c = new MuxChannelEndpoint(this, k);
+				MuxChannelEndpoint prev = this.chans.putIfAbsent(k, c);
+				if (prev != null)  // Opened twice by the peer: fail the open one, and refuse both
+				{
+					this.chans.remove(k, prev);
+					prev.fail(new IOException("Multiplexed channel already open: " + k));
+					prev.close();
+					refuse(k);
+					return;
+				}
+				this.server.offer(c);
+				return;
+			}
+			case DATA:
+			{
+				MuxChannelEndpoint c = this.chans.get(k);
+				if (c == null)  // Closed locally
+				{
+					return;
+				}
+				try
+				{
+					c.receive(body);
+				}
+				catch (ClassNotFoundException | IOException e)  // E.g., MessageFormatter.fromBytes exception
+				{
+					c.fail(e);
+					c.close();
+				}
+				return;
+			}
+			case CLOSE:
+			{
+				MuxChannelEndpoint c = this.chans.remove(k);
+				if (c != null)
+				{
+					c.close();
+				}
+				return;
+			}
+			default:
+			{
+				throw new IOException("Unknown multiplexed frame kind: " + kind);
+			}
+		}
+	}
+	
+	// Closes the peer's channel k, i.e., as if closed here
+	private void refuse(Key k)
+	{
+		try
+		{
+			send(CLOSE, tag(k.sid, k.dst, k.src));
+		}
+		catch (IOException e)
+		{
+			// Connection closed: so is the peer's channel
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		close((IOException) null);
+	}
+
+	// cause, if any, fails the pending receives of every channel (else they fail as closed)
+	private void close(IOException cause)
+	{
+		this.outLock.lock();
+		try
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			if (Thread.currentThread() != this)  // Best effort: write what is queued (this thread has stopped servicing the socket)
+			{
+				try
+				{
+					while (!writeQueued())
+					{
+						awaitWritable();
+					}
+				}
+				catch (IOException e)
+				{
+					// Connection already broken: queued bytes are dropped
+				}
+			}
+			this.closed = true;
+		}
+		finally
+		{
+			this.outLock.unlock();
+		}
+		if (this.server != null)  // Before the socket is closed, i.e., not accepted once the peer may see the close
+		{
+			this.server.remove(this);
+		}
+		this.sel.wakeup();
+		try
+		{
+			this.s.close();
+		}
+		catch (IOException e)
+		{
+			// FIXME
+			e.printStackTrace();
+		}
+		for (Key k : this.chans.keySet())
+		{
+			MuxChannelEndpoint c = this.chans.remove(k);
+			if (c != null)
+			{
+				if (cause != null)
+				{
+					c.fail(cause);
+				}
+				c.close();
+			}
+		}
+	}
+
+	// As for BinaryChannelEndpoint.drain: a temporary selector, as the connection thread can't write while outLock is held
+	private void awaitWritable() throws IOException
+	{
+		try (Selector sel = Selector.open())
+		{
+			this.s.register(sel, SelectionKey.OP_WRITE);
+			sel.select();
+		}
+	}
+
+	protected static byte[] tag(long sid, String src, String dst)
+	{
+		byte[] bs1 = src.getBytes(StandardCharsets.UTF_8);
+		byte[] bs2 = dst.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer bb = ByteBuffer.allocate(8 + 2 + bs1.length + 2 + bs2.length);
+		bb.putLong(sid).putShort((short) bs1.length).put(bs1).putShort((short) bs2.length).put(bs2);
+		return bb.array();
+	}
+
+	private static String readRole(ByteBuffer bb) throws IOException
+	{
+		int len = bb.getShort();
+		if (len < 0 || len > bb.remaining())
+		{
+			throw new IOException("Bad multiplexed role length: " + len);
+		}
+		byte[] bs = new byte[len];
+		bb.get(bs);
+		return new String(bs, StandardCharsets.UTF_8);
+	}
+
+	// A channel as tagged by incoming frames: src is the peer, dst is the local role
+	protected static final class Key
+	{
+		public final long sid;
+		public final String src;
+		public final String dst;
+
+		protected Key(long sid, String src, String dst)
+		{
+			this.sid = sid;
+			this.src = src;
+			this.dst = dst;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = 2711;
+			hash = 31 * hash + Long.hashCode(this.sid);
+			hash = 31 * hash + this.src.hashCode();
+			hash = 31 * hash + this.dst.hashCode();
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+			{
+				return true;
+			}
+			if (!(o instanceof Key))
+			{
+				return false;
+			}
+			Key k = (Key) o;
+			return this.sid == k.sid && this.src.equals(k.src) && this.dst.equals(k.dst);
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.sid + ":" + this.src + "->" + this.dst;
+		}
+	}
+}
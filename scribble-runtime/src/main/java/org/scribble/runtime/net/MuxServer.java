@@ -0,0 +1,210 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.scribble.core.type.name.Role;
+import org.scribble.runtime.session.Session;
+import org.scribble.runtime.session.SessionEndpoint;
+import org.scribble.util.ScribException;
+
+// Server for MuxChannelEndpoint clients: accepts (a few) MuxConnections, each carrying the channels of many sessions
+// accept returns the next channel opened by the given peer for the role of se, i.e., channels are tagged by the session id of the requesting side
+// N.B. a multiparty session must be created with the same (agreed) id in every process, cf. Session(long, ...) -- its channels are then only accepted by the endpoints of that session here (cf. Session.getSession)
+// A binary session needs no agreed id, e.g., a fresh server session per client: its one channel is accepted whatever the id
+public class MuxServer extends ScribServerSocket
+{
+	private final ServerSocketChannel ss;
+	private final Set<MuxConnection> conns = ConcurrentHashMap.newKeySet();
+
+	private final LinkedList<MuxChannelEndpoint> pending = new LinkedList<>();  // Opened, not yet accepted -- guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();  // Not a monitor: accept may wait on a virtual thread, cf. ScribThreads
+	private final Condition opened = this.lock.newCondition();
+
+	private volatile boolean closed = false;
+
+	public MuxServer(int port) throws IOException
+	{
+		super(port);
+		this.ss = ServerSocketChannel.open();
+		this.ss.socket().bind(new InetSocketAddress(port));
+		Thread t = new Thread(this::acceptConnections, "MuxServer-" + port);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void acceptConnections()
+	{
+		try
+		{
+			while (!this.closed)
+			{
+				SocketChannel s = this.ss.accept();
+				MuxConnection conn = new MuxConnection(this, s);
+				this.conns.add(conn);
+				conn.start();
+			}
+		}
+		catch (IOException e)
+		{
+			if (!this.closed)
+			{
+				// FIXME
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Called by the connection thread
+	protected void offer(MuxChannelEndpoint c)
+	{
+		this.lock.lock();
+		try
+		{
+			this.pending.add(c);
+			this.opened.signalAll();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	// Called on close of conn: its channels not yet accepted are dropped (they are closed with it)
+	protected void remove(MuxConnection conn)
+	{
+		this.conns.remove(conn);
+		this.lock.lock();
+		try
+		{
+			this.pending.removeIf(c -> c.getConnection() == conn);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	// From any peer
+	@Override
+	public MuxChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException
+	{
+		return accept(se, (String) null);
+	}
+
+	@Override
+	public MuxChannelEndpoint accept(SessionEndpoint<?, ?> se, Role peer) throws IOException
+	{
+		return accept(se, peer.toString());
+	}
+
+	// peer null for any
+	private MuxChannelEndpoint accept(SessionEndpoint<?, ?> se, String peer) throws IOException
+	{
+		String self = se.self.toString();
+		boolean binary = se.sess.getRoles().size() == 2;
+		MuxChannelEndpoint c = null;
+		this.lock.lock();
+		try
+		{
+			while (c == null)
+			{
+				for (Iterator<MuxChannelEndpoint> i = this.pending.iterator(); i.hasNext(); )
+				{
+					MuxChannelEndpoint next = i.next();
+					MuxConnection.Key k = next.getKey();
+					if (k.dst.equals(self) && (peer == null || k.src.equals(peer)) && (binary || isSession(k.sid, se.sess)))
+					{
+						i.remove();
+						c = next;
+						break;
+					}
+				}
+				if (c == null)
+				{
+					if (this.closed)
+					{
+						throw new IOException("Multiplexed server closed: " + this.port);
+					}
+					try
+					{
+						this.opened.await();  // Signalled by offer and close
+					}
+					catch (InterruptedException e)
+					{
+						throw new IOException(e);
+					}
+				}
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		c.open(se);
+		return c;
+	}
+
+	// If sid is the (agreed) id of sess in this process
+	private static boolean isSession(long sid, Session sess)
+	{
+		try
+		{
+			return Session.getSession(sid) == sess;
+		}
+		catch (ScribException e)
+		{
+			return false;
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		try
+		{
+			this.ss.close();
+		}
+		catch (IOException e)
+		{
+			// FIXME
+			e.printStackTrace();
+		}
+		for (MuxConnection conn : this.conns)
+		{
+			conn.close();
+		}
+		this.lock.lock();
+		try
+		{
+			this.pending.clear();  // Closed with their connections
+			this.opened.signalAll();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+}
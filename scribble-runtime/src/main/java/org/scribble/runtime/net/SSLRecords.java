@@ -0,0 +1,404 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.scribble.runtime.util.ScribThreads;
+
+// The TLS record layer of an SSL channel (cf. SSLSocketChannelEndpoint, SSLSocketChannelWrapper), driven without blocking
+// The handshake is advanced by receive as records arrive (records it needs to send are queued on the channel) -- sends until it completes are held, then wrapped in order
+// Records are wrapped from the formatted message into pooled buffers (released once written, cf. written), and unwrapped into the endpoint buffer -- no intermediate copies,
+// except of a record that does not fit the rest of the endpoint buffer (cf. spill)
+// Delegated engine tasks (e.g., certificate checks) run off the selector thread, with reading suspended until they are done (cf. runTasks)
+// On EOF or close_notify from the peer, the endpoint's pending receives fail and its channel is closed, once the messages before it are enqueued (cf. closeIfDone)
+final class SSLRecords
+{
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final BinaryChannelEndpoint c;
+	private final SSLEngine engine;
+	private final ScribBufferPool pool = ScribBufferPool.getDefault();
+
+	private final ReentrantLock wrapLock = new ReentrantLock();  // Senders vs. handshake (selector thread) -- wrap and queue as one step, to keep records in order
+	private boolean handshook = false;  // guarded by wrapLock
+	private final List<ByteBuffer> held = new ArrayList<>();  // Sent before handshook -- guarded by wrapLock
+	private boolean closed = false;  // guarded by wrapLock
+
+	// Only used by receive (and begin), cf. BinaryChannelEndpoint.readAndEnqueueMessages
+	private ByteBuffer netIn;  // Read, not yet unwrapped (put mode) -- grown for records larger than it
+	private ByteBuffer spill;  // Unwrapped, not yet moved into the endpoint buffer (get mode) -- null if none
+	private volatile boolean tasking = false;  // Delegated tasks running, i.e., netIn not processed until done (cf. runTasks)
+	private volatile IOException done;  // Inbound closed by the peer, cf. closeIfDone
+
+	SSLRecords(BinaryChannelEndpoint c, SSLEngine engine)
+	{
+		this.c = c;
+		this.engine = engine;
+		this.netIn = this.pool.acquire(engine.getSession().getPacketBufferSize());
+	}
+
+	// Starts the handshake, e.g., queues the ClientHello -- does not wait for it to complete
+	// Pre: dst:put (the endpoint buffer), and c not yet handled by the selector thread (e.g., not yet registered, or paused)
+	// Bytes already in dst are records, e.g., read by a wrapped endpoint before the wrap (cf. BinaryChannelEndpoint.wrapChannel): moved to netIn
+	void begin(ByteBuffer dst) throws IOException
+	{
+		if (dst.position() > 0)
+		{
+			dst.flip();
+			if (dst.remaining() > this.netIn.remaining())
+			{
+				this.netIn = this.pool.grow(this.netIn, this.netIn.position() + dst.remaining());
+			}
+			this.netIn.put(dst);
+			dst.clear();
+		}
+		this.engine.beginHandshake();
+		process(dst);
+	}
+
+	// Pre: bb:get, not retained by the caller
+	void send(ByteBuffer bb) throws IOException
+	{
+		this.wrapLock.lock();
+		try
+		{
+			if (!this.handshook)
+			{
+				this.held.add(bb);
+				return;
+			}
+			wrap(bb);
+		}
+		finally
+		{
+			this.wrapLock.unlock();
+		}
+	}
+
+	// Pre: dst:put (the endpoint buffer) -- only called by the selector thread (cf. BinaryChannelEndpoint.readBytesIntoBuffer)
+	// Returns when dst is full (cf. readAndEnqueueMessages, which grows it and calls again), or all input read so far is processed
+	void receive(ReadableByteChannel ch, ByteBuffer dst) throws IOException
+	{
+		if (this.tasking)  // E.g., read interest restored by unpause
+		{
+			this.c.se.getSelector().setReadInterest(this.c.getSelectableChannel(), false);
+			return;
+		}
+		if (this.done != null)
+		{
+			return;
+		}
+		int n = ch.read(this.netIn);
+		process(dst);
+		if (n < 0 && this.done == null)  // EOF without close_notify
+		{
+			try
+			{
+				this.engine.closeInbound();
+				this.done = new IOException("Channel closed by peer");
+			}
+			catch (SSLException e)  // Truncation
+			{
+				this.done = e;
+			}
+		}
+	}
+
+	// Pre: the messages received so far are enqueued, i.e., after receive by readAndEnqueueMessages
+	// On EOF or close_notify: fails the pending receives and closes the channel, i.e., no more reads (messages already received are kept, cf. BinaryChannelEndpoint.fail)
+	void closeIfDone()
+	{
+		if (this.done == null)
+		{
+			return;
+		}
+		this.c.fail(this.done);
+		closeChannel();
+	}
+
+	private void closeChannel()
+	{
+		try
+		{
+			this.c.getSelectableChannel().close();  // Cancels its key
+		}
+		catch (IOException e)
+		{
+			// Already closed
+		}
+	}
+
+	// Pre: bb was queued by this (cf. wrap)
+	void written(ByteBuffer bb)
+	{
+		this.pool.release(bb);
+	}
+
+	// Queues close_notify, i.e., after any records already queued -- held sends are dropped if the handshake has not completed
+	void close() throws IOException
+	{
+		this.wrapLock.lock();
+		try
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			this.closed = true;
+			this.held.clear();
+			this.engine.closeOutbound();
+			if (this.handshook && this.c.getSelectableChannel().isOpen())  // Else closed by closeIfDone
+			{
+				wrap(EMPTY);
+			}
+		}
+		finally
+		{
+			this.wrapLock.unlock();
+		}
+	}
+
+	// Pre: the endpoint is closed, i.e., receive is no longer called
+	void free()
+	{
+		this.wrapLock.lock();
+		try
+		{
+			this.pool.release(this.netIn);  // (Nothing if null)
+			this.pool.release(this.spill);
+			this.netIn = null;
+			this.spill = null;
+		}
+		finally
+		{
+			this.wrapLock.unlock();
+		}
+	}
+
+	// Unwraps netIn into dst as far as possible, and advances the handshake (which may unwrap into dst, e.g., early data)
+	private void process(ByteBuffer dst) throws IOException
+	{
+		while (true)
+		{
+			if (this.spill != null && !drainSpill(dst))
+			{
+				return;  // dst full
+			}
+			HandshakeStatus hs = this.engine.getHandshakeStatus();
+			if (hs == HandshakeStatus.NEED_TASK)
+			{
+				runTasks();
+				return;  // Resumed when done
+			}
+			if (hs == HandshakeStatus.NEED_WRAP)
+			{
+				this.wrapLock.lock();
+				try
+				{
+					wrap(EMPTY);
+				}
+				finally
+				{
+					this.wrapLock.unlock();
+				}
+				continue;
+			}
+			if (hs == HandshakeStatus.NOT_HANDSHAKING)
+			{
+				handshook();
+			}
+			if (this.netIn.position() == 0)
+			{
+				return;  // Nothing (more) to unwrap
+			}
+			SSLEngineResult res = unwrap(dst);
+			if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)  // Not enough of dst left for the next record: unwrap it aside, then move as much as fits
+			{
+				this.spill = this.pool.acquire(this.engine.getSession().getApplicationBufferSize());
+				res = unwrap(this.spill);  // (Released by drainSpill, even if nothing unwrapped)
+				this.spill.flip();
+			}
+			switch (res.getStatus())
+			{
+				case OK:
+				{
+					if (res.bytesConsumed() == 0 && res.bytesProduced() == 0 && res.getHandshakeStatus() == hs)
+					{
+						return;  // No progress
+					}
+					break;
+				}
+				case BUFFER_UNDERFLOW:  // Incomplete record: wait for more input
+				{
+					if (!this.netIn.hasRemaining())  // Record larger than netIn
+					{
+						this.netIn = this.pool.grow(this.netIn, 2 * this.netIn.capacity());
+					}
+					return;
+				}
+				case CLOSED:  // close_notify from peer: any reply is wrapped by the next iteration (NEED_WRAP), then closed by closeIfDone
+				{
+					this.netIn.clear();  // Nothing more to unwrap
+					this.done = new IOException("Channel closed by peer");
+					break;
+				}
+				default:
+				{
+					throw new SSLException("Unexpected unwrap result: " + res);
+				}
+			}
+		}
+	}
+
+	// Pre: NEED_TASK -- the tasks may block (e.g., certificate checks), so run on another thread, not the selector thread
+	// Reading is suspended meanwhile (netIn is not processed), then the endpoint resumes receiving, i.e., advances the handshake, before reads are re-armed
+	private void runTasks()
+	{
+		this.tasking = true;
+		this.c.se.getSelector().setReadInterest(this.c.getSelectableChannel(), false);  // Before the tasks, so not re-armed before time
+		ScribThreads.getExecutor().execute(() ->
+		{
+			try
+			{
+				Runnable task;
+				while ((task = this.engine.getDelegatedTask()) != null)
+				{
+					task.run();
+				}
+				this.tasking = false;
+				this.c.readAndEnqueueMessages();  // E.g., NEED_WRAP, or input already read
+				this.c.se.getSelector().setReadInterest(this.c.getSelectableChannel(), true);
+			}
+			catch (Exception e)  // E.g., certificate rejected -- closed as for closeIfDone
+			{
+				this.c.fail(e);  // No more receives after, i.e., the buffers can be freed
+				closeChannel();
+				free();
+			}
+		});
+	}
+
+	private SSLEngineResult unwrap(ByteBuffer dst) throws IOException
+	{
+		this.netIn.flip();
+		try
+		{
+			return this.engine.unwrap(this.netIn, dst);
+		}
+		finally
+		{
+			this.netIn.compact();
+		}
+	}
+
+	// Returns true if spill is now empty (and released), false if dst is full
+	private boolean drainSpill(ByteBuffer dst)
+	{
+		if (this.spill.remaining() <= dst.remaining())
+		{
+			dst.put(this.spill);
+			this.pool.release(this.spill);
+			this.spill = null;
+			return true;
+		}
+		ByteBuffer tmp = this.spill.duplicate();
+		tmp.limit(tmp.position() + dst.remaining());
+		dst.put(tmp);
+		this.spill.position(tmp.position());
+		return false;
+	}
+
+	// The held sends are wrapped now, in order
+	private void handshook() throws IOException
+	{
+		this.wrapLock.lock();
+		try
+		{
+			if (this.handshook)
+			{
+				return;
+			}
+			this.handshook = true;
+			for (ByteBuffer bb : this.held)
+			{
+				wrap(bb);
+			}
+			this.held.clear();
+		}
+		finally
+		{
+			this.wrapLock.unlock();
+		}
+	}
+
+	// Pre: holding wrapLock, src:get
+	// Wraps all of src (or a handshake or close record, if src is empty) into pooled buffers, as many records as needed, and queues them together
+	private void wrap(ByteBuffer src) throws IOException
+	{
+		List<ByteBuffer> full = new ArrayList<>(1);
+		ByteBuffer net = this.pool.acquire(this.engine.getSession().getPacketBufferSize());
+		while (true)
+		{
+			SSLEngineResult res = this.engine.wrap(src, net);
+			if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)  // net full
+			{
+				if (net.position() == 0)
+				{
+					net = this.pool.grow(net, 2 * net.capacity());
+				}
+				else
+				{
+					net.flip();
+					full.add(net);
+					net = this.pool.acquire(this.engine.getSession().getPacketBufferSize());
+				}
+				continue;
+			}
+			if (res.getStatus() == SSLEngineResult.Status.CLOSED && src.hasRemaining())
+			{
+				this.pool.release(net);
+				full.forEach(this.pool::release);
+				throw new IOException("SSL engine closed");
+			}
+			if (!src.hasRemaining() || res.getStatus() != SSLEngineResult.Status.OK)
+			{
+				break;
+			}
+		}
+		net.flip();
+		if (net.hasRemaining())
+		{
+			full.add(net);
+		}
+		else
+		{
+			this.pool.release(net);
+		}
+		if (!full.isEmpty())
+		{
+			this.c.queueBytes(full.toArray(new ByteBuffer[full.size()]));  // One write (cf. Nagle)
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.SessionEndpoint;
+
+// TLS over a SocketChannel (cf. SSLRecords) -- the handshake is advanced by the selector thread, i.e., connect and accept do not wait for it
+// Sends until the handshake completes are held, then written in order
+public class SSLSocketChannelEndpoint extends SocketChannelEndpoint
+{
+	private final SSLContext context;
+	private SSLRecords records;
+
+	// Server side, cf. SSLSocketChannelServer
+	public SSLSocketChannelEndpoint(SessionEndpoint<?, ?> se, SocketChannel s, SSLContext context) throws IOException
+	{
+		super(se, s);
+		this.context = context;
+		SSLEngine engine = context.createSSLEngine();
+		engine.setUseClientMode(false);
+		begin(engine);
+	}
+
+	// Client side, e.g., () -> new SSLSocketChannelEndpoint(context) for MPSTEndpoint.request
+	public SSLSocketChannelEndpoint(SSLContext context)
+	{
+		this.context = context;
+	}
+
+	// Client side, by SSLContext.getDefault (e.g., javax.net.ssl.trustStore), e.g., SSLSocketChannelEndpoint::new
+	public SSLSocketChannelEndpoint() throws NoSuchAlgorithmException
+	{
+		this(SSLContext.getDefault());
+	}
+
+	@Override
+	public void initClient(SessionEndpoint<?, ?> se, String host, int port) throws IOException
+	{
+		super.initClient(se, host, port);
+		SSLEngine engine = this.context.createSSLEngine(host, port);
+		engine.setUseClientMode(true);
+		begin(engine);
+	}
+
+	// Pre: not yet registered with the selector
+	private void begin(SSLEngine engine) throws IOException
+	{
+		this.records = new SSLRecords(this, engine);
+		this.records.begin(getBuffer());
+	}
+
+	@Override
+	public void writeBytes(byte[] bs) throws IOException
+	{
+		writeBuffer(ByteBuffer.wrap(bs));
+	}
+
+	@Override
+	public void write(ScribMessage m) throws IOException
+	{
+		writeBuffer(this.se.smf.toBuffer(m));  // Not queueMessage: the records are wrapped into pooled buffers anyway, cf. SSLRecords
+	}
+
+	@Override
+	protected void writeBuffer(ByteBuffer bb) throws IOException
+	{
+		this.records.send(bb);  // Wrapped directly from bb
+	}
+
+	@Override
+	public void readBytesIntoBuffer() throws IOException
+	{
+		this.records.receive(getSelectableChannel(), getBuffer());
+	}
+
+	@Override
+	public void readAndEnqueueMessages() throws ClassNotFoundException, IOException
+	{
+		super.readAndEnqueueMessages();
+		this.records.closeIfDone();  // EOF or close_notify
+	}
+
+	@Override
+	protected void onWritten(ByteBuffer bb)
+	{
+		this.records.written(bb);
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			this.records.close();  // close_notify follows the queued records
+		}
+		catch (IOException e)
+		{
+			// Channel already broken: as for queued bytes
+		}
+		super.close();
+		this.records.free();
+	}
+}
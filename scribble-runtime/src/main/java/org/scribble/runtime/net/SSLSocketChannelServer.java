@@ -14,28 +14,38 @@
 package org.scribble.runtime.net;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.channels.ServerSocketChannel;
+import java.security.NoSuchAlgorithmException;
+
+import javax.net.ssl.SSLContext;
 
 import org.scribble.runtime.session.SessionEndpoint;
 
-// FIXME:
+// Server for SSLSocketChannelEndpoint clients -- accept does not wait for the handshake (cf. SSLRecords)
 public class SSLSocketChannelServer extends ScribServerSocket
 {
+	private final SSLContext context;  // With the server's key material, e.g., by a KeyManagerFactory
 	private ServerSocketChannel ss;
 	
-	public SSLSocketChannelServer(int port) throws IOException
+	// By SSLContext.getDefault, i.e., javax.net.ssl.keyStore
+	public SSLSocketChannelServer(int port) throws IOException, NoSuchAlgorithmException
+	{
+		this(port, SSLContext.getDefault());
+	}
+
+	public SSLSocketChannelServer(int port, SSLContext context) throws IOException
 	{
 		super(port);
-		throw new RuntimeException("TODO");
-		/*this.ss = ServerSocketChannel.open();
-		this.ss.socket().bind(new InetSocketAddress(port));*/
+		this.context = context;
+		this.ss = ServerSocketChannel.open();
+		this.ss.socket().bind(new InetSocketAddress(port));
 	}
 
 	@Override
-	//public synchronized SocketChannelEndpoint accept(MPSTEndpoint<?, ?> se) throws IOException
-	public synchronized SocketChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException
+	public SSLSocketChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException  // Not synchronized, cf. SocketChannelServer
 	{
-		return new SocketChannelEndpoint(se, ss.accept());
+		return new SSLSocketChannelEndpoint(se, this.ss.accept(), this.context);
 	}
 
 	@Override
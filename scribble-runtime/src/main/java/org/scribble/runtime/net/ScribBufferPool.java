@@ -0,0 +1,154 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Read buffers for BinaryChannelEndpoints, shared by all endpoints of a JVM (cf. getDefault)
+// Capacities are powers of two from MIN_CAPACITY, so a buffer can be grown on demand for large frames (cf. BinaryChannelEndpoint.readAndEnqueueMessages)
+// Released buffers are kept for reuse up to a total of maxPooledBytes (and only up to maxPooledCapacity each), otherwise left to the GC
+// No buffer is over maxCapacity, i.e., growing for a larger frame fails (cf. grow) rather than allocating without bound for whatever length a peer sends
+public class ScribBufferPool
+{
+	public static final int MIN_CAPACITY = 32 * 1024;  // Over the SSL application buffer size (cf. SSLRecords)
+	public static final int DEFAULT_MAX_CAPACITY = 64 * 1024 * 1024;
+
+	private static volatile ScribBufferPool DEFAULT = new ScribBufferPool(true,
+			4 * 1024 * 1024, 64L * 1024 * 1024);
+
+	public final boolean direct;
+	public final int maxPooledCapacity;
+	public final long maxPooledBytes;
+	public final int maxCapacity;
+
+	private final List<Queue<ByteBuffer>> free = new ArrayList<>();  // Index i for capacity MIN_CAPACITY << i
+	private final AtomicLong pooled = new AtomicLong(0);  // Total capacity of the free buffers
+
+	public ScribBufferPool(boolean direct, int maxPooledCapacity,
+			long maxPooledBytes)
+	{
+		this(direct, maxPooledCapacity, maxPooledBytes,
+				Math.max(maxPooledCapacity, DEFAULT_MAX_CAPACITY));
+	}
+
+	public ScribBufferPool(boolean direct, int maxPooledCapacity,
+			long maxPooledBytes, int maxCapacity)
+	{
+		if (maxPooledCapacity < MIN_CAPACITY || maxPooledBytes < 0
+				|| maxCapacity < maxPooledCapacity)
+		{
+			throw new IllegalArgumentException("Bad buffer pool limits: "
+					+ maxPooledCapacity + ", " + maxPooledBytes + ", " + maxCapacity);
+		}
+		this.direct = direct;
+		this.maxPooledCapacity = maxPooledCapacity;
+		this.maxPooledBytes = maxPooledBytes;
+		this.maxCapacity = maxCapacity;
+		for (int i = 0; i <= sizeClass(maxPooledCapacity); i++)
+		{
+			this.free.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	public static ScribBufferPool getDefault()
+	{
+		return ScribBufferPool.DEFAULT;
+	}
+
+	// Only affects endpoints created afterwards
+	public static void setDefault(ScribBufferPool pool)
+	{
+		ScribBufferPool.DEFAULT = pool;
+	}
+
+	// Returns a cleared buffer (i.e., put mode) with at least the given capacity -- at most maxCapacity, cf. grow
+	public ByteBuffer acquire(int capacity)
+	{
+		if (capacity > this.maxCapacity)
+		{
+			throw new IllegalArgumentException(
+					"Buffer capacity over " + this.maxCapacity + ": " + capacity);
+		}
+		int i = sizeClass(capacity);
+		if (i < this.free.size())
+		{
+			ByteBuffer bb = this.free.get(i).poll();
+			if (bb != null)
+			{
+				this.pooled.addAndGet(-bb.capacity());
+				bb.clear();
+				return bb;
+			}
+		}
+		int cap = MIN_CAPACITY << i;
+		if (cap <= 0 || cap > this.maxCapacity)  // Overflow, or the last size class
+		{
+			cap = capacity;
+		}
+		return this.direct ? ByteBuffer.allocateDirect(cap) : ByteBuffer.allocate(cap);
+	}
+
+	// Pre: bb not used after this (by the caller)
+	public void release(ByteBuffer bb)
+	{
+		if (bb == null || bb.isDirect() != this.direct)
+		{
+			return;
+		}
+		int cap = bb.capacity();
+		int i = sizeClass(cap);
+		if (i >= this.free.size() || (MIN_CAPACITY << i) != cap)  // Not one of ours
+		{
+			return;
+		}
+		if (this.pooled.addAndGet(cap) > this.maxPooledBytes)
+		{
+			this.pooled.addAndGet(-cap);
+			return;
+		}
+		this.free.get(i).offer(bb);
+	}
+
+	// Pre: bb is in put mode
+	// Returns a buffer of at least the given capacity (capped by maxCapacity) with the same contents (in put mode) -- bb is released
+	// Throws if bb is already at maxCapacity, i.e., a frame over the limit -- bb is then kept (the caller fails the channel, cf. BinaryChannelEndpoint.readAndEnqueueMessages)
+	public ByteBuffer grow(ByteBuffer bb, int capacity) throws IOException
+	{
+		if (bb.capacity() >= this.maxCapacity)
+		{
+			throw new IOException("Buffer capacity limit reached: " + this.maxCapacity);
+		}
+		ByteBuffer res = acquire(Math.min(Math.max(capacity, bb.position()), this.maxCapacity));
+		bb.flip();
+		res.put(bb);
+		release(bb);
+		return res;
+	}
+
+	// The smallest i such that MIN_CAPACITY << i >= capacity
+	private static int sizeClass(int capacity)
+	{
+		if (capacity <= MIN_CAPACITY)
+		{
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros((capacity - 1) / MIN_CAPACITY);
+	}
+}
@@ -15,6 +15,7 @@ package org.scribble.runtime.net;
 
 import java.io.IOException;
 
+import org.scribble.core.type.name.Role;
 import org.scribble.main.ScribRuntimeException;
 import org.scribble.runtime.session.SessionEndpoint;
 
@@ -31,6 +32,12 @@ public abstract class ScribServerSocket implements AutoCloseable
 	
 	//public abstract BinaryChannelEndpoint accept(MPSTEndpoint<?, ?> se) throws IOException;  // synchronize
 	public abstract BinaryChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException;  // synchronize
+
+	// The channel from peer -- by default, the next one accepted, i.e., peers are expected to connect in accept order (cf. MuxServer)
+	public BinaryChannelEndpoint accept(SessionEndpoint<?, ?> se, Role peer) throws IOException
+	{
+		return accept(se);
+	}
 	
 	public synchronized void bind() throws ScribRuntimeException
 	{
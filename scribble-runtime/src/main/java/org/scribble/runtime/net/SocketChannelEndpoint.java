@@ -13,11 +13,13 @@
  */
 package org.scribble.runtime.net;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
+import org.scribble.runtime.message.ScribMessage;
 import org.scribble.runtime.session.SessionEndpoint;
 
 public class SocketChannelEndpoint extends BinaryChannelEndpoint
@@ -53,10 +55,22 @@ public class SocketChannelEndpoint extends BinaryChannelEndpoint
 		return (SocketChannel) super.getSelectableChannel();
 	}
 	
+	@Override
+	public void write(ScribMessage m) throws IOException
+	{
+		queueMessage(m);  // Encoded directly into the (pooled) outbound buffers
+	}
+
 	public void writeBytes(byte[] bs) throws IOException
 	{
-		getSelectableChannel().write(ByteBuffer.wrap(bs));  // Currently does not depend on SocketChannel
-		// flush not supported -- async: manually check if written yet if needed
+		queueBytes(ByteBuffer.wrap(bs));  // Written now if the channel allows, else by the selector thread when writable
+		// cf. cork/flush for batching
+	}
+
+	@Override
+	protected void writeBuffer(ByteBuffer bb) throws IOException
+	{
+		queueBytes(bb);  // No copy to byte[]
 	}
 
 	@Override
@@ -70,7 +84,10 @@ public class SocketChannelEndpoint extends BinaryChannelEndpoint
 			enqueue(m);
 		}*/
 		ByteBuffer bb = (ByteBuffer) getBuffer();
-		getSelectableChannel().read(bb);  // Currently does not depend on SocketChannel
+		if (getSelectableChannel().read(bb) < 0)  // Currently does not depend on SocketChannel
+		{
+			throw new EOFException("Channel closed by peer");  // Else stays readable, i.e., the selector spins -- frames already read are enqueued, cf. readAndEnqueueMessages
+		}
 		//bb.compact();  // Post: bb:put
 	}
 	
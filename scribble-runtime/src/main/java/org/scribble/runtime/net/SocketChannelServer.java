@@ -32,7 +32,7 @@ public class SocketChannelServer extends ScribServerSocket
 
 	@Override
 	//public synchronized SocketChannelEndpoint accept(MPSTEndpoint<?, ?> se) throws IOException
-	public synchronized SocketChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException
+	public SocketChannelEndpoint accept(SessionEndpoint<?, ?> se) throws IOException  // Not synchronized: blocks, and ServerSocketChannel.accept is thread-safe
 	{
 		return new SocketChannelEndpoint(se, this.ss.accept());
 	}
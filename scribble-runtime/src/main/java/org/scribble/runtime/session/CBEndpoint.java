@@ -16,12 +16,14 @@ package org.scribble.runtime.session;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
+import org.scribble.core.type.name.Op;
 import org.scribble.core.type.name.Role;
 import org.scribble.main.ScribRuntimeException;
 import org.scribble.runtime.handlers.ScribBranch;
@@ -33,6 +35,7 @@ import org.scribble.runtime.handlers.states.ScribOutputState;
 import org.scribble.runtime.handlers.states.ScribState;
 import org.scribble.runtime.message.ScribMessage;
 import org.scribble.runtime.message.ScribMessageFormatter;
+import org.scribble.runtime.util.ScribThreads;
 
 public class CBEndpoint<S extends Session, R extends Role, D> extends MPSTEndpoint<S, R>
 {
@@ -44,19 +47,32 @@ public class CBEndpoint<S extends Session, R extends Role, D> extends MPSTEndpoi
 	
 	protected final Map<String, ScribState> states = new HashMap<>();  // Bypass problem of mutual references and static field initialisation (class loading)
 
+	// The above, as tables indexed by ScribState.index (cf. compile) -- null if the states are not numbered, i.e., then the maps are used
+	private ScribState[] stateTable;
+	private Function<D, ? extends ScribOutputEvent>[] outputTable;
+	private ScribBranch<D>[] inputTable;
+
 	public CBEndpoint(S sess, R self, ScribMessageFormatter smf, ScribState init, D data) throws IOException, ScribRuntimeException
 	{
-		super(sess, self, smf);
+		this(sess, self, smf, null, init, data);
+	}
+
+	public CBEndpoint(S sess, R self, ScribMessageFormatter smf, ScribEventLoopGroup group, ScribState init, D data) throws IOException, ScribRuntimeException
+	{
+		super(sess, self, smf, group);
 		this.init = init;
 		this.data = data;
 	}
 	
+	// Runs on a new thread (cf. ScribThreads), blocking at each input state -- cf. run(Executor)
 	public Future<Void> run() throws ScribRuntimeException
 	{
+		compile();
 		Object[] res = new Object[1];
+		CompletableFuture<Void> fut = new CompletableFuture<>();
 
 		// FIXME: integrate with selector (or make Executor)
-		new Thread()
+		ScribThreads.newThread(new Runnable()
 		{
 			private final CBEndpoint<S, R, D> edep;
 
@@ -73,27 +89,14 @@ public class CBEndpoint<S extends Session, R extends Role, D> extends MPSTEndpoi
 					{
 						if (curr instanceof ScribOutputState)
 						{
-							// FIXME: make ScribOutputEvent an interface and add to bounds of output icallback (to preclude dynamic cast check) -- also make generated ..._Message an interface 
-							ScribOutputEvent m = (ScribOutputEvent) this.edep.outputs.get(curr).apply(this.edep.data);  // FIXME: state object
-							/*getChannelEndpoint(m.getPeer()).write(new ScribMessage(m.getOp(), m.getPayload().toArray(new Object[0])));  // FIXME: ScribEvent has extra Role
-							curr = this.edep.states.get(((ScribOutputState) curr).succs.get(m.getOp()));*/
-							if (m instanceof ScribSigMessage)
-							{
-								getChannelEndpoint(m.getPeer()).write(((ScribSigMessage) m).getSig());
-							}
-							else
-							{
-								getChannelEndpoint(m.getPeer()).write(new ScribMessage(m.getOp(), m.getPayload()));  // API gen extends ScribMessage, but no guarantee about user-defined types -- can only rely on ScribOutputEvent i/f
-							}
-							curr = this.edep.states.get(((ScribOutputState) curr).succs.get(m.getOp()));
+							curr = this.edep.output((ScribOutputState) curr);
 						}
 						else if (curr instanceof ScribInputState)
 						{
 							try  // cf. ReceiveSocket#readScribMessage
 							{
 								ScribMessage m = getChannelEndpoint(((ScribInputState) curr).peer).getFuture().get();
-								this.edep.inputs.get(curr).dispatch(this.edep.data, m);
-								curr = this.edep.states.get(((ScribInputState) curr).succs.get(m.op));
+								curr = this.edep.input((ScribInputState) curr, m);
 							}
 							catch (InterruptedException e)
 							{
@@ -114,74 +117,180 @@ public class CBEndpoint<S extends Session, R extends Role, D> extends MPSTEndpoi
 						}
 					}
 				}
-				catch (IOException e)
+				catch (IOException | ScribRuntimeException e)
 				{
 					res[0] = e;
 				}
 				
 				if (res[0] == null)
 				{
-					res[0] = 0;
+					fut.complete(null);
 				}
-				synchronized(res)
+				else
 				{
-					res.notify();
+					fut.completeExceptionally((Exception) res[0]);
 				}
 				setCompleted();
 			}
-		}.start();
+		}, "CBEndpoint-" + this.self).start();
 		
-		return new EventDrivenEndpointFuture(res);
+		return fut;
 	}
-}
 
-class EventDrivenEndpointFuture implements Future<Void>
-{
-	private final Object[] res;
+	// Event-driven alternative to run, i.e., no thread per endpoint: at each input state, the rest of the run is chained onto the message future, and continued on exec when it arrives
+	// So many endpoints can share a few threads (e.g., a pool) -- output callbacks, and inputs already received, are run straight through
+	// N.B. a (non-IO) exception from a callback also completes the result exceptionally
+	public CompletableFuture<Void> run(Executor exec) throws ScribRuntimeException
+	{
+		compile();
+		CompletableFuture<Void> res = new CompletableFuture<>();
+		exec.execute(() -> step(this.init, exec, res));
+		return res;
+	}
 
-	protected EventDrivenEndpointFuture(Object[] res)
+	// Runs from curr until the end, or an input not yet received
+	private void step(ScribState curr, Executor exec, CompletableFuture<Void> res)
 	{
-		this.res = res;
+		try
+		{
+			while (!(curr instanceof ScribEndState))
+			{
+				if (curr instanceof ScribOutputState)
+				{
+					curr = output((ScribOutputState) curr);
+				}
+				else if (curr instanceof ScribInputState)
+				{
+					ScribInputState s = (ScribInputState) curr;
+					CompletableFuture<ScribMessage> fut = getChannelEndpoint(s.peer).getFuture();
+					if (!fut.isDone())
+					{
+						fut.whenCompleteAsync((m, t) ->
+						{
+							if (t != null)
+							{
+								fail(res, new IOException(t instanceof CompletionException ? t.getCause() : t));  // cf. ReceiveSocket#readScribMessage
+							}
+							else
+							{
+								try
+								{
+									step(input(s, m), exec, res);
+								}
+								catch (Throwable e)
+								{
+									res.completeExceptionally(e);
+								}
+							}
+						}, exec);
+						return;
+					}
+					try
+					{
+						curr = input(s, fut.join());
+					}
+					catch (CompletionException e)
+					{
+						throw new IOException(e.getCause());
+					}
+				}
+				else
+				{
+					throw new RuntimeException("Shouldn't get in here: " + curr);
+				}
+			}
+			setCompleted();
+			res.complete(null);
+		}
+		catch (IOException e)
+		{
+			fail(res, e);
+		}
+		catch (Throwable e)
+		{
+			res.completeExceptionally(e);
+		}
 	}
 
-	@Override
-	public boolean cancel(boolean mayInterruptIfRunning)
+	private void fail(CompletableFuture<Void> res, IOException e)
 	{
-		throw new RuntimeException("TODO");
+		setCompleted();  // As for run
+		res.completeExceptionally(e);
 	}
 
-	@Override
-	public Void get() throws InterruptedException, ExecutionException
+	// Builds the tables from the registered callbacks, if all states are numbered (densely, as by the callback API generator)
+	@SuppressWarnings("unchecked")
+	private void compile()
 	{
-		while (this.res[0] == null)
+		int n = this.states.size();
+		ScribState[] table = new ScribState[n];
+		for (ScribState s : this.states.values())
 		{
-			synchronized (this.res)
+			if (s.index < 0 || s.index >= n || table[s.index] != null)
 			{
-				this.res.wait();
+				return;
 			}
+			table[s.index] = s;
+		}
+		this.outputTable = (Function<D, ? extends ScribOutputEvent>[]) new Function<?, ?>[n];
+		this.inputTable = (ScribBranch<D>[]) new ScribBranch<?>[n];
+		this.outputs.forEach((s, f) -> this.outputTable[s.index] = f);
+		this.inputs.forEach((s, b) -> this.inputTable[s.index] = b);
+		this.stateTable = table;
+	}
+
+	// Runs the callback for s, sends the resulting message, and returns the successor
+	private ScribState output(ScribOutputState s) throws IOException, ScribRuntimeException
+	{
+		// FIXME: make ScribOutputEvent an interface and add to bounds of output icallback (to preclude dynamic cast check) -- also make generated ..._Message an interface 
+		ScribOutputEvent m = (ScribOutputEvent) (this.stateTable != null ? this.outputTable[s.index] : this.outputs.get(s)).apply(this.data);  // FIXME: state object
+		/*getChannelEndpoint(m.getPeer()).write(new ScribMessage(m.getOp(), m.getPayload().toArray(new Object[0])));  // FIXME: ScribEvent has extra Role
+		curr = this.edep.states.get(((ScribOutputState) curr).succs.get(m.getOp()));*/
+		if (m instanceof ScribSigMessage)
+		{
+			getChannelEndpoint(m.getPeer()).write(((ScribSigMessage) m).getSig());
 		}
-		if (this.res[0] instanceof IOException)
+		else
 		{
-			throw new ExecutionException((IOException) this.res[0]);
+			getChannelEndpoint(m.getPeer()).write(new ScribMessage(m.getOp(), m.getPayload()));  // API gen extends ScribMessage, but no guarantee about user-defined types -- can only rely on ScribOutputEvent i/f
 		}
-		return null;
+		if (this.stateTable != null)
+		{
+			int succ = m.getSuccIndex();
+			return getSucc(s, m.getOp(), succ >= 0 ? succ : s.getSucc(m.getOp()));
+		}
+		return getSucc(s, m.getOp(), s.succs.get(m.getOp()));
 	}
 
-	@Override
-	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	// Dispatches m to the callback for s, and returns the successor -- an unexpected op is not dispatched
+	private ScribState input(ScribInputState s, ScribMessage m) throws ScribRuntimeException
 	{
-		throw new RuntimeException("TODO");
+		if (this.stateTable != null)
+		{
+			ScribState succ = getSucc(s, m.op, s.getSucc(m.op));
+			this.inputTable[s.index].dispatch(this.data, m);
+			return succ;
+		}
+		ScribState succ = getSucc(s, m.op, s.succs.get(m.op));
+		this.inputs.get(s).dispatch(this.data, m);
+		return succ;
 	}
 
-	@Override
-	public boolean isCancelled()
+	private ScribState getSucc(ScribState s, Op op, int succ) throws ScribRuntimeException
 	{
-		throw new RuntimeException("TODO");
+		if (succ < 0)
+		{
+			throw new ScribRuntimeException("No transition from state " + s + " by op: " + op);
+		}
+		return this.stateTable[succ];
 	}
 
-	@Override
-	public boolean isDone()
+	private ScribState getSucc(ScribState s, Op op, String succ) throws ScribRuntimeException
 	{
-		return this.res[0] != null;
+		if (succ == null)
+		{
+			throw new ScribRuntimeException("No transition from state " + s + " by op: " + op);
+		}
+		return this.states.get(succ);
 	}
-}
\ No newline at end of file
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.CompletableFuture;
 import org.scribble.core.type.name.Role;
 import org.scribble.runtime.message.ScribInterrupt;
 import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.util.ScribThreads;
 import org.scribble.util.RuntimeScribException;
 
 @Deprecated
@@ -97,7 +98,7 @@ public class EndpointInputQueues
 					{
 						throw new RuntimeScribException(e);
 					}
-				});
+				}, ScribThreads.getExecutor());  // Not the common pool: blocks until received
 	}
 
 	protected synchronized ScribMessage dequeue(Role peer, int ticket) throws IOException
@@ -25,6 +25,11 @@ public class ExplicitEndpoint<S extends Session, R extends Role> extends Session
 	{
 		super(sess, self, smf);
 	}
+
+	public ExplicitEndpoint(S sess, R self, ScribMessageFormatter smf, ScribEventLoopGroup group) throws IOException, ScribRuntimeException
+	{
+		super(sess, self, smf, group);
+	}
 	
 	// FIXME HACK: "init" really only for MPSTEndpoint?  Then refactor into there only
 	@Override
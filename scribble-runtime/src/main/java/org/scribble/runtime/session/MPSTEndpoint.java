@@ -32,6 +32,11 @@ public class MPSTEndpoint<S extends Session, R extends Role> extends SessionEndp
 		super(sess, self, smf);
 	}
 
+	public MPSTEndpoint(S sess, R self, ScribMessageFormatter smf, ScribEventLoopGroup group) throws IOException, ScribRuntimeException
+	{
+		super(sess, self, smf, group);
+	}
+
 	public void request(Role role, Callable<? extends BinaryChannelEndpoint> cons, String host, int port) throws ScribRuntimeException, UnknownHostException, IOException
 	{
 		MPSTEndpoint.request(this, role, cons, host, port);
@@ -90,7 +95,7 @@ public class MPSTEndpoint<S extends Session, R extends Role> extends SessionEndp
 			throw new ScribRuntimeException("Already connected to: " + role);
 		}
 		//register(role, ss.accept(this));  // FIXME: serv map in SessionEndpoint not currently used
-		se.register(role, ss.accept(se));  // FIXME: serv map in SessionEndpoint not currently used
+		se.register(role, ss.accept(se, role));  // FIXME: serv map in SessionEndpoint not currently used
 	}
 	
 	public void disconnect(Role role) throws IOException, ScribRuntimeException
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// One selector thread of a ScribEventLoopGroup, shared by the channels of many SessionEndpoints
+// Changes to the selector (registration, interest ops) are run as tasks on the loop thread itself, i.e., never concurrently with select
+class ScribEventLoop extends Thread
+{
+	private final Selector sel;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean closed = false;  // Only set holding tasksLock, so no task is queued after the final runTasks
+	private final Object tasksLock = new Object();
+
+	protected ScribEventLoop(String name) throws IOException
+	{
+		super(name);
+		setDaemon(true);
+		this.sel = Selector.open();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (!this.closed)
+			{
+				this.sel.select();
+				runTasks();
+				Iterator<SelectionKey> keys = this.sel.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					ScribEventLoopGroup.Registration reg = (ScribEventLoopGroup.Registration) key.attachment();
+					try
+					{
+						if (key.isValid() && key.isWritable())
+						{
+							reg.write(key);
+						}
+						if (key.isValid() && key.isReadable())
+						{
+							reg.read(key);
+						}
+					}
+					catch (CancelledKeyException e)
+					{
+						// Closed/deregistered concurrently (e.g., by the endpoint's own thread)
+					}
+					catch (RuntimeException e)  // The loop is shared: only this key's channel is failed
+					{
+						reg.fail(key, e);
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// FIXME: throw to user
+			e.printStackTrace();
+		}
+		finally
+		{
+			synchronized (this.tasksLock)
+			{
+				this.closed = true;
+			}
+			runTasks();  // Don't leave invokers waiting -- no more can be queued, cf. execute
+			try
+			{
+				this.sel.close();
+			}
+			catch (IOException e)
+			{
+				// FIXME
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// A failing task is reported to the uncaught exception handler and skipped, i.e., the loop keeps running (tasks for a key fail its channel themselves, cf. EndpointSelector.execute)
+	private void runTasks()
+	{
+		for (Runnable t; (t = this.tasks.poll()) != null; )
+		{
+			try
+			{
+				t.run();
+			}
+			catch (RuntimeException e)
+			{
+				getUncaughtExceptionHandler().uncaughtException(this, e);
+			}
+		}
+	}
+
+	protected Selector getSelector()
+	{
+		return this.sel;
+	}
+
+	// Runs task on the loop thread, without waiting
+	// Returns false if the loop is closed, i.e., task will not be run (a FutureTask is then failed)
+	protected boolean execute(Runnable task)
+	{
+		synchronized (this.tasksLock)
+		{
+			if (this.closed)
+			{
+				if (task instanceof FutureTask)
+				{
+					((FutureTask<?>) task).cancel(false);
+				}
+				return false;
+			}
+			this.tasks.add(task);
+		}
+		this.sel.wakeup();
+		return true;
+	}
+
+	// Runs task on the loop thread (directly, if already on it), and waits for the result
+	protected <T> T invoke(Callable<T> task) throws IOException
+	{
+		if (Thread.currentThread() == this)
+		{
+			try
+			{
+				return task.call();
+			}
+			catch (Exception e)
+			{
+				throw toIOException(e);
+			}
+		}
+		FutureTask<T> f = new FutureTask<>(task);
+		if (!execute(f))
+		{
+			throw new IOException("Event loop closed: " + getName());
+		}
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			throw toIOException(e.getCause());
+		}
+	}
+
+	private static IOException toIOException(Throwable t)
+	{
+		return (t instanceof IOException) ? (IOException) t : new IOException(t);
+	}
+
+	protected void close()
+	{
+		synchronized (this.tasksLock)
+		{
+			this.closed = true;
+		}
+		this.sel.wakeup();
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scribble.core.type.name.Role;
+import org.scribble.runtime.net.BinaryChannelEndpoint;
+
+// A fixed-size group of selector threads, shared by many SessionEndpoints (cf. the dedicated ScribInputSelector thread per endpoint)
+// Channels are spread round-robin across the loops
+// E.g., a server creates one group and passes it to the SessionEndpoint of every session it accepts
+public class ScribEventLoopGroup implements AutoCloseable
+{
+	private final ScribEventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	public ScribEventLoopGroup() throws IOException
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ScribEventLoopGroup(int size) throws IOException
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("Bad event loop group size: " + size);
+		}
+		this.loops = new ScribEventLoop[size];
+		for (int i = 0; i < size; i++)
+		{
+			this.loops[i] = new ScribEventLoop("ScribEventLoop-" + i);
+			this.loops[i].start();
+		}
+	}
+
+	public int size()
+	{
+		return this.loops.length;
+	}
+	
+	protected ScribEventLoop nextLoop()
+	{
+		return this.loops[Math.floorMod(this.next.getAndIncrement(), this.loops.length)];
+	}
+
+	protected ScribSelector newSelector(SessionEndpoint<?, ?> se)
+	{
+		return new EndpointSelector(se);
+	}
+
+	// Doesn't close the endpoints, cf. SessionEndpoint.close
+	@Override
+	public void close()
+	{
+		for (ScribEventLoop loop : this.loops)
+		{
+			loop.close();
+		}
+	}
+
+	// The view of the group for one SessionEndpoint
+	// Pausing only affects this endpoint's channels: a selected key of a paused endpoint is parked (no interest ops) by its loop, and restored on unpause
+	private class EndpointSelector implements ScribSelector
+	{
+		private final SessionEndpoint<?, ?> se;
+		private final Map<SelectionKey, ScribEventLoop> keys = new ConcurrentHashMap<>();
+
+		private volatile boolean paused = false;
+
+		public EndpointSelector(SessionEndpoint<?, ?> se)
+		{
+			this.se = se;
+		}
+
+		@Override
+		public SelectionKey register(Role peer, AbstractSelectableChannel c)
+				throws IOException
+		{
+			ScribEventLoop loop = nextLoop();
+			SelectionKey key = loop.invoke(() -> c.register(loop.getSelector(),
+					SelectionKey.OP_READ, new Registration(this, peer)));
+			this.keys.put(key, loop);
+			return key;
+		}
+
+		@Override
+		public void deregister(SelectionKey key)
+		{
+			this.keys.remove(key);
+			key.cancel();
+		}
+
+		@Override
+		public void requestWrite(AbstractSelectableChannel c)
+		{
+			this.keys.forEach((k, loop) ->
+			{
+				if (k.channel() == c)
+				{
+					execute(loop, k, () ->
+							k.interestOps(k.interestOps() | SelectionKey.OP_WRITE));  // If parked, restored with write interest by unpause
+				}
+			});
+		}
+
+		// N.B. the read interest is kept by unpause, cf. SSLRecords.runTasks
+		@Override
+		public void setReadInterest(AbstractSelectableChannel c, boolean read)
+		{
+			this.keys.forEach((k, loop) ->
+			{
+				if (k.channel() == c)
+				{
+					((Registration) k.attachment()).read = read;
+					execute(loop, k, () -> k.interestOps(read
+							? k.interestOps() | SelectionKey.OP_READ
+							: k.interestOps() & ~SelectionKey.OP_READ));
+				}
+			});
+		}
+
+		// Runs task for k on its loop, if k is still valid -- a failure only fails k's channel, the loop is shared
+		private void execute(ScribEventLoop loop, SelectionKey k, Runnable task)
+		{
+			loop.execute(() ->
+			{
+				try
+				{
+					if (k.isValid())
+					{
+						task.run();
+					}
+				}
+				catch (CancelledKeyException e)
+				{
+					// Closed/deregistered between isValid and interestOps
+				}
+				catch (RuntimeException e)
+				{
+					((Registration) k.attachment()).fail(k, e);
+				}
+			});
+		}
+
+		// Returns after any current read/write of this endpoint's channels has finished
+		@Override
+		public void pause()
+		{
+			this.paused = true;
+			for (ScribEventLoop loop : this.keys.values().stream().distinct()
+					.toArray(ScribEventLoop[]::new))
+			{
+				try
+				{
+					loop.invoke(() -> null);  // Barrier: loops handle keys one at a time
+				}
+				catch (IOException e)
+				{
+					// Loop closed, i.e., no more reads anyway
+				}
+			}
+		}
+
+		@Override
+		public void unpause()
+		{
+			this.paused = false;
+			this.keys.forEach((k, loop) -> execute(loop, k, () ->
+			{
+				Registration reg = (Registration) k.attachment();
+				BinaryChannelEndpoint c = this.se.chans.get(reg.peer);  // null if deregistered meanwhile
+				int ops = reg.read
+						? k.interestOps() | SelectionKey.OP_READ
+						: k.interestOps() & ~SelectionKey.OP_READ;
+				if (c != null && c.hasQueuedBytes())
+				{
+					ops |= SelectionKey.OP_WRITE;
+				}
+				k.interestOps(ops);
+			}));
+		}
+
+		@Override
+		public void close()
+		{
+			for (SelectionKey k : this.keys.keySet())
+			{
+				k.cancel();
+			}
+			this.keys.clear();
+			//for (BinaryChannelEndpoint c : this.se.chans.values())
+			for (Role peer : this.se.getPeers())
+			{
+				try
+				{
+					this.se.getChannelEndpoint(peer).close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	// SelectionKey attachment -- the endpoint and peer, not the BinaryChannelEndpoint itself (may be replaced, cf. SessionEndpoint.reregister)
+	protected static class Registration
+	{
+		private final EndpointSelector sel;
+		private final Role peer;
+		private volatile boolean read = true;  // As last set by setReadInterest, i.e., restored by unpause after parking
+
+		private Registration(EndpointSelector sel, Role peer)
+		{
+			this.sel = sel;
+			this.peer = peer;
+		}
+
+		// Pre: on the loop thread of key
+		protected void read(SelectionKey key)
+		{
+			if (this.sel.paused)
+			{
+				key.interestOps(0);  // Parked until unpause
+				return;
+			}
+			try
+			{
+				BinaryChannelEndpoint c = this.sel.se.chans.get(this.peer);
+				if (c == null)  // Deregistered concurrently
+				{
+					key.cancel();
+					return;
+				}
+				c.readAndEnqueueMessages();  // Read as many message as possible as selector only woken up by actual I/O
+			}
+			catch (Exception e)  // E.g., MessageFormatter.fromBytes exception
+			{
+				fail(key, e);
+			}
+		}
+
+		// Pre: on the loop thread of key
+		protected void write(SelectionKey key)
+		{
+			if (this.sel.paused)
+			{
+				key.interestOps(0);  // Parked until unpause
+				return;
+			}
+			try
+			{
+				BinaryChannelEndpoint c = this.sel.se.chans.get(this.peer);
+				if (c == null)  // As read
+				{
+					key.cancel();
+					return;
+				}
+				c.writeQueuedBytes(key);
+			}
+			catch (Exception e)
+			{
+				fail(key, e);
+			}
+		}
+
+		// Only drops this channel, the loop is shared -- the error is thrown to the receivers (cf. BinaryChannelEndpoint.fail), the channel is left for SessionEndpoint.close
+		// Pre: on the loop thread of key
+		protected void fail(SelectionKey key, Exception e)
+		{
+			key.cancel();
+			BinaryChannelEndpoint c = this.sel.se.chans.get(this.peer);
+			if (c != null)  // Else deregistered concurrently, i.e., closed anyway
+			{
+				c.fail(e);
+			}
+		}
+	}
+}
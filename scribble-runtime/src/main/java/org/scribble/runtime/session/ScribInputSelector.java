@@ -14,23 +14,33 @@
 package org.scribble.runtime.session;
 
 import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.scribble.core.type.name.Role;
 import org.scribble.runtime.net.BinaryChannelEndpoint;
+import org.scribble.runtime.util.ScribThreads;
 
-public class ScribInputSelector extends Thread
+// The dedicated (per-endpoint) selector thread -- cf. ScribEventLoopGroup for sharing threads between endpoints
+// The thread is from ScribThreads, i.e., possibly virtual -- so a lock, not a monitor, to wait while paused (no pinning)
+// N.B. no longer a Thread subclass: the thread is created by start, and join, interrupt and isAlive delegate to it (cf. getThread)
+public class ScribInputSelector implements Runnable, ScribSelector
 {
 	//private MPSTEndpoint<?, ?> se;  // FIXME
 	private SessionEndpoint<?, ?> se;  // FIXME
 	private final Selector sel;
+	private volatile Thread thread;  // Set by start
 
 	private volatile boolean paused = false;
 	private volatile boolean closed = false;
+	private final ReentrantLock lock = new ReentrantLock();  // Key handling vs. pause, unpause, close
+	private final Condition unpaused = this.lock.newCondition();
 
 	//public ScribInputSelector(MPSTEndpoint<?, ?> se) throws IOException
 	public ScribInputSelector(SessionEndpoint<?, ?> se) throws IOException
@@ -39,6 +49,53 @@ public class ScribInputSelector extends Thread
 		this.sel = Selector.open();
 	}
 
+	public synchronized void start()
+	{
+		if (this.thread != null)
+		{
+			throw new IllegalThreadStateException("Already started: " + this.thread.getName());
+		}
+		this.thread = ScribThreads.newThread(this, "ScribInputSelector-" + this.se.self);
+		this.thread.start();
+	}
+
+	// null if not started
+	public Thread getThread()
+	{
+		return this.thread;
+	}
+
+	public boolean isAlive()
+	{
+		Thread t = this.thread;
+		return t != null && t.isAlive();
+	}
+
+	// Stops the thread, as close
+	public void interrupt()
+	{
+		Thread t = this.thread;
+		if (t != null)
+		{
+			t.interrupt();
+		}
+	}
+
+	// Returns immediately if not started, as for an unstarted Thread
+	public void join() throws InterruptedException
+	{
+		join(0);
+	}
+
+	public void join(long millis) throws InterruptedException
+	{
+		Thread t = this.thread;
+		if (t != null)
+		{
+			t.join(millis);
+		}
+	}
+
 	@Override
 	public void run()
 	{
@@ -51,38 +108,73 @@ public class ScribInputSelector extends Thread
 			while (!this.closed)
 			{
 				this.sel.select();
+				if (Thread.currentThread().isInterrupted())  // Else select returns at once, i.e., spins -- cf. interrupt
+				{
+					close();
+				}
 				if (this.closed)
 				{
 					return;
 				}
-				synchronized (this)  // sync'd with pause, unpause
+				this.lock.lock();  // sync'd with pause, unpause
+				try
 				{
 					while (paused)
 					{
-						wait();
+						this.unpaused.await();
 					}
 						
 					Set<SelectionKey> keys = this.sel.selectedKeys();
 					for (SelectionKey key : keys)
 					{
 						//SocketChannel s = (SocketChannel) key.channel();
-						if (key.isReadable())
+						if (!key.isValid())  // Deregistered/closed since selected
+						{
+							continue;
+						}
+						Role peer = (Role) key.attachment();
+						try
 						{
-							Role peer = (Role) key.attachment();
-							this.se.chans.get(peer).readAndEnqueueMessages();  // Read as many message as possible as selector only woken up by actual I/O
+							if (!key.isReadable() && !key.isWritable())
+							{
+								throw new RuntimeException("TODO: " + key);
+							}
+							if (key.isWritable())
+							{
+								this.se.chans.get(peer).writeQueuedBytes(key);
+							}
+							if (key.isValid() && key.isReadable())
+							{
+								this.se.chans.get(peer).readAndEnqueueMessages();  // Read as many message as possible as selector only woken up by actual I/O
+							}
 						}
-						else
+						catch (CancelledKeyException e)
 						{
-							throw new RuntimeException("TODO: " + key);
+							// Closed/deregistered concurrently
+						}
+						catch (Exception e)  // E.g. MessageFormatter.fromBytes exception -- only this channel is failed, as ScribEventLoopGroup.Registration
+						{
+							fail(key, peer, e);
 						}
 					}
+					keys.clear();
+				}
+				finally
+				{
+					this.lock.unlock();
 				}
 			}
 		}
-		catch (Exception e)
+		catch (InterruptedException e)  // While paused
+		{
+			close();
+		}
+		catch (Exception e)  // E.g., the selector itself: no more input for any channel
 		{
-			// FIXME: throw to user -- e.g. MessageFormatter.fromBytes exception
-			e.printStackTrace();  // FIXME? java.nio.channels.CancelledKeyException 
+			if (!this.closed)
+			{
+				this.se.chans.values().forEach(c -> c.fail(e));
+			}
 		}
 		finally
 		{
@@ -97,6 +189,17 @@ public class ScribInputSelector extends Thread
 			}
 		}
 	}
+
+	// The error is thrown to the receivers (cf. BinaryChannelEndpoint.fail), the channel is left for SessionEndpoint.close
+	private void fail(SelectionKey key, Role peer, Exception e)
+	{
+		key.cancel();
+		BinaryChannelEndpoint c = this.se.chans.get(peer);
+		if (c != null)  // Else deregistered concurrently
+		{
+			c.fail(e);
+		}
+	}
 	
 	protected Selector getSelector()
 	{
@@ -104,51 +207,107 @@ public class ScribInputSelector extends Thread
 	}
 	
 	// synchronize?
-	protected SelectionKey register(AbstractSelectableChannel c) throws ClosedChannelException
+	@Override
+	public SelectionKey register(Role peer, AbstractSelectableChannel c) throws ClosedChannelException
 	{
-		return c.register(this.sel, SelectionKey.OP_READ);
+		return c.register(this.sel, SelectionKey.OP_READ, peer);
 	}
 	
-	protected void deregister(SelectionKey key)  // FIXME: refactor to internalise key inside here?
+	@Override
+	public void deregister(SelectionKey key)  // FIXME: refactor to internalise key inside here?
 	{
 		key.cancel();
 	}
 	
+	// Not synchronized: may be called by a sender while this thread handles keys
+	@Override
+	public void requestWrite(AbstractSelectableChannel c)
+	{
+		SelectionKey key = c.keyFor(this.sel);
+		if (key != null && key.isValid())
+		{
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			this.sel.wakeup();
+		}
+	}
+	
+	// As requestWrite
+	@Override
+	public void setReadInterest(AbstractSelectableChannel c, boolean read)
+	{
+		SelectionKey key = c.keyFor(this.sel);
+		if (key != null && key.isValid())
+		{
+			key.interestOps(read
+					? key.interestOps() | SelectionKey.OP_READ
+					: key.interestOps() & ~SelectionKey.OP_READ);
+			this.sel.wakeup();
+		}
+	}
+	
 	// process all keys and keep doing until all pending futures have completed -- i.e. all reads done up to this send state (currently wrap assumed to in send state only)
-	protected synchronized void clear()
+	protected void clear()
 	{
 		
 	}
 	
-	protected synchronized void pause()	
+	@Override
+	public void pause()	
 	{
-		this.paused = true;
-		this.sel.wakeup();
+		this.lock.lock();  // Waits for any key handling in progress
+		try
+		{
+			this.paused = true;
+			this.sel.wakeup();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
 	}
 	
-	protected synchronized void unpause()	
+	@Override
+	public void unpause()	
 	{
-		this.paused = false;
-		notify();
+		this.lock.lock();
+		try
+		{
+			this.paused = false;
+			this.unpaused.signal();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
 	}
 	
-	protected synchronized void close()
+	@Override
+	public void close()
 	{
-		this.closed = true;
-		this.paused = false;
-		//for (BinaryChannelEndpoint c : this.se.chans.values())
-		for (Role peer : this.se.getPeers())
+		this.lock.lock();
+		try
 		{
-			try
-			{
-				BinaryChannelEndpoint c = this.se.getChannelEndpoint(peer);
-				c.close();  // dereg from sel?
-			}
-			catch (IOException e)
+			this.closed = true;
+			this.paused = false;
+			this.unpaused.signal();
+			//for (BinaryChannelEndpoint c : this.se.chans.values())
+			for (Role peer : this.se.getPeers())
 			{
-				e.printStackTrace();
-			}
-		}		
+				try
+				{
+					BinaryChannelEndpoint c = this.se.getChannelEndpoint(peer);
+					c.close();  // dereg from sel?
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}		
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
 		this.sel.wakeup();
 	}
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.AbstractSelectableChannel;
+
+import org.scribble.core.type.name.Role;
+
+// Input selection for the channels of one SessionEndpoint: a dedicated ScribInputSelector thread, or a shared ScribEventLoopGroup
+// pause/unpause bracket changes to the endpoint's channels (cf. SessionEndpoint register, reregister, deregister): while paused, none of the endpoint's channels are read or written by the selector
+public interface ScribSelector
+{
+	// Pre: paused
+	SelectionKey register(Role peer, AbstractSelectableChannel c) throws IOException;
+	void deregister(SelectionKey key);
+
+	// Requests the channel's queued output to be written by the selector thread when writable (cf. BinaryChannelEndpoint.writeQueuedBytes)
+	void requestWrite(AbstractSelectableChannel c);
+
+	// Sets whether the selector thread reads the channel, e.g., off while its input cannot be processed (cf. SSLRecords delegated tasks)
+	void setReadInterest(AbstractSelectableChannel c, boolean read);
+
+	void pause();
+	void unpause();
+
+	void close();  // Closes the endpoint's channels
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.scribble.core.type.name.Role;
+import org.scribble.main.ScribRuntimeException;
+import org.scribble.runtime.message.ScribMessageFormatter;
+import org.scribble.runtime.net.SocketChannelEndpoint;
+import org.scribble.runtime.util.ScribThreads;
+
+// Serves concurrent sessions, one fresh Session and MPSTEndpoint (self) per client (peer) connection -- cf. a loop of ScribServerSocket.accept and running each session in turn
+// Connections are accepted by a non-blocking ServerSocketChannel (on the serve thread), and each session is run by the executor, e.g., a pool or virtual threads
+// While maxSessions are running, no more connections are accepted (they wait in the backlog)
+// N.B. binary sessions only: each connection is the whole session (self and peer) -- a session of any other protocol is rejected, i.e., its connection closed, before it is run
+public class ScribSessionServer<S extends Session, R extends Role> implements AutoCloseable
+{
+	// Runs the session, e.g., from the initial state channel -- the endpoint is closed on return
+	@FunctionalInterface
+	public interface SessionHandler<S extends Session, R extends Role>
+	{
+		void run(MPSTEndpoint<S, R> se) throws Exception;
+	}
+
+	public final int port;
+
+	private final R self;
+	private final Role peer;
+	private final Supplier<? extends S> sessions;
+	private final Supplier<? extends ScribMessageFormatter> smfs;
+	private final ScribEventLoopGroup group;  // null for dedicated selector threads
+	private final Executor exec;
+	private final ExecutorService owned;  // exec, if created here (shut down by close)
+	private final int maxSessions;
+
+	private final ServerSocketChannel ss;
+	private volatile Selector sel;
+	private volatile boolean closed = false;
+	private int active = 0;  // Sessions running -- guarded by this
+
+	public ScribSessionServer(int port, R self, Role peer, Supplier<? extends S> sessions,
+			Supplier<? extends ScribMessageFormatter> smfs) throws IOException
+	{
+		this(port, self, peer, sessions, smfs, null, null, Integer.MAX_VALUE);
+	}
+
+	// group null for dedicated selector threads; exec null for a cached thread pool
+	public ScribSessionServer(int port, R self, Role peer, Supplier<? extends S> sessions,
+			Supplier<? extends ScribMessageFormatter> smfs, ScribEventLoopGroup group,
+			Executor exec, int maxSessions) throws IOException
+	{
+		if (maxSessions < 1)
+		{
+			throw new IllegalArgumentException("Bad max sessions: " + maxSessions);
+		}
+		this.port = port;
+		this.self = self;
+		this.peer = peer;
+		this.sessions = sessions;
+		this.smfs = smfs;
+		this.group = group;
+		this.owned = (exec == null) ? Executors.newCachedThreadPool(ScribThreads.getFactory()) : null;  // cf. ScribThreads, e.g., a virtual thread per session
+		this.exec = (exec == null) ? this.owned : exec;
+		this.maxSessions = maxSessions;
+		this.ss = ServerSocketChannel.open();
+		this.ss.socket().bind(new InetSocketAddress(port));
+		this.ss.configureBlocking(false);
+	}
+
+	// Accepts and dispatches connections until close
+	public void serve(SessionHandler<S, R> handler) throws IOException
+	{
+		try (Selector sel = Selector.open())
+		{
+			this.sel = sel;
+			SelectionKey key = this.ss.register(sel, SelectionKey.OP_ACCEPT);
+			while (!this.closed)
+			{
+				synchronized (this)
+				{
+					key.interestOps((this.active < this.maxSessions) ? SelectionKey.OP_ACCEPT : 0);  // Else woken by release
+				}
+				sel.select();
+				sel.selectedKeys().clear();
+				SocketChannel s;
+				while (!this.closed && acquire())
+				{
+					if ((s = this.ss.accept()) == null)
+					{
+						release(false);
+						break;
+					}
+					dispatch(s, handler);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			if (!this.closed)
+			{
+				throw e;
+			}
+		}
+	}
+
+	private void dispatch(SocketChannel s, SessionHandler<S, R> handler) throws IOException
+	{
+		try
+		{
+			this.exec.execute(() ->
+			{
+				try (MPSTEndpoint<S, R> se = new MPSTEndpoint<>(checkBinary(this.sessions.get()), this.self, this.smfs.get(), this.group))
+				{
+					se.register(this.peer, new SocketChannelEndpoint(se, s));
+					handler.run(se);
+				}
+				catch (Exception e)
+				{
+					try
+					{
+						s.close();  // E.g., the endpoint was not created -- else already closed with it
+					}
+					catch (IOException x)
+					{
+						// Nothing more to do
+					}
+					// FIXME: throw to user
+					e.printStackTrace();
+				}
+				finally
+				{
+					release(true);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			s.close();
+			release(false);
+			e.printStackTrace();
+		}
+	}
+
+	private S checkBinary(S sess) throws ScribRuntimeException
+	{
+		List<Role> roles = sess.getRoles();
+		if (roles.size() != 2 || !roles.contains(this.self) || !roles.contains(this.peer))
+		{
+			throw new ScribRuntimeException("Only binary sessions of " + this.self + " and "
+					+ this.peer + " are supported: " + sess.proto + roles);
+		}
+		return sess;
+	}
+
+	private synchronized boolean acquire()
+	{
+		if (this.active < this.maxSessions)
+		{
+			this.active++;
+			return true;
+		}
+		return false;
+	}
+
+	private void release(boolean wakeup)
+	{
+		synchronized (this)
+		{
+			this.active--;
+		}
+		Selector sel = this.sel;
+		if (wakeup && sel != null)
+		{
+			sel.wakeup();
+		}
+	}
+
+	public synchronized int getActiveSessions()
+	{
+		return this.active;
+	}
+
+	// Stops accepting -- running sessions are not interrupted
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		try
+		{
+			this.ss.close();
+		}
+		catch (IOException e)
+		{
+			// FIXME
+			e.printStackTrace();
+		}
+		Selector sel = this.sel;
+		if (sel != null)
+		{
+			sel.wakeup();
+		}
+		if (this.owned != null)
+		{
+			this.owned.shutdown();
+		}
+	}
+}
@@ -14,42 +14,65 @@
 package org.scribble.runtime.session;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.scribble.core.type.name.GProtoName;
 import org.scribble.core.type.name.Role;
 import org.scribble.main.ScribRuntimeException;
+import org.scribble.util.RuntimeScribException;
 import org.scribble.util.ScribException;
 
 public abstract class Session
 {
-	private static final Map<Integer, Session> sessions = new HashMap<Integer, Session>();
+	// Live sessions by id, i.e., from the first local endpoint until the last is closed, or the session is (cf. project, deregister, close) -- e.g., for multiplexed transports to look up the session of a frame (cf. getSession)
+	private static final ConcurrentMap<Long, Session> sessions = new ConcurrentHashMap<>();
+	// Fresh ids from a counter, i.e., unique in this JVM without retries -- from a random start, so ids from different JVMs (e.g., clients of one MuxServer) are unlikely to meet
+	// N.B. fresh ids are negative (2^62 of them before wrapping), so never meet explicit ids, which are non-negative
+	private static final AtomicLong ids = new AtomicLong(Long.MIN_VALUE + (new Random().nextLong() >>> 2));
 
-	public final int id;
+	public final long id;
 
 	public final List<String> impath;
 	public final String modpath;
 	public final GProtoName proto;
 	
 	//private final Map<Role, MPSTEndpoint<?, ?>> endpoints = new HashMap<>();  // Only for local endpoints
-	private final Map<Role, SessionEndpoint<?, ?>> endpoints = new HashMap<>();  // Only for local endpoints
+	private final Map<Role, SessionEndpoint<?, ?>> endpoints = new ConcurrentHashMap<>();  // Only for local endpoints -- kept after close, cf. project
+	private int open = 0;  // Local endpoints not yet closed, cf. deregister -- guarded by this
+	private boolean closed = false;  // guarded by this
+
+	// An explicit id, e.g., agreed by all the processes of a multiparty session (cf. MuxServer) -- must be non-negative
+	// The session is registered by its first local endpoint, i.e., the id must not then be in use by another live session in this JVM (cf. project)
+	public Session(long id, List<String> impath, String modpath, GProtoName proto)
+	{
+		this(id, impath, modpath, proto, false);
+	}
 
 	public Session(int id, List<String> impath, String modpath, GProtoName proto)
 	{
-		this.id = id;
-		this.impath = impath;
-		this.modpath = modpath;
-		this.proto = proto;
-		
-		Session.sessions.put(id, this);
+		this((long) id, impath, modpath, proto);
 	}
 
 	public Session(List<String> importPath, String source, GProtoName proto)
 	{
-		this(getFreshId(), importPath, source, proto);
+		this(getFreshId(), importPath, source, proto, true);
+	}
+
+	private Session(long id, List<String> impath, String modpath, GProtoName proto, boolean fresh)
+	{
+		if (!fresh && id < 0)
+		{
+			throw new RuntimeScribException("Session id must be non-negative: " + id);
+		}
+		this.id = id;
+		this.impath = impath;
+		this.modpath = modpath;
+		this.proto = proto;
 	}
 
 	/*// Client side
@@ -79,13 +102,48 @@ public abstract class Session
 		{
 			throw new ScribRuntimeException("Invalid role: " + se.self);
 		}
-		if (this.endpoints.containsKey(se.self))
+		synchronized (this)
 		{
-			throw new ScribRuntimeException("Session endpoint already created for: " + se.self);
+			if (this.closed)
+			{
+				throw new ScribRuntimeException("Session closed: " + this.id);
+			}
+			if (this.open == 0)  // Registered by the first (open) local endpoint
+			{
+				Session prev = Session.sessions.putIfAbsent(this.id, this);
+				if (prev != null && prev != this)
+				{
+					throw new ScribRuntimeException("Session id already in use: " + this.id);
+				}
+			}
+			if (this.endpoints.putIfAbsent(se.self, se) != null)
+			{
+				if (this.open == 0)
+				{
+					Session.sessions.remove(this.id, this);
+				}
+				throw new ScribRuntimeException("Session endpoint already created for: " + se.self);
+			}
+			//SessionEndpoint<P, R> ep = new SessionEndpoint<>(this, role, smf);
+			this.open++;
+			//return ep;
 		}
-		//SessionEndpoint<P, R> ep = new SessionEndpoint<>(this, role, smf);
-		this.endpoints.put(se.self, se);
-		//return ep;
+	}
+
+	// Called once by each local endpoint on close -- the session is deregistered when the last one is closed
+	protected synchronized void deregister(SessionEndpoint<?, ?> se)
+	{
+		if (this.endpoints.get(se.self) == se && --this.open == 0)
+		{
+			Session.sessions.remove(this.id, this);
+		}
+	}
+
+	// Deregisters the session, e.g., if abandoned before its local endpoints are closed -- the endpoints themselves are unaffected, but no more can be created
+	public synchronized void close()
+	{
+		this.closed = true;
+		Session.sessions.remove(this.id, this);
 	}
 
 	/*// Server side
@@ -136,30 +194,19 @@ public abstract class Session
 		return Session.sessions.containsKey(id);
 	}*/
 
-	public static Session getSession(int id) throws ScribException
+	public static Session getSession(long id) throws ScribException
 	{
-		if (!Session.sessions.containsKey(id))
+		Session sess = Session.sessions.get(id);
+		if (sess == null)
 		{
 			throw new ScribException("No such session: " + id);
 		}
-		return Session.sessions.get(id);
-	}
-	
-	private static int getFreshId()
-	{
-		Random random = new Random();
-		int id = random.nextInt(10000);
-		while (Session.sessions.keySet().contains(id))
-		{
-			id = random.nextInt(10000);
-		}
-		return id;
+		return sess;
 	}
 	
-	@Override
-	protected void finalize()
+	private static long getFreshId()
 	{
-		Session.sessions.remove(this.id);
+		return Session.ids.getAndIncrement();
 	}
 	
 	public abstract List<Role> getRoles();
@@ -19,6 +19,7 @@ import java.security.GeneralSecurityException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.scribble.core.type.name.Role;
 import org.scribble.main.ScribRuntimeException;
@@ -46,12 +47,18 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 	
 	protected final Map<Role, ScribServerSocket> servs = new HashMap<>();  // For multi-role endpoints?  // Or currently only self is used as a key, but should be peer roles instead? 
 	// Generally, think was in the middle of refactoring for explicit connections
-	protected final Map<Role, BinaryChannelEndpoint> chans = new HashMap<>();
+	protected final Map<Role, BinaryChannelEndpoint> chans = new ConcurrentHashMap<>();  // Also read by the selector threads, cf. ScribEventLoopGroup.Registration
 	
-	private final ScribInputSelector sel;
+	private final ScribSelector sel;
 	private final Map<Role, SelectionKey> keys = new HashMap<>();
 	
 	public SessionEndpoint(S sess, R self, ScribMessageFormatter smf) throws IOException, ScribRuntimeException
+	{
+		this(sess, self, smf, null);
+	}
+	
+	// group null for a dedicated ScribInputSelector thread
+	public SessionEndpoint(S sess, R self, ScribMessageFormatter smf, ScribEventLoopGroup group) throws IOException, ScribRuntimeException
 	{
 		this.sess = sess;
 		this.self = self;
@@ -59,8 +66,16 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 		
 		sess.project(this);
 		
-		this.sel = new ScribInputSelector(this);
-		this.sel.start();
+		if (group == null)
+		{
+			ScribInputSelector sel = new ScribInputSelector(this);
+			sel.start();
+			this.sel = sel;
+		}
+		else
+		{
+			this.sel = group.newSelector(this);
+		}
 	}
 
 	/*// FIXME: generalise roles and server socks for endpoints playing multiple roles
@@ -92,15 +107,23 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 	public synchronized void register(Role peer, BinaryChannelEndpoint c) throws IOException
 	{
 		this.sel.pause();
-		SelectionKey key = this.sel.register(c.getSelectableChannel());
-		key.attach(peer);
-		this.keys.put(peer, key);
+		if (c.getSelectableChannel() != null)  // Else messages are enqueued directly, e.g., InMemoryChannelEndpoint
+		{
+			SelectionKey key = this.sel.register(peer, c.getSelectableChannel());
+			this.keys.put(peer, key);
+		}
 		this.chans.put(peer, c);
 		this.sel.unpause();
 	}
 
 	// w is uninitialised (need to use wrapChannel)
-	public synchronized void reregister(Role peer, BinaryChannelWrapper w) throws IOException, GeneralSecurityException
+	public void reregister(Role peer, BinaryChannelWrapper w) throws IOException, GeneralSecurityException
+	{
+		reregister(peer, w, true);
+	}
+
+	// client: the side of w starting the handshake, cf. BinaryChannelWrapper.clientHandshake/serverHandshake -- neither waits for it to complete
+	public synchronized void reregister(Role peer, BinaryChannelWrapper w, boolean client) throws IOException, GeneralSecurityException
 	{
 		/*this.sel.pause();
 		SelectionKey old = getChannelEndpoint(peer).getSelectableChannel().keyFor(this.sel.getSelector());
@@ -121,7 +144,14 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 		// FIXME: consume all pending messages/futures first? or ok to leave data in existing bb -- or only permit in states where bb is empty?
 		// Underlying selectable channel is the same, so no need to cancel key and re-reg -- OK to assume in general?
 		w.wrapChannel(c);
-		w.clientHandshake();
+		if (client)
+		{
+			w.clientHandshake();
+		}
+		else
+		{
+			w.serverHandshake();
+		}
 		this.chans.put(peer, w);  // SelectoinKey unchanged?
 		this.sel.unpause();
 	}
@@ -132,7 +162,11 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 		try
 		{
 			//this.keys.remove(peer).cancel();
-			this.sel.deregister(this.keys.remove(peer));
+			SelectionKey key = this.keys.remove(peer);
+			if (key != null)
+			{
+				this.sel.deregister(key);
+			}
 			this.chans.remove(peer).close();
 		}
 		finally
@@ -141,7 +175,7 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 		}
 	}
 	
-	public ScribInputSelector getSelector()
+	public ScribSelector getSelector()
 	{
 		return this.sel;
 	}
@@ -178,6 +212,7 @@ public abstract class SessionEndpoint<S extends Session, R extends Role> impleme
 			}
 			finally
 			{
+				this.sess.deregister(this);
 				if (!isCompleted())  // Subsumes use -- must be used for sess to be completed
 				{
 					throw new ScribRuntimeException("Session not completed: " + this.self);
@@ -63,7 +63,7 @@ public abstract class InitSocket<S extends Session, R extends Role> extends Line
 		{
 			throw new ScribRuntimeException("Socket already initialised: " + this.getClass());
 		}
-		this.se.register(role, ss.accept(this.se));  // FIXME: serv map in SessionEndpoint not currently used
+		this.se.register(role, ss.accept(this.se, role));  // FIXME: serv map in SessionEndpoint not currently used
 	}
 
 	@Deprecated
@@ -73,7 +73,7 @@ public abstract class InitSocket<S extends Session, R extends Role> extends Line
 		{
 			throw new ScribRuntimeException("Socket already initialised: " + this.getClass());
 		}
-		this.se.register(role, this.se.getSelfServerSocket().accept(this.se));
+		this.se.register(role, this.se.getSelfServerSocket().accept(this.se, role));
 	}
 	
 	@Override
@@ -78,9 +78,64 @@ public abstract class LinearSocket<S extends Session, R extends Role> extends Sc
 		return s;
 	}
 
-	protected void wrapServer() 
+	// Batches the following sends to peer (e.g., a chain of OutputSocket sends) until flush -- not a linear use of this socket
+	public void cork(Role peer) throws ScribRuntimeException
 	{
-		throw new RuntimeException("TODO");
+		if (this.used)
+		{
+			throw new ScribRuntimeException("Linear socket resource already used: " + this.getClass());
+		}
+		this.se.getChannelEndpoint(peer).cork();
+	}
+
+	// Writes all sends to peer batched since cork -- not a linear use of this socket
+	public void flush(Role peer) throws IOException, ScribRuntimeException
+	{
+		if (this.used)
+		{
+			throw new ScribRuntimeException("Linear socket resource already used: " + this.getClass());
+		}
+		this.se.getChannelEndpoint(peer).flush();
+	}
+
+	// e.g., LinearSocket.flush(LinearSocket.cork(s, B).send(B, ...).send(B, ...), B)
+	public static <T> T cork(T s, Role peer) throws ScribRuntimeException
+	{
+		((LinearSocket<?, ?>) s).cork(peer);
+		return s;
+	}
+
+	public static <T> T flush(T s, Role peer) throws IOException, ScribRuntimeException
+	{
+		((LinearSocket<?, ?>) s).flush(peer);
+		return s;
+	}
+
+	// As wrapClient, for the server side of the handshake
+	public void wrapServer(Role peer, Callable<? extends BinaryChannelWrapper> cons) throws IOException, ScribRuntimeException 
+	{
+		if (this.used)
+		{
+			throw new ScribRuntimeException("Linear socket resource already used: " + this.getClass());
+		}
+		try
+		{
+			this.se.reregister(peer, cons.call(), false);
+		}
+		catch (Exception e)
+		{
+			if (e instanceof IOException)
+			{
+				throw (IOException) e;
+			}
+			throw new IOException(e);
+		}
+	}
+
+	public static <T> T wrapServer(T s, Role peer, Callable<? extends BinaryChannelWrapper> cons) throws IOException, ScribRuntimeException 
+	{
+		((LinearSocket<?, ?>) s).wrapServer(peer, cons);
+		return s;
 	}
 
 	/*// Only triggered by autoclose or explicit close, i.e. not called directly by user
@@ -16,6 +16,7 @@ package org.scribble.runtime.util;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.scribble.runtime.message.ScribMessage;
 
@@ -24,6 +25,7 @@ public abstract class ScribFuture //implements Future<P>
 {
 	private CompletableFuture<ScribMessage> future;
 	private ScribMessage m;
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	public ScribFuture(CompletableFuture<ScribMessage> future)
 	{
@@ -36,8 +38,10 @@ public abstract class ScribFuture //implements Future<P>
 		return this.m != null;
 	}
 
-	protected synchronized ScribMessage get() throws IOException
+	// Not synchronized: a lock, as get may block on a virtual thread, cf. ScribThreads
+	protected ScribMessage get() throws IOException
 	{
+		this.lock.lock();
 		try
 		{
 			if (isDone())
@@ -54,6 +58,10 @@ public abstract class ScribFuture //implements Future<P>
 		{
 			throw new IOException(e);
 		}
+		finally
+		{
+			this.lock.unlock();
+		}
 	}
 	
 	public abstract ScribFuture sync() throws IOException; //ExecutionException, InterruptedException;  // sync returns the Future (cf. get returns the val)
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The threads created by the runtime for endpoint tasks (e.g., CBEndpoint.run, ScribInputSelector, ScribSessionServer handlers)
+// Set by the system property scribble.runtime.threads: "platform" (default), or "virtual" (JDK 21+, else platform with a warning) -- or by setFactory, before creating endpoints
+// N.B. the shared I/O loops (ScribEventLoopGroup, MuxConnection) are few and long-lived, so always use platform threads
+public class ScribThreads
+{
+	public static final String THREADS_PROPERTY = "scribble.runtime.threads";
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	private static volatile ThreadFactory factory = getFactory(System.getProperty(THREADS_PROPERTY, PLATFORM));
+
+	private ScribThreads()
+	{
+
+	}
+
+	public static ThreadFactory getFactory()
+	{
+		return ScribThreads.factory;
+	}
+
+	public static void setFactory(ThreadFactory factory)
+	{
+		ScribThreads.factory = factory;
+	}
+
+	// Returns a factory for the given kind of thread, as for the system property
+	public static ThreadFactory getFactory(String kind)
+	{
+		switch (kind)
+		{
+			case PLATFORM: return platformFactory();
+			case VIRTUAL:
+			{
+				ThreadFactory f = virtualFactory();
+				if (f == null)
+				{
+					System.err.println("[Warning] Virtual threads not supported by this JVM, using platform threads: " + System.getProperty("java.version"));
+					return platformFactory();
+				}
+				return f;
+			}
+			default: throw new IllegalArgumentException("Unknown " + THREADS_PROPERTY + ": " + kind);
+		}
+	}
+
+	// Not started
+	public static Thread newThread(Runnable r, String name)
+	{
+		Thread t = ScribThreads.factory.newThread(r);
+		t.setName(name);
+		return t;
+	}
+
+	// A new thread per task, e.g., for CompletableFuture.supplyAsync (cf. the common pool)
+	public static Executor getExecutor()
+	{
+		return r -> ScribThreads.factory.newThread(r).start();
+	}
+
+	// As new Thread(r) -- N.B. unlike virtual threads, these keep the JVM alive
+	private static ThreadFactory platformFactory()
+	{
+		AtomicInteger count = new AtomicInteger();
+		return r -> new Thread(r, "scrib-" + count.incrementAndGet());
+	}
+
+	// By reflection, as compiled for Java 8: Thread.ofVirtual().name("scrib-v", 0).factory()
+	private static ThreadFactory virtualFactory()
+	{
+		try
+		{
+			Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> c = Class.forName("java.lang.Thread$Builder");
+			b = c.getMethod("name", String.class, long.class).invoke(b, "scrib-v", 0L);
+			return (ThreadFactory) c.getMethod("factory").invoke(b);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return null;
+		}
+	}
+}
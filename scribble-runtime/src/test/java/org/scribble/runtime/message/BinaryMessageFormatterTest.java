@@ -0,0 +1,241 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.message;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+
+public class BinaryMessageFormatterTest
+{
+	private static final Op ADD = new Op("Add");
+	private static final Op RES = new Op("Res");
+
+	private static class Point
+	{
+		final int x;
+		final int y;
+
+		Point(int x, int y)
+		{
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	private static class Tag implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		final String name;
+
+		Tag(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	private static BinaryMessageFormatter newFormatter()
+	{
+		return new BinaryMessageFormatter(ADD, RES).registerCodec(Point.class,
+				new BinaryMessageFormatter.Codec<Point>()
+				{
+					@Override
+					public void encode(BinaryMessageFormatter f, ByteBuffer bb, Point p)
+					{
+						bb.putInt(p.x).putInt(p.y);
+					}
+
+					@Override
+					public Point decode(BinaryMessageFormatter f, ByteBuffer bb)
+					{
+						return new Point(bb.getInt(), bb.getInt());
+					}
+				});
+	}
+
+	// Pre: bs is whole frames
+	private static ScribMessage decode(ScribMessageFormatter f, byte[] bs) throws Exception
+	{
+		ByteBuffer bb = ByteBuffer.allocate(bs.length + 16);
+		bb.put(bs);
+		return f.fromBytes(bb);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		BinaryMessageFormatter f = newFormatter();
+		Map<String, Integer> map = new LinkedHashMap<>();
+		map.put("a", 1);
+		map.put(null, null);
+		Object[] payload = { null, true, false, (byte) 1, (short) 2, 'c', 3, 4L, 5.0f, 6.0,
+				"seven é", new byte[] { 8, 9 }, Arrays.asList(1, "two", null),
+				new LinkedHashSet<>(Arrays.asList(3L, 4L)), map };
+		ScribMessage m = decode(f, f.toBytes(new ScribMessage(ADD, payload)));
+		Assert.assertEquals(ADD, m.op);
+		Assert.assertArrayEquals(payload, m.payload);
+
+		m = decode(f, f.toBytes(new ScribMessage(RES, new Point(1, 2), new Tag("t"))));  // Codec, serialization
+		Assert.assertEquals(1, ((Point) m.payload[0]).x);
+		Assert.assertEquals(2, ((Point) m.payload[0]).y);
+		Assert.assertEquals("t", ((Tag) m.payload[1]).name);
+
+		m = decode(f, f.toBytes(new ScribMessage(new Op("Other"))));  // Unregistered op
+		Assert.assertEquals(new Op("Other"), m.op);
+		Assert.assertEquals(0, m.payload.length);
+
+		m = decode(f, f.toBytes(new ScribInterrupt(new IOException("x"))));
+		Assert.assertTrue(m instanceof ScribInterrupt);
+	}
+
+	@Test
+	public void testNoCodec() throws Exception
+	{
+		try
+		{
+			new BinaryMessageFormatter().toBytes(new ScribMessage(ADD, new Object()));
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+	}
+
+	// The op ids follow registration order, so a formatter registering differently doesn't agree
+	@Test
+	public void testRegistrationOrder() throws Exception
+	{
+		byte[] bs = new BinaryMessageFormatter(ADD, RES).toBytes(new ScribMessage(RES));
+		Assert.assertEquals(ADD, decode(new BinaryMessageFormatter(RES, ADD), bs).op);
+	}
+
+	// encode (into an existing buffer) writes the same frame as toBytes, after what is already there
+	@Test
+	public void testEncode() throws Exception
+	{
+		BinaryMessageFormatter f = newFormatter();
+		ScribMessage m = new ScribMessage(ADD, 1, 2);
+		byte[] bs = f.toBytes(m);
+		ByteBuffer bb = ByteBuffer.allocate(3 + bs.length);
+		bb.put(new byte[] { 1, 2, 3 });
+		f.encode(m, bb);
+		Assert.assertEquals(3 + bs.length, bb.position());
+		Assert.assertArrayEquals(bs, Arrays.copyOfRange(bb.array(), 3, bb.position()));
+
+		bb = ByteBuffer.allocate(bs.length - 1);
+		bb.put((byte) 1);
+		try
+		{
+			f.encode(m, bb);
+			Assert.fail();
+		}
+		catch (BufferOverflowException e)
+		{
+			Assert.assertEquals(1, bb.position());  // Unchanged
+		}
+	}
+
+	// Frames split over reads are only decoded once whole, and several frames in one read one at a time
+	@Test
+	public void testPartialFrames() throws Exception
+	{
+		BinaryMessageFormatter f = newFormatter();
+		byte[] bs1 = f.toBytes(new ScribMessage(ADD, 1, 2));
+		byte[] bs2 = f.toBytes(new ScribMessage(RES, 3));
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		bb.put(bs1, 0, 2);
+		Assert.assertNull(f.fromBytes(bb));
+		bb.put(bs1, 2, bs1.length - 3);
+		Assert.assertNull(f.fromBytes(bb));
+		bb.put(bs1, bs1.length - 1, 1).put(bs2);
+		Assert.assertArrayEquals(new Object[] { 1, 2 }, f.fromBytes(bb).payload);
+		Assert.assertArrayEquals(new Object[] { 3 }, f.fromBytes(bb).payload);
+		Assert.assertNull(f.fromBytes(bb));
+		Assert.assertEquals(0, bb.position());
+	}
+
+	@Test
+	public void testMaxFrameSize() throws Exception
+	{
+		BinaryMessageFormatter f = newFormatter().setMaxFrameSize(16);
+		try
+		{
+			f.toBytes(new ScribMessage(ADD, new byte[16]));
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		bb.putInt(17).put((byte) 0);  // Rejected on the length, i.e., before the body arrives
+		try
+		{
+			f.fromBytes(bb);
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+		bb.clear().putInt(-1).put((byte) 0);
+		try
+		{
+			f.fromBytes(bb);
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testBadFrames() throws Exception
+	{
+		BinaryMessageFormatter f = newFormatter();
+		byte[][] bads = {
+				{ 0, 0, 0, 1, 0 },  // Truncated op
+				{ 0, 0, 0, 4, 0, 0, 0, 1 },  // Truncated payload
+				{ 0, 0, 0, 9, 0, 0, 0, 1, 10, 0x7f, 0, 0, 0 },  // String longer than the frame
+				{ 0, 0, 0, 9, 0, 0, 0, 1, 12, -1, -1, -1, -1 },  // Negative list size
+				{ 0, 0, 0, 5, 0, 0, 0, 1, 99 },  // Unknown tag
+				{ 0, 0, 0, 4, 0x7f, 0, 0, 0 },  // Unknown op id
+				{ 0, 0, 0, 5, 0, 0, 0, 0, 0 },  // Trailing byte
+		};
+		for (byte[] bs : bads)
+		{
+			try
+			{
+				decode(f, bs);
+				Assert.fail(Arrays.toString(bs));
+			}
+			catch (IOException e)
+			{
+				// Expected
+			}
+		}
+	}
+}
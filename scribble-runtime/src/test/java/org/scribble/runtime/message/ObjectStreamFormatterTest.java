@@ -0,0 +1,60 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+
+public class ObjectStreamFormatterTest
+{
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		ObjectStreamFormatter f = new ObjectStreamFormatter();
+		Object[] payload = { 1, "two", new byte[] { 3 } };
+		ByteBuffer bb = ByteBuffer.allocateDirect(1024);  // cf. ScribBufferPool
+		byte[] bs = f.toBytes(new ScribMessage(new Op("m"), payload));
+		bb.put(bs, 0, bs.length - 1);
+		Assert.assertNull(f.fromBytes(bb));
+		bb.put(bs, bs.length - 1, 1);
+		ScribMessage m = f.fromBytes(bb);
+		Assert.assertEquals(new Op("m"), m.op);
+		Assert.assertArrayEquals(payload, m.payload);
+		Assert.assertEquals(0, bb.position());
+	}
+
+	@Test
+	public void testBadFrameLength() throws Exception
+	{
+		ObjectStreamFormatter f = new ObjectStreamFormatter();
+		for (int len : new int[] { -1, ScribMessageFormatter.DEFAULT_MAX_FRAME_SIZE + 1 })
+		{
+			ByteBuffer bb = ByteBuffer.allocate(64);
+			bb.putInt(len).put((byte) 0);
+			try
+			{
+				f.fromBytes(bb);
+				Assert.fail();
+			}
+			catch (IOException e)
+			{
+				// Expected
+			}
+		}
+	}
+}
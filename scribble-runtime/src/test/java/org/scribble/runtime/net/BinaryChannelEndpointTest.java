@@ -0,0 +1,291 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.ScribEventLoopGroup;
+import org.scribble.runtime.session.SessionEndpoint;
+import org.scribble.runtime.session.TestSession;
+
+public class BinaryChannelEndpointTest
+{
+	// Records the buffer count of each gathering write
+	private static class GatherCountingEndpoint extends SocketChannelEndpoint
+	{
+		final List<Integer> writes = new ArrayList<>();
+
+		@Override
+		protected long writeGathered(ByteBuffer[] bbs) throws IOException
+		{
+			this.writes.add(bbs.length);
+			return super.writeGathered(bbs);
+		}
+	}
+
+	// No channel: messages are only enqueued directly, cf. the slot tests
+	private static class SlotEndpoint extends BinaryChannelEndpoint
+	{
+		@Override
+		public void initClient(SessionEndpoint<?, ?> se, String host, int port)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeBytes(byte[] bs)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void readBytesIntoBuffer()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// N.B. ScribMessage.equals compares the payload arrays by identity, so compared by toString
+	private static ScribMessage message(int i)
+	{
+		return new ScribMessage(new Op("m"), i);
+	}
+
+	@Test
+	public void testCorkedSendsGathered() throws Exception
+	{
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(1))
+		{
+			ObjectStreamFormatter smf = new ObjectStreamFormatter();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, smf, group);
+			MPSTEndpoint<?, ?> b = new MPSTEndpoint<>((TestSession) a.sess, TestSession.B, smf, group);
+			try
+			{
+				GatherCountingEndpoint c = new GatherCountingEndpoint();
+				TestSession.connect(a, b, () -> c);
+				c.cork();
+				for (int i = 0; i < 3; i++)
+				{
+					c.write(message(i));  // Encoded into one pooled buffer
+				}
+				c.writeBytes(smf.toBytes(message(3)));
+				c.writeBytes(smf.toBytes(message(4)));
+				Assert.assertTrue(c.writes.isEmpty());
+				c.flush();
+				Assert.assertEquals(1, c.writes.size());
+				Assert.assertEquals(3, (int) c.writes.get(0));
+
+				BinaryChannelEndpoint d = b.getChannelEndpoint(TestSession.A);
+				for (int i = 0; i < 5; i++)
+				{
+					Assert.assertEquals(message(i).toString(), d.getFuture().get(5, TimeUnit.SECONDS).toString());
+				}
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+	}
+
+	// drain waits for the channel to be writable itself, i.e., also while the selector is paused (cf. wrapChannel)
+	@Test
+	public void testDrainWhilePaused() throws Exception
+	{
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(1))
+		{
+			ObjectStreamFormatter smf = new ObjectStreamFormatter();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, smf, group);
+			MPSTEndpoint<?, ?> b = new MPSTEndpoint<>((TestSession) a.sess, TestSession.B, smf, group);
+			try
+			{
+				TestSession.connect(a, b);
+				BinaryChannelEndpoint c = a.getChannelEndpoint(TestSession.B);
+				BinaryChannelEndpoint d = b.getChannelEndpoint(TestSession.A);
+				b.getSelector().setReadInterest(d.getSelectableChannel(), false);
+				a.getSelector().pause();
+
+				int n = 0;
+				while (!c.hasQueuedBytes() && n < 1024)  // Until the socket buffers are full
+				{
+					c.write(new ScribMessage(new Op("m"), n++, new byte[256 * 1024]));
+				}
+				Assert.assertTrue(c.hasQueuedBytes());
+				Thread drain = new Thread(() ->
+				{
+					try
+					{
+						c.drain();
+					}
+					catch (IOException e)
+					{
+						throw new RuntimeException(e);
+					}
+				});
+				drain.start();
+				drain.join(200);
+				Assert.assertTrue(drain.isAlive());
+
+				b.getSelector().setReadInterest(d.getSelectableChannel(), true);
+				drain.join(10000);
+				Assert.assertFalse(drain.isAlive());
+				Assert.assertFalse(c.hasQueuedBytes());
+				for (int i = 0; i < n; i++)
+				{
+					Assert.assertEquals(i, d.getFuture().get(5, TimeUnit.SECONDS).payload[0]);
+				}
+				a.getSelector().unpause();
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+	}
+
+	// Producers take turns to enqueue (one at a time, cf. the bbLock of readAndEnqueueMessages), while consumers take futures concurrently, ahead of and behind the producers
+	// Each message is received once, and each consumer receives the messages of a producer in order -- over many segments (SEG_SIZE slots each)
+	@Test
+	public void testSlotsConcurrent() throws Exception
+	{
+		final int PRODUCERS = 4;
+		final int CONSUMERS = 3;
+		final int N = 20000;  // Per producer
+		SlotEndpoint c = new SlotEndpoint();
+		Object lock = new Object();
+		List<Thread> ts = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++)
+		{
+			int id = p;
+			ts.add(new Thread(() ->
+			{
+				for (int i = 0; i < N; i++)
+				{
+					synchronized (lock)
+					{
+						c.enqueue(new ScribMessage(new Op("m"), id, i));
+					}
+					if (i % 1000 == 0)
+					{
+						Thread.yield();
+					}
+				}
+			}));
+		}
+		List<List<ScribMessage>> received = new ArrayList<>();
+		int total = PRODUCERS * N;
+		for (int k = 0; k < CONSUMERS; k++)
+		{
+			List<ScribMessage> ms = new ArrayList<>();
+			received.add(ms);
+			int n = total / CONSUMERS + ((k < total % CONSUMERS) ? 1 : 0);
+			ts.add(new Thread(() ->
+			{
+				try
+				{
+					for (int i = 0; i < n; i++)
+					{
+						ms.add(c.getFuture().get(10, TimeUnit.SECONDS));
+					}
+				}
+				catch (Exception e)
+				{
+					throw new RuntimeException(e);
+				}
+			}));
+		}
+		ts.forEach(Thread::start);
+		for (Thread t : ts)
+		{
+			t.join(60000);
+			Assert.assertFalse(t.isAlive());
+		}
+
+		boolean[][] seen = new boolean[PRODUCERS][N];
+		for (List<ScribMessage> ms : received)
+		{
+			int[] last = new int[PRODUCERS];
+			Arrays.fill(last, -1);
+			for (ScribMessage m : ms)
+			{
+				int p = (Integer) m.payload[0];
+				int i = (Integer) m.payload[1];
+				Assert.assertTrue(i > last[p]);  // FIFO per producer (futures are taken in order by each consumer)
+				last[p] = i;
+				Assert.assertFalse(seen[p][i]);  // No duplicates
+				seen[p][i] = true;
+			}
+		}
+		for (int p = 0; p < PRODUCERS; p++)
+		{
+			for (int i = 0; i < N; i++)
+			{
+				Assert.assertTrue(seen[p][i]);  // No losses
+			}
+		}
+	}
+
+	// Pending futures (over several segments) are failed, received messages not yet taken are kept, and later futures fail
+	@Test
+	public void testSlotsFail() throws Exception
+	{
+		SlotEndpoint c = new SlotEndpoint();
+		for (int i = 0; i < 100; i++)
+		{
+			c.enqueue(message(i));
+		}
+		List<CompletableFuture<ScribMessage>> pending = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+		{
+			pending.add(c.getFuture());
+		}
+		IOException cause = new IOException("test");
+		c.fail(cause);
+		for (int i = 0; i < 300; i++)
+		{
+			CompletableFuture<ScribMessage> f = pending.get(i);
+			Assert.assertTrue(f.isDone());
+			if (i < 100)
+			{
+				Assert.assertEquals(message(i).toString(), f.get().toString());
+			}
+			else
+			{
+				try
+				{
+					f.get();
+					Assert.fail();
+				}
+				catch (ExecutionException e)
+				{
+					Assert.assertSame(cause, e.getCause().getCause());
+				}
+			}
+		}
+		Assert.assertTrue(c.getFuture().isCompletedExceptionally());
+	}
+}
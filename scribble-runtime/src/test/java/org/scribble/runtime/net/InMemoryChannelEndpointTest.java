@@ -0,0 +1,254 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.TestSession;
+
+public class InMemoryChannelEndpointTest
+{
+	private static final AtomicInteger PORTS = new AtomicInteger(40000);  // In-memory, i.e., only distinct within this JVM
+
+	private MPSTEndpoint<TestSession, ?> a;
+	private MPSTEndpoint<?, ?> b;
+
+	// Returns the channel of a to b
+	private BinaryChannelEndpoint connect(int capacity) throws Exception
+	{
+		this.a = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter());
+		this.b = new MPSTEndpoint<>((TestSession) this.a.sess, TestSession.B, new ObjectStreamFormatter());
+		int port = PORTS.getAndIncrement();
+		try (InMemoryServer ss = new InMemoryServer(port, capacity))
+		{
+			TestSession.connect(this.a, this.b, ss, () -> new InMemoryChannelEndpoint(capacity), port);
+		}
+		return this.a.getChannelEndpoint(TestSession.B);
+	}
+
+	private void close() throws Exception
+	{
+		TestSession.close(this.a, this.b);
+	}
+
+	// Messages are handed over as is, i.e., not copied
+	@Test
+	public void testSendReceive() throws Exception
+	{
+		BinaryChannelEndpoint c = connect(InMemoryChannelEndpoint.DEFAULT_CAPACITY);
+		try
+		{
+			BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+			Assert.assertNull(c.getSelectableChannel());
+			ScribMessage m1 = new ScribMessage(new Op("m"), new Object());
+			ScribMessage m2 = new ScribMessage(new Op("m"), 2);
+			CompletableFuture<ScribMessage> f = d.getFuture();  // Before the message
+			c.write(m1);
+			c.write(m2);
+			Assert.assertSame(m1, f.get(5, TimeUnit.SECONDS));
+			Assert.assertSame(m2, d.getFuture().get(5, TimeUnit.SECONDS));
+			d.write(m1);
+			Assert.assertSame(m1, c.getFuture().get(5, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	// A sender blocks while the peer has capacity messages not yet taken
+	@Test
+	public void testCapacity() throws Exception
+	{
+		BinaryChannelEndpoint c = connect(2);
+		try
+		{
+			BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+			c.write(new ScribMessage(new Op("m"), 0));
+			c.write(new ScribMessage(new Op("m"), 1));
+			Thread t = new Thread(() ->
+			{
+				try
+				{
+					c.write(new ScribMessage(new Op("m"), 2));
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+			});
+			t.start();
+			t.join(200);
+			Assert.assertTrue(t.isAlive());
+			Assert.assertEquals(0, d.getFuture().get().payload[0]);
+			t.join(5000);
+			Assert.assertFalse(t.isAlive());
+			Assert.assertEquals(1, d.getFuture().get().payload[0]);
+			Assert.assertEquals(2, d.getFuture().get().payload[0]);
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	// Closing fails the receives pending at the peer, and releases any sender blocked on the capacity
+	@Test
+	public void testClose() throws Exception
+	{
+		BinaryChannelEndpoint c = connect(1);
+		BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+		CompletableFuture<ScribMessage> f = c.getFuture();
+		c.write(new ScribMessage(new Op("m"), 0));
+		AtomicReference<IOException> err = new AtomicReference<>();
+		Thread t = new Thread(() ->
+		{
+			try
+			{
+				c.write(new ScribMessage(new Op("m"), 1));
+			}
+			catch (IOException e)
+			{
+				err.set(e);
+			}
+		});
+		t.start();
+		t.join(200);
+		Assert.assertTrue(t.isAlive());
+		d.close();
+		t.join(5000);
+		Assert.assertFalse(t.isAlive());
+		Assert.assertNotNull(err.get());
+		try
+		{
+			f.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		}
+		catch (ExecutionException e)
+		{
+			// Expected
+		}
+		try
+		{
+			c.write(new ScribMessage(new Op("m"), 2));
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+		close();
+	}
+
+	// Concurrent senders take turns, so each sender's messages are received in order, none lost
+	@Test
+	public void testConcurrentSenders() throws Exception
+	{
+		final int SENDERS = 4;
+		final int N = 5000;
+		connect(16);
+		try
+		{
+			BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+			BinaryChannelEndpoint c = this.a.getChannelEndpoint(TestSession.B);
+			List<Thread> ts = new ArrayList<>();
+			for (int s = 0; s < SENDERS; s++)
+			{
+				int id = s;
+				ts.add(new Thread(() ->
+				{
+					try
+					{
+						for (int i = 0; i < N; i++)
+						{
+							c.write(new ScribMessage(new Op("m"), id, i));
+						}
+					}
+					catch (IOException e)
+					{
+						throw new RuntimeException(e);
+					}
+				}));
+			}
+			ts.forEach(Thread::start);
+			int[] next = new int[SENDERS];
+			for (int i = 0; i < SENDERS * N; i++)
+			{
+				ScribMessage m = d.getFuture().get(5, TimeUnit.SECONDS);
+				int s = (Integer) m.payload[0];
+				Assert.assertEquals(next[s]++, m.payload[1]);
+			}
+			for (Thread t : ts)
+			{
+				t.join(5000);
+				Assert.assertFalse(t.isAlive());
+			}
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	@Test
+	public void testRefused() throws Exception
+	{
+		int port = PORTS.getAndIncrement();
+		InMemoryChannelEndpoint c = new InMemoryChannelEndpoint();
+		try
+		{
+			c.initClient(null, "localhost", port);
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected: no server
+		}
+		InMemoryServer ss = new InMemoryServer(port);
+		c.initClient(null, "localhost", port);
+		CompletableFuture<ScribMessage> f = c.getFuture();
+		ss.close();  // Not yet accepted, so closed
+		try
+		{
+			f.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		}
+		catch (ExecutionException e)
+		{
+			// Expected
+		}
+		try
+		{
+			new InMemoryChannelEndpoint().initClient(null, "localhost", port);
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected: server closed
+		}
+	}
+}
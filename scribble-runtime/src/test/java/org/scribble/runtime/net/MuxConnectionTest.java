@@ -0,0 +1,174 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.TestSession;
+
+public class MuxConnectionTest
+{
+	// Two sessions over the one (shared) connection
+	@Test
+	public void testSendReceive() throws Exception
+	{
+		int port = TestSession.getFreePort();
+		try (MuxServer ss = new MuxServer(port))
+		{
+			for (int i = 0; i < 2; i++)
+			{
+				TestSession sess = new TestSession();
+				MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter());
+				MPSTEndpoint<TestSession, ?> b = new MPSTEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter());
+				try
+				{
+					TestSession.connect(a, b, ss, () -> new MuxChannelEndpoint(TestSession.B), port);
+					sendReceive(a, b, i);
+				}
+				finally
+				{
+					TestSession.close(a, b);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUnknownKind() throws Exception
+	{
+		byte[] tag = MuxConnection.tag(1, "B", "A");
+		ByteBuffer bb = ByteBuffer.allocate(4 + 1 + tag.length);
+		bb.putInt(1 + tag.length).put((byte) 9).put(tag);
+		testBadFrame(bb.array(), "Unknown multiplexed frame kind: 9");
+	}
+
+	@Test
+	public void testBadLength() throws Exception
+	{
+		testBadFrame(new byte[] { -1, -1, -1, -1 }, "Bad multiplexed frame length: -1");
+	}
+
+	// Role length past the end of the frame
+	@Test
+	public void testTruncatedTag() throws Exception
+	{
+		ByteBuffer bb = ByteBuffer.allocate(4 + 1 + 8 + 2 + 2);
+		bb.putInt(1 + 8 + 2 + 2).put(MuxConnection.DATA).putLong(1).putShort((short) 100).putShort((short) 0);
+		testBadFrame(bb.array(), "Bad multiplexed role length: 100");
+	}
+
+	// The frame is written to the client connection by a raw peer: it fails the connection, and so every channel on it
+	private void testBadFrame(byte[] frame, String msg) throws Exception
+	{
+		int port = TestSession.getFreePort();
+		MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter());
+		try (ServerSocket ss = new ServerSocket(port))
+		{
+			MPSTEndpoint.request(a, TestSession.B, () -> new MuxChannelEndpoint(TestSession.B), "localhost", port);
+			try (Socket s = ss.accept())
+			{
+				DataInputStream dis = new DataInputStream(s.getInputStream());
+				byte[] open = new byte[dis.readInt()];
+				dis.readFully(open);
+				Assert.assertEquals(MuxConnection.OPEN, open[0]);
+
+				MuxChannelEndpoint c = (MuxChannelEndpoint) a.getChannelEndpoint(TestSession.B);
+				DataOutputStream dos = new DataOutputStream(s.getOutputStream());
+				dos.write(frame);
+				dos.flush();
+				try
+				{
+					c.getFuture().get(5, TimeUnit.SECONDS);
+					Assert.fail();
+				}
+				catch (ExecutionException e)
+				{
+					// Expected
+					Throwable cause = e.getCause().getCause();
+					Assert.assertTrue(cause instanceof IOException);
+					Assert.assertEquals(msg, cause.getMessage());
+				}
+				Assert.assertTrue(c.getConnection().isClosed());
+			}
+		}
+		finally
+		{
+			TestSession.close(a);
+		}
+	}
+
+	// A channel opened on a connection that is then closed is not accepted
+	@Test
+	public void testPendingRemoved() throws Exception
+	{
+		int port = TestSession.getFreePort();
+		try (MuxServer ss = new MuxServer(port))
+		{
+			try (Socket s = new Socket("localhost", port))
+			{
+				byte[] tag = MuxConnection.tag(1, "A", "B");
+				DataOutputStream dos = new DataOutputStream(s.getOutputStream());
+				dos.writeInt(1 + tag.length);
+				dos.write(MuxConnection.OPEN);
+				dos.write(tag);
+				dos.flush();
+				s.shutdownOutput();
+				Assert.assertEquals(-1, s.getInputStream().read());  // Closed by the server, i.e., after the channel was dropped
+			}
+
+			TestSession sess = new TestSession();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter());
+			MPSTEndpoint<TestSession, ?> b = new MPSTEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter());
+			try
+			{
+				FutureTask<Void> accept = new FutureTask<>(() ->
+				{
+					MPSTEndpoint.accept(b, ss, TestSession.A);
+					return null;
+				});
+				new Thread(accept).start();
+				MPSTEndpoint.request(a, TestSession.B, () -> new MuxChannelEndpoint(TestSession.B), "localhost", port);
+				accept.get(5, TimeUnit.SECONDS);
+				sendReceive(a, b, 0);
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+	}
+
+	private static void sendReceive(MPSTEndpoint<TestSession, ?> a, MPSTEndpoint<TestSession, ?> b, int i) throws Exception
+	{
+		ScribMessage m = new ScribMessage(new Op("m"), i);
+		a.getChannelEndpoint(TestSession.B).write(m);
+		Assert.assertEquals(m.toString(), b.getChannelEndpoint(TestSession.A).getFuture().get(5, TimeUnit.SECONDS).toString());
+		b.getChannelEndpoint(TestSession.A).write(m);
+		Assert.assertEquals(m.toString(), a.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS).toString());
+	}
+}
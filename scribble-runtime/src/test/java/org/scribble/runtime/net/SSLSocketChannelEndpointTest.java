@@ -0,0 +1,209 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.TestSession;
+
+// TLS over loopback, with self-signed keys generated by keytool (i.e., no binary test resources)
+public class SSLSocketChannelEndpointTest
+{
+	private static final char[] PASS = "changeit".toCharArray();
+
+	private static File dir;
+	private static SSLContext server;  // The key of "server"
+	private static SSLContext client;  // Trusts the key of "server"
+	private static SSLContext stranger;  // Trusts only the key of "other"
+
+	private MPSTEndpoint<TestSession, ?> a;  // Client
+	private MPSTEndpoint<TestSession, ?> b;
+
+	@BeforeClass
+	public static void init() throws Exception
+	{
+		dir = File.createTempFile("scrib-ssl", "");
+		dir.delete();
+		dir.mkdir();
+		KeyStore ks = genKeyStore("server");
+		KeyStore other = genKeyStore("other");
+
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(ks, PASS);
+		server = SSLContext.getInstance("TLS");
+		server.init(kmf.getKeyManagers(), null, null);
+		client = SSLContext.getInstance("TLS");
+		client.init(null, getTrustManagers(ks), null);
+		stranger = SSLContext.getInstance("TLS");
+		stranger.init(null, getTrustManagers(other), null);
+	}
+
+	@AfterClass
+	public static void cleanUp()
+	{
+		for (File f : dir.listFiles())
+		{
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static KeyStore genKeyStore(String name) throws Exception
+	{
+		File f = new File(dir, name + ".p12");
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", name, "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", f.getPath(),
+				"-storepass", new String(PASS), "-keypass", new String(PASS))
+				.redirectErrorStream(true).redirectOutput(new File(dir, name + ".log")).start();
+		Assert.assertTrue(p.waitFor(60, TimeUnit.SECONDS));
+		Assert.assertEquals(0, p.exitValue());
+		KeyStore ks = KeyStore.getInstance("PKCS12");
+		try (InputStream is = new FileInputStream(f))
+		{
+			ks.load(is, PASS);
+		}
+		return ks;
+	}
+
+	private static TrustManager[] getTrustManagers(KeyStore ks) throws Exception
+	{
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(ks);
+		return tmf.getTrustManagers();
+	}
+
+	// N.B. connect does not wait for the handshake
+	private void connect(SSLContext clientContext) throws Exception
+	{
+		TestSession sess = new TestSession();
+		this.a = new MPSTEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter());
+		this.b = new MPSTEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter());
+		int port = TestSession.getFreePort();
+		try (SSLSocketChannelServer ss = new SSLSocketChannelServer(port, server))
+		{
+			TestSession.connect(this.a, this.b, ss, () -> new SSLSocketChannelEndpoint(clientContext), port);
+		}
+	}
+
+	// Sent before the handshake completes (held), both ways, including a message over several records
+	@Test
+	public void testSendReceive() throws Exception
+	{
+		connect(client);
+		try
+		{
+			BinaryChannelEndpoint c = this.a.getChannelEndpoint(TestSession.B);
+			BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+			byte[] big = new byte[100000];
+			for (int i = 0; i < big.length; i++)
+			{
+				big[i] = (byte) i;
+			}
+			c.write(new ScribMessage(new Op("m"), 1));
+			c.write(new ScribMessage(new Op("big"), (Object) big));
+			Assert.assertEquals("m(1)", d.getFuture().get(5, TimeUnit.SECONDS).toString());
+			Assert.assertArrayEquals(big, (byte[]) d.getFuture().get(5, TimeUnit.SECONDS).payload[0]);
+			d.write(new ScribMessage(new Op("m"), 2));
+			Assert.assertEquals("m(2)", c.getFuture().get(5, TimeUnit.SECONDS).toString());
+		}
+		finally
+		{
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	// The client's close_notify closes the server's channel -- a pending receive fails as closed by the peer, not truncated (cf. SSLRecords.receive)
+	@Test
+	public void testCloseNotify() throws Exception
+	{
+		connect(client);
+		try
+		{
+			BinaryChannelEndpoint d = this.b.getChannelEndpoint(TestSession.A);
+			this.a.getChannelEndpoint(TestSession.B).write(new ScribMessage(new Op("m"), 1));
+			Assert.assertEquals("m(1)", d.getFuture().get(5, TimeUnit.SECONDS).toString());  // Handshook
+			TestSession.close(this.a);
+			try
+			{
+				d.getFuture().get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected
+				Throwable cause = e.getCause().getCause();
+				Assert.assertEquals(IOException.class, cause.getClass());
+				Assert.assertEquals("Channel closed by peer", cause.getMessage());
+			}
+		}
+		finally
+		{
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	// The server's certificate is rejected by the client (in a delegated task): the client's channel fails and is closed, so the server's fails too
+	@Test
+	public void testUntrusted() throws Exception
+	{
+		connect(stranger);
+		try
+		{
+			try
+			{
+				this.a.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected
+				Assert.assertTrue(e.getCause().getCause() instanceof SSLException);
+			}
+			try
+			{
+				this.b.getChannelEndpoint(TestSession.A).getFuture().get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected
+			}
+		}
+		finally
+		{
+			TestSession.close(this.a, this.b);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.ScribEventLoopGroup;
+import org.scribble.runtime.session.TestSession;
+
+public class ScribBufferPoolTest
+{
+	@Test
+	public void testAcquireRelease()
+	{
+		ScribBufferPool pool = new ScribBufferPool(false, 4 * ScribBufferPool.MIN_CAPACITY, Long.MAX_VALUE);
+		ByteBuffer bb = pool.acquire(ScribBufferPool.MIN_CAPACITY + 1);
+		Assert.assertEquals(2 * ScribBufferPool.MIN_CAPACITY, bb.capacity());
+		bb.put((byte) 1);
+		pool.release(bb);
+		ByteBuffer reused = pool.acquire(2 * ScribBufferPool.MIN_CAPACITY);
+		Assert.assertSame(bb, reused);
+		Assert.assertEquals(0, reused.position());  // Cleared
+
+		ByteBuffer big = pool.acquire(8 * ScribBufferPool.MIN_CAPACITY);  // Over maxPooledCapacity: not kept
+		pool.release(big);
+		Assert.assertNotSame(big, pool.acquire(8 * ScribBufferPool.MIN_CAPACITY));
+	}
+
+	@Test
+	public void testMaxPooledBytes()
+	{
+		ScribBufferPool pool = new ScribBufferPool(false, ScribBufferPool.MIN_CAPACITY, ScribBufferPool.MIN_CAPACITY);
+		ByteBuffer bb1 = pool.acquire(ScribBufferPool.MIN_CAPACITY);
+		ByteBuffer bb2 = pool.acquire(ScribBufferPool.MIN_CAPACITY);
+		pool.release(bb1);
+		pool.release(bb2);  // Over maxPooledBytes: dropped
+		Assert.assertSame(bb1, pool.acquire(ScribBufferPool.MIN_CAPACITY));
+		Assert.assertNotSame(bb2, pool.acquire(ScribBufferPool.MIN_CAPACITY));
+	}
+
+	@Test
+	public void testGrow() throws IOException
+	{
+		ScribBufferPool pool = new ScribBufferPool(false, ScribBufferPool.MIN_CAPACITY, Long.MAX_VALUE, 3 * ScribBufferPool.MIN_CAPACITY);
+		ByteBuffer bb = pool.acquire(ScribBufferPool.MIN_CAPACITY);
+		for (int i = 0; i < bb.capacity(); i++)
+		{
+			bb.put((byte) i);
+		}
+		bb = pool.grow(bb, 2 * bb.capacity());
+		Assert.assertEquals(2 * ScribBufferPool.MIN_CAPACITY, bb.capacity());
+		Assert.assertEquals(ScribBufferPool.MIN_CAPACITY, bb.position());
+		for (int i = 0; i < ScribBufferPool.MIN_CAPACITY; i++)
+		{
+			Assert.assertEquals((byte) i, bb.get(i));
+		}
+
+		bb = pool.grow(bb, 2 * bb.capacity());  // Capped
+		Assert.assertEquals(3 * ScribBufferPool.MIN_CAPACITY, bb.capacity());
+		try
+		{
+			pool.grow(bb, 2 * bb.capacity());
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+		try
+		{
+			pool.acquire(4 * ScribBufferPool.MIN_CAPACITY);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+
+	// A frame over the limit fails the receiving channel, rather than growing its buffer without bound
+	@Test
+	public void testFrameOverLimit() throws Exception
+	{
+		ScribBufferPool prev = ScribBufferPool.getDefault();
+		ScribBufferPool.setDefault(new ScribBufferPool(false, ScribBufferPool.MIN_CAPACITY, 0, 2 * ScribBufferPool.MIN_CAPACITY));
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(1))
+		{
+			ObjectStreamFormatter smf = new ObjectStreamFormatter();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, smf, group);
+			MPSTEndpoint<?, ?> b = new MPSTEndpoint<>((TestSession) a.sess, TestSession.B, smf, group);
+			try
+			{
+				TestSession.connect(a, b);
+				byte[] bs = smf.toBytes(new ScribMessage(new Op("m"), new byte[4 * ScribBufferPool.MIN_CAPACITY]));
+				b.getChannelEndpoint(TestSession.A).writeBytes(bs);  // Not via the pool (cf. write)
+				try
+				{
+					a.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS);
+					Assert.fail();
+				}
+				catch (ExecutionException e)
+				{
+					Assert.assertTrue(e.getCause().getCause() instanceof IOException);
+				}
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+		finally
+		{
+			ScribBufferPool.setDefault(prev);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.core.type.name.Role;
+import org.scribble.main.ScribRuntimeException;
+import org.scribble.runtime.handlers.ScribOutputEvent;
+import org.scribble.runtime.handlers.states.ScribEndState;
+import org.scribble.runtime.handlers.states.ScribInputState;
+import org.scribble.runtime.handlers.states.ScribOutputState;
+import org.scribble.runtime.handlers.states.ScribState;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+
+// A sends m or x to B, then both end -- B only expects m
+public class CBEndpointTest
+{
+	private static final Op M = new Op("m");
+	private static final Op X = new Op("x");
+
+	private static class Out extends ScribOutputState
+	{
+		Out(String name, int index, ScribState succ)
+		{
+			super(name, index);
+			addSucc(M, succ.name, succ.index);
+			addSucc(X, succ.name, succ.index);
+		}
+	}
+
+	private static class In extends ScribInputState
+	{
+		In(String name, int index, Role peer, ScribState succ)
+		{
+			super(name, index, peer);
+			addSucc(M, succ.name, succ.index);
+		}
+	}
+
+	private static class End extends ScribEndState
+	{
+		End(String name, int index)
+		{
+			super(name, index);
+		}
+	}
+
+	private CBEndpoint<TestSession, Role, List<Object>> a;
+	private CBEndpoint<TestSession, Role, List<Object>> b;
+
+	// numbered: states indexed, i.e., run from the tables (else the maps) -- op is sent by A with payload 1
+	private void init(boolean numbered, Op op) throws Exception
+	{
+		int i = numbered ? 0 : -1;
+		int j = numbered ? 1 : -1;
+		TestSession sess = new TestSession();
+
+		End aEnd = new End("A1", j);
+		Out a0 = new Out("A0", i, aEnd);
+		this.a = new CBEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter(), a0, new ArrayList<>());
+		this.a.states.put(a0.name, a0);
+		this.a.states.put(aEnd.name, aEnd);
+		this.a.outputs.put(a0, d -> new ScribOutputEvent()
+		{
+			@Override
+			public Role getPeer()
+			{
+				return TestSession.B;
+			}
+
+			@Override
+			public Op getOp()
+			{
+				return op;
+			}
+
+			@Override
+			public Object[] getPayload()
+			{
+				return new Object[] { 1 };
+			}
+		});
+
+		End bEnd = new End("B1", j);
+		In b0 = new In("B0", i, TestSession.A, bEnd);
+		this.b = new CBEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter(), b0, new ArrayList<>());
+		this.b.states.put(b0.name, b0);
+		this.b.states.put(bEnd.name, bEnd);
+		this.b.inputs.put(b0, (d, m) -> d.add(m.payload[0]));
+
+		TestSession.connect(this.a, this.b);
+	}
+
+	// Both endpoints on one thread, i.e., neither blocks it at its input state
+	private void testRunExecutor(boolean numbered) throws Exception
+	{
+		init(numbered, M);
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try
+		{
+			CompletableFuture<Void> fb = this.b.run(exec);  // Input first: not yet received
+			CompletableFuture<Void> fa = this.a.run(exec);
+			fa.get(5, TimeUnit.SECONDS);
+			fb.get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(Arrays.asList(1), this.b.data);
+			Assert.assertTrue(this.a.isCompleted());
+			Assert.assertTrue(this.b.isCompleted());
+		}
+		finally
+		{
+			exec.shutdown();
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	@Test
+	public void testRunExecutor() throws Exception
+	{
+		testRunExecutor(true);
+	}
+
+	@Test
+	public void testRunExecutorUnnumbered() throws Exception
+	{
+		testRunExecutor(false);
+	}
+
+	// Same outcome as run(Executor)
+	@Test
+	public void testRunThread() throws Exception
+	{
+		init(true, M);
+		try
+		{
+			Future<Void> fb = this.b.run();
+			Future<Void> fa = this.a.run();
+			fa.get(5, TimeUnit.SECONDS);
+			fb.get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(Arrays.asList(1), this.b.data);
+		}
+		finally
+		{
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	// The peer closes instead of sending: the pending input fails the run
+	@Test
+	public void testPeerClosed() throws Exception
+	{
+		init(true, M);
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try
+		{
+			CompletableFuture<Void> fb = this.b.run(exec);
+			TestSession.close(this.a);
+			try
+			{
+				fb.get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+			Assert.assertTrue(this.b.isCompleted());
+		}
+		finally
+		{
+			exec.shutdown();
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	private void testUnexpectedOp(boolean numbered) throws Exception
+	{
+		init(numbered, X);
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try
+		{
+			CompletableFuture<Void> fa = this.a.run(exec);
+			CompletableFuture<Void> fb = this.b.run(exec);
+			fa.get(5, TimeUnit.SECONDS);
+			try
+			{
+				fb.get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected
+				Assert.assertTrue(e.getCause() instanceof ScribRuntimeException);
+				Assert.assertEquals("No transition from state B0 by op: x", e.getCause().getMessage());
+			}
+			Assert.assertTrue(this.b.data.isEmpty());  // Not dispatched
+		}
+		finally
+		{
+			exec.shutdown();
+			TestSession.close(this.a, this.b);
+		}
+	}
+
+	@Test
+	public void testUnexpectedOp() throws Exception
+	{
+		testUnexpectedOp(true);
+	}
+
+	@Test
+	public void testUnexpectedOpUnnumbered() throws Exception
+	{
+		testUnexpectedOp(false);
+	}
+}
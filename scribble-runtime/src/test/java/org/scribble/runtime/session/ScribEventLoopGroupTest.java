@@ -0,0 +1,132 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.net.BinaryChannelEndpoint;
+import org.scribble.runtime.net.SocketChannelEndpoint;
+
+// The loops are shared, so a failure must only affect the channel concerned
+public class ScribEventLoopGroupTest
+{
+	private static final ScribMessage M = new ScribMessage(new Op("m"), 1);  // N.B. ScribMessage.equals compares the payload arrays by identity, so compared by toString
+
+	@Test
+	public void testFailingTask() throws Exception
+	{
+		ScribEventLoop loop = new ScribEventLoop("test");
+		AtomicReference<Throwable> caught = new AtomicReference<>();
+		loop.setUncaughtExceptionHandler((t, e) -> caught.set(e));
+		loop.start();
+		try
+		{
+			RuntimeException e = new IllegalStateException("task");
+			loop.execute(() ->
+			{
+				throw e;
+			});
+			Assert.assertEquals(1, (int) loop.invoke(() -> 1));
+			Assert.assertSame(e, caught.get());
+			Assert.assertTrue(loop.isAlive());
+		}
+		finally
+		{
+			loop.close();
+		}
+	}
+
+	@Test
+	public void testFailingChannel() throws Exception
+	{
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(1))
+		{
+			MPSTEndpoint<TestSession, ?> a1 = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter(), group);
+			MPSTEndpoint<?, ?> b1 = new MPSTEndpoint<>((TestSession) a1.sess, TestSession.B, new ObjectStreamFormatter(), group);
+			MPSTEndpoint<TestSession, ?> a2 = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter(), group);
+			MPSTEndpoint<?, ?> b2 = new MPSTEndpoint<>((TestSession) a2.sess, TestSession.B, new ObjectStreamFormatter(), group);
+			try
+			{
+				RuntimeException e = new IllegalStateException("read");
+				TestSession.connect(a1, b1, () -> new SocketChannelEndpoint()
+				{
+					@Override
+					public synchronized void readBytesIntoBuffer() throws IOException
+					{
+						throw e;
+					}
+				});
+				TestSession.connect(a2, b2);
+
+				b1.getChannelEndpoint(TestSession.A).write(M);
+				try
+				{
+					a1.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS);
+					Assert.fail();
+				}
+				catch (ExecutionException x)
+				{
+					Assert.assertSame(e, x.getCause().getCause());
+				}
+
+				b2.getChannelEndpoint(TestSession.A).write(M);
+				Assert.assertEquals(M.toString(), a2.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS).toString());
+			}
+			finally
+			{
+				TestSession.close(a1, b1, a2, b2);
+			}
+		}
+	}
+
+	// Read interest switched off (e.g., cf. SSLRecords.runTasks) stays off over a pause
+	@Test
+	public void testReadInterestKeptByUnpause() throws Exception
+	{
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(1))
+		{
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter(), group);
+			MPSTEndpoint<?, ?> b = new MPSTEndpoint<>((TestSession) a.sess, TestSession.B, new ObjectStreamFormatter(), group);
+			try
+			{
+				TestSession.connect(a, b);
+				BinaryChannelEndpoint c = a.getChannelEndpoint(TestSession.B);
+				a.getSelector().setReadInterest(c.getSelectableChannel(), false);
+				a.getSelector().pause();
+				a.getSelector().unpause();
+
+				b.getChannelEndpoint(TestSession.A).write(M);
+				CompletableFuture<ScribMessage> f = c.getFuture();
+				Thread.sleep(200);
+				Assert.assertFalse(f.isDone());
+
+				a.getSelector().setReadInterest(c.getSelectableChannel(), true);
+				Assert.assertEquals(M.toString(), f.get(5, TimeUnit.SECONDS).toString());
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.net.SocketChannelEndpoint;
+
+public class ScribInputSelectorTest
+{
+	// N.B. ScribMessage.equals compares the payload arrays by identity, so compared by toString
+	private static final ScribMessage M = new ScribMessage(new Op("m"), 1);
+
+	// A failing channel is failed by itself: the endpoint's other channels are still read
+	@Test
+	public void testFailingChannel() throws Exception
+	{
+		TestSession sess = new TestSession(TestSession.A, TestSession.B, TestSession.C);
+		MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter());
+		MPSTEndpoint<TestSession, ?> b = new MPSTEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter());
+		MPSTEndpoint<TestSession, ?> c = new MPSTEndpoint<>(sess, TestSession.C, new ObjectStreamFormatter());
+		try
+		{
+			RuntimeException e = new IllegalStateException("read");
+			TestSession.connect(a, b, () -> new SocketChannelEndpoint()
+			{
+				@Override
+				public synchronized void readBytesIntoBuffer() throws IOException
+				{
+					throw e;
+				}
+			});
+			TestSession.connect(a, c);
+
+			b.getChannelEndpoint(TestSession.A).write(M);
+			try
+			{
+				a.getChannelEndpoint(TestSession.B).getFuture().get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			}
+			catch (ExecutionException x)
+			{
+				Assert.assertSame(e, x.getCause().getCause());
+			}
+
+			c.getChannelEndpoint(TestSession.A).write(M);
+			Assert.assertEquals(M.toString(), a.getChannelEndpoint(TestSession.C).getFuture().get(5, TimeUnit.SECONDS).toString());
+			Assert.assertTrue(((ScribInputSelector) a.getSelector()).isAlive());
+		}
+		finally
+		{
+			TestSession.close(a, b, c);
+		}
+	}
+
+	// Interrupting the thread closes the endpoint's channels, i.e., pending receives fail
+	@Test
+	public void testInterrupt() throws Exception
+	{
+		MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter());
+		MPSTEndpoint<?, ?> b = new MPSTEndpoint<>((TestSession) a.sess, TestSession.B, new ObjectStreamFormatter());
+		try
+		{
+			TestSession.connect(a, b);
+			ScribInputSelector sel = (ScribInputSelector) a.getSelector();
+			sel.pause();
+			sel.interrupt();
+			sel.join(5000);
+			Assert.assertFalse(sel.isAlive());
+			Assert.assertTrue(a.getChannelEndpoint(TestSession.B).getFuture().isCompletedExceptionally());
+		}
+		finally
+		{
+			TestSession.close(a, b);
+		}
+	}
+}
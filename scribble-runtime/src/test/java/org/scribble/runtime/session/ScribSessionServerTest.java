@@ -0,0 +1,156 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.core.type.name.Role;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.net.BinaryChannelEndpoint;
+import org.scribble.runtime.net.SocketChannelEndpoint;
+
+public class ScribSessionServerTest
+{
+	private static final Op INC = new Op("Inc");
+
+	// Runs a client session: sends i, returns the reply
+	private static int increment(int port, int i) throws Exception
+	{
+		MPSTEndpoint<TestSession, Role> se = new MPSTEndpoint<>(new TestSession(), TestSession.B, new ObjectStreamFormatter());
+		try
+		{
+			se.request(TestSession.A, SocketChannelEndpoint::new, "localhost", port);
+			BinaryChannelEndpoint c = se.getChannelEndpoint(TestSession.A);
+			c.write(new ScribMessage(INC, i));
+			return (Integer) c.getFuture().get(10, TimeUnit.SECONDS).payload[0];
+		}
+		finally
+		{
+			TestSession.close(se);
+		}
+	}
+
+	// Concurrent clients, each served by a session of its own -- at most maxSessions at a time
+	@Test
+	public void testConcurrentSessions() throws Exception
+	{
+		final int CLIENTS = 16;
+		final int MAX = 3;
+		int port = TestSession.getFreePort();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		try (ScribEventLoopGroup group = new ScribEventLoopGroup(2);
+				ScribSessionServer<TestSession, Role> server = new ScribSessionServer<>(port, TestSession.A, TestSession.B,
+						TestSession::new, ObjectStreamFormatter::new, group, null, MAX))
+		{
+			Thread serve = new Thread(() ->
+			{
+				try
+				{
+					server.serve(se ->
+					{
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						try
+						{
+							BinaryChannelEndpoint c = se.getChannelEndpoint(TestSession.B);
+							ScribMessage m = c.getFuture().get();
+							Thread.sleep(20);
+							c.write(new ScribMessage(INC, (Integer) m.payload[0] + 1));
+							se.setCompleted();
+						}
+						finally
+						{
+							running.decrementAndGet();
+						}
+					});
+				}
+				catch (Exception e)
+				{
+					throw new RuntimeException(e);
+				}
+			});
+			serve.start();
+
+			ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+			try
+			{
+				List<Future<Integer>> res = new ArrayList<>();
+				for (int i = 0; i < CLIENTS; i++)
+				{
+					int x = i;
+					res.add(clients.submit(() -> increment(port, x)));
+				}
+				for (int i = 0; i < CLIENTS; i++)
+				{
+					Assert.assertEquals(i + 1, (int) res.get(i).get(30, TimeUnit.SECONDS));
+				}
+			}
+			finally
+			{
+				clients.shutdown();
+			}
+			Assert.assertTrue(maxRunning.get() <= MAX);
+			server.close();
+			serve.join(5000);
+			Assert.assertFalse(serve.isAlive());
+		}
+	}
+
+	// Only binary sessions: the connection of any other is closed before the handler is run
+	@Test
+	public void testNonBinary() throws Exception
+	{
+		int port = TestSession.getFreePort();
+		AtomicInteger handled = new AtomicInteger();
+		try (ScribSessionServer<TestSession, Role> server = new ScribSessionServer<>(port, TestSession.A, TestSession.B,
+				() -> new TestSession(TestSession.A, TestSession.B, TestSession.C), ObjectStreamFormatter::new))
+		{
+			Thread serve = new Thread(() ->
+			{
+				try
+				{
+					server.serve(se -> handled.incrementAndGet());
+				}
+				catch (Exception e)
+				{
+					throw new RuntimeException(e);
+				}
+			});
+			serve.start();
+			try
+			{
+				increment(port, 0);
+				Assert.fail();
+			}
+			catch (ExecutionException e)
+			{
+				// Expected: closed by the server
+			}
+			Assert.assertEquals(0, handled.get());
+			server.close();
+			serve.join(5000);
+		}
+	}
+}
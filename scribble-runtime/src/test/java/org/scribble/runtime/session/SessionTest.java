@@ -0,0 +1,249 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Role;
+import org.scribble.main.ScribRuntimeException;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.util.RuntimeScribException;
+import org.scribble.util.ScribException;
+
+// The registry of live sessions, cf. Session.project, deregister, close
+public class SessionTest
+{
+	private static final AtomicLong IDS = new AtomicLong(new Random().nextLong() >>> 2);  // Explicit (non-negative) ids for these tests
+
+	private static MPSTEndpoint<TestSession, Role> endpoint(TestSession sess, Role self) throws Exception
+	{
+		return new MPSTEndpoint<>(sess, self, new ObjectStreamFormatter());
+	}
+
+	private static boolean isRegistered(Session sess)
+	{
+		try
+		{
+			return Session.getSession(sess.id) == sess;
+		}
+		catch (ScribException e)
+		{
+			return false;
+		}
+	}
+
+	// Fresh ids are negative, and not registered until the first endpoint
+	@Test
+	public void testFreshIds() throws Exception
+	{
+		TestSession s1 = new TestSession();
+		TestSession s2 = new TestSession();
+		Assert.assertTrue(s1.id < 0);
+		Assert.assertTrue(s2.id < 0);
+		Assert.assertNotEquals(s1.id, s2.id);
+		Assert.assertFalse(isRegistered(s1));
+		MPSTEndpoint<TestSession, Role> a = endpoint(s1, TestSession.A);
+		Assert.assertTrue(isRegistered(s1));
+		TestSession.close(a);
+		Assert.assertFalse(isRegistered(s1));
+	}
+
+	@Test
+	public void testNegativeId()
+	{
+		try
+		{
+			new TestSession(-1);
+			Assert.fail();
+		}
+		catch (RuntimeScribException e)
+		{
+			// Expected
+		}
+	}
+
+	// Registered from the first local endpoint until the last is closed
+	@Test
+	public void testDeregister() throws Exception
+	{
+		TestSession sess = new TestSession(IDS.getAndIncrement());
+		MPSTEndpoint<TestSession, Role> a = endpoint(sess, TestSession.A);
+		MPSTEndpoint<TestSession, Role> b = endpoint(sess, TestSession.B);
+		Assert.assertSame(sess, Session.getSession(sess.id));
+		Assert.assertSame(a, sess.getEndpoint(TestSession.A));
+		TestSession.close(a);
+		TestSession.close(a);  // Deregisters once
+		Assert.assertTrue(isRegistered(sess));
+		TestSession.close(b);
+		Assert.assertFalse(isRegistered(sess));
+		try
+		{
+			Session.getSession(sess.id);
+			Assert.fail();
+		}
+		catch (ScribException e)
+		{
+			// Expected
+		}
+		Assert.assertTrue(sess.hasEndpoint(TestSession.A));  // Kept after close
+	}
+
+	@Test
+	public void testIdInUse() throws Exception
+	{
+		long id = IDS.getAndIncrement();
+		TestSession s1 = new TestSession(id);
+		TestSession s2 = new TestSession(id);
+		MPSTEndpoint<TestSession, Role> a = endpoint(s1, TestSession.A);
+		try
+		{
+			endpoint(s2, TestSession.A);
+			Assert.fail();
+		}
+		catch (ScribRuntimeException e)
+		{
+			// Expected
+			Assert.assertEquals("Session id already in use: " + id, e.getMessage());
+		}
+		Assert.assertSame(s1, Session.getSession(id));
+		Assert.assertFalse(s2.hasEndpoint(TestSession.A));
+		TestSession.close(a);
+
+		MPSTEndpoint<TestSession, Role> b = endpoint(s2, TestSession.B);  // Free once s1 is deregistered
+		Assert.assertSame(s2, Session.getSession(id));
+		TestSession.close(b);
+	}
+
+	@Test
+	public void testInvalidRole() throws Exception
+	{
+		TestSession sess = new TestSession();
+		try
+		{
+			endpoint(sess, TestSession.C);
+			Assert.fail();
+		}
+		catch (ScribRuntimeException e)
+		{
+			// Expected
+		}
+		Assert.assertFalse(isRegistered(sess));
+	}
+
+	// A second endpoint for a role is refused -- if it would have registered the session, the registration is undone
+	@Test
+	public void testDuplicateRole() throws Exception
+	{
+		TestSession sess = new TestSession(IDS.getAndIncrement());
+		MPSTEndpoint<TestSession, Role> a = endpoint(sess, TestSession.A);
+		try
+		{
+			endpoint(sess, TestSession.A);
+			Assert.fail();
+		}
+		catch (ScribRuntimeException e)
+		{
+			// Expected
+		}
+		Assert.assertTrue(isRegistered(sess));
+		TestSession.close(a);
+		try
+		{
+			endpoint(sess, TestSession.A);
+			Assert.fail();
+		}
+		catch (ScribRuntimeException e)
+		{
+			// Expected
+		}
+		Assert.assertFalse(isRegistered(sess));
+	}
+
+	// Deregistered at once -- the open endpoints are unaffected, but no more can be created
+	@Test
+	public void testClose() throws Exception
+	{
+		TestSession sess = new TestSession(IDS.getAndIncrement());
+		MPSTEndpoint<TestSession, Role> a = endpoint(sess, TestSession.A);
+		sess.close();
+		Assert.assertFalse(isRegistered(sess));
+		try
+		{
+			endpoint(sess, TestSession.B);
+			Assert.fail();
+		}
+		catch (ScribRuntimeException e)
+		{
+			// Expected
+		}
+		TestSession.close(a);
+		Assert.assertFalse(isRegistered(sess));
+	}
+
+	// Sessions with the same id, projected concurrently: exactly one is registered
+	@Test
+	public void testConcurrentIdInUse() throws Exception
+	{
+		long id = IDS.getAndIncrement();
+		int n = 8;
+		ExecutorService exec = Executors.newFixedThreadPool(n);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<MPSTEndpoint<TestSession, Role>>> fs = new ArrayList<>();
+		try
+		{
+			for (int i = 0; i < n; i++)
+			{
+				TestSession sess = new TestSession(id);
+				fs.add(exec.submit(() ->
+				{
+					start.await();
+					return endpoint(sess, TestSession.A);
+				}));
+			}
+			start.countDown();
+			List<MPSTEndpoint<TestSession, Role>> ok = new ArrayList<>();
+			for (Future<MPSTEndpoint<TestSession, Role>> f : fs)
+			{
+				try
+				{
+					ok.add(f.get(5, TimeUnit.SECONDS));
+				}
+				catch (ExecutionException e)
+				{
+					// Expected, for all but one
+					Assert.assertTrue(e.getCause() instanceof ScribRuntimeException);
+				}
+			}
+			Assert.assertEquals(1, ok.size());
+			Assert.assertSame(ok.get(0).sess, Session.getSession(id));
+			TestSession.close(ok.get(0));
+			Assert.assertFalse(isRegistered(ok.get(0).sess));
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.session;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.scribble.core.type.name.GProtoName;
+import org.scribble.core.type.name.Role;
+import org.scribble.runtime.net.BinaryChannelEndpoint;
+import org.scribble.runtime.net.ScribServerSocket;
+import org.scribble.runtime.net.SocketChannelEndpoint;
+import org.scribble.runtime.net.SocketChannelServer;
+
+// A session of roles A and B (by default), for the runtime tests -- no protocol behind it, i.e., the endpoints are used through their channels
+public class TestSession extends Session
+{
+	public static final Role A = new Role("A");
+	public static final Role B = new Role("B");
+	public static final Role C = new Role("C");
+
+	private final List<Role> roles;
+
+	public TestSession()
+	{
+		this(A, B);
+	}
+
+	public TestSession(Role... roles)
+	{
+		super(Collections.emptyList(), "Test.scr", new GProtoName("Test"));
+		this.roles = Arrays.asList(roles);
+	}
+
+	public TestSession(long id)
+	{
+		super(id, Collections.emptyList(), "Test.scr", new GProtoName("Test"));
+		this.roles = Arrays.asList(A, B);
+	}
+
+	@Override
+	public List<Role> getRoles()
+	{
+		return this.roles;
+	}
+
+	// Connects client to server (accepting on another thread), over loopback TCP
+	public static void connect(SessionEndpoint<?, ?> client, SessionEndpoint<?, ?> server) throws Exception
+	{
+		connect(client, server, SocketChannelEndpoint::new);
+	}
+
+	// cons: the client's channel
+	public static void connect(SessionEndpoint<?, ?> client, SessionEndpoint<?, ?> server, Callable<? extends BinaryChannelEndpoint> cons) throws Exception
+	{
+		int port = getFreePort();
+		try (SocketChannelServer ss = new SocketChannelServer(port))
+		{
+			connect(client, server, ss, cons, port);
+		}
+	}
+
+	public static void connect(SessionEndpoint<?, ?> client, SessionEndpoint<?, ?> server, ScribServerSocket ss, Callable<? extends BinaryChannelEndpoint> cons, int port) throws Exception
+	{
+		FutureTask<Void> accept = new FutureTask<>(() ->
+		{
+			MPSTEndpoint.accept(server, ss, client.self);
+			return null;
+		});
+		new Thread(accept).start();
+		MPSTEndpoint.request(client, server.self, cons, "localhost", port);
+		accept.get();
+	}
+
+	public static int getFreePort() throws IOException
+	{
+		try (ServerSocket s = new ServerSocket(0))
+		{
+			return s.getLocalPort();
+		}
+	}
+
+	// Closes the endpoints, regardless of completion
+	public static void close(SessionEndpoint<?, ?>... ses) throws Exception
+	{
+		for (SessionEndpoint<?, ?> se : ses)
+		{
+			se.setCompleted();
+			se.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.runtime.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.ObjectStreamFormatter;
+import org.scribble.runtime.message.ScribMessage;
+import org.scribble.runtime.session.MPSTEndpoint;
+import org.scribble.runtime.session.TestSession;
+
+public class ScribThreadsTest
+{
+	@Test
+	public void testPlatform() throws Exception
+	{
+		Thread t = ScribThreads.getFactory(ScribThreads.PLATFORM).newThread(() -> {});
+		Assert.assertTrue(t.getName().startsWith("scrib-"));
+		Assert.assertFalse(t.isDaemon());
+		Assert.assertFalse(isVirtual(t));
+	}
+
+	// Virtual from JDK 21, else platform (with a warning)
+	@Test
+	public void testVirtual() throws Exception
+	{
+		Thread t = ScribThreads.getFactory(ScribThreads.VIRTUAL).newThread(() -> {});
+		Assert.assertTrue(t.getName().startsWith("scrib-"));
+		Assert.assertEquals(hasVirtual(), isVirtual(t));
+		if (hasVirtual())
+		{
+			Assert.assertTrue(t.isDaemon());
+		}
+	}
+
+	@Test
+	public void testUnknown()
+	{
+		try
+		{
+			ScribThreads.getFactory("green");
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+
+	// newThread and getExecutor, and the runtime's own threads (e.g., ScribInputSelector), come from the set factory
+	@Test
+	public void testSetFactory() throws Exception
+	{
+		ThreadFactory prev = ScribThreads.getFactory();
+		List<Thread> made = new CopyOnWriteArrayList<>();
+		ScribThreads.setFactory(r ->
+		{
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			made.add(t);
+			return t;
+		});
+		try
+		{
+			Thread t = ScribThreads.newThread(() -> {}, "test");
+			Assert.assertEquals("test", t.getName());
+			Assert.assertEquals(Thread.State.NEW, t.getState());
+			Assert.assertTrue(made.contains(t));
+
+			AtomicReference<Thread> ran = new AtomicReference<>();
+			CountDownLatch done = new CountDownLatch(1);
+			ScribThreads.getExecutor().execute(() ->
+			{
+				ran.set(Thread.currentThread());
+				done.countDown();
+			});
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(made.contains(ran.get()));
+
+			int n = made.size();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(new TestSession(), TestSession.A, new ObjectStreamFormatter());
+			try
+			{
+				Assert.assertEquals(n + 1, made.size());
+				Assert.assertEquals("ScribInputSelector-" + TestSession.A, made.get(n).getName());
+			}
+			finally
+			{
+				TestSession.close(a);
+			}
+		}
+		finally
+		{
+			ScribThreads.setFactory(prev);
+		}
+	}
+
+	// A session run on the virtual factory, i.e., the selector threads are virtual (from JDK 21)
+	@Test
+	public void testVirtualSession() throws Exception
+	{
+		ThreadFactory prev = ScribThreads.getFactory();
+		ScribThreads.setFactory(ScribThreads.getFactory(ScribThreads.VIRTUAL));
+		try
+		{
+			TestSession sess = new TestSession();
+			MPSTEndpoint<TestSession, ?> a = new MPSTEndpoint<>(sess, TestSession.A, new ObjectStreamFormatter());
+			MPSTEndpoint<TestSession, ?> b = new MPSTEndpoint<>(sess, TestSession.B, new ObjectStreamFormatter());
+			try
+			{
+				TestSession.connect(a, b);
+				ScribMessage m = new ScribMessage(new Op("m"), 1);
+				a.getChannelEndpoint(TestSession.B).write(m);
+				Assert.assertEquals(m.toString(), b.getChannelEndpoint(TestSession.A).getFuture().get(5, TimeUnit.SECONDS).toString());
+			}
+			finally
+			{
+				TestSession.close(a, b);
+			}
+		}
+		finally
+		{
+			ScribThreads.setFactory(prev);
+		}
+	}
+
+	private static boolean hasVirtual()
+	{
+		try
+		{
+			Thread.class.getMethod("isVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	// As compiled for Java 8, cf. ScribThreads
+	private static boolean isVirtual(Thread t) throws Exception
+	{
+		if (!hasVirtual())
+		{
+			return false;
+		}
+		Method m = Thread.class.getMethod("isVirtual");
+		return (Boolean) m.invoke(t);
+	}
+}
@@ -26,6 +26,26 @@ public class Harness
 
 	protected static final String DIR_IGNORE_FILE = "IGNORE";
 	protected static final String TEST_DIR_FLAG = "test.dir";
+
+	// The global model building modes that should not change any verdict, cf. ScribGoodFlagsTest, ScribBadFlagsTest -- each is a space-separated flag set
+	protected static final String[] MODEL_FLAGS = {
+			"-parallel",
+			"-earlysafety",
+			"-parallel -earlysafety",
+			"-por",
+			"-parallel -por",
+			"-earlysafety -por",
+			"-buffcap 2",
+			"-parallel -buffcap 2",
+			"-por -buffcap 2",
+			"-symmetry",
+			"-symmetry -por",
+			"-symmetry -buffcap 2",
+			"-spill",
+			"-parallel -spill",
+			"-parallel -earlysafety -por -symmetry -buffcap 2",
+			"-parallel -earlysafety -por -symmetry -buffcap 2 -spill",
+	};
 	
 	/*/**
 	 * Returns the java builder with the default settings to use JArmus.
@@ -122,6 +142,25 @@ public class Harness
 		return res;
 	}
 
+	// Each test once per flag set (space-separated), i.e., parameters: example, isBadTest, flags
+	public static Collection<Object[]> withFlags(Collection<Object[]> tests, String... flagSets)
+	{
+		List<Object[]> res = new LinkedList<>();
+		for (String flags : flagSets)
+		{
+			for (Object[] t : tests)
+			{
+				res.add(new Object[] { t[0], t[1], flags });
+			}
+		}
+		return res;
+	}
+
+	public static String[] splitFlags(String flags)
+	{
+		return flags.isEmpty() ? new String[0] : flags.split(" ");
+	}
+
 	// root is relative path from cli/src/test/resources
 	// This is for "Good/BarTest (test.dir)", i.e., running single test from inside Eclipse
 	// root is used as a default if the test.dir property is not present
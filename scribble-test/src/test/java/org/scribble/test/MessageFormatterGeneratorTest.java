@@ -0,0 +1,137 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.scribble.cli.CLFlags;
+import org.scribble.cli.CommandLine;
+import org.scribble.core.type.name.Op;
+import org.scribble.runtime.message.BinaryMessageFormatter;
+import org.scribble.runtime.message.ScribMessage;
+
+// Generates the formatter for codegen/Adder.scr (cf. -fmtapi), compiles it, and checks messages round trip through it
+public class MessageFormatterGeneratorTest
+{
+	private static Path out;
+	private static BinaryMessageFormatter f;
+
+	@BeforeClass
+	public static void generate() throws Exception
+	{
+		String dir = ClassLoader.getSystemResource(ScribTestBase.TEST_ROOT_DIR).getFile();
+		out = Files.createTempDirectory("scribfmt");
+		new CommandLine(dir + "/codegen/Adder.scr", CLFlags.JUNIT_FLAG,
+				CLFlags.IMPORT_PATH_FLAG, dir, CLFlags.API_OUTPUT_DIR_FLAG, out.toString(),
+				CLFlags.SESSION_API_GEN_FLAG, "Adder", CLFlags.FORMATTER_GEN_FLAG, "Adder").run();
+
+		List<String> srcs;
+		try (Stream<Path> ps = Files.walk(out))
+		{
+			srcs = ps.filter(p -> p.toString().endsWith(".java")).map(Path::toString)
+					.collect(Collectors.toList());
+		}
+		String cp = Stream.of(BinaryMessageFormatter.class, Op.class)  // scribble-runtime, scribble-core
+				.map(c -> c.getProtectionDomain().getCodeSource().getLocation().getPath())
+				.collect(Collectors.joining(File.pathSeparator));
+		List<String> args = new ArrayList<>(Arrays.asList("-nowarn", "-cp", cp, "-d", out.toString()));
+		args.addAll(srcs);
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		Assert.assertEquals(0, javac.run(null, null, null, args.toArray(new String[args.size()])));
+
+		URLClassLoader cl = new URLClassLoader(new URL[] { out.toUri().toURL() },
+				MessageFormatterGeneratorTest.class.getClassLoader());
+		f = (BinaryMessageFormatter) cl.loadClass("codegen.Adder.Adder.AdderFormatter")
+				.getConstructor().newInstance();
+	}
+
+	@AfterClass
+	public static void delete() throws IOException
+	{
+		try (Stream<Path> ps = Files.walk(out))
+		{
+			ps.sorted((x, y) -> y.compareTo(x)).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private static ScribMessage roundTrip(ScribMessage m) throws Exception
+	{
+		byte[] bs = f.toBytes(m);
+		ByteBuffer bb = ByteBuffer.allocate(bs.length);
+		bb.put(bs);
+		ScribMessage res = f.fromBytes(bb);
+		Assert.assertEquals(0, bb.position());
+		Assert.assertEquals(m.op.toString(), res.op.toString());
+		Assert.assertArrayEquals(m.payload, res.payload);
+		return res;
+	}
+
+	@Test
+	public void testDeclared() throws Exception
+	{
+		roundTrip(new ScribMessage(new Op("Add"), 1, 2));
+		roundTrip(new ScribMessage(new Op("Res"), -3));
+		roundTrip(new ScribMessage(new Op("Bye"), "bye é"));
+		roundTrip(new ScribMessage(new Op("Sum"), new ArrayList<>(Arrays.asList(1, 2, 3))));
+
+		// Length, tag, then the fields as is, i.e., no op name or value tags
+		Assert.assertEquals(4 + 2 + 4 + 4, f.toBytes(new ScribMessage(new Op("Add"), 1, 2)).length);
+		// Decoded with the Session API op constants
+		Assert.assertEquals("codegen.Adder.Adder.ops.Add",
+				roundTrip(new ScribMessage(new Op("Add"), 1, 2)).op.getClass().getName());
+	}
+
+	// Not a declared signature, e.g., wrong payload types: sent whole
+	@Test
+	public void testUndeclared() throws Exception
+	{
+		roundTrip(new ScribMessage(new Op("Add"), "1", "2"));
+		roundTrip(new ScribMessage(new Op("Res")));
+		roundTrip(new ScribMessage(new Op("Other"), 1L));
+	}
+
+	@Test
+	public void testBadTag() throws Exception
+	{
+		ByteBuffer bb = ByteBuffer.allocate(16);
+		bb.putInt(2).putShort((short) 99);
+		try
+		{
+			f.fromBytes(bb);
+			Assert.fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+	}
+}
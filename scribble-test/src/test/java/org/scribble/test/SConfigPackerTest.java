@@ -0,0 +1,88 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.scribble.core.job.Core;
+import org.scribble.core.lang.global.GProtocol;
+import org.scribble.core.model.ModelFactory;
+import org.scribble.core.model.endpoint.EGraph;
+import org.scribble.core.model.global.SConfig;
+import org.scribble.core.model.global.SConfigPacker;
+import org.scribble.core.model.global.SPackedConfig;
+import org.scribble.core.model.global.SQueueCapacities;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.model.global.SSymmetry;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.ProtoName;
+import org.scribble.core.type.name.Role;
+
+// Checks unpack(pack(c)) gives back c for every config of the good models, cf. SConfigPacker
+// Also with symmetry reduction (where packing canonicalises), that canonical configs are fixed points
+@RunWith(Parameterized.class)
+public class SConfigPackerTest extends ScribModelTestBase
+{
+	public SConfigPackerTest(String example, boolean isBadTest)
+	{
+		super(example, isBadTest);
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data()
+	{
+		return ScribModelTestBase.goodTests();
+	}
+
+	@Override
+	protected void test(Core core, ProtoName<Global> fullname) throws Exception
+	{
+		ModelFactory mf = core.config.mf;
+		GProtocol imed = core.getContext().getIntermediate(fullname);
+		Map<Role, EGraph> egraphs = new HashMap<>();
+		for (Role r : imed.roles)
+		{
+			egraphs.put(r, core.getContext().getEGraph(fullname, r));
+		}
+		SConfigPacker packer = new SConfigPacker(mf, egraphs, SQueueCapacities.ONE);
+		SSymmetry sym = new SSymmetry(mf, egraphs, imed.isExplicit(),
+				SQueueCapacities.ONE);
+		SConfigPacker symPacker = new SConfigPacker(mf, egraphs,
+				SQueueCapacities.ONE, sym);
+		for (SState s : core.getContext().getSGraph(fullname).states.values())
+		{
+			SConfig c = s.getConfig();
+			SPackedConfig p = packer.pack(c.efsms, c.queues);
+			Assert.assertEquals("Packer not deterministic: " + s, s.packed, p);
+			SConfig unpacked = packer.unpack(p);
+			Assert.assertEquals(fullname + ": " + s, c.efsms, unpacked.efsms);
+			Assert.assertEquals(fullname + ": " + s, c.queues, unpacked.queues);
+			Assert.assertEquals(fullname + ": " + s,
+					mf.global.SConfig(packer, unpacked.efsms, unpacked.queues), unpacked);  // i.e., the packed form given by unpack is that of the unpacked config
+
+			SPackedConfig canon = symPacker.pack(c.efsms, c.queues);
+			SConfig rep = symPacker.unpack(canon);
+			Assert.assertEquals(fullname + ": " + s, canon,
+					symPacker.pack(rep.efsms, rep.queues));
+			Assert.assertEquals(fullname + ": " + s,
+					mf.global.SConfig(symPacker, rep.efsms, rep.queues), rep);
+		}
+	}
+}
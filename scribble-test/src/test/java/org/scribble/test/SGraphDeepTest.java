@@ -0,0 +1,126 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.scribble.core.job.Core;
+import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SQueueCapacities;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.model.global.actions.SAction;
+import org.scribble.main.Main;
+
+// A global model with a long DFS path: A is up to CAPACITY messages ahead of B (cf. -buffcap)
+// Built and checked on a thread with a small stack, and compared with the previous recursive algorithms (cf. SGraphReference) on a large stack
+public class SGraphDeepTest
+{
+	private static final int CAPACITY = 3000;
+	private static final int LENGTH = 20000;
+	private static final long SMALL_STACK = 256 * 1024;
+	private static final long LARGE_STACK = 512 * 1024 * 1024;
+
+	private static final String MODULE = "module deep.Test01;\n"
+			+ "global protocol Proto(role A, role B)\n"
+			+ "{ rec X { m() from A to B; continue X; } }";
+
+	@Test
+	public void deepChain() throws Exception
+	{
+		SGraph graph = run(SMALL_STACK, () ->
+		{
+			Core core = ScribModelTestBase.newCore(new Main(MODULE,
+					ScribModelTestBase.newArgs(), new SQueueCapacities(CAPACITY)));
+			SGraph g = core.getContext().getSGraph(
+					ScribModelTestBase.getModelled(core).get(0));
+			g.getTraceFromInit(g.init);  // Computes the BFS tree on this stack
+			return g;
+		});
+		Assert.assertEquals(CAPACITY + 1, graph.states.size());
+		SState deepest = Collections.max(graph.states.values(),
+				(x, y) -> Integer.compare(graph.getDistanceFromInit(x),
+						graph.getDistanceFromInit(y)));
+		Assert.assertEquals(CAPACITY, graph.getDistanceFromInit(deepest));
+
+		SGraphReference ref = new SGraphReference(graph);
+		Set<Set<Integer>> termsets = run(LARGE_STACK, () -> ref.getTermSets());
+		Assert.assertEquals(termsets, SGraphTest.getTermSetIds(graph));
+		List<SAction> trace = ref.getTraceFromInit(deepest);
+		Assert.assertEquals(CAPACITY, trace.size());
+		Assert.assertEquals(trace, graph.getTraceFromInit(deepest));
+	}
+
+	// A sequence of LENGTH messages, then a loop (i.e., a terminal set) -- a DFS path deep enough that the recursive reference overflows the small stack even once JIT compiled
+	// The front-end (e.g., EGraph building) also recurses on the sequence, so the model is built on the large stack -- the SGraph is then rebuilt from its states on the small stack
+	@Test
+	public void longSequence() throws Exception
+	{
+		StringBuilder sb = new StringBuilder(
+				"module deep.Test02;\nglobal protocol Proto(role A, role B)\n{\n");
+		for (int i = 0; i < LENGTH; i++)
+		{
+			sb.append("m" + (i % 2) + "() from A to B;\n");
+		}
+		sb.append("rec X { m() from A to B; continue X; }\n}\n");
+		Core core = run(LARGE_STACK, () -> ScribModelTestBase.newCore(new Main(
+				sb.toString(), ScribModelTestBase.newArgs(), SQueueCapacities.ONE)));
+		SGraph built = run(LARGE_STACK, () -> core.getContext().getSGraph(
+				ScribModelTestBase.getModelled(core).get(0)));
+
+		SGraph graph = run(SMALL_STACK, () ->
+		{
+			SGraph g = core.config.mf.global.SGraph(built.proto, built.states,
+					built.init);
+			g.getTraceFromInit(g.init);  // Computes the BFS tree on this stack
+			return g;
+		});
+		Assert.assertEquals(1, graph.getTermSets().size());
+		SState deepest = Collections.max(graph.states.values(),
+				(x, y) -> Integer.compare(graph.getDistanceFromInit(x),
+						graph.getDistanceFromInit(y)));
+		Assert.assertTrue(graph.getDistanceFromInit(deepest) >= 2 * LENGTH);
+
+		try
+		{
+			run(SMALL_STACK, () -> new SGraphReference(graph).getTermSets());
+			Assert.fail("Expected the recursive reference to overflow the small stack");
+		}
+		catch (ExecutionException e)
+		{
+			Assert.assertTrue(e.getCause().toString(),
+					e.getCause() instanceof StackOverflowError);
+		}
+
+		SGraphReference ref = new SGraphReference(graph);
+		Assert.assertEquals(run(LARGE_STACK, () -> ref.getTermSets()),
+				SGraphTest.getTermSetIds(graph));
+		Assert.assertEquals(ref.getTraceFromInit(deepest),
+				graph.getTraceFromInit(deepest));
+	}
+
+	private static <T> T run(long stack, Callable<T> c) throws Exception
+	{
+		FutureTask<T> f = new FutureTask<>(c);
+		Thread t = new Thread(null, f, "SGraphDeepTest", stack);
+		t.start();
+		return f.get();
+	}
+}
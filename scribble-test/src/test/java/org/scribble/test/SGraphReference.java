@@ -0,0 +1,163 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.model.global.actions.SAction;
+import org.scribble.util.Pair;
+
+// The previous, recursive, terminal set and map-based BFS trace algorithms of SGraph -- the references for SGraphTest
+// Results are by state id
+public class SGraphReference
+{
+	private final SGraph graph;
+
+	private int counter = 0;
+	private final Map<Integer, Integer> indices = new HashMap<>();  // s.id -> index
+	private final Map<Integer, Integer> lowlinks = new HashMap<>();  // s.id -> lowlink
+	private final Deque<SState> stack = new LinkedList<>();
+	private final Set<Integer> onStack = new HashSet<>();
+	private final Set<Set<SState>> sccs = new HashSet<>();
+
+	private Map<Integer, Pair<SAction, Integer>> traces;  // s.id -> (action, parent id)
+
+	public SGraphReference(SGraph graph)
+	{
+		this.graph = graph;
+	}
+
+	// N.B. recursion depth is the longest DFS path
+	public Set<Set<Integer>> getTermSets()
+	{
+		for (SState v : this.graph.states.values())
+		{
+			if (!this.indices.containsKey(v.id))
+			{
+				strongConnect(v);
+			}
+		}
+		Set<Set<Integer>> res = new HashSet<>();
+		for (Set<SState> scc : this.sccs)
+		{
+			if (scc.size() == 1 && scc.iterator().next().isTerminal()
+					|| scc.stream().anyMatch(
+							y -> y.getSuccs().stream().anyMatch(x -> !scc.contains(x))))
+			{
+				continue;
+			}
+			Set<Integer> ids = new HashSet<>();
+			scc.forEach(x -> ids.add(x.id));
+			res.add(ids);
+		}
+		return res;
+	}
+
+	private void strongConnect(SState v)
+	{
+		int index = this.counter++;
+		this.indices.put(v.id, index);
+		this.lowlinks.put(v.id, index);
+		this.stack.push(v);
+		this.onStack.add(v.id);
+		for (SState w : v.getSuccs())
+		{
+			if (!this.indices.containsKey(w.id))
+			{
+				strongConnect(w);
+				this.lowlinks.put(v.id,
+						Math.min(this.lowlinks.get(v.id), this.lowlinks.get(w.id)));
+			}
+			else if (this.onStack.contains(w.id))
+			{
+				this.lowlinks.put(v.id,
+						Math.min(this.lowlinks.get(v.id), this.indices.get(w.id)));
+			}
+		}
+		if (this.lowlinks.get(v.id).equals(this.indices.get(v.id)))
+		{
+			Set<SState> scc = new HashSet<>();
+			SState w;
+			do
+			{
+				w = this.stack.pop();
+				this.onStack.remove(w.id);
+				scc.add(w);
+			}
+			while (w.id != v.id);
+			this.sccs.add(scc);
+		}
+	}
+
+	// Returns null if end cannot be reached
+	public List<SAction> getTraceFromInit(SState end)
+	{
+		if (this.traces == null)
+		{
+			this.traces = bfsFromInit();
+		}
+		if (end.id != this.graph.init.id && !this.traces.containsKey(end.id))
+		{
+			return null;
+		}
+		LinkedList<SAction> trace = new LinkedList<>();
+		for (int id = end.id; id != this.graph.init.id; )
+		{
+			Pair<SAction, Integer> p = this.traces.get(id);
+			trace.push(p.left);
+			id = p.right;
+		}
+		return Collections.unmodifiableList(trace);
+	}
+
+	// As before, but run to completion once for all states (the early exit for a given end does not affect the parents found up to then)
+	private Map<Integer, Pair<SAction, Integer>> bfsFromInit()
+	{
+		Set<Integer> seen = new HashSet<>();
+		List<Integer> todo = new LinkedList<>();
+		seen.add(this.graph.init.id);
+		todo.add(this.graph.init.id);
+		Map<Integer, Pair<SAction, Integer>> traces = new HashMap<>();
+		while (!todo.isEmpty())
+		{
+			Iterator<Integer> i = todo.iterator();
+			Integer currid = i.next();
+			i.remove();
+			SState curr = this.graph.states.get(currid);
+			Iterator<SAction> as = curr.getActions().iterator();
+			for (SState succ : curr.getSuccs())
+			{
+				SAction a = as.next();
+				if (seen.contains(succ.id))  // Previously also todo.contains(succ.id), but todo is a subset of seen
+				{
+					continue;
+				}
+				seen.add(succ.id);
+				traces.put(succ.id, new Pair<>(a, currid));
+				todo.add(succ.id);
+			}
+		}
+		return traces;
+	}
+}
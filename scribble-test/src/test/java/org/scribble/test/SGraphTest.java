@@ -0,0 +1,72 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.scribble.core.job.Core;
+import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.ProtoName;
+
+// Checks the terminal sets (iterative Tarjan) and shortest traces (BFS tree) of SGraph against the previous algorithms, cf. SGraphReference
+// On the fair and "unfair" models of every good test -- cf. SGraphDeepTest for a model too deep for the previous (recursive) Tarjan
+@RunWith(Parameterized.class)
+public class SGraphTest extends ScribModelTestBase
+{
+	public SGraphTest(String example, boolean isBadTest)
+	{
+		super(example, isBadTest);
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data()
+	{
+		return ScribModelTestBase.goodTests();
+	}
+
+	@Override
+	protected void test(Core core, ProtoName<Global> fullname) throws Exception
+	{
+		checkGraph(core.getContext().getSGraph(fullname));
+		checkGraph(core.getContext().getUnfairSGraph(fullname));
+	}
+
+	protected static void checkGraph(SGraph graph)
+	{
+		SGraphReference ref = new SGraphReference(graph);
+		Assert.assertEquals(graph.proto.toString(), ref.getTermSets(),
+				getTermSetIds(graph));
+		for (SState s : graph.states.values())
+		{
+			Assert.assertEquals(graph.proto + ": " + s.id, ref.getTraceFromInit(s),
+					graph.getTraceFromInit(s));
+		}
+	}
+
+	protected static Set<Set<Integer>> getTermSetIds(SGraph graph)
+	{
+		return graph.getTermSets().stream()
+				.map(x -> x.stream().map(y -> y.id).collect(Collectors.toSet()))
+				.collect(Collectors.toCollection(HashSet::new));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.scribble.core.job.Core;
+import org.scribble.core.job.CoreArgs;
+import org.scribble.core.lang.global.GProtocol;
+import org.scribble.core.model.endpoint.EGraph;
+import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SGraphBuilder;
+import org.scribble.core.model.global.SMappedGraph;
+import org.scribble.core.model.global.SMappedStateStore;
+import org.scribble.core.model.global.SPackedConfig;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.model.global.SStateStore;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.GProtoName;
+import org.scribble.core.type.name.ProtoName;
+import org.scribble.core.type.name.Role;
+
+// Checks that spilled building (CoreArgs.SPILL, cf. SMappedStateStore), sequential and parallel, gives the same global model as the default on-heap building
+// All builds use the same EGraphs, so the same packing -- states are matched by packed config (ids differ)
+@RunWith(Parameterized.class)
+public class SMappedStateStoreTest extends ScribModelTestBase
+{
+	private Core parallel;  // For parallel building, cf. CoreArgs.PARALLEL
+
+	public SMappedStateStoreTest(String example, boolean isBadTest)
+	{
+		super(example, isBadTest);
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data()
+	{
+		return ScribModelTestBase.goodTests();
+	}
+
+	@Override
+	protected void test(Core core, ProtoName<Global> fullname) throws Exception
+	{
+		if (this.parallel == null)
+		{
+			this.parallel = newCore(CoreArgs.PARALLEL);
+		}
+		GProtocol imed = core.getContext().getIntermediate(fullname);
+		for (boolean fair : new boolean[] { true, false })
+		{
+			Map<Role, EGraph> egraphs = new HashMap<>();
+			for (Role r : imed.roles)
+			{
+				egraphs.put(r, fair
+						? core.getContext().getEGraph(fullname, r)
+						: core.getContext().getUnfairEGraph(fullname, r));
+			}
+			GProtoName name = (GProtoName) fullname;
+			SGraph expected = new SGraphBuilder(core).build(egraphs,
+					imed.isExplicit(), name);
+			checkGraph(expected, buildSpilled(core, egraphs, imed.isExplicit(), name));
+			checkGraph(expected,
+					buildSpilled(this.parallel, egraphs, imed.isExplicit(), name));
+		}
+	}
+
+	// Builds with an SMappedStateStore, regardless of CoreArgs.SPILL
+	private static SGraph buildSpilled(Core core, Map<Role, EGraph> egraphs,
+			boolean explicit, GProtoName name) throws Exception
+	{
+		SGraph graph = new SGraphBuilder(core)
+		{
+			@Override
+			protected SStateStore newStateStore()
+			{
+				return new SMappedStateStore(core.config.mf);
+			}
+		}.build(egraphs, explicit, name);
+		Assert.assertTrue(name.toString(), graph instanceof SMappedGraph);
+		return graph;
+	}
+
+	private static void checkGraph(SGraph expected, SGraph actual)
+	{
+		String msg = expected.proto.toString();
+		Assert.assertEquals(msg, expected.states.size(), actual.states.size());
+		Assert.assertEquals(msg, expected.init.packed, actual.init.packed);
+		Map<SPackedConfig, SState> byPacked = actual.states.values().stream()
+				.collect(Collectors.toMap(x -> x.packed, x -> x));
+		Assert.assertEquals(msg, expected.states.size(), byPacked.size());  // i.e., no duplicate configs
+		for (SState s : expected.states.values())
+		{
+			SState t = byPacked.get(s.packed);
+			Assert.assertNotNull(msg + ": " + s, t);
+			Assert.assertEquals(msg + ": " + s, getEdges(s), getEdges(t));
+			Assert.assertEquals(msg + ": " + s, expected.getDistanceFromInit(s),
+					actual.getDistanceFromInit(t));
+			List<?> trace = actual.getTraceFromInit(t);
+			Assert.assertEquals(msg + ": " + s, actual.getDistanceFromInit(t),
+					(trace == null) ? -1 : trace.size());
+		}
+		Assert.assertEquals(msg, getPacked(expected.getTermSets()),
+				getPacked(actual.getTermSets()));
+		Assert.assertEquals(msg, expected.toDot().split("\\R").length,
+				actual.toDot().split("\\R").length);  // The materialised graph has the same number of states and edges
+	}
+
+	// (action, successor) pairs, as a sorted list -- i.e., edges up to order, but not deduplicated
+	private static List<String> getEdges(SState s)
+	{
+		List<String> res = new ArrayList<>();
+		for (int i = 0; i < s.getActions().size(); i++)
+		{
+			res.add(s.getActions().get(i) + " " + s.getSuccs().get(i).packed);
+		}
+		return res.stream().sorted().collect(Collectors.toList());
+	}
+
+	private static Set<Set<SPackedConfig>> getPacked(Set<Set<SState>> termsets)
+	{
+		return termsets.stream()
+				.map(x -> x.stream().map(y -> y.packed).collect(Collectors.toSet()))
+				.collect(Collectors.toSet());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.scribble.core.job.Core;
+import org.scribble.core.model.global.SGraph;
+import org.scribble.core.model.global.SState;
+import org.scribble.core.model.global.actions.SAction;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.ProtoName;
+
+// Checks that skipping the "unfair" model when there are no unfair choices (cf. Core.runGlobalModelCheckingPasses, EState.hasUnfairChoices) is sound
+// i.e., for each such good model, the "unfair" model is the same as the fair one -- compared up to state ids and packing (the "unfair" EFSMs are clones), by its edges and terminal sets
+@RunWith(Parameterized.class)
+public class SUnfairGraphTest extends ScribModelTestBase
+{
+	public SUnfairGraphTest(String example, boolean isBadTest)
+	{
+		super(example, isBadTest);
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data()
+	{
+		return ScribModelTestBase.goodTests();
+	}
+
+	@Override
+	protected void test(Core core, ProtoName<Global> fullname) throws Exception
+	{
+		if (core.getContext().hasUnfairChoices(fullname))
+		{
+			return;
+		}
+		SGraph fair = core.getContext().getSGraph(fullname);
+		SGraph unfair = core.getContext().getUnfairSGraph(fullname);
+		String msg = fullname.toString();
+		Assert.assertEquals(msg, fair.states.size(), unfair.states.size());
+		Assert.assertEquals(msg, getEdges(fair), getEdges(unfair));
+		Assert.assertEquals(msg, getTermSetSizes(fair), getTermSetSizes(unfair));
+	}
+
+	// (distance from init, action, successor's distance), sorted -- i.e., the edges up to state ids
+	private static List<String> getEdges(SGraph graph)
+	{
+		List<String> res = new ArrayList<>();
+		for (SState s : graph.states.values())
+		{
+			Iterator<SState> succs = s.getSuccs().iterator();
+			for (SAction a : s.getActions())
+			{
+				res.add(graph.getDistanceFromInit(s) + " " + a + " "
+						+ graph.getDistanceFromInit(succs.next()));
+			}
+		}
+		return res.stream().sorted().collect(Collectors.toList());
+	}
+
+	private static List<Integer> getTermSetSizes(SGraph graph)
+	{
+		return graph.getTermSets().stream().map(x -> x.size()).sorted()
+				.collect(Collectors.toList());
+	}
+}
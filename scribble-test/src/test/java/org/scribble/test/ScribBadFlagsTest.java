@@ -0,0 +1,36 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collection;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+// Re-runs the bad tests under each of Harness.MODEL_FLAGS, e.g., -parallel -- the verdicts should not change
+@RunWith(Parameterized.class)
+public class ScribBadFlagsTest extends ScribBadTest
+{
+	public ScribBadFlagsTest(String example, boolean isBadTest, String flags)
+	{
+		super(example, isBadTest, Harness.splitFlags(flags));
+	}
+
+	@Parameters(name = "{0} {2}")
+	public static Collection<Object[]> data()
+	{
+		return Harness.withFlags(ScribBadTest.data(), Harness.MODEL_FLAGS);
+	}
+}
@@ -32,6 +32,11 @@ public class ScribBadTest extends ScribTestBase
 		super(example, isBadTest);
 	}
 
+	protected ScribBadTest(String example, boolean isBadTest, String[] flags)
+	{
+		super(example, isBadTest, flags);
+	}
+
 	@Parameters(name = "{0}")
 	public static Collection<Object[]> data()
 	{
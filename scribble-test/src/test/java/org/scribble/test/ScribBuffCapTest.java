@@ -0,0 +1,47 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+// Tests whose verdict depends on the channel capacity: each is run as a bad test with the default capacity (1), and as a good test with -buffcap 2
+@RunWith(Parameterized.class)
+public class ScribBuffCapTest extends ScribTestBase
+{
+	protected static final String BUFFCAP_DIR = "buffcap";
+
+	public ScribBuffCapTest(String example, boolean isBadTest, String flags)
+	{
+		super(example, isBadTest, Harness.splitFlags(flags));
+	}
+
+	@Parameters(name = "{0} {2}")
+	public static Collection<Object[]> data()
+	{
+		List<Object[]> res = new LinkedList<>();
+		String dir = ClassLoader.getSystemResource(ScribBuffCapTest.BUFFCAP_DIR).getFile();
+		for (Object[] t : Harness.makeTests(ScribTestBase.BAD_TEST, dir))
+		{
+			res.add(new Object[] { t[0], ScribTestBase.BAD_TEST, "" });
+			res.add(new Object[] { t[0], ScribTestBase.GOOD_TEST, "-buffcap 2" });
+		}
+		return res;
+	}
+}
@@ -31,6 +31,11 @@ public class ScribGoodTest extends ScribTestBase
 		super(example, isBadTest);
 	}
 
+	protected ScribGoodTest(String example, boolean isBadTest, String[] flags)
+	{
+		super(example, isBadTest, flags);
+	}
+
 	@Parameters(name = "{0}")
 	public static Collection<Object[]> data()
 	{
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2008 The Scribble Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.scribble.test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.scribble.core.job.Core;
+import org.scribble.core.job.CoreArgs;
+import org.scribble.core.model.global.SQueueCapacities;
+import org.scribble.core.type.kind.Global;
+import org.scribble.core.type.name.ProtoName;
+import org.scribble.job.Job;
+import org.scribble.main.Main;
+import org.scribble.main.resource.locator.DirectoryResourceLocator;
+
+// Builds the global models of each good test programmatically (cf. ScribTestBase, which runs the CommandLine), for checking the model building internals
+// Subclasses are parameterized by goodTests, and implement test for each model checked protocol
+public abstract class ScribModelTestBase
+{
+	protected final String example;
+
+	public ScribModelTestBase(String example, boolean isBadTest)  // isBadTest unused, cf. Harness.makeTests
+	{
+		this.example = example;
+	}
+
+	public static Collection<Object[]> goodTests()
+	{
+		return Harness.checkTestDirProperty(ScribTestBase.GOOD_TEST,
+				ScribGoodTest.GOOD_DIR);
+	}
+
+	// All CoreArgs false, except those given
+	protected static Map<CoreArgs, Boolean> newArgs(CoreArgs... set)
+	{
+		Map<CoreArgs, Boolean> args = new HashMap<>();
+		for (CoreArgs a : CoreArgs.values())
+		{
+			args.put(a, false);
+		}
+		for (CoreArgs a : set)
+		{
+			args.put(a, true);
+		}
+		return args;
+	}
+
+	// Runs the Job and Core passes, i.e., validation, on this.example -- the (good) models are then cached by the CoreContext
+	protected Core newCore(Map<CoreArgs, Boolean> args, SQueueCapacities caps)
+			throws Exception
+	{
+		String dir = ClassLoader.getSystemResource(ScribTestBase.TEST_ROOT_DIR)
+				.getFile();
+		return newCore(new Main(
+				new DirectoryResourceLocator(Arrays.asList(Paths.get(dir))),
+				Paths.get(this.example), args, caps));
+	}
+
+	protected static Core newCore(Main main) throws Exception
+	{
+		Job job = main.newJob();
+		job.runPasses();
+		Core core = job.getCore();
+		core.runPasses();
+		return core;
+	}
+
+	protected Core newCore(CoreArgs... args) throws Exception
+	{
+		return newCore(newArgs(args), SQueueCapacities.ONE);
+	}
+
+	// The protocols that are model checked, cf. Core.runGlobalModelCheckingPasses
+	protected static List<ProtoName<Global>> getModelled(Core core)
+	{
+		return core.getContext().getParsedFullnames().stream()
+				.filter(x -> !core.getContext().getIntermediate(x).isAux())
+				.sorted((x, y) -> x.toString().compareTo(y.toString()))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void tests() throws Exception
+	{
+		Core core = newCore();
+		for (ProtoName<Global> fullname : getModelled(core))
+		{
+			test(core, fullname);
+		}
+	}
+
+	protected abstract void test(Core core, ProtoName<Global> fullname)
+			throws Exception;
+}
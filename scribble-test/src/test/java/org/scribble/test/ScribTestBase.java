@@ -15,6 +15,9 @@ package org.scribble.test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import org.junit.Assert;
@@ -38,14 +41,21 @@ public abstract class ScribTestBase
 
 	protected final String example;
 	protected final boolean isBadTest;
+	protected final String[] flags;  // Extra command line flags, e.g., -parallel (cf. ScribGoodFlagsTest)
 
 	// relative to scribble-test/src/test/resources (or target/test-classes/)
 	protected static final String TEST_ROOT_DIR = ".";  // FIXME: make relative to scribble-java root (for subclasses in extension modules)
 
 	public ScribTestBase(String example, boolean isBadTest)
+	{
+		this(example, isBadTest, new String[0]);
+	}
+
+	public ScribTestBase(String example, boolean isBadTest, String[] flags)
 	{
 		this.example = example;
 		this.isBadTest = isBadTest;
+		this.flags = flags;
 	}
 	
 	protected String getTestRootDir()
@@ -76,8 +86,10 @@ public abstract class ScribTestBase
 	
 	protected void runTest(String dir) throws CommandLineException, AntlrSourceException
 	{
-		new CommandLine(this.example, CLFlags.JUNIT_FLAG, CLFlags.IMPORT_PATH_FLAG, dir).run();
+		List<String> args = new LinkedList<>(Arrays.asList(this.example, CLFlags.JUNIT_FLAG, CLFlags.IMPORT_PATH_FLAG, dir));
 					// Added JUNIT flag -- but for some reason only bad DoArgList01.scr was breaking without it...
+		args.addAll(Arrays.asList(this.flags));
+		new CommandLine(args.toArray(new String[args.size()])).run();
 	}
 
 	@Test